@@ -34,6 +34,7 @@ import org.jdom.output.XMLOutputter;
 import org.pathvisio.desktop.util.ListWithPropertiesTableModel;
 import org.xml.sax.InputSource;
 
+import com.generalbioinformatics.rdf.CachePolicy;
 import com.generalbioinformatics.rdf.gui.MarrsQuery.QueryType;
 
 /**
@@ -227,6 +228,12 @@ public class MarrsProject extends ListWithPropertiesTableModel<MarrsColumn, Marr
 			// TODO: replace & appendReplace
 			q = q.replaceAll ("\\$\\{" + key + "(\\|([\\w-]+))?\\}", contents);
 		}
+		
+		// the cache policy is passed on to the triple store as a comment in the query
+		if (mq.getCachePolicy() != null)
+		{
+			q = q + "\n" + mq.getCachePolicy().toHint();
+		}
 		System.out.println (q);
 		return q;		
 	}
@@ -333,6 +340,20 @@ public class MarrsProject extends ListWithPropertiesTableModel<MarrsColumn, Marr
 				q.setPostProcessing (var, operation);
 			}
 
+			Object cache = eQuery.getChild("Cache");
+			if (cache != null)
+			{
+				String policy = ((Element)cache).getAttributeValue("policy");
+				try
+				{
+					q.setCachePolicy (CachePolicy.parse(policy));
+				}
+				catch (IllegalArgumentException ex)
+				{
+					warnings.add ("WARNING: Parse error, cache policy " + policy + " for query " + title + " is invalid. Using default policy");
+				}
+			}
+
 			project.addQuery(q);
 		}
 
@@ -428,6 +449,13 @@ public class MarrsProject extends ListWithPropertiesTableModel<MarrsColumn, Marr
 					processElt.setAttribute ("operation", q.getPostProcessingOperation(var));
 					queryElt.addContent(processElt);
 				}
+
+				if (q.getCachePolicy() != null)
+				{
+					Element cacheElt = new Element ("Cache");
+					cacheElt.setAttribute ("policy", q.getCachePolicy().format());
+					queryElt.addContent(cacheElt);
+				}
 				
 				root.addContent(queryElt);
 			}		
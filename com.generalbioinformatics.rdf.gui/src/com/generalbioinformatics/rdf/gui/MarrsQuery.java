@@ -10,6 +10,8 @@ import java.util.Set;
 
 import org.pathvisio.desktop.util.RowWithProperties;
 
+import com.generalbioinformatics.rdf.CachePolicy;
+
 /**
  * A single SPARQL query that forms an element of a marrs project.
  */
@@ -21,6 +23,7 @@ public class MarrsQuery implements RowWithProperties<MarrsColumn>
 	private String testValue;
 	private QueryType qt;
 	private String askBefore = null;
+	private CachePolicy cachePolicy = null;
 	private Map<String, String> contextTypes = new HashMap<String, String>();
 	private Map<String, String> postProcess = new HashMap<String, String>();
 	
@@ -114,6 +117,21 @@ public class MarrsQuery implements RowWithProperties<MarrsColumn>
 		isContextQuery = b;		
 	}
 
+	/** May return null, in which case the policy of the triple store is used */
+	public CachePolicy getCachePolicy()
+	{
+		return cachePolicy;
+	}
+
+	/**
+	 * Set how long the results of this query may be used from the query cache of the triple store.
+	 * @param value the policy, or null to use the policy of the triple store
+	 */
+	public void setCachePolicy(CachePolicy value)
+	{
+		cachePolicy = value;
+	}
+
 	public void setPostProcessing(String var, String operation) 
 	{
 		postProcess.put(var, operation);
@@ -6,6 +6,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.generalbioinformatics.rdf.CachePolicy;
 import com.generalbioinformatics.rdf.gui.MarrsException;
 import com.generalbioinformatics.rdf.gui.MarrsProject;
 import com.generalbioinformatics.rdf.gui.MarrsQuery;
@@ -95,4 +96,15 @@ public class TestQuerySubstitution
 
 	}
 	
+	@Test
+	public void testCachePolicy() throws MarrsException
+	{
+		p.getParameterModel().put("GRAPH", "http://www.helixsoft.nl");	
+		p.getParameterModel().put("ID", "<http://identifiers.org/uniprot/P1234>");	
+		mq.setCachePolicy(CachePolicy.createStaleWhileRevalidate(3600000, 86400000));
+		
+		String q = p.getSubstitutedQuery(mq);
+		Assert.assertTrue (q.endsWith("\n# cache: ttl=3600 stale=86400"));
+	}
+	
 }
@@ -9,29 +9,68 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.zip.GZIPOutputStream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.generalbioinformatics.rdf.stream.Statement;
+
 import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.Stream;
 import nl.helixsoft.recordstream.StreamException;
-import nl.helixsoft.recordstream.TsvRecordStream;
 import nl.helixsoft.stats.DataFrame;
 import nl.helixsoft.stats.DataFrameOperation;
-import nl.helixsoft.util.HFileUtils;
 
 /**
  * An abstract base class for TripleStores, 
  * providing a simple implementation of the caching feature.
+ * <p>
+ * Subclasses implement the _Direct methods, this class answers queries from the cache where possible.
  */
 public abstract class AbstractTripleStore implements TripleStore
 {
-	private File cacheDir = null;
+	private final Logger log = LoggerFactory.getLogger("com.generalbioinformatics.rdf.AbstractTripleStore");
+
+	private QueryCache cache = null;
 	
 	/** {@inheritDoc} */
 	@Override public void setCacheDir (File dir)
 	{
-		this.cacheDir = dir;
+		if (cache != null) cache.stopEviction();
+		this.cache = (dir == null) ? null : new QueryCache(dir);
+	}
+	
+	/**
+	 * @return the cache, to configure eviction or get statistics, or null if caching is not enabled.
+	 */
+	public QueryCache getQueryCache()
+	{
+		return cache;
+	}
+	
+	/**
+	 * Identifies this triple store in cache keys. It should be the same for different instances connecting to the same store,
+	 * and different for different stores. 
+	 * <p>
+	 * The default implementation uses toString(), so subclasses that support caching should override toString() or this method.
+	 */
+	protected String getCacheIdentity()
+	{
+		return getClass().getName() + " " + toString();
+	}
+
+	/**
+	 * Subclasses must call this after modifying named graphs, so that cached results of queries on those graphs are not used anymore.
+	 * See {@link QueryCache#invalidateGraph(String)}
+	 */
+	protected void graphsModified(String... graphUris) throws IOException
+	{
+		QueryCache c = cache;
+		if (c != null) c.invalidateGraphs(Arrays.asList(graphUris));
 	}
 	
 	@Override
@@ -41,14 +80,35 @@ public abstract class AbstractTripleStore implements TripleStore
 	}
 	
 	public RecordStream sparqlSelect(String query) throws StreamException
+	{
+		QueryEventRecorder recorder = new QueryEventRecorder(this, QueryEvent.Type.SELECT, query);
+		try
+		{
+			return recorder.wrap(select(query, recorder));
+		}
+		catch (StreamException ex)
+		{
+			recorder.finish(false, ex);
+			throw ex;
+		}
+		catch (RuntimeException ex)
+		{
+			recorder.finish(false, ex);
+			throw ex;
+		}
+	}
+
+	/** answer a select query from the cache, or from the triple store */
+	private RecordStream select(String query, QueryEventRecorder recorder) throws StreamException
 	{
 		try
 		{
 			RecordStream rs;
 	
-			long start = System.currentTimeMillis();
+			long start = recorder.getStart();
 	
-			if (cacheDir == null)
+			CachePolicy policy = (cache == null) ? CachePolicy.NEVER : cache.getPolicy(query);
+			if (!policy.isCached())
 			{
 				rs = _sparqlSelectDirect(query);
 				long delta = System.currentTimeMillis() - start;
@@ -56,54 +116,93 @@ public abstract class AbstractTripleStore implements TripleStore
 			}
 			else
 			{
+				String identity = getCacheIdentity();
+				String normalised = QueryCache.normalise(query);
+				String key = QueryCache.key(identity, normalised);
+				
+				// small, frequently used results can be answered from memory without reading the entry from disk
+				QueryCache.CachedEntry inMemory = cache.getFromMemory(key, query, policy);
+				if (inMemory != null)
+				{
+					recorder.setCacheStatus(QueryEvent.CacheStatus.MEMORY_HIT);
+					if (inMemory.stale) refreshInBackground(query, key, identity, normalised, false);
+					return inMemory.records;
+				}
+				
+				File cacheDir = cache.getDir();
 				if (!cacheDir.exists())
 				{
 					if (!cacheDir.mkdirs())
 						throw new IOException ("Could not create cache directory");
 				}
 	
-				int hashCode = query.hashCode() + 3 * this.hashCode();
-				String hashCodeString = String.format ("%08x", hashCode);
-				File cacheSubdir = new File (cacheDir, hashCodeString.substring(0, 2)); 
-				File out =  new File (cacheSubdir, hashCodeString + ".txt.gz");
+				QueryCache.Format format = cache.getFormat();
 	
-				if (out.exists())
-				{
-					// merely "touch" the file, so we know the cached file was used recently.
-					org.apache.commons.io.FileUtils.touch(out);
-				}
-				else
+				QueryCache.CachedEntry entry = null;
+				boolean missed = false;
+				while (entry == null)
 				{
-					// make subdir if it doesn't exist.
-					if (!cacheSubdir.exists()) { if (!cacheSubdir.mkdir()) throw new IOException ("Couldn't create directory " + cacheSubdir); }
+					entry = cache.read(key, identity, normalised, query, policy);
+					if (entry != null) break;
 	
-					File tmp = File.createTempFile(hashCodeString + "-", ".tmp", cacheSubdir);
+					QueryCache.Flight flight = cache.takeOff(key);
+					if (flight != null)
+					{
+						// this thread still has write-through results of the same query, waiting for those would never end.
+						// Otherwise the same query is already running in another thread, wait for it instead of running it again.
+						// In both cases, give up on write-through results that are not read to the end, and run the query again.
+						if (flight.isOwnedByCurrentThread() || !flight.await(cache.getWriteThroughWait())) cache.land(key, flight, null);
+						continue;
+					}
+	
+					Throwable error = null;
+					boolean handedOver = false;
 					try
 					{
-						OutputStream os = new FileOutputStream (tmp);
-						GZIPOutputStream gos = new GZIPOutputStream(os);
-						RecordStream rsx = _sparqlSelectDirect(query);
-						long delta = System.currentTimeMillis() - start;
-						Utils.queryResultsToFile(this, delta, rsx, query, gos);
-						gos.finish();
-						os.close();
-						fireQueryPerformed (query, delta);
+						// the entry may have been written just before we took off.
+						entry = cache.read(key, identity, normalised, query, policy);
+						if (entry == null && cache.isWriteThrough())
+						{
+							cache.miss(query);
+							recorder.setCacheStatus(QueryEvent.CacheStatus.MISS);
+							RecordStream direct = _sparqlSelectDirect(query);
+							try
+							{
+								rs = new WriteThroughRecordStream(this, cache, direct, query, key, identity, normalised, format, start);
+							}
+							catch (IOException e)
+							{
+								direct.close();
+								throw e;
+							}
+							// from now on, the write-through stream takes care of landing.
+							handedOver = true;
+							return rs;
+						}
+						else if (entry == null)
+						{
+							cache.miss(query);
+							missed = true;
+							writeCacheEntry(query, key, identity, normalised, format, start);
+							entry = cache.open(key, format, identity, normalised);
+							if (entry == null) throw new IOException ("Cache entry " + cache.getFile(key, format) + " could not be read back");
+						}
 					}
-					catch (RuntimeException e)
+					catch (Throwable t)
 					{
-						tmp.delete();
-						throw (e);
-					}					
-					catch (StreamException e)
+						error = t;
+						throw t;
+					}
+					finally
 					{
-						tmp.delete();
-						throw (e);
+						if (!handedOver) cache.land(key, error);
 					}
-					tmp.renameTo(out);
 				}
 	
-				InputStream is = HFileUtils.openZipStream(out);
-				rs = TsvRecordStream.open (is).filterComments().get();
+				recorder.setCacheStatus(missed ? QueryEvent.CacheStatus.MISS : QueryEvent.CacheStatus.HIT);
+				recorder.setBytes(entry.size);
+				if (entry.stale) refreshInBackground(query, key, identity, normalised, false);
+				rs = cache.keepInMemory(key, entry.records, entry.created);
 			}		
 	
 			return rs;
@@ -114,6 +213,238 @@ public abstract class AbstractTripleStore implements TripleStore
 		}
 	}
 
+	/** run a query and write the results to the cache */
+	private void writeCacheEntry(String query, String key, String identity, String normalised, QueryCache.Format format, long start) throws IOException
+	{
+		// make subdir if it doesn't exist.
+		File cacheSubdir = cache.getFile(key, format).getParentFile();
+		if (!cacheSubdir.exists()) { if (!cacheSubdir.mkdirs()) throw new IOException ("Couldn't create directory " + cacheSubdir); }
+
+		File tmp = File.createTempFile(key.substring(0, 8) + "-", ".tmp", cacheSubdir);
+		try
+		{
+			OutputStream os = new FileOutputStream (tmp);
+			RecordStream rsx = _sparqlSelectDirect(query);
+			long delta = System.currentTimeMillis() - start;
+			QueryCache.writeEntry(format, os, this, identity, normalised, rsx, query, start, delta);
+			os.close();
+			fireQueryPerformed (query, delta);
+		}
+		catch (RuntimeException e)
+		{
+			tmp.delete();
+			throw (e);
+		}					
+		catch (IOException e)
+		{
+			tmp.delete();
+			throw (e);
+		}
+		cache.install(tmp, key, format);
+	}
+
+	@Override
+	public void sparqlConstruct(String query, OutputStream os) throws StreamException
+	{
+		QueryEventRecorder recorder = new QueryEventRecorder(this, QueryEvent.Type.CONSTRUCT, query);
+		OutputStream counted = recorder.wrap(os);
+		try
+		{
+			if (cache == null || !cache.getPolicy(query).isCached())
+			{
+				_sparqlConstructDirect(query, counted);
+				fireQueryPerformed (query, System.currentTimeMillis() - recorder.getStart());
+			}
+			else
+			{
+				InputStream is = readConstructEntry(query, recorder).ntriples;
+				try
+				{
+					byte[] buf = new byte[8192];
+					int len;
+					while ((len = is.read(buf)) > 0) counted.write(buf, 0, len);
+				}
+				finally
+				{
+					is.close();
+				}
+			}
+			recorder.finish(true, null);
+		}
+		catch (IOException ex)
+		{
+			recorder.finish(false, ex);
+			throw new StreamException (ex);
+		}
+		catch (RuntimeException ex)
+		{
+			recorder.finish(false, ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * With caching enabled, the triples are read back from the cache entry, also on a cache miss,
+	 * so subclasses only need to implement {@link #_sparqlConstructDirect(String, OutputStream)} to support this.
+	 * Close the stream if not all triples are read, to close the cache entry.
+	 */
+	@Override
+	public Stream<Statement> sparqlConstruct(String query) throws StreamException
+	{
+		QueryEventRecorder recorder = new QueryEventRecorder(this, QueryEvent.Type.CONSTRUCT, query);
+		try
+		{
+			if (cache == null || !cache.getPolicy(query).isCached())
+			{
+				Stream<Statement> result = _sparqlConstructDirect(query);
+				fireQueryPerformed (query, System.currentTimeMillis() - recorder.getStart());
+				return recorder.wrap(result);
+			}
+			QueryCache.CachedTriples entry = readConstructEntry(query, recorder);
+			recorder.setBytes(entry.size);
+			return recorder.wrap(new CachedTripleStream(entry.ntriples));
+		}
+		catch (IOException ex)
+		{
+			recorder.finish(false, ex);
+			throw new StreamException (ex);
+		}
+		catch (RuntimeException ex)
+		{
+			recorder.finish(false, ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Find the cache entry for a CONSTRUCT query, or run the query to create it.
+	 * @return the entry, with the N-Triples positioned after the header. The caller must close it.
+	 */
+	private QueryCache.CachedTriples readConstructEntry(String query, QueryEventRecorder recorder) throws IOException
+	{
+		CachePolicy policy = cache.getPolicy(query);
+		String identity = getCacheIdentity();
+		String normalised = QueryCache.normalise(query);
+		String key = QueryCache.key(identity, normalised);
+
+		QueryCache.CachedTriples entry = null;
+		boolean missed = false;
+		while (entry == null)
+		{
+			entry = cache.readConstruct(key, identity, normalised, query, policy);
+			if (entry != null) break;
+
+			QueryCache.Flight flight = cache.takeOff(key);
+			if (flight != null)
+			{
+				// the same query is already running in another thread, wait for it instead of running it again.
+				if (!flight.await(cache.getWriteThroughWait())) cache.land(key, flight, null);
+				continue;
+			}
+
+			Throwable error = null;
+			try
+			{
+				// the entry may have been written just before we took off.
+				entry = cache.readConstruct(key, identity, normalised, query, policy);
+				if (entry == null)
+				{
+					cache.miss(query);
+					missed = true;
+					writeConstructEntry(query, key, identity, normalised, System.currentTimeMillis());
+					entry = cache.openConstruct(key, identity, normalised);
+					if (entry == null) throw new IOException ("Cache entry " + cache.getConstructFile(key) + " could not be read back");
+				}
+			}
+			catch (Throwable t)
+			{
+				error = t;
+				throw t;
+			}
+			finally
+			{
+				cache.land(key, error);
+			}
+		}
+
+		recorder.setCacheStatus(missed ? QueryEvent.CacheStatus.MISS : QueryEvent.CacheStatus.HIT);
+		if (entry.stale) refreshInBackground(query, key, identity, normalised, true);
+		return entry;
+	}
+
+	/** run a CONSTRUCT query and write the results to the cache */
+	private void writeConstructEntry(String query, String key, String identity, String normalised, long start) throws IOException
+	{
+		File cacheSubdir = cache.getConstructFile(key).getParentFile();
+		if (!cacheSubdir.exists()) { if (!cacheSubdir.mkdirs()) throw new IOException ("Couldn't create directory " + cacheSubdir); }
+
+		File tmp = File.createTempFile(key.substring(0, 8) + "-", ".tmp", cacheSubdir);
+		try
+		{
+			GZIPOutputStream os = new GZIPOutputStream(new FileOutputStream (tmp));
+			// N-Triples allows comments, so the entry is still a valid N-Triples file.
+			QueryCache.writeHeader(os, identity, normalised, start);
+			_sparqlConstructDirect(query, os);
+			os.close();
+			fireQueryPerformed (query, System.currentTimeMillis() - start);
+		}
+		catch (RuntimeException e)
+		{
+			tmp.delete();
+			throw (e);
+		}					
+		catch (IOException e)
+		{
+			tmp.delete();
+			throw (e);
+		}
+		cache.installConstruct(tmp, key);
+	}
+
+	/**
+	 * Run a query again in the background, to replace a stale cache entry.
+	 * Does nothing if the same query is already running.
+	 * @param construct true for a CONSTRUCT query, false for a SELECT query
+	 */
+	private void refreshInBackground(final String query, final String key, final String identity, final String normalised, final boolean construct)
+	{
+		final QueryCache c = cache;
+		if (!c.claim(key)) return;
+		final QueryCache.Format format = c.getFormat();
+		c.refresh(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					if (construct)
+					{
+						writeConstructEntry(query, key, identity, normalised, System.currentTimeMillis());
+					}
+					else
+					{
+						writeCacheEntry(query, key, identity, normalised, format, System.currentTimeMillis());
+					}
+					// the next query will be read from disk, and kept in memory again
+					c.forgetInMemory(key);
+				}
+				catch (Throwable t)
+				{
+					// the stale entry is used until it expires, and then the query is run in the foreground.
+					log.warn("Background refresh of a stale cache entry failed", t);
+				}
+				finally
+				{
+					// threads waiting for this query read the new entry, or run the query themselves if the refresh failed.
+					c.land(key, null);
+				}
+			}
+		});
+	}
+
 	protected void fireQueryPerformed(String query, long delta) 
 	{
 		for (TripleStoreListener l : listeners)
@@ -122,15 +453,37 @@ public abstract class AbstractTripleStore implements TripleStore
 		}
 	}
 
+	void fireQueryCompleted(QueryEvent event)
+	{
+		for (QueryEventListener l : queryEventListeners)
+		{
+			l.queryCompleted(event);
+		}
+	}
+
+	/** queries are only measured if someone is listening */
+	boolean hasQueryEventListeners()
+	{
+		return !queryEventListeners.isEmpty();
+	}
+
 	private NS namespaces = new NS();
 
 	public NamespaceMap getNamespaces() { return namespaces; }
 
-	private List<TripleStoreListener> listeners = new ArrayList<TripleStoreListener>();
+	// listeners are rarely changed, but events are fired from any thread that runs a query, so iterate without locking.
+	private final List<TripleStoreListener> listeners = new CopyOnWriteArrayList<TripleStoreListener>();
+	private final List<QueryEventListener> queryEventListeners = new CopyOnWriteArrayList<QueryEventListener>();
 	
 	@Override
 	public void addListener(TripleStoreListener l) { listeners.add (l); }
 	
 	@Override
 	public void removeListener(TripleStoreListener l) { listeners.remove (l); }
+
+	@Override
+	public void addQueryEventListener(QueryEventListener l) { queryEventListeners.add (l); }
+
+	@Override
+	public void removeQueryEventListener(QueryEventListener l) { queryEventListeners.remove (l); }
 }
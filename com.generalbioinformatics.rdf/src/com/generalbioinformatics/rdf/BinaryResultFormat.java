@@ -0,0 +1,619 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.helixsoft.recordstream.AbstractRecordStream;
+import nl.helixsoft.recordstream.DefaultRecord;
+import nl.helixsoft.recordstream.DefaultRecordMetaData;
+import nl.helixsoft.recordstream.Record;
+import nl.helixsoft.recordstream.RecordMetaData;
+import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.StreamException;
+
+import com.generalbioinformatics.rdf.stream.RdfNode;
+
+/**
+ * Binary format for cached query results, which keeps the types of the values.
+ * <p>
+ * A file starts with a header with the store identity and the query, used to verify the entry,
+ * followed by the time the results were fetched and the column names.
+ * Then the rows follow in blocks. Within a block, values are stored column by column, each value preceded by a type tag,
+ * or with a single tag for the whole column if all values in the block have the same type.
+ * URI's and blank nodes are stored once in a dictionary, and referred to by number after that.
+ * Each block is compressed with {@link Lz4Block}.
+ * <p>
+ * Reading a file gives back {@link RdfNode} for URI's and blank nodes, and the same class for literal values
+ * (String, Long, Integer, Double, Boolean, BigDecimal, java.sql.Timestamp, java.sql.Date, java.sql.Time etc.) as the triple store returned.
+ * Values of other classes are stored as the result of their toString() method, and come back as String. Known cases are:
+ * <ul>
+ * <li>XSDDateTime and XSDDuration, returned by Jena for xsd:dateTime, xsd:date, xsd:duration etc., come back as their lexical form
+ * <li>literals with a datatype that Jena doesn't know come back as the toString() of the value Jena returns for them
+ * <li>subclasses of the classes above come back as the class itself, e.g. a subclass of java.util.Date comes back as a Date
+ * </ul>
+ */
+final class BinaryResultFormat
+{
+	private static final byte[] MAGIC = { 'G', 'B', 'R', 'C' };
+	private static final int VERSION = 1;
+
+	/** maximum number of rows per block */
+	private static final int BLOCK_ROWS = 4096;
+	/** a block is also ended when its uncompressed size reaches this */
+	private static final int BLOCK_BYTES = 1 << 20;
+
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_LZ4 = 1;
+
+	private static final int UNIFORM = 0x80;
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_URI = 1;
+	private static final int TAG_BNODE = 2;
+	private static final int TAG_LITERAL_NODE = 3;
+	private static final int TAG_STRING = 4;
+	private static final int TAG_LONG = 5;
+	private static final int TAG_INTEGER = 6;
+	private static final int TAG_SHORT = 7;
+	private static final int TAG_BYTE = 8;
+	private static final int TAG_BOOLEAN = 9;
+	private static final int TAG_DOUBLE = 10;
+	private static final int TAG_FLOAT = 11;
+	private static final int TAG_BIG_INTEGER = 12;
+	private static final int TAG_BIG_DECIMAL = 13;
+	private static final int TAG_TIMESTAMP = 14;
+	private static final int TAG_SQL_DATE = 15;
+	private static final int TAG_DATE = 16;
+	private static final int TAG_TIME = 17;
+
+	private BinaryResultFormat() {} /* never instantiate */
+
+	/** growable byte buffer with the primitive encodings used in this format */
+	private static final class Buffer
+	{
+		byte[] data = new byte[1024];
+		int len = 0;
+		int pos = 0;
+
+		private void ensure(int extra)
+		{
+			if (len + extra > data.length) data = Arrays.copyOf(data, Math.max (data.length * 2, len + extra));
+		}
+
+		void writeByte(int b)
+		{
+			ensure (1);
+			data[len++] = (byte)b;
+		}
+
+		void writeBytes(byte[] b, int off, int n)
+		{
+			ensure (n);
+			System.arraycopy(b, off, data, len, n);
+			len += n;
+		}
+
+		void writeVarLong(long value)
+		{
+			while ((value & ~0x7FL) != 0)
+			{
+				writeByte ((int)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte ((int)value);
+		}
+
+		void writeZigZag(long value)
+		{
+			writeVarLong ((value << 1) ^ (value >> 63));
+		}
+
+		void writeString(String s)
+		{
+			byte[] b = s.getBytes(QueryCache.UTF8);
+			writeVarLong (b.length);
+			writeBytes (b, 0, b.length);
+		}
+
+		int readByte() throws IOException
+		{
+			if (pos >= len) throw new EOFException();
+			return data[pos++] & 0xFF;
+		}
+
+		long readVarLong() throws IOException
+		{
+			long result = 0;
+			int shift = 0;
+			int b;
+			do
+			{
+				b = readByte();
+				result |= (long)(b & 0x7F) << shift;
+				shift += 7;
+			}
+			while ((b & 0x80) != 0);
+			return result;
+		}
+
+		long readZigZag() throws IOException
+		{
+			long v = readVarLong();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		String readString() throws IOException
+		{
+			int n = (int)readVarLong();
+			if (n < 0 || pos + n > len) throw new EOFException();
+			String result = new String (data, pos, n, QueryCache.UTF8);
+			pos += n;
+			return result;
+		}
+	}
+
+	private static void writeVarLong(OutputStream os, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			os.write ((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		os.write ((int)value);
+	}
+
+	private static long readVarLong(InputStream is) throws IOException
+	{
+		long result = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = is.read();
+			if (b < 0) throw new EOFException();
+			result |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+		return result;
+	}
+
+	private static void writeString(OutputStream os, String s) throws IOException
+	{
+		byte[] b = s.getBytes(QueryCache.UTF8);
+		writeVarLong (os, b.length);
+		os.write (b);
+	}
+
+	private static void readFully(InputStream is, byte[] b, int n) throws IOException
+	{
+		int off = 0;
+		while (off < n)
+		{
+			int read = is.read(b, off, n - off);
+			if (read < 0) throw new EOFException();
+			off += read;
+		}
+	}
+
+	/**
+	 * Read a length or count, checking it before it is used to allocate anything.
+	 * @param max values above this can not be valid, e.g. the length of the file for the length of a string.
+	 */
+	private static int readLength(InputStream is, long max) throws IOException
+	{
+		long n = readVarLong(is);
+		if (n < 0 || n > max || n > Integer.MAX_VALUE) throw new IOException("Corrupt cache entry, invalid length " + n);
+		return (int)n;
+	}
+
+	private static String readString(InputStream is, long maxLength) throws IOException
+	{
+		int n = readLength(is, maxLength);
+		byte[] b = new byte[n];
+		readFully (is, b, n);
+		return new String (b, QueryCache.UTF8);
+	}
+
+	private static int tagOf(Object o)
+	{
+		if (o == null) return TAG_NULL;
+		if (o instanceof RdfNode)
+		{
+			RdfNode node = (RdfNode)o;
+			return node.isLiteral() ? TAG_LITERAL_NODE : node.isAnon() ? TAG_BNODE : TAG_URI;
+		}
+		if (o instanceof String) return TAG_STRING;
+		if (o instanceof Long) return TAG_LONG;
+		if (o instanceof Integer) return TAG_INTEGER;
+		if (o instanceof Short) return TAG_SHORT;
+		if (o instanceof Byte) return TAG_BYTE;
+		if (o instanceof Boolean) return TAG_BOOLEAN;
+		if (o instanceof Double) return TAG_DOUBLE;
+		if (o instanceof Float) return TAG_FLOAT;
+		if (o instanceof BigInteger) return TAG_BIG_INTEGER;
+		if (o instanceof BigDecimal) return TAG_BIG_DECIMAL;
+		if (o instanceof java.sql.Timestamp) return TAG_TIMESTAMP;
+		if (o instanceof java.sql.Date) return TAG_SQL_DATE;
+		if (o instanceof java.sql.Time) return TAG_TIME;
+		if (o instanceof Date) return TAG_DATE;
+		// unknown class, stored as String
+		return TAG_STRING;
+	}
+
+	/** Writes query results in the binary format */
+	static final class Writer
+	{
+		private final OutputStream out;
+		private final int cols;
+		private final Object[][] rows = new Object[BLOCK_ROWS][];
+		private int rowCount = 0;
+		private int blockBytes = 0;
+		private final Buffer raw = new Buffer();
+		private byte[] compressed = new byte[0];
+		private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		private final int[] tags = new int[BLOCK_ROWS];
+
+		/**
+		 * Writes the header. The output is not closed by this class.
+		 * @param created time the results were fetched from the triple store
+		 */
+		Writer(OutputStream os, String storeIdentity, String normalisedQuery, long created, RecordMetaData rmd) throws IOException
+		{
+			out = new BufferedOutputStream(os, 1 << 16);
+			out.write (MAGIC);
+			out.write (VERSION);
+			writeString (out, storeIdentity);
+			writeString (out, normalisedQuery);
+			writeVarLong (out, created);
+			cols = rmd.getNumCols();
+			writeVarLong (out, cols);
+			for (int col = 0; col < cols; ++col) writeString (out, rmd.getColumnName(col));
+		}
+
+		void add(Record r) throws IOException
+		{
+			Object[] row = new Object[cols];
+			for (int col = 0; col < cols; ++col)
+			{
+				row[col] = r.get(col);
+				// rough size estimate, to limit the size of a block
+				blockBytes += row[col] instanceof String ? ((String)row[col]).length() + 2 : 9;
+			}
+			rows[rowCount++] = row;
+			if (rowCount == BLOCK_ROWS || blockBytes >= BLOCK_BYTES) flushBlock();
+		}
+
+		/** add all records of a stream */
+		void addAll(RecordStream rs) throws IOException
+		{
+			Record r;
+			while ((r = rs.getNext()) != null) add (r);
+		}
+
+		private void writeNode(String value)
+		{
+			Integer id = dictionary.get(value);
+			if (id == null)
+			{
+				raw.writeVarLong (0);
+				raw.writeString (value);
+				dictionary.put (value, dictionary.size());
+			}
+			else
+			{
+				raw.writeVarLong (id + 1);
+			}
+		}
+
+		private void writeValue(int tag, Object o)
+		{
+			switch (tag)
+			{
+			case TAG_NULL: break;
+			case TAG_URI:
+			case TAG_BNODE: writeNode (((RdfNode)o).getUri()); break;
+			case TAG_LITERAL_NODE: raw.writeString (((RdfNode)o).getUri()); break;
+			case TAG_STRING: raw.writeString (o.toString()); break;
+			case TAG_LONG:
+			case TAG_INTEGER:
+			case TAG_SHORT:
+			case TAG_BYTE: raw.writeZigZag (((Number)o).longValue()); break;
+			case TAG_BOOLEAN: raw.writeByte (((Boolean)o) ? 1 : 0); break;
+			case TAG_DOUBLE: raw.writeVarLong (Double.doubleToRawLongBits((Double)o)); break;
+			case TAG_FLOAT: raw.writeVarLong (Float.floatToRawIntBits((Float)o) & 0xFFFFFFFFL); break;
+			case TAG_BIG_INTEGER:
+			case TAG_BIG_DECIMAL: raw.writeString (o.toString()); break;
+			case TAG_TIMESTAMP:
+				raw.writeZigZag (((java.sql.Timestamp)o).getTime());
+				raw.writeVarLong (((java.sql.Timestamp)o).getNanos());
+				break;
+			case TAG_SQL_DATE:
+			case TAG_TIME:
+			case TAG_DATE: raw.writeZigZag (((Date)o).getTime()); break;
+			default: throw new IllegalStateException("Unknown tag " + tag);
+			}
+		}
+
+		private void flushBlock() throws IOException
+		{
+			if (rowCount == 0) return;
+			raw.len = 0;
+			for (int col = 0; col < cols; ++col)
+			{
+				boolean uniform = true;
+				for (int row = 0; row < rowCount; ++row)
+				{
+					tags[row] = tagOf(rows[row][col]);
+					if (tags[row] != tags[0]) uniform = false;
+				}
+				if (uniform)
+				{
+					raw.writeByte (UNIFORM | tags[0]);
+				}
+				else
+				{
+					raw.writeByte (0);
+					for (int row = 0; row < rowCount; ++row) raw.writeByte (tags[row]);
+				}
+				for (int row = 0; row < rowCount; ++row) writeValue (tags[row], rows[row][col]);
+			}
+
+			int max = Lz4Block.maxCompressedLength(raw.len);
+			if (compressed.length < max) compressed = new byte[max];
+			int compressedLen = Lz4Block.compress(raw.data, raw.len, compressed);
+
+			writeVarLong (out, rowCount);
+			writeVarLong (out, raw.len);
+			if (compressedLen < raw.len)
+			{
+				out.write (METHOD_LZ4);
+				writeVarLong (out, compressedLen);
+				out.write (compressed, 0, compressedLen);
+			}
+			else
+			{
+				out.write (METHOD_STORED);
+				out.write (raw.data, 0, raw.len);
+			}
+
+			Arrays.fill (rows, 0, rowCount, null);
+			rowCount = 0;
+			blockBytes = 0;
+		}
+
+		/**
+		 * Write the remaining rows and the end marker, and flush. The underlying stream is not closed.
+		 * @param queryTime time the query took in the triple store, in msec.
+		 */
+		void finish(long queryTime) throws IOException
+		{
+			flushBlock();
+			writeVarLong (out, 0);
+			writeVarLong (out, queryTime);
+			out.flush();
+		}
+	}
+
+	/** Reads query results in the binary format */
+	static final class Reader extends AbstractRecordStream
+	{
+		private final InputStream in;
+		private final RecordMetaData rmd;
+		private final int cols;
+		private final long created;
+		private final long length;
+		private final List<String> dictionary = new ArrayList<String>();
+		private final Buffer raw = new Buffer();
+		private byte[] compressed = new byte[0];
+		private Object[][] columns;
+		private int blockRows = 0;
+		private int row = 0;
+		private boolean eof = false;
+		private long queryTime = -1;
+
+		private Reader(InputStream in, RecordMetaData rmd, int cols, long created, long length)
+		{
+			this.in = in;
+			this.rmd = rmd;
+			this.cols = cols;
+			this.created = created;
+			this.length = length;
+		}
+
+		/**
+		 * Open a cache entry, checking that it was written for this store and query.
+		 * @param length size of the entry in bytes, used to reject lengths in a corrupt entry before allocating buffers for them.
+		 * @return a reader, or null if the entry belongs to another query or is not in the binary format. The input stream is closed in that case.
+		 * @throws IOException if the entry is corrupt. The input stream is closed in that case.
+		 */
+		static Reader open(InputStream is, long length, String storeIdentity, String normalisedQuery) throws IOException
+		{
+			InputStream in = new BufferedInputStream(is, 1 << 16);
+			boolean ok = false;
+			try
+			{
+				byte[] magic = new byte[MAGIC.length];
+				readFully (in, magic, magic.length);
+				if (!Arrays.equals(magic, MAGIC) || in.read() != VERSION) return null;
+				if (!storeIdentity.equals(readString(in, length))) return null;
+				if (!normalisedQuery.equals(readString(in, length))) return null;
+				long created = readVarLong(in);
+				// each column name takes at least one byte
+				int cols = readLength(in, length);
+				List<String> names = new ArrayList<String>();
+				for (int col = 0; col < cols; ++col) names.add (readString(in, length));
+				ok = true;
+				return new Reader(in, new DefaultRecordMetaData(names), cols, created, length);
+			}
+			catch (EOFException ex)
+			{
+				// truncated header
+				return null;
+			}
+			finally
+			{
+				if (!ok) in.close();
+			}
+		}
+
+		private Object readValue(int tag) throws IOException
+		{
+			switch (tag)
+			{
+			case TAG_NULL: return null;
+			case TAG_URI: return RdfNode.createUri(readNode());
+			case TAG_BNODE: return RdfNode.createAnon(readNode());
+			case TAG_LITERAL_NODE: return RdfNode.createLiteral(raw.readString());
+			case TAG_STRING: return raw.readString();
+			case TAG_LONG: return raw.readZigZag();
+			case TAG_INTEGER: return (int)raw.readZigZag();
+			case TAG_SHORT: return (short)raw.readZigZag();
+			case TAG_BYTE: return (byte)raw.readZigZag();
+			case TAG_BOOLEAN: return raw.readByte() != 0;
+			case TAG_DOUBLE: return Double.longBitsToDouble(raw.readVarLong());
+			case TAG_FLOAT: return Float.intBitsToFloat((int)raw.readVarLong());
+			case TAG_BIG_INTEGER: return new BigInteger(raw.readString());
+			case TAG_BIG_DECIMAL: return new BigDecimal(raw.readString());
+			case TAG_TIMESTAMP:
+			{
+				java.sql.Timestamp result = new java.sql.Timestamp(raw.readZigZag());
+				result.setNanos((int)raw.readVarLong());
+				return result;
+			}
+			case TAG_SQL_DATE: return new java.sql.Date(raw.readZigZag());
+			case TAG_TIME: return new java.sql.Time(raw.readZigZag());
+			case TAG_DATE: return new Date(raw.readZigZag());
+			default: throw new IOException("Corrupt cache entry, unknown type " + tag);
+			}
+		}
+
+		private String readNode() throws IOException
+		{
+			int id = (int)raw.readVarLong();
+			if (id == 0)
+			{
+				String value = raw.readString();
+				dictionary.add (value);
+				return value;
+			}
+			if (id > dictionary.size()) throw new IOException("Corrupt cache entry, unknown dictionary entry " + id);
+			return dictionary.get(id - 1);
+		}
+
+		/** @return false at the end of the entry */
+		private boolean readBlock() throws IOException
+		{
+			int rows = readLength(in, BLOCK_ROWS);
+			if (rows == 0)
+			{
+				queryTime = readVarLong(in);
+				return false;
+			}
+			// LZ4 can't compress more than 255 times
+			int rawLen = readLength(in, length * 255);
+			if (raw.data.length < rawLen) raw.data = new byte[rawLen];
+			int method = in.read();
+			if (method == METHOD_LZ4)
+			{
+				int compressedLen = readLength(in, length);
+				if (compressed.length < compressedLen) compressed = new byte[compressedLen];
+				readFully (in, compressed, compressedLen);
+				if (Lz4Block.decompress(compressed, compressedLen, raw.data) != rawLen) throw new IOException("Corrupt cache entry");
+			}
+			else if (method == METHOD_STORED)
+			{
+				readFully (in, raw.data, rawLen);
+			}
+			else
+			{
+				throw new IOException("Corrupt cache entry, unknown block method " + method);
+			}
+			raw.len = rawLen;
+			raw.pos = 0;
+
+			columns = new Object[cols][rows];
+			int[] tags = new int[rows];
+			for (int col = 0; col < cols; ++col)
+			{
+				int mode = raw.readByte();
+				if ((mode & UNIFORM) != 0) Arrays.fill (tags, mode & ~UNIFORM);
+				else for (int r = 0; r < rows; ++r) tags[r] = raw.readByte();
+				for (int r = 0; r < rows; ++r) columns[col][r] = readValue (tags[r]);
+			}
+			blockRows = rows;
+			row = 0;
+			return true;
+		}
+
+		@Override
+		public Record getNext() throws StreamException
+		{
+			if (eof) return null;
+			try
+			{
+				if (row >= blockRows && !readBlock())
+				{
+					eof = true;
+					close();
+					return null;
+				}
+			}
+			catch (IOException ex)
+			{
+				throw new StreamException(ex);
+			}
+			Object[] data = new Object[cols];
+			for (int col = 0; col < cols; ++col) data[col] = columns[col][row];
+			row++;
+			return new DefaultRecord(rmd, data);
+		}
+
+		@Override
+		public RecordMetaData getMetaData()
+		{
+			return rmd;
+		}
+
+		/** @return time the results were fetched from the triple store */
+		long getCreated()
+		{
+			return created;
+		}
+
+		/** @return the query time stored in the entry, only available after reading all records. -1 if not available. */
+		long getQueryTime()
+		{
+			return queryTime;
+		}
+
+		@Override
+		public void close()
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException ex)
+			{
+				// ignore, nothing was written
+			}
+		}
+	}
+}
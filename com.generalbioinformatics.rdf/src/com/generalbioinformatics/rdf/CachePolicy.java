@@ -0,0 +1,203 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how long the results of a query are used from the {@link QueryCache}.
+ * <p>
+ * A policy can be set for a query with {@link QueryCache#setPolicy(String, CachePolicy)}, or for all queries
+ * with {@link QueryCache#setDefaultPolicy(CachePolicy)}. It can also be given in the query itself, as a comment line
+ * in the form returned by {@link #toHint()}, e.g. <code># cache: ttl=3600 stale=86400</code>, where times are in seconds.
+ * This way the policy travels with the query text, e.g. in a project file.
+ * <p>
+ * Instances are immutable.
+ */
+public final class CachePolicy
+{
+	/** Results are used until they are evicted from the cache. This is the default. */
+	public static final CachePolicy FOREVER = new CachePolicy(true, -1, 0);
+
+	/** Results are never read from or written to the cache. */
+	public static final CachePolicy NEVER = new CachePolicy(false, -1, 0);
+
+	static final String HINT_PREFIX = "# cache:";
+
+	/** Result of checking the age of a cache entry against a policy */
+	enum Freshness
+	{
+		/** the entry can be used */
+		FRESH,
+		/** the entry can be used, but should be refreshed in the background */
+		STALE,
+		/** the entry must not be used */
+		EXPIRED
+	}
+
+	private final boolean cached;
+	private final long ttl;
+	private final long staleWhileRevalidate;
+
+	private CachePolicy(boolean cached, long ttl, long staleWhileRevalidate)
+	{
+		this.cached = cached;
+		this.ttl = ttl;
+		this.staleWhileRevalidate = staleWhileRevalidate;
+	}
+
+	/**
+	 * Results are used for a fixed time after they were fetched from the triple store. After that, the query is run again.
+	 * @param ttlMsec time to live in milliseconds
+	 */
+	public static CachePolicy createTtl(long ttlMsec)
+	{
+		if (ttlMsec < 0) throw new IllegalArgumentException("TTL must not be negative");
+		return new CachePolicy(true, ttlMsec, 0);
+	}
+
+	/**
+	 * Results are used for a fixed time after they were fetched. After that, for a further period,
+	 * the cached results are still returned immediately, while the query is run again in the background to refresh the cache.
+	 * Only when that period has passed as well, the caller has to wait for the query.
+	 * @param ttlMsec time to live in milliseconds
+	 * @param staleMsec time after the TTL during which stale results are returned
+	 */
+	public static CachePolicy createStaleWhileRevalidate(long ttlMsec, long staleMsec)
+	{
+		if (ttlMsec < 0 || staleMsec < 0) throw new IllegalArgumentException("TTL must not be negative");
+		return new CachePolicy(true, ttlMsec, staleMsec);
+	}
+
+	/** @return false if the results of the query should not be cached at all */
+	public boolean isCached()
+	{
+		return cached;
+	}
+
+	/** @return time to live in milliseconds, or -1 if results don't expire */
+	public long getTtl()
+	{
+		return ttl;
+	}
+
+	/** @return time after the TTL during which stale results are returned while they are refreshed, in milliseconds */
+	public long getStaleWhileRevalidate()
+	{
+		return staleWhileRevalidate;
+	}
+
+	/**
+	 * @param created time the entry was fetched from the triple store
+	 * @param now current time
+	 */
+	Freshness check(long created, long now)
+	{
+		if (ttl < 0) return Freshness.FRESH;
+		long age = now - created;
+		if (age <= ttl) return Freshness.FRESH;
+		if (age <= ttl + staleWhileRevalidate) return Freshness.STALE;
+		return Freshness.EXPIRED;
+	}
+
+	/**
+	 * @return the policy in the form accepted by {@link #parse(String)}, e.g. <code>ttl=3600 stale=86400</code>,
+	 *  <code>never</code> or <code>forever</code>. Times are rounded down to seconds.
+	 */
+	public String format()
+	{
+		if (!cached) return "never";
+		if (ttl < 0) return "forever";
+		StringBuilder result = new StringBuilder();
+		result.append ("ttl=").append (TimeUnit.MILLISECONDS.toSeconds(ttl));
+		if (staleWhileRevalidate > 0) result.append (" stale=").append (TimeUnit.MILLISECONDS.toSeconds(staleWhileRevalidate));
+		return result.toString();
+	}
+
+	/**
+	 * @return a comment line that can be added to a query to apply this policy, e.g. <code># cache: ttl=3600 stale=86400</code>.
+	 */
+	public String toHint()
+	{
+		return HINT_PREFIX + " " + format();
+	}
+
+	/**
+	 * Parse a policy in the form returned by {@link #format()}, optionally preceded by <code># cache:</code> as in {@link #toHint()}.
+	 * @throws IllegalArgumentException if the policy can't be parsed
+	 */
+	public static CachePolicy parse(String value)
+	{
+		if (value == null) throw new IllegalArgumentException("Missing cache policy");
+		String s = value.trim();
+		if (s.startsWith(HINT_PREFIX)) s = s.substring(HINT_PREFIX.length()).trim();
+		if (s.equals("never")) return NEVER;
+		if (s.equals("forever") || s.isEmpty()) return FOREVER;
+		long ttl = -1;
+		long stale = 0;
+		for (String part : s.split("\\s+"))
+		{
+			int pos = part.indexOf('=');
+			if (pos < 0) throw new IllegalArgumentException("Invalid cache policy: " + value);
+			String key = part.substring(0, pos);
+			long seconds;
+			try
+			{
+				seconds = Long.parseLong(part.substring(pos + 1));
+			}
+			catch (NumberFormatException ex)
+			{
+				throw new IllegalArgumentException("Invalid cache policy: " + value);
+			}
+			if ("ttl".equals(key)) ttl = TimeUnit.SECONDS.toMillis(seconds);
+			else if ("stale".equals(key)) stale = TimeUnit.SECONDS.toMillis(seconds);
+			else throw new IllegalArgumentException("Invalid cache policy: " + value);
+		}
+		if (ttl < 0) throw new IllegalArgumentException("Cache policy without ttl: " + value);
+		return createStaleWhileRevalidate(ttl, stale);
+	}
+
+	/** @return the policy given as a hint in a query, or null if the query has no hint */
+	static CachePolicy fromQuery(String query)
+	{
+		for (String line : query.split("\n"))
+		{
+			String trimmed = line.trim();
+			if (trimmed.startsWith(HINT_PREFIX))
+			{
+				try
+				{
+					return parse(trimmed);
+				}
+				catch (IllegalArgumentException ex)
+				{
+					// an invalid hint is ignored, the query itself is still fine
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object other)
+	{
+		if (!(other instanceof CachePolicy)) return false;
+		CachePolicy that = (CachePolicy)other;
+		return cached == that.cached && ttl == that.ttl && staleWhileRevalidate == that.staleWhileRevalidate;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (cached ? 1 : 0) + 31 * (int)(ttl ^ (ttl >>> 32)) + 961 * (int)(staleWhileRevalidate ^ (staleWhileRevalidate >>> 32));
+	}
+
+	@Override
+	public String toString()
+	{
+		return toHint();
+	}
+}
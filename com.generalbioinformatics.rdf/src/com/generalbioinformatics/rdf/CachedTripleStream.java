@@ -0,0 +1,63 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.generalbioinformatics.rdf.stream.AbstractTripleStream;
+import com.generalbioinformatics.rdf.stream.NtStream;
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+import com.generalbioinformatics.rdf.stream.Statement;
+
+/**
+ * Replays the results of a CONSTRUCT query from a cache entry.
+ * The entry is closed when the last triple has been read, or when this stream is closed.
+ */
+final class CachedTripleStream extends AbstractTripleStream
+{
+	private final InputStream is;
+	private final NtStream parent;
+	private boolean closed = false;
+
+	/** @param is N-Triples, positioned after the header of the cache entry */
+	CachedTripleStream(InputStream is) throws IOException
+	{
+		this.is = is;
+		try
+		{
+			parent = new NtStream(is);
+		}
+		catch (IOException ex)
+		{
+			is.close();
+			throw ex;
+		}
+	}
+
+	@Override
+	public Statement getNext() throws IOException, ParseException
+	{
+		if (closed) return null;
+		Statement result = parent.getNext();
+		if (result == null) close();
+		return result;
+	}
+
+	@Override
+	public void close()
+	{
+		if (closed) return;
+		closed = true;
+		try
+		{
+			is.close();
+		}
+		catch (IOException ex)
+		{
+			// all triples were read already, or the caller isn't interested in the rest
+		}
+	}
+}
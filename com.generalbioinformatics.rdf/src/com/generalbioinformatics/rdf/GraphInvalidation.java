@@ -0,0 +1,256 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps track of when named graphs were last modified, so that cached results of queries on those graphs can be invalidated.
+ * <p>
+ * The modification times are stored in a file in the cache directory, so that they are shared by all JVM's using the same cache,
+ * and survive a restart. A cache entry is invalid if one of the graphs its query depends on was modified after the entry was created.
+ * <p>
+ * The graphs a query depends on are taken from its <code>FROM</code>, <code>FROM NAMED</code> and <code>GRAPH</code> clauses, see {@link #getGraphs(String)}.
+ * If they can't be determined, e.g. because the query has no <code>FROM</code> clause, so it reads the default graph
+ * (which in Virtuoso is the union of all graphs), the query depends on all graphs.
+ * They can also be declared with a comment line in the query, e.g. <code># graphs: &lt;http://example.com/g1&gt; &lt;http://example.com/g2&gt;</code>.
+ */
+final class GraphInvalidation
+{
+	static final String HINT_PREFIX = "# graphs:";
+
+	private static final String FILE_NAME = ".graphs";
+
+	private static final Pattern IRI = Pattern.compile("<([^<>\"{}|^`\\\\\\s]*)>");
+	private static final Pattern FROM = Pattern.compile("\\bFROM\\s+(NAMED\\s+)?(<[^>]*>)?", Pattern.CASE_INSENSITIVE);
+	private static final Pattern GRAPH = Pattern.compile("\\bGRAPH\\s+(<[^>]*>)?", Pattern.CASE_INSENSITIVE);
+	private static final Pattern DEFINE = Pattern.compile("\\bdefine\\s+input:(default|named)-graph-uri\\s+(<[^>]*>)?", Pattern.CASE_INSENSITIVE);
+
+	private final File file;
+	private Map<String, Long> modified = new HashMap<String, Long>();
+	private long latest = 0;
+	/** length of the file when it was last read, to see if another process added to it */
+	private long fileLength = -1;
+
+	GraphInvalidation(File dir)
+	{
+		file = new File (dir, FILE_NAME);
+	}
+
+	/** remove comments and string literals, so that they can't be mistaken for clauses */
+	private static String stripCommentsAndStrings(String query)
+	{
+		StringBuilder result = new StringBuilder();
+		Matcher iri = IRI.matcher(query);
+		int i = 0;
+		int len = query.length();
+		while (i < len)
+		{
+			char c = query.charAt(i);
+			if (c == '#')
+			{
+				while (i < len && query.charAt(i) != '\n') i++;
+			}
+			else if (c == '"' || c == '\'')
+			{
+				i++;
+				while (i < len && query.charAt(i) != c)
+				{
+					if (query.charAt(i) == '\\') i++;
+					i++;
+				}
+				i++;
+				result.append ("\"\"");
+			}
+			else if (c == '<' && iri.region(i, len).lookingAt())
+			{
+				// copy IRI's as is, they may contain '#'
+				result.append (iri.group());
+				i = iri.end();
+			}
+			else
+			{
+				result.append (c);
+				i++;
+			}
+		}
+		return result.toString();
+	}
+
+	/** @return the graphs declared in a comment line of the query, or null if there is none */
+	static Set<String> fromHint(String query)
+	{
+		for (String line : query.split("\n"))
+		{
+			String trimmed = line.trim();
+			if (trimmed.startsWith(HINT_PREFIX))
+			{
+				Set<String> result = new LinkedHashSet<String>();
+				Matcher m = IRI.matcher(trimmed.substring(HINT_PREFIX.length()));
+				while (m.find()) result.add (m.group(1));
+				return result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determine the named graphs a query depends on.
+	 * <p>
+	 * This is conservative: a query depends on all graphs unless it defines its default graph with <code>FROM &lt;iri&gt;</code>,
+	 * and every <code>GRAPH</code> clause names a graph or the named graphs are restricted with <code>FROM NAMED &lt;iri&gt;</code>.
+	 * Graphs given with prefixed names are not resolved, so such a query depends on all graphs.
+	 * @return the graph URI's, or null if the query may depend on any graph.
+	 */
+	static Set<String> getGraphs(String query)
+	{
+		Set<String> hint = fromHint(query);
+		if (hint != null) return hint;
+
+		String q = stripCommentsAndStrings(query);
+		Set<String> result = new LinkedHashSet<String>();
+		boolean hasDefault = false;
+		boolean hasNamed = false;
+		boolean variableGraph = false;
+
+		Matcher m = FROM.matcher(q);
+		while (m.find())
+		{
+			if (m.group(2) == null) return null;
+			result.add (m.group(2).substring(1, m.group(2).length() - 1));
+			if (m.group(1) == null) hasDefault = true; else hasNamed = true;
+		}
+		m = DEFINE.matcher(q);
+		while (m.find())
+		{
+			if (m.group(2) == null) return null;
+			result.add (m.group(2).substring(1, m.group(2).length() - 1));
+			if ("default".equalsIgnoreCase(m.group(1))) hasDefault = true; else hasNamed = true;
+		}
+		m = GRAPH.matcher(q);
+		while (m.find())
+		{
+			if (m.group(1) == null) variableGraph = true;
+			else result.add (m.group(1).substring(1, m.group(1).length() - 1));
+		}
+
+		if (!hasDefault) return null;
+		if (variableGraph && !hasNamed) return null;
+		return result;
+	}
+
+	/** re-read the file if another process has added to it */
+	private void refresh()
+	{
+		long length = file.length();
+		if (length == fileLength) return;
+		Map<String, Long> result = new HashMap<String, Long>();
+		long max = 0;
+		if (file.exists())
+		{
+			try
+			{
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), QueryCache.UTF8));
+				try
+				{
+					String line;
+					while ((line = reader.readLine()) != null)
+					{
+						int pos = line.indexOf('\t');
+						if (pos < 0) continue; // partially written line
+						long time;
+						try
+						{
+							time = Long.parseLong(line.substring(0, pos));
+						}
+						catch (NumberFormatException ex)
+						{
+							continue;
+						}
+						String graph = line.substring(pos + 1);
+						Long old = result.get(graph);
+						if (old == null || old < time) result.put (graph, time);
+						max = Math.max(max, time);
+					}
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+			catch (IOException ex)
+			{
+				// can't tell which graphs were modified, so assume all of them were, just now.
+				max = System.currentTimeMillis();
+				length = -1;
+			}
+		}
+		modified = result;
+		latest = max;
+		fileLength = length;
+	}
+
+	/**
+	 * @param graphs graph URI's, or null for all graphs
+	 * @return the last time one of the graphs was modified, or 0 if they were never modified
+	 */
+	synchronized long getLastModified(Collection<String> graphs)
+	{
+		refresh();
+		if (graphs == null) return latest;
+		long result = 0;
+		for (String graph : graphs)
+		{
+			Long time = modified.get(graph);
+			if (time != null && time > result) result = time;
+		}
+		return result;
+	}
+
+	/** Record that graphs were modified now. */
+	synchronized void invalidate(Collection<String> graphs) throws IOException
+	{
+		if (!file.getParentFile().exists()) { if (!file.getParentFile().mkdirs()) throw new IOException ("Could not create cache directory"); }
+		long now = System.currentTimeMillis();
+		StringBuilder lines = new StringBuilder();
+		for (String graph : graphs)
+		{
+			if (graph.indexOf('\n') >= 0) throw new IllegalArgumentException("Graph URI may not contain a newline");
+			lines.append (now).append ('\t').append (graph).append ('\n');
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			// other processes may append at the same time
+			FileLock lock = raf.getChannel().lock();
+			try
+			{
+				raf.seek(raf.length());
+				raf.write(lines.toString().getBytes(QueryCache.UTF8));
+			}
+			finally
+			{
+				lock.release();
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+}
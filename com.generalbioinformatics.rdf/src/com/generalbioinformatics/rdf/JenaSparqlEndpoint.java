@@ -70,11 +70,11 @@ public class JenaSparqlEndpoint extends AbstractTripleStore
 		}
 	}
 
-//	@Override
-	public void sparqlConstruct(String query, OutputStream os)
+	@Override
+	public void _sparqlConstructDirect(String query, OutputStream os)
 	{
 		Model model = sparqlConstructAsModel(query);
-		model.write(os);
+		model.write(os, "N-TRIPLE");
 	}
 
 	/** Non-polymorphic, implementation-specifc method: get the result of a construct query as a Jena Model. */
@@ -101,7 +101,7 @@ public class JenaSparqlEndpoint extends AbstractTripleStore
 	}
 
 	@Override
-	public Stream<Statement> sparqlConstruct(String query) throws StreamException 
+	public Stream<Statement> _sparqlConstructDirect(String query) throws StreamException 
 	{
 		Model model = sparqlConstructAsModel(query);
 		StmtIterator it = model.listStatements();
@@ -0,0 +1,108 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets that double in size: bucket 0 holds 0 msec, bucket 1 holds 1 msec,
+ * bucket 2 holds 2-3 msec, bucket 3 holds 4-7 msec, and so on.
+ * <p>
+ * Percentiles are therefore accurate to within a factor of two, which is enough to tell a slow query from a fast one,
+ * while recording a value takes only a few atomic increments. It is safe to record from several threads without locking.
+ */
+public final class LatencyHistogram
+{
+	/** the last bucket holds everything from 2^62 msec, i.e. all remaining values */
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/** @return the bucket for a latency. Negative values are counted as 0. */
+	static int bucket(long msec)
+	{
+		if (msec <= 0) return 0;
+		return 64 - Long.numberOfLeadingZeros(msec);
+	}
+
+	/** @return the highest latency counted in a bucket */
+	static long upperBound(int bucket)
+	{
+		if (bucket == 0) return 0;
+		if (bucket >= BUCKETS - 1) return Long.MAX_VALUE;
+		return (1L << bucket) - 1;
+	}
+
+	/** Count a latency in milliseconds */
+	public void record(long msec)
+	{
+		counts.incrementAndGet(bucket(msec));
+		count.incrementAndGet();
+		sum.addAndGet(Math.max(msec, 0));
+		long current;
+		while (msec > (current = max.get()))
+		{
+			if (max.compareAndSet(current, msec)) break;
+		}
+	}
+
+	/** @return number of recorded latencies */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/** @return mean latency in msec, or 0 if nothing was recorded */
+	public double getMean()
+	{
+		long n = count.get();
+		return (n == 0) ? 0 : (double)sum.get() / n;
+	}
+
+	/** @return highest recorded latency in msec */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @param fraction e.g. 0.99 for the 99th percentile
+	 * @return upper bound of the bucket that holds the given percentile, in msec, or 0 if nothing was recorded.
+	 */
+	public long getPercentile(double fraction)
+	{
+		if (fraction < 0 || fraction > 1) throw new IllegalArgumentException("Fraction must be between 0 and 1");
+		long[] snapshot = getCounts();
+		long total = 0;
+		for (long c : snapshot) total += c;
+		if (total == 0) return 0;
+		long rank = Math.max(1, (long)Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; ++i)
+		{
+			seen += snapshot[i];
+			if (seen >= rank) return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	/** @return number of latencies per bucket, see {@link LatencyHistogram} for the bucket sizes */
+	public long[] getCounts()
+	{
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) result[i] = counts.get(i);
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "n=" + getCount() + " mean=" + Math.round(getMean()) + "ms p50=" + getPercentile(0.5) + "ms p99=" + getPercentile(0.99) + "ms max=" + getMax() + "ms";
+	}
+}
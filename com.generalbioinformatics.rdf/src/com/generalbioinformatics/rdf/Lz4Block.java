@@ -0,0 +1,153 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.io.IOException;
+
+/**
+ * Fast compression of byte blocks, in the LZ4 block format.
+ * <p>
+ * This trades compression ratio for speed: it is several times faster than gzip, in particular for decompression,
+ * which matters for cache hits. Only a greedy single-probe match search is done, as in the fast mode of LZ4.
+ */
+final class Lz4Block
+{
+	private static final int MIN_MATCH = 4;
+	/** the last literals of a block are never part of a match, as required by the format */
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_BITS = 14;
+
+	private Lz4Block() {} /* never instantiate */
+
+	/** @return size of the buffer needed to compress len bytes, in the worst case */
+	static int maxCompressedLength(int len)
+	{
+		return len + len / 255 + 16;
+	}
+
+	private static int readInt(byte[] buf, int pos)
+	{
+		return (buf[pos] & 0xFF) | (buf[pos + 1] & 0xFF) << 8 | (buf[pos + 2] & 0xFF) << 16 | (buf[pos + 3] & 0xFF) << 24;
+	}
+
+	private static int hash(int value)
+	{
+		return (value * -1640531535) >>> (32 - HASH_BITS);
+	}
+
+	private static int writeLength(byte[] dst, int op, int len)
+	{
+		while (len >= 255)
+		{
+			dst[op++] = (byte)255;
+			len -= 255;
+		}
+		dst[op++] = (byte)len;
+		return op;
+	}
+
+	/** write literals, and the token for the match that follows them (if any) */
+	private static int writeSequence(byte[] src, int anchor, int litLen, byte[] dst, int op, int offset, int matchLen)
+	{
+		int tokenPos = op++;
+		int token = Math.min(litLen, 15) << 4;
+		if (litLen >= 15) op = writeLength(dst, op, litLen - 15);
+		System.arraycopy(src, anchor, dst, op, litLen);
+		op += litLen;
+		if (matchLen > 0)
+		{
+			dst[op++] = (byte)offset;
+			dst[op++] = (byte)(offset >>> 8);
+			int m = matchLen - MIN_MATCH;
+			token |= Math.min(m, 15);
+			if (m >= 15) op = writeLength(dst, op, m - 15);
+		}
+		dst[tokenPos] = (byte)token;
+		return op;
+	}
+
+	/**
+	 * Compress src[0..len) into dst, which must be at least {@link #maxCompressedLength(int)} long.
+	 * @return number of bytes written to dst
+	 */
+	static int compress(byte[] src, int len, byte[] dst)
+	{
+		int[] table = new int[1 << HASH_BITS]; // position + 1, 0 means empty
+		int anchor = 0;
+		int op = 0;
+		int i = 0;
+		int limit = len - MF_LIMIT;
+		while (i < limit)
+		{
+			int value = readInt(src, i);
+			int h = hash(value);
+			int ref = table[h] - 1;
+			table[h] = i + 1;
+			if (ref >= 0 && i - ref <= MAX_OFFSET && readInt(src, ref) == value)
+			{
+				int matchLen = MIN_MATCH;
+				int matchLimit = len - LAST_LITERALS;
+				while (i + matchLen < matchLimit && src[ref + matchLen] == src[i + matchLen]) matchLen++;
+				op = writeSequence(src, anchor, i - anchor, dst, op, i - ref, matchLen);
+				i += matchLen;
+				anchor = i;
+			}
+			else
+			{
+				i++;
+			}
+		}
+		return writeSequence(src, anchor, len - anchor, dst, op, 0, 0);
+	}
+
+	/**
+	 * Decompress src[0..srcLen) into dst, which must be large enough to hold the original data.
+	 * @return number of bytes written to dst
+	 * @throws IOException if the compressed data is corrupt
+	 */
+	static int decompress(byte[] src, int srcLen, byte[] dst) throws IOException
+	{
+		int ip = 0;
+		int op = 0;
+		try
+		{
+			while (ip < srcLen)
+			{
+				int token = src[ip++] & 0xFF;
+				int litLen = token >>> 4;
+				if (litLen == 15)
+				{
+					int b;
+					do { b = src[ip++] & 0xFF; litLen += b; } while (b == 255);
+				}
+				System.arraycopy(src, ip, dst, op, litLen);
+				ip += litLen;
+				op += litLen;
+				if (ip >= srcLen) break; // last sequence has no match
+
+				int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+				ip += 2;
+				int matchLen = token & 15;
+				if (matchLen == 15)
+				{
+					int b;
+					do { b = src[ip++] & 0xFF; matchLen += b; } while (b == 255);
+				}
+				matchLen += MIN_MATCH;
+				int ref = op - offset;
+				if (offset == 0 || ref < 0) throw new IOException("Corrupt compressed block");
+				// the match can overlap with the output, so copy byte by byte
+				for (int k = 0; k < matchLen; ++k) dst[op++] = dst[ref++];
+			}
+		}
+		catch (IndexOutOfBoundsException ex)
+		{
+			throw new IOException("Corrupt compressed block", ex);
+		}
+		return op;
+	}
+}
@@ -0,0 +1,322 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.helixsoft.recordstream.AbstractRecordStream;
+import nl.helixsoft.recordstream.DefaultRecord;
+import nl.helixsoft.recordstream.DefaultRecordMetaData;
+import nl.helixsoft.recordstream.Record;
+import nl.helixsoft.recordstream.RecordMetaData;
+import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.StreamException;
+
+import com.generalbioinformatics.rdf.stream.RdfNode;
+
+/**
+ * In-memory tier of the {@link QueryCache}, holding small result sets in a compact columnar form.
+ * <p>
+ * Each column is stored as an array of codes into a dictionary of distinct values,
+ * so values that are repeated in a column, such as type URI's, are stored only once.
+ * The size of the cache is bounded by an estimate of the memory used, and the least recently used results are dropped first.
+ * This class is thread-safe.
+ */
+final class MemoryQueryCache
+{
+	/** A result set held in memory, that can be read any number of times */
+	static final class ColumnarResult
+	{
+		private final RecordMetaData rmd;
+		private final int rows;
+		private final Object[][] dictionaries;
+		private final int[][] codes;
+		private final long size;
+		private final long created;
+
+		private ColumnarResult(RecordMetaData rmd, int rows, Object[][] dictionaries, int[][] codes, long size, long created)
+		{
+			this.rmd = rmd;
+			this.rows = rows;
+			this.dictionaries = dictionaries;
+			this.codes = codes;
+			this.size = size;
+			this.created = created;
+		}
+
+		/** @return time the result was fetched from the triple store */
+		long getCreated()
+		{
+			return created;
+		}
+
+		/** @return estimated memory use in bytes */
+		long getSize()
+		{
+			return size;
+		}
+
+		int getRowCount()
+		{
+			return rows;
+		}
+
+		/** @return a new stream over the rows */
+		RecordStream stream()
+		{
+			return new AbstractRecordStream()
+			{
+				private int row = 0;
+
+				@Override
+				public Record getNext()
+				{
+					if (row >= rows) return null;
+					Object[] data = new Object[codes.length];
+					for (int col = 0; col < codes.length; ++col)
+					{
+						data[col] = dictionaries[col][codes[col][row]];
+					}
+					row++;
+					return new DefaultRecord(rmd, data);
+				}
+
+				@Override
+				public RecordMetaData getMetaData()
+				{
+					return rmd;
+				}
+			};
+		}
+	}
+
+	/** Collects records column by column */
+	private static final class Builder
+	{
+		private final RecordMetaData rmd;
+		private final List<Map<Object, Integer>> index = new ArrayList<Map<Object, Integer>>();
+		private final List<List<Object>> dictionaries = new ArrayList<List<Object>>();
+		private int[][] codes;
+		private int rows = 0;
+		private long size = 128;
+
+		Builder (RecordMetaData rmd)
+		{
+			this.rmd = rmd;
+			int cols = rmd.getNumCols();
+			codes = new int[cols][16];
+			for (int col = 0; col < cols; ++col)
+			{
+				index.add (new HashMap<Object, Integer>());
+				dictionaries.add (new ArrayList<Object>());
+				size += 64 + estimateSize(rmd.getColumnName(col));
+			}
+		}
+
+		void add(Record r)
+		{
+			if (rows == codes[0].length)
+			{
+				for (int col = 0; col < codes.length; ++col)
+				{
+					int[] grown = new int[rows * 2];
+					System.arraycopy(codes[col], 0, grown, 0, rows);
+					codes[col] = grown;
+				}
+			}
+			for (int col = 0; col < codes.length; ++col)
+			{
+				Object value = r.get(col);
+				Integer code = index.get(col).get(value);
+				if (code == null)
+				{
+					code = dictionaries.get(col).size();
+					dictionaries.get(col).add (value);
+					index.get(col).put (value, code);
+					size += 8 + estimateSize(value);
+				}
+				codes[col][rows] = code;
+				size += 4;
+			}
+			rows++;
+		}
+
+		long getSize()
+		{
+			return size;
+		}
+
+		ColumnarResult build(long created)
+		{
+			int cols = codes.length;
+			Object[][] dicts = new Object[cols][];
+			int[][] trimmed = new int[cols][];
+			for (int col = 0; col < cols; ++col)
+			{
+				dicts[col] = dictionaries.get(col).toArray();
+				trimmed[col] = new int[rows];
+				System.arraycopy(codes[col], 0, trimmed[col], 0, rows);
+			}
+			return new ColumnarResult(new DefaultRecordMetaData(columnNames(rmd)), rows, dicts, trimmed, size, created);
+		}
+	}
+
+	private static List<String> columnNames(RecordMetaData rmd)
+	{
+		List<String> result = new ArrayList<String>();
+		for (int col = 0; col < rmd.getNumCols(); ++col) result.add (rmd.getColumnName(col));
+		return result;
+	}
+
+	/** rough estimate of the heap used by a value */
+	private static long estimateSize(Object value)
+	{
+		if (value == null) return 0;
+		if (value instanceof String) return 40 + 2 * ((String)value).length();
+		if (value instanceof RdfNode) return 56 + 2 * ((RdfNode)value).getUri().length();
+		if (value instanceof Number || value instanceof Boolean) return 16;
+		return 40 + 2 * value.toString().length();
+	}
+
+	/**
+	 * Replays rows that were read while trying to capture a result that turned out to be too large,
+	 * and then continues with the rest of the original stream.
+	 */
+	private static final class ReplayRecordStream extends AbstractRecordStream
+	{
+		private final Iterator<Record> buffered;
+		private final RecordStream rest;
+
+		ReplayRecordStream(List<Record> buffered, RecordStream rest)
+		{
+			this.buffered = buffered.iterator();
+			this.rest = rest;
+		}
+
+		@Override
+		public Record getNext() throws StreamException
+		{
+			if (buffered.hasNext()) return buffered.next();
+			return rest.getNext();
+		}
+
+		@Override
+		public RecordMetaData getMetaData()
+		{
+			return rest.getMetaData();
+		}
+
+		@Override
+		public void close()
+		{
+			rest.close();
+		}
+	}
+
+	private final long maxSize;
+	private final long maxEntrySize;
+	private long size = 0;
+	private final LinkedHashMap<String, ColumnarResult> entries = new LinkedHashMap<String, ColumnarResult>(16, 0.75f, true);
+
+	/**
+	 * @param maxSize maximum estimated memory use in bytes, for all results together
+	 * @param maxEntrySize larger results are not kept in memory
+	 */
+	MemoryQueryCache(long maxSize, long maxEntrySize)
+	{
+		this.maxSize = maxSize;
+		this.maxEntrySize = Math.min (maxSize, maxEntrySize);
+	}
+
+	/** @return a new stream over a cached result, or null if it is not in memory */
+	synchronized RecordStream get(String key)
+	{
+		ColumnarResult result = entries.get(key);
+		return result == null ? null : result.stream();
+	}
+
+	/** @return a cached result, or null if it is not in memory */
+	synchronized ColumnarResult getResult(String key)
+	{
+		return entries.get(key);
+	}
+
+	synchronized void put(String key, ColumnarResult result)
+	{
+		ColumnarResult old = entries.put(key, result);
+		if (old != null) size -= old.getSize();
+		size += result.getSize();
+		Iterator<ColumnarResult> it = entries.values().iterator();
+		while (size > maxSize && it.hasNext())
+		{
+			size -= it.next().getSize();
+			it.remove();
+		}
+	}
+
+	synchronized void remove(String key)
+	{
+		ColumnarResult old = entries.remove(key);
+		if (old != null) size -= old.getSize();
+	}
+
+	synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+	/** @return estimated memory use in bytes */
+	synchronized long getSize()
+	{
+		return size;
+	}
+
+	synchronized int getEntryCount()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Read a result set and keep it in memory, if it is small enough.
+	 * @return a stream with the same records as rs. rs is closed if it was read completely.
+	 */
+	RecordStream capture(String key, RecordStream rs) throws StreamException
+	{
+		return capture(key, rs, System.currentTimeMillis());
+	}
+
+	/**
+	 * Read a result set and keep it in memory, if it is small enough.
+	 * @param created time the result was fetched from the triple store
+	 * @return a stream with the same records as rs. rs is closed if it was read completely.
+	 */
+	RecordStream capture(String key, RecordStream rs, long created) throws StreamException
+	{
+		RecordMetaData rmd = rs.getMetaData();
+		if (rmd.getNumCols() == 0) return rs;
+		Builder builder = new Builder(rmd);
+		List<Record> buffered = new ArrayList<Record>();
+		Record r;
+		while ((r = rs.getNext()) != null)
+		{
+			buffered.add (r);
+			builder.add (r);
+			if (builder.getSize() > maxEntrySize)
+			{
+				return new ReplayRecordStream(buffered, rs);
+			}
+		}
+		rs.close();
+		ColumnarResult result = builder.build(created);
+		put (key, result);
+		return result.stream();
+	}
+}
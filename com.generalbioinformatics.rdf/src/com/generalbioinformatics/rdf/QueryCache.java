@@ -0,0 +1,1096 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.StreamException;
+import nl.helixsoft.recordstream.TsvRecordStream;
+import nl.helixsoft.util.HFileUtils;
+
+/**
+ * Locates and verifies query results cached on disk, see {@link AbstractTripleStore#setCacheDir(File)}.
+ * <p>
+ * Each entry is identified by the SHA-256 digest of the store identity and the normalised query text.
+ * Entries are stored two directory levels deep, e.g. <code>cacheDir/3f/a2/3fa2....bin</code>,
+ * giving 65536 subdirectories, so millions of entries can be cached without overly large directories.
+ * <p>
+ * Each entry starts with a header containing the store identity and the full query.
+ * When an entry is read, the header is compared with the query, so that an entry is never used for the wrong query.
+ * <p>
+ * Entries are written in the typed binary format by default, see {@link Format}. Entries in either format are read.
+ * Results of CONSTRUCT queries are stored as gzipped N-Triples, after the same header, see {@link #getConstructFile(String)}.
+ * They are subject to the same eviction, policies and invalidation, but are not kept in memory.
+ * <p>
+ * Without limits, the cache grows forever. Use {@link #setMaxSize(long)} and {@link #setMaxAge(long)} to set limits,
+ * and {@link #startEviction(long)} to enforce them periodically on a background thread.
+ * Entries are evicted in least-recently-used order, based on the modification time, which is updated on each cache hit.
+ * Several JVM's can share a cache directory: only one of them evicts at a time, coordinated with a lock file in the cache directory.
+ * <p>
+ * Optionally, small results are also kept in memory, see {@link #setMemoryLimit(long, long)}.
+ * Those are answered without reading the entry from disk, so the access time of the file on disk is not updated on a memory hit.
+ * Only the length of the graph invalidation file is checked on each hit, to notice graphs modified by other JVM's, see {@link #invalidateGraph(String)}.
+ * <p>
+ * When several threads ask for the same missing entry at the same time, only one of them runs the query,
+ * and the others wait for it to write the entry, see {@link #takeOff(String)}. This is not coordinated between JVM's.
+ * <p>
+ * By default, entries are used until they are evicted. A {@link CachePolicy} can limit the time an entry is used,
+ * refresh it in the background, or exclude a query from caching altogether.
+ * <p>
+ * When a named graph is modified, call {@link #invalidateGraph(String)}. Entries for queries that depend on that graph
+ * are not used anymore, see {@link #getGraphs(String)}.
+ */
+public class QueryCache
+{
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String HEADER_STORE = "# Store: ";
+	private static final String HEADER_CREATED = "# Created: ";
+	private static final String HEADER_QUERY = "# Query:";
+	private static final String HEADER_END = "#";
+
+	private static final String LOCK_FILE = ".eviction.lock";
+
+	/** Entries for CONSTRUCT queries are stored as gzipped N-Triples, after the same header as {@link Format#TSV} */
+	private static final String CONSTRUCT_SUFFIX = ".nt.gz";
+
+	/** File formats for cache entries */
+	public enum Format
+	{
+		/**
+		 * Gzipped tab-separated text, with a header of comment lines. Easy to inspect,
+		 * but all values are read back as String, and parsing is slow for large results.
+		 */
+		TSV(".txt.gz"),
+		/**
+		 * Typed binary columns with a dictionary for URI's, in compressed blocks.
+		 * Values are read back as the same classes the triple store returned, e.g. {@link com.generalbioinformatics.rdf.stream.RdfNode} for URI's.
+		 */
+		BINARY(".bin");
+
+		private final String suffix;
+
+		Format(String suffix)
+		{
+			this.suffix = suffix;
+		}
+
+		public String getSuffix()
+		{
+			return suffix;
+		}
+	}
+
+	/** temporary files of crashed writers are removed after this time */
+	private static final long STALE_TMP_AGE = TimeUnit.DAYS.toMillis(1);
+
+	/** when the size limit is exceeded, evict down to this fraction of the limit, so that eviction doesn't run on every write */
+	private static final double LOW_WATER_MARK = 0.9;
+
+	Logger log = LoggerFactory.getLogger("com.generalbioinformatics.rdf.QueryCache");
+
+	private final File dir;
+	/** volatile, as they are read by the eviction thread */
+	private volatile long maxSize = -1;
+	private volatile long maxAge = -1;
+	private ScheduledExecutorService evictor = null;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictedEntries = new AtomicLong();
+	private final AtomicLong evictedBytes = new AtomicLong();
+	private final List<QueryCacheListener> listeners = new CopyOnWriteArrayList<QueryCacheListener>();
+	private volatile MemoryQueryCache memory = null;
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<String, Flight>();
+	private final AtomicLong coalesced = new AtomicLong();
+	private volatile boolean writeThrough = false;
+	private volatile long writeThroughWait = TimeUnit.SECONDS.toMillis(10);
+	private volatile Format format = Format.BINARY;
+	private volatile CachePolicy defaultPolicy = CachePolicy.FOREVER;
+	private final ConcurrentMap<String, CachePolicy> policies = new ConcurrentHashMap<String, CachePolicy>();
+	private final AtomicLong staleHits = new AtomicLong();
+	private ExecutorService refresher = null;
+	private final GraphInvalidation graphInvalidation;
+	private final ConcurrentMap<String, Set<String>> declaredGraphs = new ConcurrentHashMap<String, Set<String>>();
+
+	public QueryCache(File dir)
+	{
+		this.dir = dir;
+		graphInvalidation = new GraphInvalidation(dir);
+	}
+
+	public File getDir()
+	{
+		return dir;
+	}
+
+	/**
+	 * Normalise a query so that insignificant differences don't lead to a different cache entry.
+	 * Line endings are converted to \n, trailing whitespace is removed from each line, and leading and trailing empty lines are removed.
+	 * Whitespace inside a line is kept, as it could be part of a literal.
+	 * <p>
+	 * Hint lines for the {@link CachePolicy} and the graphs of a query are removed, so that changing a hint doesn't
+	 * lead to a new entry for the same query.
+	 */
+	public static String normalise(String query)
+	{
+		StringBuilder result = new StringBuilder();
+		for (String line : query.replace("\r\n", "\n").replace('\r', '\n').split("\n", -1))
+		{
+			String trimmed = line.trim();
+			if (trimmed.startsWith(CachePolicy.HINT_PREFIX) || trimmed.startsWith(GraphInvalidation.HINT_PREFIX)) continue;
+			int end = line.length();
+			while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) end--;
+			result.append (line, 0, end).append ('\n');
+		}
+		int start = 0;
+		while (start < result.length() && result.charAt(start) == '\n') start++;
+		int end = result.length();
+		while (end > start && result.charAt(end - 1) == '\n') end--;
+		return result.substring(start, end);
+	}
+
+	/**
+	 * @param storeIdentity identifies the triple store, see {@link AbstractTripleStore#getCacheIdentity()}
+	 * @param normalisedQuery query as returned by {@link #normalise(String)}
+	 * @return hex encoded SHA-256 digest
+	 */
+	public static String key(String storeIdentity, String normalisedQuery)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException ex)
+		{
+			// SHA-256 is required on every Java platform
+			throw new IllegalStateException(ex);
+		}
+		digest.update (storeIdentity.getBytes(UTF8));
+		digest.update ((byte)0);
+		byte[] hash = digest.digest(normalisedQuery.getBytes(UTF8));
+		StringBuilder result = new StringBuilder();
+		for (byte b : hash) result.append (String.format("%02x", b & 0xFF));
+		return result.toString();
+	}
+
+	/** @return the file for a cache key, in the format used for new entries. The parent directories may not exist yet. */
+	public File getFile(String key)
+	{
+		return getFile(key, format);
+	}
+
+	/** @return the file for a cache key in the given format. The parent directories may not exist yet. */
+	public File getFile(String key, Format format)
+	{
+		return new File (getSubdir(key), key + format.getSuffix());
+	}
+
+	/** @return the file for the results of a CONSTRUCT query. The parent directories may not exist yet. */
+	public File getConstructFile(String key)
+	{
+		return new File (getSubdir(key), key + CONSTRUCT_SUFFIX);
+	}
+
+	private File getSubdir(String key)
+	{
+		return new File (new File (dir, key.substring(0, 2)), key.substring(2, 4));
+	}
+
+	/** Format for new cache entries. Default is {@link Format#BINARY}. */
+	public void setFormat(Format value)
+	{
+		format = value;
+	}
+
+	public Format getFormat()
+	{
+		return format;
+	}
+
+	/** Write the header that identifies a cache entry, created now. Must be the first thing written to the entry. */
+	public static void writeHeader(OutputStream os, String storeIdentity, String normalisedQuery) throws IOException
+	{
+		writeHeader (os, storeIdentity, normalisedQuery, System.currentTimeMillis());
+	}
+
+	/**
+	 * Write the header that identifies a cache entry. Must be the first thing written to the entry.
+	 * @param created time the results were fetched from the triple store, used for the {@link CachePolicy}
+	 */
+	public static void writeHeader(OutputStream os, String storeIdentity, String normalisedQuery, long created) throws IOException
+	{
+		StringBuilder header = new StringBuilder();
+		header.append (HEADER_STORE).append (storeIdentity.replace('\n', ' ')).append ('\n');
+		header.append (HEADER_CREATED).append (created).append ('\n');
+		header.append (HEADER_QUERY).append ('\n');
+		for (String line : normalisedQuery.split("\n", -1))
+		{
+			header.append ("# ").append (line).append ('\n');
+		}
+		header.append (HEADER_END).append ('\n');
+		os.write (header.toString().getBytes(UTF8));
+	}
+
+	/** read a line terminated by \n, or null at end of stream */
+	private static String readLine(InputStream is) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c;
+		while ((c = is.read()) != '\n')
+		{
+			if (c < 0)
+			{
+				if (line.size() == 0) return null;
+				break;
+			}
+			line.write (c);
+		}
+		return new String (line.toByteArray(), UTF8);
+	}
+
+	/**
+	 * Read and check the header of a cache entry.
+	 * @return the time the entry was created, 0 if unknown, or -1 if the entry was not written for this store and query.
+	 */
+	static long readHeader(InputStream is, String storeIdentity, String normalisedQuery) throws IOException
+	{
+		String line = readLine(is);
+		if (line == null || !line.equals(HEADER_STORE + storeIdentity.replace('\n', ' '))) return -1;
+		line = readLine(is);
+		long created = 0; // entries written before the creation time was recorded
+		if (line != null && line.startsWith(HEADER_CREATED))
+		{
+			try
+			{
+				created = Long.parseLong(line.substring(HEADER_CREATED.length()));
+			}
+			catch (NumberFormatException ex)
+			{
+				return -1;
+			}
+			line = readLine(is);
+		}
+		if (!HEADER_QUERY.equals(line)) return -1;
+		StringBuilder query = new StringBuilder();
+		boolean first = true;
+		while (true)
+		{
+			line = readLine(is);
+			if (line == null) return -1;
+			if (line.equals(HEADER_END)) break;
+			if (!line.startsWith("# ")) return -1;
+			if (!first) query.append ('\n');
+			query.append (line, 2, line.length());
+			first = false;
+		}
+		return query.toString().equals(normalisedQuery) ? created : -1;
+	}
+
+	/**
+	 * Open a cache entry in {@link Format#TSV}, if it exists and was written for this store and query.
+	 * @return a stream positioned just after the header, or null if there is no valid entry.
+	 */
+	public InputStream open(String key, String storeIdentity, String normalisedQuery) throws IOException
+	{
+		return openTsv(key, storeIdentity, normalisedQuery, new long[1]);
+	}
+
+	/** @param created receives the creation time of the entry */
+	private InputStream openTsv(String key, String storeIdentity, String normalisedQuery, long[] created) throws IOException
+	{
+		return openText(getFile(key, Format.TSV), storeIdentity, normalisedQuery, created);
+	}
+
+	/** open a gzipped entry that starts with the text header */
+	private static InputStream openText(File f, String storeIdentity, String normalisedQuery, long[] created) throws IOException
+	{
+		if (!f.exists()) return null;
+		InputStream is = null;
+		boolean ok = false;
+		try
+		{
+			is = new BufferedInputStream(HFileUtils.openZipStream(f));
+			created[0] = readHeader(is, storeIdentity, normalisedQuery);
+			ok = created[0] >= 0;
+		}
+		catch (IOException ex)
+		{
+			// truncated or corrupt entry, treat as missing so that it is replaced
+		}
+		finally
+		{
+			if (!ok && is != null) is.close();
+		}
+		return ok ? is : null;
+	}
+
+	/** Cached results, as read from disk or memory */
+	static final class CachedEntry
+	{
+		final RecordStream records;
+		/** time the results were fetched from the triple store */
+		final long created;
+		/** true if the results should be refreshed in the background, see {@link CachePolicy#createStaleWhileRevalidate(long, long)} */
+		final boolean stale;
+		/** size of the entry on disk in bytes, or -1 for results held in memory */
+		final long size;
+
+		CachedEntry(RecordStream records, long created, boolean stale, long size)
+		{
+			this.records = records;
+			this.created = created;
+			this.stale = stale;
+			this.size = size;
+		}
+	}
+
+	/** Cached results of a CONSTRUCT query, read from disk */
+	static final class CachedTriples
+	{
+		/** N-Triples, positioned just after the header */
+		final InputStream ntriples;
+		/** time the results were fetched from the triple store */
+		final long created;
+		/** true if the results should be refreshed in the background, see {@link CachePolicy#createStaleWhileRevalidate(long, long)} */
+		final boolean stale;
+		/** size of the entry on disk in bytes */
+		final long size;
+
+		CachedTriples(InputStream ntriples, long created, boolean stale, long size)
+		{
+			this.ntriples = ntriples;
+			this.created = created;
+			this.stale = stale;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Open the cache entry for a CONSTRUCT query, if it exists and was written for this store and query.
+	 * The age of the entry is not checked.
+	 * @return the cached triples, or null if there is no valid entry.
+	 */
+	CachedTriples openConstruct(String key, String storeIdentity, String normalisedQuery) throws IOException
+	{
+		long[] created = new long[1];
+		InputStream is = openText(getConstructFile(key), storeIdentity, normalisedQuery, created);
+		return (is == null) ? null : new CachedTriples(is, created[0], false, getConstructFile(key).length());
+	}
+
+	/**
+	 * Read the cache entry for a CONSTRUCT query, and record a cache hit if there is one.
+	 * @param policy an entry that is expired according to this policy is not used.
+	 * @return the cached triples, or null if there is no valid entry.
+	 */
+	CachedTriples readConstruct(String key, String storeIdentity, String normalisedQuery, String query, CachePolicy policy) throws IOException
+	{
+		CachedTriples result = openConstruct(key, storeIdentity, normalisedQuery);
+		if (result == null) return null;
+		CachePolicy.Freshness freshness = policy.check(result.created, System.currentTimeMillis());
+		if (freshness == CachePolicy.Freshness.EXPIRED || isInvalidated(query, result.created))
+		{
+			// will be replaced when the query is run again
+			result.ntriples.close();
+			return null;
+		}
+		hit(query, getConstructFile(key));
+		if (freshness == CachePolicy.Freshness.STALE)
+		{
+			staleHits.incrementAndGet();
+			return new CachedTriples(result.ntriples, result.created, true, result.size);
+		}
+		return result;
+	}
+
+	/**
+	 * Open a cache entry in the given format, if it exists and was written for this store and query.
+	 * The age of the entry is not checked.
+	 * @return the cached results, or null if there is no valid entry.
+	 */
+	CachedEntry open(String key, Format format, String storeIdentity, String normalisedQuery) throws IOException
+	{
+		if (format == Format.TSV)
+		{
+			long[] created = new long[1];
+			InputStream is = openTsv(key, storeIdentity, normalisedQuery, created);
+			return (is == null) ? null : new CachedEntry(TsvRecordStream.open(is).filterComments().get(), created[0], false, getFile(key, Format.TSV).length());
+		}
+		File f = getFile(key, Format.BINARY);
+		if (!f.exists()) return null;
+		try
+		{
+			BinaryResultFormat.Reader reader = BinaryResultFormat.Reader.open(new FileInputStream(f), f.length(), storeIdentity, normalisedQuery);
+			return (reader == null) ? null : new CachedEntry(reader, reader.getCreated(), false, f.length());
+		}
+		catch (IOException ex)
+		{
+			// corrupt entry, treat as missing so that it is replaced
+			return null;
+		}
+	}
+
+	/**
+	 * Read a cache entry in either format, preferring the format used for new entries, and record a cache hit if there is one.
+	 * @param policy an entry that is expired according to this policy is not used.
+	 * @return the cached results, or null if there is no valid entry.
+	 */
+	CachedEntry read(String key, String storeIdentity, String normalisedQuery, String query, CachePolicy policy) throws IOException
+	{
+		Format preferred = format;
+		for (Format f : new Format[] { preferred, preferred == Format.BINARY ? Format.TSV : Format.BINARY })
+		{
+			CachedEntry result = open(key, f, storeIdentity, normalisedQuery);
+			if (result == null) continue;
+			CachePolicy.Freshness freshness = policy.check(result.created, System.currentTimeMillis());
+			if (freshness == CachePolicy.Freshness.EXPIRED || isInvalidated(query, result.created))
+			{
+				// will be replaced when the query is run again
+				result.records.close();
+				continue;
+			}
+			hit(query, getFile(key, f));
+			if (freshness == CachePolicy.Freshness.STALE)
+			{
+				staleHits.incrementAndGet();
+				return new CachedEntry(result.records, result.created, true, result.size);
+			}
+			return result;
+		}
+		return null;
+	}
+
+	/**
+	 * Write a complete cache entry, including the header. The output stream is not closed.
+	 * @param created time the query was started
+	 * @param delta time the query took in the triple store, in msec.
+	 */
+	static void writeEntry(Format format, OutputStream os, TripleStore store, String storeIdentity, String normalisedQuery,
+			RecordStream rs, String query, long created, long delta) throws IOException
+	{
+		if (format == Format.BINARY)
+		{
+			BinaryResultFormat.Writer writer = new BinaryResultFormat.Writer(os, storeIdentity, normalisedQuery, created, rs.getMetaData());
+			writer.addAll(rs);
+			writer.finish(delta);
+		}
+		else
+		{
+			GZIPOutputStream gos = new GZIPOutputStream(os);
+			writeHeader(gos, storeIdentity, normalisedQuery, created);
+			Utils.queryResultsToFile(store, delta, rs, query, gos);
+			gos.finish();
+		}
+	}
+
+	/**
+	 * Move a completely written temporary file into place as the entry for a key.
+	 * An entry for the same key in the other format is removed, so that it can't be read instead.
+	 */
+	void install(File tmp, String key, Format format) throws IOException
+	{
+		for (Format f : Format.values())
+		{
+			// an invalid entry may be in the way
+			getFile(key, f).delete();
+		}
+		File out = getFile(key, format);
+		if (!tmp.renameTo(out)) throw new IOException ("Couldn't rename " + tmp + " to " + out);
+	}
+
+	/** Move a completely written temporary file into place as the entry for a CONSTRUCT query. */
+	void installConstruct(File tmp, String key) throws IOException
+	{
+		File out = getConstructFile(key);
+		// an invalid entry may be in the way
+		out.delete();
+		if (!tmp.renameTo(out)) throw new IOException ("Couldn't rename " + tmp + " to " + out);
+	}
+
+	/** Maximum total size of the cache in bytes, or -1 for no limit (the default) */
+	public void setMaxSize(long value)
+	{
+		maxSize = value;
+	}
+
+	public long getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/** Maximum time in milliseconds since an entry was last used, or -1 for no limit (the default) */
+	public void setMaxAge(long value)
+	{
+		maxAge = value;
+	}
+
+	public long getMaxAge()
+	{
+		return maxAge;
+	}
+
+	public void addListener(QueryCacheListener l) { listeners.add (l); }
+
+	public void removeListener(QueryCacheListener l) { listeners.remove (l); }
+
+	/** Record a cache hit, updating the access time of the entry */
+	void hit(String query, File entry) throws IOException
+	{
+		// merely "touch" the file, so we know the cached file was used recently.
+		org.apache.commons.io.FileUtils.touch(entry);
+		hits.incrementAndGet();
+		for (QueryCacheListener l : listeners) l.cacheHit(query);
+	}
+
+	void miss(String query)
+	{
+		misses.incrementAndGet();
+		for (QueryCacheListener l : listeners) l.cacheMiss(query);
+	}
+
+	/**
+	 * Keep small results in memory, in addition to on disk.
+	 * @param maxBytes maximum estimated memory use for all results together, or 0 to disable the memory tier (the default)
+	 * @param maxEntryBytes results larger than this are not kept in memory
+	 */
+	public void setMemoryLimit(long maxBytes, long maxEntryBytes)
+	{
+		memory = (maxBytes <= 0) ? null : new MemoryQueryCache(maxBytes, maxEntryBytes);
+	}
+
+	/**
+	 * @param policy a result that is expired according to this policy is dropped from memory.
+	 * @return a new stream over a result held in memory, or null if it's not in memory
+	 */
+	CachedEntry getFromMemory(String key, String query, CachePolicy policy)
+	{
+		MemoryQueryCache m = memory;
+		if (m == null) return null;
+		MemoryQueryCache.ColumnarResult result = m.getResult(key);
+		if (result == null) return null;
+		CachePolicy.Freshness freshness = policy.check(result.getCreated(), System.currentTimeMillis());
+		if (freshness == CachePolicy.Freshness.EXPIRED || isInvalidated(query, result.getCreated()))
+		{
+			m.remove(key);
+			return null;
+		}
+		memoryHits.incrementAndGet();
+		hits.incrementAndGet();
+		for (QueryCacheListener l : listeners) l.cacheHit(query);
+		boolean stale = (freshness == CachePolicy.Freshness.STALE);
+		if (stale) staleHits.incrementAndGet();
+		return new CachedEntry(result.stream(), result.getCreated(), stale, -1);
+	}
+
+	/**
+	 * Keep a result in memory if it is small enough.
+	 * @param created time the result was fetched from the triple store
+	 * @return a stream with the same records as rs, which should be used instead of rs.
+	 */
+	RecordStream keepInMemory(String key, RecordStream rs, long created) throws StreamException
+	{
+		MemoryQueryCache m = memory;
+		return m == null ? rs : m.capture(key, rs, created);
+	}
+
+	/** drop a result from memory, e.g. because a newer result was written to disk */
+	void forgetInMemory(String key)
+	{
+		MemoryQueryCache m = memory;
+		if (m != null) m.remove(key);
+	}
+
+	/** @return estimated memory use of the results held in memory */
+	public long getMemorySize()
+	{
+		MemoryQueryCache m = memory;
+		return m == null ? 0 : m.getSize();
+	}
+
+	/** @return number of results held in memory */
+	public int getMemoryEntryCount()
+	{
+		MemoryQueryCache m = memory;
+		return m == null ? 0 : m.getEntryCount();
+	}
+
+	/** @return number of queries answered from memory, included in {@link #getHits()} */
+	public long getMemoryHits() { return memoryHits.get(); }
+
+	/** A query that is being run and written to the cache by one thread, while other threads wait for it. */
+	static final class Flight
+	{
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final Thread owner = Thread.currentThread();
+		private volatile Throwable error = null;
+		/** time the results were handed to the caller of a write-through query, or 0 */
+		private volatile long streamingSince = 0;
+
+		/** @return true if the calling thread took off with this flight */
+		boolean isOwnedByCurrentThread()
+		{
+			return owner == Thread.currentThread();
+		}
+
+		/**
+		 * Wait until the leading thread has written the entry.
+		 * <p>
+		 * A write-through entry is only complete when the caller of the leading thread has read all results,
+		 * which may never happen if the results are dropped. So the wait for a write-through entry is limited.
+		 * @param streamingWait maximum time to wait for a write-through entry, in msec.
+		 * @return false if the write-through entry wasn't complete in time, in which case the caller should give up on this flight.
+		 * @throws StreamException if the leading thread failed.
+		 */
+		boolean await(long streamingWait) throws StreamException
+		{
+			try
+			{
+				long wait = streamingWait;
+				while (!done.await(wait, TimeUnit.MILLISECONDS))
+				{
+					long since = streamingSince;
+					if (since == 0) continue; // still running the query, no limit
+					wait = since + streamingWait - System.currentTimeMillis();
+					if (wait <= 0) return false;
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new StreamException(new InterruptedIOException("Interrupted while waiting for the same query in another thread"));
+			}
+			if (error != null) throw new StreamException(error);
+			return true;
+		}
+	}
+
+	/**
+	 * Announce that the calling thread is going to run a query and write it to the cache.
+	 * @return null if the caller should run the query, in which case it must call {@link #land(String, Throwable)} when done.
+	 *   Otherwise another thread is already running the same query, and the caller should wait for the returned flight and then read from the cache.
+	 */
+	Flight takeOff(String key)
+	{
+		Flight existing = inFlight.putIfAbsent(key, new Flight());
+		if (existing != null) coalesced.incrementAndGet();
+		return existing;
+	}
+
+	/**
+	 * Like {@link #takeOff(String)}, but for a background refresh, that doesn't wait for a query that is already running.
+	 * @return true if the caller should run the query, in which case it must call {@link #land(String, Throwable)} when done.
+	 */
+	boolean claim(String key)
+	{
+		return inFlight.putIfAbsent(key, new Flight()) == null;
+	}
+
+	/**
+	 * Signal that the cache entry has been written, or that writing failed. Wakes up waiting threads.
+	 * @param error null on success, otherwise the exception to pass on to the waiting threads.
+	 */
+	void land(String key, Throwable error)
+	{
+		Flight flight = inFlight.get(key);
+		if (flight != null) land(key, flight, error);
+	}
+
+	/**
+	 * Like {@link #land(String, Throwable)}, for a given flight. Does not affect a later flight for the same key,
+	 * so this can also be used to give up on a flight, see {@link Flight#await(long)}.
+	 */
+	void land(String key, Flight flight, Throwable error)
+	{
+		inFlight.remove(key, flight);
+		if (flight.done.getCount() == 0) return;
+		flight.error = error;
+		flight.done.countDown();
+	}
+
+	/**
+	 * Mark that the results of the flight for the given key are handed to the caller, while the entry is being written.
+	 * From now on, other threads wait for this flight for a limited time only, see {@link #setWriteThroughWait(long)}.
+	 * @return the flight, which must be landed with {@link #land(String, Flight, Throwable)}.
+	 */
+	Flight startStreaming(String key)
+	{
+		Flight flight = inFlight.get(key);
+		if (flight != null) flight.streamingSince = System.currentTimeMillis();
+		return flight;
+	}
+
+	/**
+	 * If true, on a cache miss the results are returned to the caller while they are being written to the cache,
+	 * instead of after the entry is complete. This gives a much shorter time to the first row for large results.
+	 * The entry is only committed if the caller reads the results to the end.
+	 * <p>
+	 * Note that the records are then passed on as returned by the triple store. With {@link Format#TSV},
+	 * records read from the cache later have the values as parsed from TSV instead.
+	 * <p>
+	 * The caller should read the results to the end or close them. Results that are dropped keep a writer thread
+	 * and a temporary file in the cache directory, which is removed by {@link #evict()} after a day.
+	 * Other threads running the same query meanwhile wait at most {@link #setWriteThroughWait(long)} for the entry,
+	 * and then run the query themselves. A thread that runs the same query again doesn't wait at all.
+	 * Default is false.
+	 */
+	public void setWriteThrough(boolean value)
+	{
+		writeThrough = value;
+	}
+
+	public boolean isWriteThrough()
+	{
+		return writeThrough;
+	}
+
+	/**
+	 * Maximum time in milliseconds that a thread waits for another thread that is reading the write-through results
+	 * of the same query, see {@link #setWriteThrough(boolean)}. Default is 10 seconds.
+	 */
+	public void setWriteThroughWait(long value)
+	{
+		writeThroughWait = value;
+	}
+
+	public long getWriteThroughWait()
+	{
+		return writeThroughWait;
+	}
+
+	/**
+	 * Policy used for queries without a policy of their own. Default is {@link CachePolicy#FOREVER}.
+	 */
+	public void setDefaultPolicy(CachePolicy value)
+	{
+		if (value == null) throw new NullPointerException();
+		defaultPolicy = value;
+	}
+
+	public CachePolicy getDefaultPolicy()
+	{
+		return defaultPolicy;
+	}
+
+	/**
+	 * Set the policy for a single query. The query is normalised, so differences in line endings and trailing whitespace don't matter.
+	 * This takes precedence over a policy given as a hint in the query itself.
+	 * @param policy the policy, or null to remove it.
+	 */
+	public void setPolicy(String query, CachePolicy policy)
+	{
+		String normalised = normalise(query);
+		if (policy == null) policies.remove(normalised);
+		else policies.put(normalised, policy);
+	}
+
+	/**
+	 * @return the policy for a query: set with {@link #setPolicy(String, CachePolicy)}, or given as a hint in the query,
+	 *   or otherwise the default policy.
+	 */
+	public CachePolicy getPolicy(String query)
+	{
+		CachePolicy result = policies.get(normalise(query));
+		if (result == null) result = CachePolicy.fromQuery(query);
+		if (result == null) result = defaultPolicy;
+		return result;
+	}
+
+	/**
+	 * Declare the named graphs a query depends on. This takes precedence over the graphs declared in a comment line in the query,
+	 * and the graphs derived from the query itself.
+	 * @param graphs graph URI's, or null to remove the declaration.
+	 */
+	public void setGraphs(String query, Collection<String> graphs)
+	{
+		String normalised = normalise(query);
+		if (graphs == null) declaredGraphs.remove(normalised);
+		else declaredGraphs.put(normalised, Collections.unmodifiableSet(new LinkedHashSet<String>(graphs)));
+	}
+
+	/**
+	 * The named graphs a query depends on: declared with {@link #setGraphs(String, Collection)}, or in a comment line
+	 * in the query like <code># graphs: &lt;http://example.com/g1&gt; &lt;http://example.com/g2&gt;</code>,
+	 * or otherwise taken from the <code>FROM</code> and <code>GRAPH</code> clauses of the query.
+	 * @return graph URI's, or null if the query may depend on any graph.
+	 */
+	public Set<String> getGraphs(String query)
+	{
+		Set<String> result = declaredGraphs.get(normalise(query));
+		if (result == null) result = GraphInvalidation.getGraphs(query);
+		return result;
+	}
+
+	/**
+	 * Record that a named graph was modified, e.g. because it was loaded, deleted or renamed.
+	 * Entries for queries that depend on the graph, or that may depend on any graph, are not used anymore.
+	 * This also affects other processes using the same cache directory.
+	 */
+	public void invalidateGraph(String graphUri) throws IOException
+	{
+		invalidateGraphs(Collections.singleton(graphUri));
+	}
+
+	/** Record that several named graphs were modified, see {@link #invalidateGraph(String)}. */
+	public void invalidateGraphs(Collection<String> graphUris) throws IOException
+	{
+		graphInvalidation.invalidate(graphUris);
+	}
+
+	/** @return true if a graph the query depends on was modified after the entry was created */
+	private boolean isInvalidated(String query, long created)
+	{
+		long modified = graphInvalidation.getLastModified(getGraphs(query));
+		// a graph modified during the query may or may not be reflected in the results, so that entry is not used either.
+		return modified > 0 && modified >= created;
+	}
+
+	/** Run a background refresh of a stale entry, on a daemon thread */
+	synchronized void refresh(Runnable task)
+	{
+		if (refresher == null)
+		{
+			refresher = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread (r, "QueryCache refresh " + dir);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		refresher.execute(task);
+	}
+
+	/** @return number of stale results returned while they were refreshed, included in {@link #getHits()} */
+	public long getStaleHits() { return staleHits.get(); }
+
+	/** @return number of queries that waited for the same query in another thread, instead of running it themselves */
+	public long getCoalesced() { return coalesced.get(); }
+
+	/** @return number of queries answered from the cache, since this object was created */
+	public long getHits() { return hits.get(); }
+
+	/** @return number of queries not found in the cache, since this object was created */
+	public long getMisses() { return misses.get(); }
+
+	/** @return number of entries evicted by this object */
+	public long getEvictedEntries() { return evictedEntries.get(); }
+
+	/** @return total size of the entries evicted by this object */
+	public long getEvictedBytes() { return evictedBytes.get(); }
+
+	/**
+	 * Run {@link #evict()} periodically on a daemon thread, until {@link #stopEviction()} is called.
+	 * @param intervalMsec time between eviction runs
+	 */
+	public synchronized void startEviction(long intervalMsec)
+	{
+		stopEviction();
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread (r, "QueryCache eviction " + dir);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					evict();
+				}
+				catch (IOException ex)
+				{
+					// try again next time, the cache still works without eviction
+					log.warn("Eviction of query cache " + dir + " failed", ex);
+				}
+			}
+		}, 0, intervalMsec, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stop the background eviction thread, if it is running. */
+	public synchronized void stopEviction()
+	{
+		if (evictor != null)
+		{
+			evictor.shutdownNow();
+			evictor = null;
+		}
+	}
+
+	private static class Entry
+	{
+		final File file;
+		final long lastModified;
+		final long length;
+
+		Entry (File file)
+		{
+			this.file = file;
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+		}
+	}
+
+	private static boolean isEntry(String name)
+	{
+		for (Format f : Format.values())
+		{
+			if (name.endsWith(f.getSuffix())) return true;
+		}
+		return name.endsWith(CONSTRUCT_SUFFIX);
+	}
+
+	private static void collect(File dir, List<Entry> entries, List<File> tmpFiles)
+	{
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File f : files)
+		{
+			if (f.isDirectory()) collect (f, entries, tmpFiles);
+			else if (isEntry(f.getName())) entries.add (new Entry(f));
+			else if (f.getName().endsWith(".tmp")) tmpFiles.add (f);
+		}
+	}
+
+	/** delete an entry, unless it was used since it was scanned */
+	private static boolean delete(Entry e)
+	{
+		return e.file.lastModified() == e.lastModified && e.file.delete();
+	}
+
+	/**
+	 * Remove entries older than the maximum age, and then the least recently used entries until the cache is below the maximum size.
+	 * Does nothing if another process or thread is already evicting from the same directory.
+	 * @return number of entries removed
+	 */
+	public int evict() throws IOException
+	{
+		if (maxSize < 0 && maxAge < 0) return 0;
+		if (!dir.exists()) return 0;
+
+		RandomAccessFile lockFile = new RandomAccessFile(new File (dir, LOCK_FILE), "rw");
+		try
+		{
+			FileLock lock;
+			try
+			{
+				lock = lockFile.getChannel().tryLock();
+			}
+			catch (OverlappingFileLockException ex)
+			{
+				// another QueryCache in this JVM is evicting the same directory
+				return 0;
+			}
+			if (lock == null) return 0;
+			try
+			{
+				return evictLocked();
+			}
+			finally
+			{
+				lock.release();
+			}
+		}
+		finally
+		{
+			lockFile.close();
+		}
+	}
+
+	private int evictLocked()
+	{
+		List<Entry> entries = new ArrayList<Entry>();
+		List<File> tmpFiles = new ArrayList<File>();
+		collect (dir, entries, tmpFiles);
+
+		// the limits may be changed by another thread while evicting
+		long maxSize = this.maxSize;
+		long maxAge = this.maxAge;
+		long now = System.currentTimeMillis();
+		for (File f : tmpFiles)
+		{
+			if (now - f.lastModified() > STALE_TMP_AGE) f.delete();
+		}
+
+		Collections.sort (entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b)
+			{
+				return Long.compare(a.lastModified, b.lastModified);
+			}
+		});
+
+		long total = 0;
+		for (Entry e : entries) total += e.length;
+
+		int count = 0;
+		long bytes = 0;
+		long target = maxSize < 0 ? Long.MAX_VALUE : (long)(maxSize * LOW_WATER_MARK);
+		boolean overSize = maxSize >= 0 && total > maxSize;
+		for (Entry e : entries)
+		{
+			boolean expired = maxAge >= 0 && now - e.lastModified > maxAge;
+			boolean needSpace = overSize && total > target;
+			if (!expired && !needSpace) break; // entries are sorted by age, so the rest are newer
+			if (delete(e))
+			{
+				total -= e.length;
+				bytes += e.length;
+				count++;
+			}
+		}
+
+		if (count > 0)
+		{
+			evictedEntries.addAndGet(count);
+			evictedBytes.addAndGet(bytes);
+			for (QueryCacheListener l : listeners) l.cacheEvicted(count, bytes);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,25 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+/**
+ * Receives events from a {@link QueryCache}, for example to collect hit rate statistics.
+ * Events can be fired from the eviction thread, so implementations must be thread-safe.
+ */
+public interface QueryCacheListener
+{
+	/** A query was answered from the cache */
+	public void cacheHit(String query);
+
+	/** A query was not found in the cache, and will be sent to the triple store */
+	public void cacheMiss(String query);
+
+	/** 
+	 * Entries were removed by an eviction run.
+	 * @param entries number of entries removed
+	 * @param bytes total size of the removed entries
+	 */
+	public void cacheEvicted(int entries, long bytes);
+}
@@ -0,0 +1,105 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+/**
+ * Describes a completed query, see {@link QueryEventListener}.
+ * <p>
+ * A query is complete when the caller has read all results, closed the results, or when the query failed.
+ * So unlike {@link TripleStoreListener#queryPerformed(String, long)}, the times include reading the results.
+ * <p>
+ * Instances are immutable.
+ */
+public final class QueryEvent
+{
+	/** Kind of query */
+	public enum Type
+	{
+		SELECT,
+		CONSTRUCT
+	}
+
+	/** Where the results came from */
+	public enum CacheStatus
+	{
+		/** caching is disabled, or the {@link CachePolicy} excludes the query from caching */
+		NOT_CACHED,
+		/** the results were read from the cache on disk */
+		HIT,
+		/** the results were held in memory, see {@link QueryCache#setMemoryLimit(long, long)} */
+		MEMORY_HIT,
+		/** the query was sent to the triple store, and the results were cached */
+		MISS
+	}
+
+	private final Type type;
+	private final String query;
+	private final String storeIdentity;
+	private final CacheStatus cacheStatus;
+	private final long startTime;
+	private final long timeToFirstRow;
+	private final long totalTime;
+	private final long rows;
+	private final long bytes;
+	private final boolean complete;
+	private final Throwable error;
+
+	QueryEvent(Type type, String query, String storeIdentity, CacheStatus cacheStatus, long startTime, long timeToFirstRow,
+			long totalTime, long rows, long bytes, boolean complete, Throwable error)
+	{
+		this.type = type;
+		this.query = query;
+		this.storeIdentity = storeIdentity;
+		this.cacheStatus = cacheStatus;
+		this.startTime = startTime;
+		this.timeToFirstRow = timeToFirstRow;
+		this.totalTime = totalTime;
+		this.rows = rows;
+		this.bytes = bytes;
+		this.complete = complete;
+		this.error = error;
+	}
+
+	public Type getType() { return type; }
+
+	/** @return the query, as passed by the caller */
+	public String getQuery() { return query; }
+
+	/** @return identifies the triple store that answered the query, see {@link AbstractTripleStore#getCacheIdentity()} */
+	public String getStoreIdentity() { return storeIdentity; }
+
+	public CacheStatus getCacheStatus() { return cacheStatus; }
+
+	/** @return time the query was started, in milliseconds since the epoch */
+	public long getStartTime() { return startTime; }
+
+	/** @return milliseconds from the start of the query until the first row or triple was returned, or -1 if there were none */
+	public long getTimeToFirstRow() { return timeToFirstRow; }
+
+	/** @return milliseconds from the start of the query until the last result was read, the results were closed or the query failed */
+	public long getTotalTime() { return totalTime; }
+
+	/** @return number of rows or triples returned to the caller */
+	public long getRows() { return rows; }
+
+	/**
+	 * @return number of bytes read from the cache entry, or written to the output stream of {@link TripleStore#sparqlConstruct(String, java.io.OutputStream)},
+	 *  or -1 if unknown, e.g. for results returned directly by the triple store.
+	 */
+	public long getBytes() { return bytes; }
+
+	/** @return false if the caller closed the results before reading all of them, or the query failed */
+	public boolean isComplete() { return complete; }
+
+	/** @return the exception that made the query fail, or null if it didn't fail */
+	public Throwable getError() { return error; }
+
+	@Override
+	public String toString()
+	{
+		return type + " " + cacheStatus + " rows=" + rows + " first=" + timeToFirstRow + "ms total=" + totalTime + "ms" +
+				(error == null ? "" : " error=" + error) + " on " + storeIdentity;
+	}
+}
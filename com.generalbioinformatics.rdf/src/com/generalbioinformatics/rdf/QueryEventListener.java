@@ -0,0 +1,17 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+/**
+ * Receives a {@link QueryEvent} for every query on a {@link TripleStore}, including queries answered from the cache.
+ * <p>
+ * Events are fired on the thread that reads the results, so implementations must be thread-safe, and should be fast.
+ * See {@link QueryLatencyListener} for an implementation that collects latency histograms.
+ */
+public interface QueryEventListener
+{
+	/** A query completed, failed, or its results were closed. Fired exactly once per query. */
+	public void queryCompleted(QueryEvent event);
+}
@@ -0,0 +1,227 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import com.generalbioinformatics.rdf.stream.Statement;
+
+import nl.helixsoft.recordstream.AbstractRecordStream;
+import nl.helixsoft.recordstream.AbstractStream;
+import nl.helixsoft.recordstream.Record;
+import nl.helixsoft.recordstream.RecordMetaData;
+import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.Stream;
+import nl.helixsoft.recordstream.StreamException;
+
+/**
+ * Measures a single query while the caller reads its results, and fires a {@link QueryEvent} when it is complete.
+ * <p>
+ * If the store has no {@link QueryEventListener}s when the query starts, nothing is measured and results are not wrapped.
+ */
+final class QueryEventRecorder
+{
+	private final AbstractTripleStore store;
+	private final boolean active;
+	private final QueryEvent.Type type;
+	private final String query;
+	private final long start = System.currentTimeMillis();
+	private QueryEvent.CacheStatus cacheStatus = QueryEvent.CacheStatus.NOT_CACHED;
+	private long firstRow = -1;
+	private long rows = 0;
+	private long bytes = -1;
+	private boolean finished = false;
+
+	QueryEventRecorder(AbstractTripleStore store, QueryEvent.Type type, String query)
+	{
+		this.store = store;
+		this.active = store.hasQueryEventListeners();
+		this.type = type;
+		this.query = query;
+	}
+
+	long getStart()
+	{
+		return start;
+	}
+
+	void setCacheStatus(QueryEvent.CacheStatus value)
+	{
+		cacheStatus = value;
+	}
+
+	/** @param value size of the cache entry, or -1 if unknown */
+	void setBytes(long value)
+	{
+		bytes = value;
+	}
+
+	private void row()
+	{
+		if (rows++ == 0) firstRow = System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Fire the event, if it wasn't fired already.
+	 * @param complete true if all results were read
+	 * @param error exception that made the query fail, or null
+	 */
+	void finish(boolean complete, Throwable error)
+	{
+		if (!active || finished) return;
+		finished = true;
+		store.fireQueryCompleted(new QueryEvent(type, query, store.getCacheIdentity(), cacheStatus, start, firstRow,
+				System.currentTimeMillis() - start, rows, bytes, complete && error == null, error));
+	}
+
+	/** @return records that are counted as the caller reads them */
+	RecordStream wrap(final RecordStream parent)
+	{
+		if (!active) return parent;
+		return new AbstractRecordStream()
+		{
+			@Override
+			public Record getNext() throws StreamException
+			{
+				Record r;
+				try
+				{
+					r = parent.getNext();
+				}
+				catch (StreamException ex)
+				{
+					finish(false, ex);
+					throw ex;
+				}
+				catch (RuntimeException ex)
+				{
+					finish(false, ex);
+					throw ex;
+				}
+				if (r == null) finish(true, null); else row();
+				return r;
+			}
+
+			@Override
+			public RecordMetaData getMetaData()
+			{
+				return parent.getMetaData();
+			}
+
+			@Override
+			public void close()
+			{
+				finish(false, null);
+				parent.close();
+			}
+		};
+	}
+
+	/** @return triples that are counted as the caller reads them */
+	Stream<Statement> wrap(final Stream<Statement> parent)
+	{
+		if (!active) return parent;
+		return new AbstractStream<Statement>()
+		{
+			@Override
+			public Iterator<Statement> iterator()
+			{
+				final Iterator<Statement> it = parent.iterator();
+				return new Iterator<Statement>()
+				{
+					@Override
+					public boolean hasNext()
+					{
+						boolean result;
+						try
+						{
+							result = it.hasNext();
+						}
+						catch (RuntimeException ex)
+						{
+							finish(false, ex);
+							throw ex;
+						}
+						if (!result) finish(true, null);
+						return result;
+					}
+
+					@Override
+					public Statement next()
+					{
+						Statement result;
+						try
+						{
+							result = it.next();
+						}
+						catch (RuntimeException ex)
+						{
+							finish(false, ex);
+							throw ex;
+						}
+						row();
+						return result;
+					}
+
+					@Override
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public void close()
+			{
+				finish(false, null);
+				parent.close();
+			}
+		};
+	}
+
+	/**
+	 * @return an output stream that counts the N-Triples written to it.
+	 *  The caller must call {@link #finish(boolean, Throwable)} when done.
+	 */
+	OutputStream wrap(OutputStream os)
+	{
+		if (!active) return os;
+		bytes = 0;
+		return new FilterOutputStream(os)
+		{
+			@Override
+			public void write(int b) throws IOException
+			{
+				out.write(b);
+				count(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				out.write(b, off, len);
+				for (int i = off; i < off + len; ++i) count(b[i]);
+			}
+
+			/** one triple per line */
+			private void count(int b)
+			{
+				bytes++;
+				if (b == '\n') row();
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				// the caller owns the stream
+				flush();
+			}
+		};
+	}
+}
@@ -0,0 +1,133 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates {@link QueryEvent}s into latency histograms, to find slow queries under load.
+ * <p>
+ * Total time and time to first row are counted separately per {@link QueryEvent.CacheStatus},
+ * as a cache hit and a query on the triple store have very different latencies.
+ * In addition, the slowest queries are kept, to see which queries are responsible for the tail of the histogram.
+ * Failed queries are counted, but not included in the histograms.
+ * <p>
+ * Usage: <code>store.addQueryEventListener(QueryLatencyListener.create(10))</code>
+ */
+public final class QueryLatencyListener implements QueryEventListener
+{
+	private static final Comparator<QueryEvent> BY_TOTAL_TIME = new Comparator<QueryEvent>()
+	{
+		@Override
+		public int compare(QueryEvent a, QueryEvent b)
+		{
+			return Long.compare(a.getTotalTime(), b.getTotalTime());
+		}
+	};
+
+	private final Map<QueryEvent.CacheStatus, LatencyHistogram> totalTime = new EnumMap<QueryEvent.CacheStatus, LatencyHistogram>(QueryEvent.CacheStatus.class);
+	private final Map<QueryEvent.CacheStatus, LatencyHistogram> firstRow = new EnumMap<QueryEvent.CacheStatus, LatencyHistogram>(QueryEvent.CacheStatus.class);
+	private final LatencyHistogram allTotalTime = new LatencyHistogram();
+	private final AtomicLong errors = new AtomicLong();
+
+	private final int maxSlowest;
+	/** the fastest of the slowest queries is at the head */
+	private final PriorityQueue<QueryEvent> slowest;
+	/** total time of the fastest query in {@link #slowest} once it is full, so most events can be skipped without locking */
+	private volatile long slowestThreshold = -1;
+
+	private QueryLatencyListener(int maxSlowest)
+	{
+		// all histograms are created up front, so the maps are never modified and can be read from any thread.
+		for (QueryEvent.CacheStatus status : QueryEvent.CacheStatus.values())
+		{
+			totalTime.put (status, new LatencyHistogram());
+			firstRow.put (status, new LatencyHistogram());
+		}
+		this.maxSlowest = maxSlowest;
+		this.slowest = new PriorityQueue<QueryEvent>(Math.max(1, maxSlowest), BY_TOTAL_TIME);
+	}
+
+	/** @param maxSlowest number of slowest queries to keep, see {@link #getSlowest()} */
+	public static QueryLatencyListener create(int maxSlowest)
+	{
+		if (maxSlowest < 0) throw new IllegalArgumentException("maxSlowest must not be negative");
+		return new QueryLatencyListener(maxSlowest);
+	}
+
+	@Override
+	public void queryCompleted(QueryEvent event)
+	{
+		if (event.getError() != null)
+		{
+			errors.incrementAndGet();
+			return;
+		}
+		allTotalTime.record(event.getTotalTime());
+		totalTime.get(event.getCacheStatus()).record(event.getTotalTime());
+		if (event.getTimeToFirstRow() >= 0) firstRow.get(event.getCacheStatus()).record(event.getTimeToFirstRow());
+		if (maxSlowest > 0 && event.getTotalTime() > slowestThreshold) addSlowest(event);
+	}
+
+	private synchronized void addSlowest(QueryEvent event)
+	{
+		slowest.add (event);
+		if (slowest.size() > maxSlowest) slowest.poll();
+		if (slowest.size() == maxSlowest) slowestThreshold = slowest.peek().getTotalTime();
+	}
+
+	/** @return total time of all successful queries */
+	public LatencyHistogram getTotalTime()
+	{
+		return allTotalTime;
+	}
+
+	/** @return total time of successful queries with the given cache status */
+	public LatencyHistogram getTotalTime(QueryEvent.CacheStatus status)
+	{
+		return totalTime.get(status);
+	}
+
+	/** @return time to first row of successful queries with the given cache status. Queries without results are not counted. */
+	public LatencyHistogram getTimeToFirstRow(QueryEvent.CacheStatus status)
+	{
+		return firstRow.get(status);
+	}
+
+	/** @return number of failed queries */
+	public long getErrors()
+	{
+		return errors.get();
+	}
+
+	/** @return the slowest successful queries so far, slowest first */
+	public synchronized List<QueryEvent> getSlowest()
+	{
+		List<QueryEvent> result = new ArrayList<QueryEvent>(slowest);
+		Collections.sort(result, Collections.reverseOrder(BY_TOTAL_TIME));
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder();
+		for (QueryEvent.CacheStatus status : QueryEvent.CacheStatus.values())
+		{
+			LatencyHistogram h = totalTime.get(status);
+			if (h.getCount() == 0) continue;
+			result.append (status).append (": ").append (h).append ('\n');
+		}
+		result.append ("errors: ").append (getErrors()).append ('\n');
+		return result.toString();
+	}
+}
@@ -4,19 +4,58 @@
 */
 package com.generalbioinformatics.rdf;
 
+import java.util.Map;
+
+import com.generalbioinformatics.rdf.stream.PrefixTrie;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 
 /**
  * A basic implementation of the {@link NamespaceMap} interface.
+ * <p>
+ * Lookups use a prefix trie, so they don't slow down with the number of namespaces.
+ * If an iri matches more than one namespace, the longest namespace is used.
  */
 public class SimpleNamespaceMap implements NamespaceMap 
 {
 	protected BiMap<String, String> nsMap = HashBiMap.create();
 
+	/** namespace -&gt; prefix and "prefix:" -&gt; namespace, rebuilt on demand after nsMap has changed. */
+	private static class Lookup
+	{
+		final PrefixTrie<String> byNamespace = new PrefixTrie<String>();
+		final PrefixTrie<String> byPrefix = new PrefixTrie<String>();
+		final int size;
+		
+		Lookup (BiMap<String, String> nsMap)
+		{
+			for (Map.Entry<String, String> e : nsMap.entrySet())
+			{
+				byPrefix.put (e.getKey() + ":", e.getValue());
+				byNamespace.put (e.getValue(), e.getKey());
+			}
+			size = nsMap.size();
+		}
+	}
+	
+	private volatile Lookup lookup = null;
+	
+	private Lookup getLookup()
+	{
+		Lookup result = lookup;
+		// size check in case subclasses modify nsMap directly
+		if (result == null || result.size != nsMap.size())
+		{
+			result = new Lookup(nsMap);
+			lookup = result;
+		}
+		return result;
+	}
+	
 	public void put (String prefix, String full)
 	{
 		nsMap.put (prefix, full);
+		lookup = null;
 	}
 
 	public void getNamespace (String prefix)
@@ -34,14 +73,9 @@ public class SimpleNamespaceMap implements NamespaceMap
 	 */
 	public String shorten(String iri)
 	{
-		for (String ns : nsMap.values())
-		{
-			if (iri.startsWith(ns))
-			{
-				return nsMap.inverse().get(ns) + ":" + iri.substring(ns.length());
-			}
-		}
-		return iri;
+		Map.Entry<String, String> match = getLookup().byNamespace.findLongestPrefix(iri);
+		if (match == null) return iri;
+		return match.getValue() + ":" + iri.substring(match.getKey().length());
 	}
 	
 	/**
@@ -49,14 +83,9 @@ public class SimpleNamespaceMap implements NamespaceMap
 	 */
 	public String expand(String shortForm)
 	{
-		for (String prefix : nsMap.keySet())
-		{
-			if (shortForm.startsWith(prefix + ":"))
-			{
-				return nsMap.get(prefix) + shortForm.substring(prefix.length() + 1);
-			}
-		}
-		return shortForm;
+		Map.Entry<String, String> match = getLookup().byPrefix.findLongestPrefix(shortForm);
+		if (match == null) return shortForm;
+		return match.getValue() + shortForm.substring(match.getKey().length());
 	}
 
 	
@@ -67,14 +96,9 @@ public class SimpleNamespaceMap implements NamespaceMap
 	 */
 	public Namespace findPrefix(String iri) 
 	{
-		for (String ns : nsMap.values())
-		{
-			if (iri.startsWith(ns))
-			{
-				return new DefaultNamespace (nsMap.inverse().get(ns), ns);
-			}
-		}
-		return null;
+		Map.Entry<String, String> match = getLookup().byNamespace.findLongestPrefix(iri);
+		if (match == null) return null;
+		return new DefaultNamespace (match.getValue(), match.getKey());
 	}
 
 }
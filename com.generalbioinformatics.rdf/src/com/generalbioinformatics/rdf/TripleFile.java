@@ -152,7 +152,7 @@ public class TripleFile extends AbstractTripleStore
 	}
 
 	@Override
-	public void sparqlConstruct(String query, OutputStream os) throws StreamException 
+	public void _sparqlConstructDirect(String query, OutputStream os) throws StreamException 
 	{
 		Query q = QueryFactory.create(query, syntax);
 		
@@ -169,7 +169,7 @@ public class TripleFile extends AbstractTripleStore
 
 
 	@Override
-	public Stream<Statement> sparqlConstruct(String query) throws StreamException 
+	public Stream<Statement> _sparqlConstructDirect(String query) throws StreamException 
 	{
 		throw new UnsupportedOperationException("Not yet implemented");
 	}
@@ -51,14 +51,29 @@ public interface TripleStore
 
 	NamespaceMap getNamespaces();
 	
+	/**
+	 * Run a CONSTRUCT query and write the resulting triples to the output stream in N-Triples format.
+	 * <p>
+	 * Uses caching if enabled via setCacheDir
+	 */
 	//TODO: StreamException is not the appropriate exception type here.
-	//TODO: return results as Stream<Statement>
 	void sparqlConstruct(String query, OutputStream os) throws StreamException;
 	
+	/**
+	 * Run a CONSTRUCT query and return the resulting triples.
+	 * <p>
+	 * Uses caching if enabled via setCacheDir
+	 */
 	Stream<Statement> sparqlConstruct(String query) throws StreamException;
 	
+	/** Direct construct query without caching, writing N-Triples, for internal use */
+	void _sparqlConstructDirect(String query, OutputStream os) throws StreamException;
+	
+	/** Direct construct query without caching, for internal use */
+	Stream<Statement> _sparqlConstructDirect(String query) throws StreamException;
+	
 	/**
-	 * Setting the caching dir to a non-null value enables caching for select queries. 
+	 * Setting the caching dir to a non-null value enables caching for select and construct queries. 
 	 * Setting it to null disables caching.
 	 */
 	void setCacheDir(File dir);
@@ -68,6 +83,11 @@ public interface TripleStore
 	/** Remove a previously registered listener */
 	void removeListener (TripleStoreListener l);
 
+	/** Add a listener that will receive a {@link QueryEvent} for every query, including queries answered from the cache */
+	void addQueryEventListener(QueryEventListener l);
+	/** Remove a previously registered query event listener */
+	void removeQueryEventListener(QueryEventListener l);
+
 	/** Same as sparqlSelect, but loads all results into memory at once and returns a DataFrame instead of a RecordStream */
 	DataFrame sparqlSelectDF(String query) throws StreamException;
 }
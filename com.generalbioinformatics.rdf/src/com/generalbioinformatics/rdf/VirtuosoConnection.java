@@ -221,7 +221,7 @@ public class VirtuosoConnection extends AbstractTripleStore
 	}
 
 	@Override
-	public void sparqlConstruct(String query, OutputStream os) throws StreamException
+	public void _sparqlConstructDirect(String query, OutputStream os) throws StreamException
 	{
 		Connection con = null;
 		Statement st = null;
@@ -320,6 +320,7 @@ public class VirtuosoConnection extends AbstractTripleStore
 	
 	/** 
 	 * rename a graph from one graph URI to the other. 
+	 * Cached results of queries on either graph are invalidated.
 	 **/
 	public void renameGraph (String oldName, String newName) throws SQLException, IOException
 	{
@@ -334,6 +335,7 @@ public class VirtuosoConnection extends AbstractTripleStore
 						"  SET g = iri_to_id ('" + newName + "') " +
 						"WHERE g = iri_to_id ('" + oldName + "', 0)"
 					);
+			graphsModified (oldName, newName);
 		}
 		catch (VirtuosoException ex)
 		{
@@ -442,7 +444,10 @@ public class VirtuosoConnection extends AbstractTripleStore
 
 	}
 	
-	public void vloadBatchEnd() throws SQLException
+	/**
+	 * Finish loading a batch of files. Cached results of queries on the graph are invalidated.
+	 */
+	public void vloadBatchEnd() throws SQLException, IOException
 	{
 		assert (batchStatement != null);
 		assert (batchGraphUri != null);
@@ -459,6 +464,8 @@ public class VirtuosoConnection extends AbstractTripleStore
 		{
 			if (batchStatement != null)
 				batchStatement.close();
+			// also if the checkpoint failed, the data was already loaded by vloadBatchAdd
+			graphsModified (batchGraphUri);
 		}				
 
 		batchGraphUri = null;
@@ -466,7 +473,7 @@ public class VirtuosoConnection extends AbstractTripleStore
 	}
 	
 	/**
-	 * Load in RDF data from file.
+	 * Load in RDF data from file. Cached results of queries on the graph are invalidated.
 	 * @param f file to load. Type is recognized based on file extension
 	 * @param graphUri name of graph to load into.
 	 */
@@ -699,7 +706,8 @@ public class VirtuosoConnection extends AbstractTripleStore
 	}
 
 	/**
-	 * Virtuoso can process raw sql queries
+	 * Virtuoso can process raw sql queries.
+	 * Cached query results are not invalidated, if the query modifies graphs use {@link QueryCache#invalidateGraph(String)}.
 	 */
 	public boolean rawSql(String string) throws SQLException, IOException 
 	{
@@ -750,6 +758,9 @@ public class VirtuosoConnection extends AbstractTripleStore
 	}
 	
 				
+	/**
+	 * Delete all triples in a graph. Cached results of queries on the graph are invalidated.
+	 */
 	public void vdelete(String graphUri) throws SQLException, IOException 
 	{
 		Statement st = getConnection().createStatement();
@@ -777,6 +788,7 @@ public class VirtuosoConnection extends AbstractTripleStore
 			//TODO: input sanitization
 			String q = "SPARQL CLEAR GRAPH <" + graphUri + ">";
 			rs = executeQuery(st, q);
+			graphsModified (graphUri);
 		}
 		finally
 		{
@@ -815,7 +827,7 @@ public class VirtuosoConnection extends AbstractTripleStore
 	}
 
 	@Override
-	public Stream<com.generalbioinformatics.rdf.stream.Statement> sparqlConstruct(String query) throws StreamException 
+	public Stream<com.generalbioinformatics.rdf.stream.Statement> _sparqlConstructDirect(String query) throws StreamException 
 	{
 		throw new UnsupportedOperationException("Not yet implemented");
 	}
@@ -0,0 +1,258 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import nl.helixsoft.recordstream.AbstractRecordStream;
+import nl.helixsoft.recordstream.Record;
+import nl.helixsoft.recordstream.RecordMetaData;
+import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.StreamException;
+
+/**
+ * Returns the records of a query to the caller, while writing them to a cache entry in the same pass.
+ * <p>
+ * The entry is written to a temporary file by a background thread, in the same format as a regular cache entry.
+ * When the caller reaches the end of the stream, the temporary file is renamed to the cache entry, so that readers never see a partial entry.
+ * If the query fails, or the stream is closed before the end, the temporary file is discarded.
+ * <p>
+ * The caller should either read the stream to the end or close it. Otherwise the writer thread and the temporary file are left behind,
+ * and other threads waiting for the same query give up only after {@link QueryCache#getWriteThroughWait()}.
+ */
+class WriteThroughRecordStream extends AbstractRecordStream
+{
+	private static final Object END = new Object();
+	private static final Object ABORT = new Object();
+
+	private final AbstractTripleStore store;
+	private final QueryCache cache;
+	private final RecordStream source;
+	private final String query;
+	private final String key;
+	private final QueryCache.Flight flight;
+	private final File tmp;
+	private final QueryCache.Format format;
+	private final long start;
+
+	private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(1024);
+	private final Thread writer;
+	private volatile Throwable writeError = null;
+	private boolean finished = false;
+	/** set on the writer thread when END or ABORT has been taken from the queue */
+	private boolean drained = false;
+	/** set when the caller was interrupted while passing a record to the writer, so the entry would be incomplete */
+	private boolean lost = false;
+
+	/** Feeds the records passed on by the caller to the formatter on the writer thread */
+	private class QueueRecordStream extends AbstractRecordStream
+	{
+		@Override
+		public Record getNext() throws StreamException
+		{
+			Object o;
+			try
+			{
+				o = queue.take();
+			}
+			catch (InterruptedException ex)
+			{
+				// the entry was abandoned, nothing more will be put in the queue
+				drained = true;
+				throw new StreamException(ex);
+			}
+			if (o == END || o == ABORT) drained = true;
+			if (o == END) return null;
+			if (o == ABORT) throw new StreamException("Cache entry discarded");
+			return (Record)o;
+		}
+
+		@Override
+		public RecordMetaData getMetaData()
+		{
+			return source.getMetaData();
+		}
+	}
+
+	/**
+	 * Start writing a cache entry.
+	 * @param key must have been claimed with {@link QueryCache#takeOff(String)}. It is released when the entry is committed or discarded.
+	 * @param source the results of the query, as returned by the triple store
+	 * @param start time the query was started, for the query time recorded in the entry
+	 */
+	WriteThroughRecordStream(AbstractTripleStore store, QueryCache cache, RecordStream source, String query, String key,
+			final String identity, final String normalised, final QueryCache.Format format, long start) throws IOException
+	{
+		this.store = store;
+		this.cache = cache;
+		this.source = source;
+		this.query = query;
+		this.key = key;
+		this.format = format;
+		this.start = start;
+
+		File cacheSubdir = cache.getFile(key, format).getParentFile();
+		if (!cacheSubdir.exists()) { if (!cacheSubdir.mkdirs()) throw new IOException ("Couldn't create directory " + cacheSubdir); }
+		tmp = File.createTempFile(key.substring(0, 8) + "-", ".tmp", cacheSubdir);
+		flight = cache.startStreaming(key);
+
+		final long delta = System.currentTimeMillis() - start;
+		writer = new Thread("Cache write-through " + key.substring(0, 8))
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					OutputStream os = new FileOutputStream (tmp);
+					try
+					{
+						QueryCache.writeEntry(format, os, WriteThroughRecordStream.this.store, identity, normalised, new QueueRecordStream(), query, WriteThroughRecordStream.this.start, delta);
+					}
+					finally
+					{
+						os.close();
+					}
+				}
+				catch (Throwable t)
+				{
+					writeError = t;
+				}
+				finally
+				{
+					// keep draining after an error, so the caller doesn't block on a full queue
+					try
+					{
+						while (!drained)
+						{
+							Object o = queue.take();
+							drained = (o == END || o == ABORT);
+						}
+					}
+					catch (InterruptedException ex)
+					{
+						// give up
+					}
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private void put(Object o)
+	{
+		if (lost) return;
+		try
+		{
+			queue.put(o);
+		}
+		catch (InterruptedException ex)
+		{
+			lost = true;
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait for the writer thread to finish. If a record was lost or the caller is interrupted, the writer is stopped instead.
+	 * @return true if the writer finished normally
+	 */
+	private boolean awaitWriter()
+	{
+		if (!lost)
+		{
+			try
+			{
+				writer.join();
+				return true;
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		writer.interrupt();
+		return false;
+	}
+
+	/** discard the temporary file, and let other threads waiting for this query try for themselves */
+	private void discard(Throwable error)
+	{
+		if (finished) return;
+		finished = true;
+		put (ABORT);
+		awaitWriter();
+		tmp.delete();
+		if (flight != null) cache.land(key, flight, error);
+	}
+
+	/** move the complete temporary file into place. A failure to write the cache doesn't affect the caller, it already has the results. */
+	private void commit()
+	{
+		finished = true;
+		put (END);
+		// an entry with a lost record, or one that may still be written to, must not be installed
+		if (awaitWriter() && writeError == null)
+		{
+			try
+			{
+				cache.install(tmp, key, format);
+			}
+			catch (IOException ex)
+			{
+				tmp.delete();
+			}
+		}
+		else
+		{
+			tmp.delete();
+		}
+		if (flight != null) cache.land(key, flight, null);
+		store.fireQueryPerformed(query, System.currentTimeMillis() - start);
+	}
+
+	@Override
+	public Record getNext() throws StreamException
+	{
+		if (finished) return null;
+		Record r;
+		try
+		{
+			r = source.getNext();
+		}
+		catch (StreamException ex)
+		{
+			discard (ex);
+			throw ex;
+		}
+		catch (RuntimeException ex)
+		{
+			discard (ex);
+			throw ex;
+		}
+		if (r == null) commit(); else put (r);
+		return r;
+	}
+
+	@Override
+	public RecordMetaData getMetaData()
+	{
+		return source.getMetaData();
+	}
+
+	/** Closing before the end of the stream discards the cache entry. */
+	@Override
+	public void close()
+	{
+		discard (null);
+		source.close();
+	}
+}
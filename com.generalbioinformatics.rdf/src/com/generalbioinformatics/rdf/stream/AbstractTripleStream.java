@@ -6,6 +6,7 @@ package com.generalbioinformatics.rdf.stream;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Spliterator;
 
 import nl.helixsoft.recordstream.AbstractStream;
 
@@ -71,4 +72,29 @@ public abstract class AbstractTripleStream extends AbstractStream<Statement> imp
 		return new StatementStreamIterator(this);
 	}
 
+	@Override
+	public Spliterator<Statement> spliterator()
+	{
+		return new TripleSpliterator(this);
+	}
+
+	/**
+	 * @return a sequential java.util.stream.Stream of the remaining triples. Closing it closes this TripleStream.
+	 */
+	public java.util.stream.Stream<Statement> stream()
+	{
+		return TripleSpliterator.stream(this, false);
+	}
+
+	/**
+	 * @return a parallel java.util.stream.Stream of the remaining triples. Closing it closes this TripleStream.
+	 * <p>
+	 * Triples are still read on one thread at a time, in batches, and processed in parallel.
+	 * For uncompressed files, {@link NtFileSpliterator} can also parse in parallel.
+	 */
+	public java.util.stream.Stream<Statement> parallelStream()
+	{
+		return TripleSpliterator.stream(this, true);
+	}
+
 }
@@ -0,0 +1,116 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Wrapper for NtStream that periodically saves a bookmark to a checkpoint file,
+ * so that a long-running job can be restarted close to where it failed.
+ * <p>
+ * A checkpoint is written just before parsing the next triple, meaning that every triple before the bookmark
+ * has been returned to, and fully handled by, the caller.
+ * On restart, pass the result of {@link #readCheckpoint(File)} to {@link NtStream#resume(File, NtStream.Position)}.
+ * <p>
+ * Note that the output of a restarted job may overlap with the output of the failed job,
+ * for the triples handled after the last checkpoint.
+ * If you write the output with {@link AsyncNtWriter}, also keep in mind that triples may still be queued
+ * at the time of the checkpoint.
+ */
+public class CheckpointStream extends AbstractTripleStream
+{
+	private final NtStream parent;
+	private final File checkpointFile;
+	private final int interval;
+	private long count = 0;
+
+	/**
+	 * @param parent stream to read from
+	 * @param checkpointFile file to store the bookmark in. Will be overwritten.
+	 * @param interval number of triples between checkpoints
+	 */
+	public CheckpointStream (NtStream parent, File checkpointFile, int interval)
+	{
+		if (interval <= 0) throw new IllegalArgumentException("Checkpoint interval must be positive");
+		this.parent = parent;
+		this.checkpointFile = checkpointFile;
+		this.interval = interval;
+	}
+
+	@Override /** @InheritDoc */
+	public Statement getNext() throws IOException, ParseException
+	{
+		if (count > 0 && count % interval == 0)
+		{
+			writeCheckpoint (checkpointFile, parent.getPosition());
+		}
+
+		Statement st = parent.getNext();
+		if (st == null)
+		{
+			// end of file, record final position.
+			writeCheckpoint (checkpointFile, parent.getPosition());
+		}
+		else
+		{
+			count++;
+		}
+		return st;
+	}
+
+	/**
+	 * Save a bookmark to file.
+	 * Writes to a temporary file first, to make sure a crash never leaves a half-written checkpoint.
+	 */
+	public static void writeCheckpoint (File f, NtStream.Position pos) throws IOException
+	{
+		File tmp = new File (f.getPath() + ".tmp");
+		Writer writer = new FileWriter (tmp);
+		try
+		{
+			writer.write (pos.getByteOffset() + "\t" + pos.getLine() + "\n");
+		}
+		finally
+		{
+			writer.close();
+		}
+		Files.move (tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read a bookmark saved by this class.
+	 * @return the bookmark, or null if the checkpoint file doesn't exist.
+	 */
+	public static NtStream.Position readCheckpoint (File f) throws IOException
+	{
+		if (!f.exists()) return null;
+
+		BufferedReader reader = new BufferedReader (new FileReader (f));
+		try
+		{
+			String line = reader.readLine();
+			String[] fields = line == null ? new String[0] : line.split("\t");
+			if (fields.length != 2) throw new IOException ("Invalid checkpoint file " + f);
+			return new NtStream.Position (Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IOException ("Invalid checkpoint file " + f, ex);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,708 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A memory-efficient, read-only set of URI's, meant for filter sets of tens of millions of URI's.
+ * <p>
+ * URI's are stored as UTF-8 bytes, sorted, and front-coded in blocks of 16:
+ * the first URI of each block is stored in full, each following URI only stores the
+ * length of the prefix it shares with its predecessor, plus the remaining suffix.
+ * Because URI's in a dataset typically share long namespace prefixes, this takes only a few bytes per URI.
+ * <p>
+ * Lookups go through an open-addressing hash index, which stores for each entry the String hashCode and entry number
+ * in a single long (about 11 bytes per URI). Only when the hashCode matches is a single block scanned to verify the entry,
+ * so lookups of URI's that are not in the set don't need to touch the front-coded data at all.
+ * <p>
+ * Use a {@link Builder} to create an instance, or {@link FilterSetReader#getUriSet()}.
+ */
+public class CompactUriSet implements UriSet
+{
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final int BLOCK_SIZE = 16;
+	private static final int PAGE_BITS = 24;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final long PAGE_MASK = PAGE_SIZE - 1;
+	private static final double LOAD_FACTOR = 0.75;
+
+	private final byte[][] pages;
+	/** start of each block, encoded as (page index &lt;&lt; PAGE_BITS) | offset in page */
+	private final long[] blockOffsets;
+	private final long size;
+	
+	/** hash index, each slot is (hashCode &lt;&lt; 32) | (entry number + 1), or 0 for an empty slot. */
+	private long[] index = null;
+
+	private CompactUriSet (byte[][] pages, long[] blockOffsets, long size)
+	{
+		this.pages = pages;
+		this.blockOffsets = blockOffsets;
+		this.size = size;
+	}
+	
+	/** create the hash index. Not done for the intermediate sets created by the Builder. */
+	private void buildIndex()
+	{
+		long[] result = new long[(int)Math.max (1, Math.ceil (size / LOAD_FACTOR))];
+		Cursor cursor = new Cursor (this);
+		byte[] key;
+		long entry = 0;
+		while ((key = cursor.next()) != null)
+		{
+			int hash = new String (key, UTF8).hashCode();
+			int slot = slotFor (hash, result.length);
+			while (result[slot] != 0)
+			{
+				if (++slot == result.length) slot = 0;
+			}
+			result[slot] = ((long)hash << 32) | (entry + 1);
+			entry++;
+		}
+		index = result;
+	}
+	
+	/** map a hashCode onto the range [0, len) */
+	private static int slotFor (int hash, int len)
+	{
+		// scramble bits, as String hashCodes of similar URI's are poorly distributed
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return (int)(((hash & 0xFFFFFFFFL) * len) >>> 32);
+	}
+
+	@Override
+	public long size()
+	{
+		return size;
+	}
+
+	/** approximate number of bytes of memory used by this set */
+	public long getMemoryUsage()
+	{
+		long result = blockOffsets.length * 8L;
+		if (index != null) result += index.length * 8L;
+		for (byte[] page : pages) result += page.length;
+		return result;
+	}
+
+	@Override
+	public boolean contains (String uri)
+	{
+		if (uri == null || size == 0) return false;
+		
+		int hash = uri.hashCode();
+		int slot = slotFor (hash, index.length);
+		byte[] key = null;
+		while (true)
+		{
+			long e = index[slot];
+			if (e == 0) return false;
+			if ((int)(e >>> 32) == hash)
+			{
+				// hashCode matches, verify against actual data.
+				if (key == null) key = uri.getBytes(UTF8);
+				long entry = (e & 0xFFFFFFFFL) - 1;
+				if (scanBlock ((int)(entry / BLOCK_SIZE), key)) return true;
+			}
+			if (++slot == index.length) slot = 0;
+		}
+	}
+
+	/**
+	 * Check if key occurs in the given block.
+	 * <p>
+	 * Keeps track of the length of the common prefix between the key and the current entry,
+	 * so that each entry can be compared without reconstructing it.
+	 */
+	private boolean scanBlock (int block, byte[] key)
+	{
+		long offset = blockOffsets[block];
+		long entries = Math.min (BLOCK_SIZE, size - (long)block * BLOCK_SIZE);
+		return scanBlock (pages[(int)(offset >>> PAGE_BITS)], (int)(offset & PAGE_MASK), entries, key);
+	}
+	
+	/**
+	 * Check if key occurs in the front-coded block starting at pos.
+	 * @param entries number of entries in this block
+	 */
+	static boolean scanBlock (byte[] page, int pos, long entries, byte[] key)
+	{
+		// first entry is stored in full
+		int len = readVarInt (page, pos);
+		pos += varIntSize (len);
+		int matched = 0;
+		while (matched < len && matched < key.length && page[pos + matched] == key[matched]) matched++;
+		if (matched == len && matched == key.length) return true;
+		if (matched < len && (matched == key.length || (page[pos + matched] & 0xFF) > (key[matched] & 0xFF))) return false;
+		pos += len;
+
+		for (int i = 1; i < entries; ++i)
+		{
+			int shared = readVarInt (page, pos);
+			pos += varIntSize (shared);
+			int suffixLen = readVarInt (page, pos);
+			pos += varIntSize (suffixLen);
+
+			if (shared > matched)
+			{
+				// entry agrees with its predecessor where the predecessor was smaller than key, so it's smaller as well.
+				pos += suffixLen;
+				continue;
+			}
+			if (shared < matched)
+			{
+				// entry differs from its predecessor where the predecessor was equal to key, so it's larger.
+				return false;
+			}
+
+			int k = 0;
+			while (k < suffixLen && matched + k < key.length && page[pos + k] == key[matched + k]) k++;
+			if (k == suffixLen && matched + k == key.length) return true;
+			if (k < suffixLen && (matched + k == key.length || (page[pos + k] & 0xFF) > (key[matched + k] & 0xFF))) return false;
+			matched += k;
+			pos += suffixLen;
+		}
+		return false;
+	}
+
+	/** compare the first entry of the front-coded block starting at pos with the key */
+	static int compareFirstEntry (byte[] page, int pos, byte[] key)
+	{
+		int len = readVarInt (page, pos);
+		pos += varIntSize (len);
+		int n = Math.min(len, key.length);
+		for (int i = 0; i < n; ++i)
+		{
+			int diff = (page[pos + i] & 0xFF) - (key[i] & 0xFF);
+			if (diff != 0) return diff;
+		}
+		return len - key.length;
+	}
+
+	static int readVarInt (byte[] data, int pos)
+	{
+		int result = 0;
+		int shift = 0;
+		while (true)
+		{
+			byte b = data[pos++];
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return result;
+			shift += 7;
+		}
+	}
+
+	static int varIntSize (int value)
+	{
+		int result = 1;
+		while ((value & ~0x7F) != 0)
+		{
+			value >>>= 7;
+			result++;
+		}
+		return result;
+	}
+
+	/** compare two byte arrays as unsigned bytes, which for UTF-8 is the same as codepoint order. */
+	static int compare (byte[] a, byte[] b)
+	{
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; ++i)
+		{
+			int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (diff != 0) return diff;
+		}
+		return a.length - b.length;
+	}
+
+	static final Comparator<byte[]> BYTES_COMPARATOR = new Comparator<byte[]>()
+	{
+		@Override
+		public int compare(byte[] a, byte[] b)
+		{
+			return CompactUriSet.compare(a, b);
+		}
+	};
+
+	/** Iterates over all entries of a set, in sorted order */
+	private static class Cursor
+	{
+		private final CompactUriSet set;
+		private long index = 0;
+		private byte[] page;
+		private int pos;
+		private byte[] current = null;
+
+		Cursor (CompactUriSet set)
+		{
+			this.set = set;
+		}
+
+		/** @return next entry, or null if all entries have been read */
+		byte[] next()
+		{
+			if (index >= set.size)
+			{
+				current = null;
+				return null;
+			}
+
+			if (index % BLOCK_SIZE == 0)
+			{
+				long offset = set.blockOffsets[(int)(index / BLOCK_SIZE)];
+				page = set.pages[(int)(offset >>> PAGE_BITS)];
+				pos = (int)(offset & PAGE_MASK);
+				int len = readVarInt (page, pos);
+				pos += varIntSize (len);
+				current = new byte[len];
+				System.arraycopy(page, pos, current, 0, len);
+				pos += len;
+			}
+			else
+			{
+				int shared = readVarInt (page, pos);
+				pos += varIntSize (shared);
+				int suffixLen = readVarInt (page, pos);
+				pos += varIntSize (suffixLen);
+				byte[] result = new byte[shared + suffixLen];
+				System.arraycopy(current, 0, result, 0, shared);
+				System.arraycopy(page, pos, result, shared, suffixLen);
+				pos += suffixLen;
+				current = result;
+			}
+			index++;
+			return current;
+		}
+	}
+
+	/** 
+	 * Encodes a sorted sequence of unique keys into front-coded blocks.
+	 * Subclasses decide where the blocks are stored.
+	 */
+	static abstract class Encoder
+	{
+		protected long size = 0;
+
+		private byte[] prev = null;
+		private byte[] blockBuf = new byte[256];
+		private int blockPos = 0;
+
+		void add (byte[] key) throws IOException
+		{
+			if (size % BLOCK_SIZE == 0)
+			{
+				flushBlock();
+				writeVarInt (key.length);
+				writeBytes (key, 0, key.length);
+			}
+			else
+			{
+				int shared = 0;
+				int n = Math.min(prev.length, key.length);
+				while (shared < n && prev[shared] == key[shared]) shared++;
+				writeVarInt (shared);
+				writeVarInt (key.length - shared);
+				writeBytes (key, shared, key.length - shared);
+			}
+			prev = key;
+			size++;
+		}
+
+		private void writeVarInt (int value)
+		{
+			while ((value & ~0x7F) != 0)
+			{
+				writeByte ((byte)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte ((byte)value);
+		}
+
+		private void writeByte (byte b)
+		{
+			ensureBlockCapacity (1);
+			blockBuf[blockPos++] = b;
+		}
+
+		private void writeBytes (byte[] data, int offset, int len)
+		{
+			ensureBlockCapacity (len);
+			System.arraycopy(data, offset, blockBuf, blockPos, len);
+			blockPos += len;
+		}
+
+		private void ensureBlockCapacity (int extra)
+		{
+			if (blockPos + extra > blockBuf.length)
+			{
+				byte[] larger = new byte[Math.max(blockBuf.length * 2, blockPos + extra)];
+				System.arraycopy(blockBuf, 0, larger, 0, blockPos);
+				blockBuf = larger;
+			}
+		}
+
+		private void flushBlock() throws IOException
+		{
+			if (blockPos == 0) return;
+			writeBlock (blockBuf, blockPos);
+			blockPos = 0;
+		}
+		
+		/** store a complete block. The data array will be re-used after this call. */
+		protected abstract void writeBlock (byte[] data, int len) throws IOException;
+
+		/** write the final block. */
+		protected void finishBlocks() throws IOException
+		{
+			flushBlock();
+		}
+	}
+
+	/** Encodes a sorted sequence of unique keys into front-coded pages in memory */
+	private static class MemoryEncoder extends Encoder
+	{
+		private final List<byte[]> pages = new ArrayList<byte[]>();
+		private byte[] page = new byte[1024];
+		private int pagePos = 0;
+		private long[] blockOffsets = new long[16];
+		private int blockCount = 0;
+
+		/** copy a block to the page storage. Blocks never cross page boundaries. */
+		@Override
+		protected void writeBlock(byte[] data, int len)
+		{
+			if (pagePos + len > PAGE_SIZE && pagePos > 0)
+			{
+				pages.add (trim (page, pagePos));
+				page = new byte[1024];
+				pagePos = 0;
+			}
+			if (pagePos + len > page.length)
+			{
+				int newLen = page.length;
+				while (newLen < pagePos + len) newLen *= 2;
+				byte[] larger = new byte[Math.max (Math.min (newLen, PAGE_SIZE), pagePos + len)];
+				System.arraycopy(page, 0, larger, 0, pagePos);
+				page = larger;
+			}
+
+			if (blockCount == blockOffsets.length)
+			{
+				long[] larger = new long[blockOffsets.length * 2];
+				System.arraycopy(blockOffsets, 0, larger, 0, blockCount);
+				blockOffsets = larger;
+			}
+			blockOffsets[blockCount++] = ((long)pages.size() << PAGE_BITS) | pagePos;
+
+			System.arraycopy(data, 0, page, pagePos, len);
+			pagePos += len;
+		}
+
+		private static byte[] trim (byte[] data, int len)
+		{
+			if (data.length == len) return data;
+			byte[] result = new byte[len];
+			System.arraycopy(data, 0, result, 0, len);
+			return result;
+		}
+
+		CompactUriSet finish()
+		{
+			try
+			{
+				finishBlocks();
+			}
+			catch (IOException ex)
+			{
+				throw new IllegalStateException(ex); // can't happen, writeBlock doesn't do IO
+			}
+			if (pagePos > 0) pages.add (trim (page, pagePos));
+			long[] offsets = new long[blockCount];
+			System.arraycopy(blockOffsets, 0, offsets, 0, blockCount);
+			return new CompactUriSet(pages.toArray(new byte[pages.size()][]), offsets, size);
+		}
+	}
+
+	/**
+	 * Collects URI's in any order, and creates a CompactUriSet.
+	 * <p>
+	 * To keep memory usage down while building, URI's are collected in batches.
+	 * Each batch is sorted and compressed, and at the end all batches are merged.
+	 * Duplicates and null values are ignored.
+	 * <p>
+	 * The compressed batches are kept in memory, unless {@link #setSpill(File, long)} is used.
+	 */
+	public static class Builder
+	{
+		private static final int BATCH_SIZE = 1 << 20;
+
+		private final List<byte[]> batch = new ArrayList<byte[]>();
+		private long batchBytes = 0;
+		private final List<CompactUriSet> runs = new ArrayList<CompactUriSet>();
+		private long runBytes = 0;
+
+		private long maxMemory = -1;
+		private File spillDir = null;
+		private final List<File> spilled = new ArrayList<File>();
+
+		/**
+		 * Write batches to temporary files when they use more than the given amount of memory,
+		 * so that {@link #buildOnDisk(File)} can build sets that don't fit in memory.
+		 * {@link #build()} still needs memory for the finished set.
+		 * @param dir directory for temporary files, or null for the system default
+		 * @param maxBytes approximate memory use at which batches are written to disk
+		 */
+		public Builder setSpill (File dir, long maxBytes)
+		{
+			this.spillDir = dir;
+			this.maxMemory = maxBytes;
+			return this;
+		}
+
+		/** @return number of temporary files written so far, see {@link #setSpill(File, long)} */
+		public int getSpillCount()
+		{
+			return spilled.size();
+		}
+
+		/** 
+		 * add a uri. Duplicates and nulls are ignored. 
+		 * An IOException while writing a temporary file is re-thrown as a RuntimeException.
+		 */
+		public Builder add (String uri)
+		{
+			if (uri != null)
+			{
+				byte[] key = uri.getBytes(UTF8);
+				batch.add (key);
+				// array header and reference
+				batchBytes += key.length + 24;
+				if (batch.size() >= BATCH_SIZE || (maxMemory >= 0 && batchBytes + runBytes >= maxMemory)) 
+				{
+					flushBatch();
+					if (maxMemory >= 0 && runBytes >= maxMemory / 2)
+					{
+						try
+						{
+							spill();
+						}
+						catch (IOException ex)
+						{
+							throw new RuntimeException (ex);
+						}
+					}
+				}
+			}
+			return this;
+		}
+
+		/** merge the batches in memory into a temporary file */
+		private void spill() throws IOException
+		{
+			File f = File.createTempFile("uriset-run-", ".bin", spillDir);
+			spilled.add (f);
+			DiskUriSet.Writer writer = new DiskUriSet.Writer(f);
+			try
+			{
+				merge (writer, new ArrayList<DiskUriSet>());
+			}
+			finally
+			{
+				writer.close();
+			}
+			runBytes = 0;
+		}
+
+		private void flushBatch()
+		{
+			if (batch.isEmpty()) return;
+			Collections.sort (batch, BYTES_COMPARATOR);
+			MemoryEncoder enc = new MemoryEncoder();
+			try
+			{
+				byte[] prev = null;
+				for (byte[] key : batch)
+				{
+					if (prev == null || compare (prev, key) != 0) enc.add (key);
+					prev = key;
+				}
+			}
+			catch (IOException ex)
+			{
+				throw new IllegalStateException(ex); // can't happen, in memory
+			}
+			batch.clear();
+			batchBytes = 0;
+			CompactUriSet run = enc.finish();
+			runs.add (run);
+			runBytes += run.getMemoryUsage();
+		}
+
+		/** Finish building. The builder should not be used afterwards. */
+		public CompactUriSet build()
+		{
+			flushBatch();
+			CompactUriSet result;
+			if (runs.size() == 1 && spilled.isEmpty())
+			{
+				result = runs.get(0);
+			}
+			else
+			{
+				MemoryEncoder enc = new MemoryEncoder();
+				try
+				{
+					mergeAll (enc);
+				}
+				catch (IOException ex)
+				{
+					throw new RuntimeException(ex); // reading a temporary file failed
+				}
+				result = enc.finish();
+			}
+			result.buildIndex();
+			return result;
+		}
+
+		/** 
+		 * Finish building, but write the set to a file instead of keeping it in memory.
+		 * The builder should not be used afterwards.
+		 * @return the set, opened for reading
+		 */
+		public DiskUriSet buildOnDisk (File f) throws IOException
+		{
+			flushBatch();
+			DiskUriSet.Writer writer = new DiskUriSet.Writer(f);
+			try
+			{
+				mergeAll (writer);
+			}
+			finally
+			{
+				writer.close();
+			}
+			return DiskUriSet.open(f);
+		}
+
+		/** merge the batches in memory and the temporary files, and remove the temporary files */
+		private void mergeAll(Encoder enc) throws IOException
+		{
+			List<DiskUriSet> sets = new ArrayList<DiskUriSet>();
+			try
+			{
+				for (File f : spilled) sets.add (DiskUriSet.open(f));
+				merge (enc, sets);
+			}
+			finally
+			{
+				for (DiskUriSet set : sets) set.close();
+				for (File f : spilled) f.delete();
+				spilled.clear();
+			}
+		}
+
+		/** the next entry of a sorted run that is being merged */
+		private static class Head
+		{
+			final Iterator<byte[]> it;
+			byte[] current;
+
+			Head (Iterator<byte[]> it)
+			{
+				this.it = it;
+			}
+
+			boolean next()
+			{
+				current = it.hasNext() ? it.next() : null;
+				return current != null;
+			}
+		}
+
+		private static Iterator<byte[]> bytes(final Cursor cursor)
+		{
+			return new Iterator<byte[]>()
+			{
+				private byte[] next = cursor.next();
+
+				@Override
+				public boolean hasNext() { return next != null; }
+
+				@Override
+				public byte[] next()
+				{
+					byte[] result = next;
+					next = cursor.next();
+					return result;
+				}
+
+				@Override
+				public void remove() { throw new UnsupportedOperationException(); }
+			};
+		}
+
+		private static Iterator<byte[]> bytes(final DiskUriSet set)
+		{
+			final Iterator<String> it = set.iterator();
+			return new Iterator<byte[]>()
+			{
+				@Override
+				public boolean hasNext() { return it.hasNext(); }
+
+				@Override
+				public byte[] next() { return it.next().getBytes(UTF8); }
+
+				@Override
+				public void remove() { throw new UnsupportedOperationException(); }
+			};
+		}
+
+		/** k-way merge of the sorted runs in memory and the given sets. The runs in memory are released. */
+		private void merge(Encoder enc, List<DiskUriSet> sets) throws IOException
+		{
+			PriorityQueue<Head> queue = new PriorityQueue<Head>(Math.max(1, runs.size() + sets.size()), new Comparator<Head>()
+			{
+				@Override
+				public int compare(Head a, Head b)
+				{
+					return CompactUriSet.compare(a.current, b.current);
+				}
+			});
+			for (CompactUriSet run : runs)
+			{
+				Head h = new Head(bytes(new Cursor(run)));
+				if (h.next()) queue.add (h);
+			}
+			for (DiskUriSet set : sets)
+			{
+				Head h = new Head(bytes(set));
+				if (h.next()) queue.add (h);
+			}
+			runs.clear();
+
+			byte[] prev = null;
+			while (!queue.isEmpty())
+			{
+				Head h = queue.poll();
+				byte[] key = h.current;
+				if (prev == null || compare (prev, key) != 0) enc.add (key);
+				prev = key;
+				if (h.next()) queue.add (h);
+			}
+		}
+	}
+}
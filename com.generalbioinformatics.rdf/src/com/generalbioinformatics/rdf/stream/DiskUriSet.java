@@ -0,0 +1,254 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted set of URI's that is stored on disk, for filter sets that are too large to keep in memory.
+ * <p>
+ * Uses the same front-coded block format as {@link CompactUriSet}, but only the offsets of each
+ * block are kept in memory (half a byte per URI). A lookup is a binary search, reading one block from disk for each step, 
+ * so this is much slower than an in-memory set. It is meant to be used behind a {@link UriBloomFilter}, 
+ * so that only a small fraction of lookups actually reach the disk. 
+ * <p>
+ * Create one with {@link CompactUriSet.Builder#buildOnDisk(File)}, and re-open it later with {@link #open(File)}.
+ * Lookups are thread-safe.
+ */
+public class DiskUriSet implements UriSet, Iterable<String>, Closeable
+{
+	private static final int MAGIC = 0x55524953; // "URIS"
+	private static final int HEADER_SIZE = 4;
+	private static final int TRAILER_SIZE = 20;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long[] blockOffsets;
+	private final long indexStart;
+	private final long size;
+
+	private DiskUriSet (RandomAccessFile raf, long[] blockOffsets, long indexStart, long size)
+	{
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.blockOffsets = blockOffsets;
+		this.indexStart = indexStart;
+		this.size = size;
+	}
+
+	/** open a set that was previously written with {@link CompactUriSet.Builder#buildOnDisk(File)} */
+	public static DiskUriSet open (File f) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try
+		{
+			if (raf.length() < HEADER_SIZE + TRAILER_SIZE || raf.readInt() != MAGIC) 
+				throw new IOException ("Not a valid uri set file: " + f);
+
+			raf.seek (raf.length() - TRAILER_SIZE);
+			long size = raf.readLong();
+			long indexStart = raf.readLong();
+			int blockCount = raf.readInt();
+
+			long[] offsets = new long[blockCount];
+			raf.seek (indexStart);
+			for (int i = 0; i < blockCount; ++i)
+			{
+				offsets[i] = raf.readLong();
+			}
+			return new DiskUriSet(raf, offsets, indexStart, size);
+		}
+		catch (IOException ex)
+		{
+			raf.close();
+			throw (ex);
+		}
+	}
+
+	@Override
+	public long size()
+	{
+		return size;
+	}
+
+	/** 
+	 * {@inheritDoc}
+	 * <p> 
+	 * Any IOException while reading the file is re-thrown as a RuntimeException.
+	 */
+	@Override
+	public boolean contains (String uri)
+	{
+		if (uri == null || size == 0) return false;
+		byte[] key = uri.getBytes(CompactUriSet.UTF8);
+
+		try
+		{
+			// binary search for the last block that starts with an entry <= key
+			int lo = 0;
+			int hi = blockOffsets.length - 1;
+			while (lo < hi)
+			{
+				int mid = (lo + hi + 1) >>> 1;
+				if (CompactUriSet.compareFirstEntry (readBlock (mid), 0, key) <= 0) lo = mid; else hi = mid - 1;
+			}
+			return CompactUriSet.scanBlock (readBlock (lo), 0, entriesInBlock (lo), key);
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException (ex);
+		}
+	}
+
+	private long entriesInBlock (int block)
+	{
+		return Math.min (CompactUriSet.BLOCK_SIZE, size - (long)block * CompactUriSet.BLOCK_SIZE);
+	}
+
+	/** read a complete block, using positional reads so that concurrent lookups don't interfere */
+	private byte[] readBlock (int block) throws IOException
+	{
+		long start = blockOffsets[block];
+		long end = (block + 1 < blockOffsets.length) ? blockOffsets[block + 1] : indexStart;
+		ByteBuffer buf = ByteBuffer.allocate ((int)(end - start));
+		while (buf.hasRemaining())
+		{
+			if (channel.read (buf, start + buf.position()) < 0) throw new EOFException();
+		}
+		return buf.array();
+	}
+
+	/** 
+	 * Iterate over all URI's in sorted order. 
+	 * Any IOException while reading the file is re-thrown as a RuntimeException.
+	 */
+	@Override
+	public Iterator<String> iterator()
+	{
+		return new Iterator<String>()
+		{
+			private long index = 0;
+			private byte[] block;
+			private int pos;
+			private byte[] current;
+
+			@Override
+			public boolean hasNext()
+			{
+				return index < size;
+			}
+
+			@Override
+			public String next()
+			{
+				if (index >= size) throw new NoSuchElementException();
+				if (index % CompactUriSet.BLOCK_SIZE == 0)
+				{
+					try
+					{
+						block = readBlock ((int)(index / CompactUriSet.BLOCK_SIZE));
+					}
+					catch (IOException ex)
+					{
+						throw new RuntimeException (ex);
+					}
+					int len = CompactUriSet.readVarInt (block, 0);
+					pos = CompactUriSet.varIntSize (len);
+					current = new byte[len];
+					System.arraycopy(block, pos, current, 0, len);
+					pos += len;
+				}
+				else
+				{
+					int shared = CompactUriSet.readVarInt (block, pos);
+					pos += CompactUriSet.varIntSize (shared);
+					int suffixLen = CompactUriSet.readVarInt (block, pos);
+					pos += CompactUriSet.varIntSize (suffixLen);
+					byte[] result = new byte[shared + suffixLen];
+					System.arraycopy(current, 0, result, 0, shared);
+					System.arraycopy(block, pos, result, shared, suffixLen);
+					pos += suffixLen;
+					current = result;
+				}
+				index++;
+				return new String (current, CompactUriSet.UTF8);
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		raf.close();
+	}
+
+	/** Writes front-coded blocks to file, followed by the block offsets */
+	static class Writer extends CompactUriSet.Encoder implements Closeable
+	{
+		private final DataOutputStream out;
+		private long pos;
+		private long[] offsets = new long[1024];
+		private int blockCount = 0;
+
+		Writer (File f) throws IOException
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+			out.writeInt (MAGIC);
+			pos = HEADER_SIZE;
+		}
+
+		@Override
+		protected void writeBlock (byte[] data, int len) throws IOException
+		{
+			if (blockCount == offsets.length)
+			{
+				long[] larger = new long[offsets.length * 2];
+				System.arraycopy(offsets, 0, larger, 0, blockCount);
+				offsets = larger;
+			}
+			offsets[blockCount++] = pos;
+			out.write (data, 0, len);
+			pos += len;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				finishBlocks();
+				long indexStart = pos;
+				for (int i = 0; i < blockCount; ++i)
+				{
+					out.writeLong (offsets[i]);
+				}
+				out.writeLong (size);
+				out.writeLong (indexStart);
+				out.writeInt (blockCount);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+	}
+}
@@ -4,6 +4,7 @@
 */
 package com.generalbioinformatics.rdf.stream;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
@@ -22,10 +23,15 @@ import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
  * <p>
  * Note that the set is stored in memory, and attempting to read 
  * millions of URI's this way could cause memory problems.
+ * For large sets, use {@link #getUriSet()} instead, which uses a much more compact representation,
+ * or {@link #getBloomFilter(double, File)} for sets that don't fit in memory at all.
  */
 public class FilterSetReader 
 {
 	private Set<String> filter = null;
+	private CompactUriSet uriSet = null;
+	private UriBloomFilter bloomFilter = null;
+	private boolean consumed = false;
 	private final TripleStream parent;
 	
 	private enum Flag { SUBJECTS, PREDICATES, OBJECTS };
@@ -71,36 +77,125 @@ public class FilterSetReader
 
 	/**
 	 * Obtain the set of URI-strings. Note that the actual work is done here.
+	 * <p>
+	 * Only one of the getXxx methods can be used, as the parent stream is consumed.
 	 */
 	public Set<String> getFilter() throws IOException, ParseException
 	{
 		if (filter == null)
 		{
+			checkNotConsumed();
 			filter = new HashSet<String>();
-			Statement st;
-			switch (flag)
+			String uri;
+			while ((uri = nextUri()) != null)
 			{
-			case SUBJECTS:
-				while ((st = parent.getNext()) != null)
+				filter.add (uri);
+			}
+		}
+		return filter;
+	}
+
+	/**
+	 * Obtain the set of URI-strings in a compact representation, suitable for millions of URI's. 
+	 * Note that the actual work is done here.
+	 * <p>
+	 * Only one of the getXxx methods can be used, as the parent stream is consumed.
+	 */
+	public CompactUriSet getUriSet() throws IOException, ParseException
+	{
+		if (uriSet == null)
+		{
+			checkNotConsumed();
+			uriSet = readIntoBuilder(new CompactUriSet.Builder()).build();
+		}
+		return uriSet;
+	}
+
+	/**
+	 * Obtain a Bloom filter of the URI-strings, for sets that are too large to fit in memory.
+	 * Note that the actual work is done here.
+	 * <p>
+	 * While reading, URI's are sorted in batches that are written to temporary files when they take up a quarter of the heap,
+	 * see {@link CompactUriSet.Builder#setSpill(File, long)}. So only the Bloom filter itself needs to fit in memory.
+	 * <p>
+	 * Only one of the getXxx methods can be used, as the parent stream is consumed.
+	 * @param falsePositiveRate for example 0.01 for 1%
+	 * @param exactSetFile if not null, an exact, disk-based copy of the set is written to this file.
+	 * 	Open it with {@link DiskUriSet#open(File)} for use in {@link FilterSetStream#createSubjectFilter(TripleStream, UriBloomFilter, UriSet)}.
+	 */
+	public UriBloomFilter getBloomFilter(double falsePositiveRate, File exactSetFile) throws IOException, ParseException
+	{
+		if (bloomFilter == null)
+		{
+			checkNotConsumed();
+			
+			// the on-disk set is also needed to know the number of distinct URI's before sizing the filter
+			File f = (exactSetFile == null) ? File.createTempFile("uriset-", ".bin") : exactSetFile;
+			try
+			{
+				CompactUriSet.Builder builder = new CompactUriSet.Builder();
+				// keep only part of the heap for sorting, the rest of the set goes to temporary files next to the result
+				builder.setSpill(f.getAbsoluteFile().getParentFile(), Runtime.getRuntime().maxMemory() / 4);
+				DiskUriSet set = readIntoBuilder(builder).buildOnDisk(f);
+				try
 				{
-					filter.add (st.getSubjectUri());
+					bloomFilter = UriBloomFilter.create(set, falsePositiveRate);
 				}
-				break;
-			case OBJECTS:
-				while ((st = parent.getNext()) != null)
+				finally
 				{
-					filter.add (st.getObjectUri());
+					set.close();
 				}
+			}
+			finally
+			{
+				if (exactSetFile == null) f.delete();
+			}
+		}
+		return bloomFilter;
+	}
+	
+	private void checkNotConsumed()
+	{
+		if (consumed) throw new IllegalStateException("Parent stream was already consumed by another getXxx() call");
+		consumed = true;
+	}
+
+	private CompactUriSet.Builder readIntoBuilder(CompactUriSet.Builder builder) throws IOException, ParseException
+	{
+		String uri;
+		while ((uri = nextUri()) != null)
+		{
+			builder.add (uri);
+		}
+		return builder;
+	}
+
+	/** 
+	 * Read the next statement from the parent stream, and select the subject, predicate or object part.
+	 * Statements with a literal object are skipped when selecting objects.
+	 * @return the selected URI, or null at the end of the stream.
+	 */
+	private String nextUri() throws IOException, ParseException
+	{
+		Statement st;
+		while ((st = parent.getNext()) != null)
+		{
+			String result = null;
+			switch (flag)
+			{
+			case SUBJECTS:
+				result = st.getSubjectUri();
+				break;
+			case OBJECTS:
+				result = st.getObjectUri();
 				break;
 			case PREDICATES:
-				while ((st = parent.getNext()) != null)
-				{
-					filter.add (st.getPredicateUri());
-				}
+				result = st.getPredicateUri();
 				break;
 			}
+			if (result != null) return result;
 		}
-		return filter;
+		return null;
 	}
 	
 }
@@ -5,6 +5,8 @@
 package com.generalbioinformatics.rdf.stream;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
@@ -17,23 +19,211 @@ import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
  * For example, if you have a Set of strings containing all the URI's of
  * nodes of interest, then you can use this class to filter out all the statements that
  * contain URI's from that set.
+ * <p>
+ * Several conditions can be combined with a {@link Builder}, e.g. "subject in A AND object not in B".
+ * All conditions are evaluated in a single pass, which is much faster than chaining several FilterSetStreams.
  */
 public class FilterSetStream extends AbstractTripleStream
 {
+	/** The part of a statement that is checked against a filter set */
+	public enum Field 
+	{ 
+		SUBJECT, 
+		PREDICATE, 
+		/** Object URI. Literal objects never match. */
+		OBJECT, 
+		/** Matches if either subject, predicate or object matches */
+		ANY 
+	}
+	
 	private final TripleStream parent;
-	private final Set<String> filterValues;
+	private final Field[] fields;
+	private final UriSet[] sets;
+	private final boolean[] negated;
 	
-	/** private constructor, use one of the static createXxx methods instead. */
-	private FilterSetStream (TripleStream parent, Set<String> filterValues)
+	/** private constructor, use one of the static createXxx methods or a Builder instead. */
+	private FilterSetStream (TripleStream parent, Field[] fields, UriSet[] sets, boolean[] negated)
 	{
 		this.parent = parent;
-		this.filterValues = filterValues;
+		this.fields = fields;
+		this.sets = sets;
+		this.negated = negated;
+	}
+
+	private FilterSetStream (TripleStream parent, Field field, UriSet filterValues)
+	{
+		this (parent, new Field[] { field }, new UriSet[] { filterValues }, new boolean[] { false });
 	}
 	
 	/** create a FilterStream that only picks out statements with the <b>subject</b> URI from the filter set. */
 	public static FilterSetStream createSubjectFilter(TripleStream parent, Set<String> filterValues)
 	{
-		return new FilterSetStream (parent, filterValues);
+		return new FilterSetStream (parent, Field.SUBJECT, new HashUriSet(filterValues));
+	}
+
+	/** create a FilterStream that only picks out statements with the <b>predicate</b> URI from the filter set. */
+	public static FilterSetStream createPredicateFilter(TripleStream parent, Set<String> filterValues)
+	{
+		return createPredicateFilter (parent, new HashUriSet(filterValues));
+	}
+
+	/** create a FilterStream that only picks out statements with the <b>predicate</b> URI from the filter set. */
+	public static FilterSetStream createPredicateFilter(TripleStream parent, UriSet filterValues)
+	{
+		return new FilterSetStream (parent, Field.PREDICATE, filterValues);
+	}
+
+	/** create a FilterStream that only picks out statements with the <b>object</b> URI from the filter set. Literals are skipped. */
+	public static FilterSetStream createObjectFilter(TripleStream parent, Set<String> filterValues)
+	{
+		return createObjectFilter (parent, new HashUriSet(filterValues));
+	}
+
+	/** create a FilterStream that only picks out statements with the <b>object</b> URI from the filter set. Literals are skipped. */
+	public static FilterSetStream createObjectFilter(TripleStream parent, UriSet filterValues)
+	{
+		return new FilterSetStream (parent, Field.OBJECT, filterValues);
+	}
+
+	/** create a FilterStream that only picks out statements with <b>any</b> URI (subject, predicate or object) from the filter set. */
+	public static FilterSetStream createAnyFilter(TripleStream parent, Set<String> filterValues)
+	{
+		return createAnyFilter (parent, new HashUriSet(filterValues));
+	}
+
+	/** create a FilterStream that only picks out statements with <b>any</b> URI (subject, predicate or object) from the filter set. */
+	public static FilterSetStream createAnyFilter(TripleStream parent, UriSet filterValues)
+	{
+		return new FilterSetStream (parent, Field.ANY, filterValues);
+	}
+
+	/** create a FilterStream that only picks out statements where the given field is <b>not</b> in the filter set. */
+	public static FilterSetStream createExcludeFilter(TripleStream parent, Field field, Set<String> filterValues)
+	{
+		return createExcludeFilter (parent, field, new HashUriSet(filterValues));
+	}
+
+	/** create a FilterStream that only picks out statements where the given field is <b>not</b> in the filter set. */
+	public static FilterSetStream createExcludeFilter(TripleStream parent, Field field, UriSet filterValues)
+	{
+		return new FilterSetStream (parent, new Field[] { field }, new UriSet[] { filterValues }, new boolean[] { true });
+	}
+	
+	/** 
+	 * create a FilterStream that only picks out statements with the <b>subject</b> URI from the filter set. 
+	 * Use this with a {@link CompactUriSet} for very large filter sets.
+	 */
+	public static FilterSetStream createSubjectFilter(TripleStream parent, UriSet filterValues)
+	{
+		return new FilterSetStream (parent, Field.SUBJECT, filterValues);
+	}
+	
+	/**
+	 * create a FilterStream that only picks out statements with the <b>subject</b> URI from the filter set,
+	 * for filter sets that don't fit in memory.
+	 * <p>
+	 * Each subject is first checked against the Bloom filter, which cheaply rejects most non-matching statements.
+	 * Only possible matches are checked against the exact set.
+	 * @param bloomFilter see {@link FilterSetReader#getBloomFilter(double, java.io.File)}
+	 * @param exactSet set to remove false positives, for example a {@link DiskUriSet}.
+	 * 	May be null, in which case false positives are passed through, at the rate configured for the bloom filter.
+	 */
+	public static FilterSetStream createSubjectFilter(TripleStream parent, UriBloomFilter bloomFilter, UriSet exactSet)
+	{
+		return new FilterSetStream (parent, Field.SUBJECT, exactSet == null ? bloomFilter : new PrefilteredUriSet(bloomFilter, exactSet));
+	}
+
+	/** Combines a fast, approximate check with a slow exact check. */
+	private static class PrefilteredUriSet implements UriSet
+	{
+		private final UriSet prefilter;
+		private final UriSet exact;
+		
+		PrefilteredUriSet (UriSet prefilter, UriSet exact)
+		{
+			this.prefilter = prefilter;
+			this.exact = exact;
+		}
+		
+		@Override
+		public boolean contains(String uri) 
+		{
+			return prefilter.contains(uri) && exact.contains(uri);
+		}
+
+		@Override
+		public long size() 
+		{
+			return exact.size();
+		}
+	}
+	
+	/** Start combining several conditions on the given parent stream */
+	public static Builder builder(TripleStream parent)
+	{
+		return new Builder(parent);
+	}
+	
+	/**
+	 * Combines several filter conditions, which must all hold for a statement to be passed through.
+	 * <p>
+	 * For example:
+	 * <pre>
+	 * FilterSetStream.builder(parent).in(Field.SUBJECT, genes).notIn(Field.OBJECT, obsolete).build();
+	 * </pre>
+	 * Conditions are checked in the order they were added, so add the most selective one first.
+	 */
+	public static class Builder
+	{
+		private final TripleStream parent;
+		private final List<Field> fields = new ArrayList<Field>();
+		private final List<UriSet> sets = new ArrayList<UriSet>();
+		private final List<Boolean> negated = new ArrayList<Boolean>();
+		
+		private Builder (TripleStream parent)
+		{
+			this.parent = parent;
+		}
+		
+		/** only pass statements where the given field is in the set */
+		public Builder in (Field field, Set<String> set)
+		{
+			return in (field, new HashUriSet(set));
+		}
+
+		/** only pass statements where the given field is in the set */
+		public Builder in (Field field, UriSet set)
+		{
+			return add (field, set, false);
+		}
+
+		/** only pass statements where the given field is not in the set */
+		public Builder notIn (Field field, Set<String> set)
+		{
+			return notIn (field, new HashUriSet(set));
+		}
+
+		/** only pass statements where the given field is not in the set */
+		public Builder notIn (Field field, UriSet set)
+		{
+			return add (field, set, true);
+		}
+		
+		private Builder add (Field field, UriSet set, boolean negate)
+		{
+			if (field == null || set == null) throw new NullPointerException();
+			fields.add (field);
+			sets.add (set);
+			negated.add (negate);
+			return this;
+		}
+		
+		public FilterSetStream build()
+		{
+			boolean[] neg = new boolean[negated.size()];
+			for (int i = 0; i < neg.length; ++i) neg[i] = negated.get(i);
+			return new FilterSetStream (parent, fields.toArray(new Field[fields.size()]), sets.toArray(new UriSet[sets.size()]), neg);
+		}
 	}
 	
 	@Override /** @InheritDoc */
@@ -43,9 +233,38 @@ public class FilterSetStream extends AbstractTripleStream
 		do {
 			st = parent.getNext();
 			if (st == null) break;
-			if (filterValues.contains(st.getSubjectUri())) break;
+			if (accept(st)) break;
 		} while (true);
 		return st;
 	}
+	
+	private boolean accept (Statement st)
+	{
+		for (int i = 0; i < fields.length; ++i)
+		{
+			UriSet set = sets[i];
+			boolean found;
+			switch (fields[i])
+			{
+			case SUBJECT:
+				found = set.contains(st.getSubjectUri());
+				break;
+			case PREDICATE:
+				found = set.contains(st.getPredicateUri());
+				break;
+			case OBJECT:
+				found = !st.isLiteral() && set.contains(st.getObjectUri());
+				break;
+			default: // ANY
+				found = 
+					set.contains(st.getSubjectUri()) || 
+					set.contains(st.getPredicateUri()) ||
+					(!st.isLiteral() && set.contains(st.getObjectUri()));
+				break;
+			}
+			if (found == negated[i]) return false;
+		}
+		return true;
+	}
 
 }
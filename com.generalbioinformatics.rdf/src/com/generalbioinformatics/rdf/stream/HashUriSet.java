@@ -0,0 +1,33 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.util.Set;
+
+/**
+ * Implementation of {@link UriSet} that simply wraps a {@link Set} of Strings.
+ * Fast, but uses a lot of memory per URI.
+ */
+public class HashUriSet implements UriSet
+{
+	private final Set<String> set;
+	
+	public HashUriSet (Set<String> set)
+	{
+		this.set = set;
+	}
+	
+	@Override
+	public boolean contains(String uri) 
+	{
+		return uri != null && set.contains(uri);
+	}
+
+	@Override
+	public long size() 
+	{
+		return set.size();
+	}
+}
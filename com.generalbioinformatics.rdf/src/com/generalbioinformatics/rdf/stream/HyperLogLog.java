@@ -0,0 +1,78 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+/**
+ * Estimates the number of distinct Strings in a stream, in a fixed amount of memory.
+ * <p>
+ * This is the HyperLogLog algorithm, with linear counting for small cardinalities.
+ * With the default precision of 14, it uses 16KB and has a standard error of about 0.8%, regardless of the number of distinct values.
+ */
+public class HyperLogLog
+{
+	public static final int DEFAULT_PRECISION = 14;
+
+	private final int precision;
+	private final byte[] registers;
+
+	/** Create a sketch with the default precision */
+	public HyperLogLog()
+	{
+		this (DEFAULT_PRECISION);
+	}
+
+	/**
+	 * @param precision number of bits used to select a register, between 4 and 18.
+	 * 	Memory use is 2^precision bytes, standard error is 1.04 / sqrt(2^precision).
+	 */
+	public HyperLogLog(int precision)
+	{
+		if (precision < 4 || precision > 18) throw new IllegalArgumentException("Precision must be between 4 and 18");
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/** add a value. null is ignored. */
+	public void add(String value)
+	{
+		if (value == null) return;
+		long h = UriBloomFilter.hash64(value);
+		int idx = (int)(h >>> (64 - precision));
+		// rank of the first 1-bit in the remaining bits. The guard bit limits the rank if all remaining bits are zero.
+		int rank = Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1;
+		if (rank > registers[idx]) registers[idx] = (byte)rank;
+	}
+
+	/** @return estimated number of distinct values added so far */
+	public long cardinality()
+	{
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte r : registers)
+		{
+			sum += 1.0 / (1L << r);
+			if (r == 0) zeros++;
+		}
+		double alpha = 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0)
+		{
+			// small range correction
+			estimate = m * Math.log ((double)m / zeros);
+		}
+		return Math.round (estimate);
+	}
+
+	/** combine another sketch into this one, so that this estimates the number of distinct values added to either of them */
+	public void merge(HyperLogLog other)
+	{
+		if (other.precision != precision) throw new IllegalArgumentException("Can't merge sketches with different precision");
+		for (int i = 0; i < registers.length; ++i)
+		{
+			if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+		}
+	}
+}
@@ -1,11 +1,10 @@
 package com.generalbioinformatics.rdf.stream;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import nl.helixsoft.recordstream.Function;
 import nl.helixsoft.recordstream.Predicate;
@@ -60,12 +59,20 @@ public abstract class InferenceFunctions
 
 	private InferenceFunctions() { } /* never instantiate */
 	
+	/**
+	 * Replaces namespaces in subject, predicate and object URI's.
+	 * If a URI starts with more than one of the prefixes, only the longest one is replaced.
+	 */
 	public static class ReplacePrefixes implements Function<Statement, Statement> 
 	{
-		//TODO: using PrefixTreeMap potentially faster
-		private final Map<String, String> prefixMap = new HashMap<String, String>();
+		private final PrefixTrie<String> prefixMap = new PrefixTrie<String>();
 		private int count = 0;
 		
+		/** 
+		 * @return number of replacements, counting each prefix once per statement. 
+		 * So a statement where subject and object have the same prefix counts once, 
+		 * and a statement where they have different prefixes counts twice.
+		 */
 		public int getCount() 
 		{ 
 			return count; 
@@ -81,68 +88,112 @@ public abstract class InferenceFunctions
 			prefixMap.putAll(prefixes);
 		}
 
+		/** @return the uri with the given prefix replaced */ 
+		private static String replace (String uri, Map.Entry<String, String> e)
+		{
+			return e.getValue() + uri.substring(e.getKey().length());
+		}
+		
 		@Override
 		public Statement apply(Statement t)
 		{
-			for (Map.Entry<String, String> e : prefixMap.entrySet())
+			Map.Entry<String, String> s = prefixMap.findLongestPrefix(t.getSubjectUri());
+			if (s != null) t.setSubjectUri(replace (t.getSubjectUri(), s));
+			
+			Map.Entry<String, String> p = prefixMap.findLongestPrefix(t.getPredicateUri());
+			if (p != null) t.setPredicateUri(replace (t.getPredicateUri(), p));
+			
+			Map.Entry<String, String> o = null;
+			if (!(t.isLiteral() || t.isObjectAnon()))
 			{
-				boolean result = prefixReplacement (t, e.getKey(), e.getValue());
-				
-				//TODO: count per prefix?
-				if (result) count++;
+				o = prefixMap.findLongestPrefix(t.getObjectUri());
+				if (o != null) t.setObjectUri(replace (t.getObjectUri(), o));
 			}
+
+			// count each prefix once per statement
+			//TODO: count per prefix?
+			if (s != null) count++;
+			if (p != null && !sameKey(p, s)) count++;
+			if (o != null && !sameKey(o, s) && !sameKey(o, p)) count++;
 			return t;
 		}
+
+		private static boolean sameKey (Map.Entry<String, String> a, Map.Entry<String, String> b)
+		{
+			return b != null && a.getKey().equals(b.getKey());
+		}
 	
 	}
 	
+	/**
+	 * Replaces the first occurrence of a regular expression in subject, predicate and object URI's.
+	 * When constructed with several patterns, each URI is modified by the first matching pattern only.
+	 */
 	public static class UriReplace implements Function<Statement, Statement> 
 	{
 		private int count = 0;
-		private final Pattern pat;
-		private final String replacement;
+		private final UriPatternSet patterns;
+		private final String[] replacements;
 		
 		public int getCount() 
 		{ 
 			return count; 
 		}
 		
+		/** @return the patterns, with the number of URI's replaced by each of them */
+		public UriPatternSet getPatterns()
+		{
+			return patterns;
+		}
+		
 		UriReplace (String pattern, String replacement)
 		{
-			this.pat = Pattern.compile(pattern);
-			this.replacement = replacement;
+			this.patterns = new UriPatternSet (Collections.singletonList(pattern));
+			this.replacements = new String[] { replacement };
+		}
+
+		/**
+		 * @param replacements map of pattern to replacement string. 
+		 * 	Use a LinkedHashMap if the order of the patterns is important.  
+		 */
+		UriReplace (Map<String, String> replacements)
+		{
+			this.patterns = new UriPatternSet (new ArrayList<String>(replacements.keySet()));
+			this.replacements = replacements.values().toArray(new String[replacements.size()]);
 		}
 
+		/** @return the uri after replacement, or null if no pattern matches */
+		private String replace (String uri)
+		{
+			Matcher mat = patterns.matcher(uri);
+			if (mat == null) return null;
+			return mat.replaceFirst(replacements[patterns.getLastMatch()]);
+		}
+		
 		@Override
 		public Statement apply(Statement st)
 		{
 			boolean result = false;
 			
-			String s = st.getSubjectUri();
-			Matcher mats = pat.matcher(s);
-			if (mats.find())
+			String s = replace (st.getSubjectUri());
+			if (s != null)
 			{
-				s = mats.replaceFirst(replacement);
 				st.setSubjectUri(s);
 				result = true;
 			}
 			
-			String p = st.getPredicateUri();
-			Matcher matp = pat.matcher(p); 
-			if (matp.find())
+			String p = replace (st.getPredicateUri());
+			if (p != null)
 			{
-				p = matp.replaceFirst(replacement);
 				st.setPredicateUri(p);
 				result = true;
 			}
 
 			if (!(st.isLiteral() || st.isObjectAnon()))
 			{
-				String o = st.getObjectUri();
-				Matcher mato = pat.matcher(o); 
-				if (mato.find())
+				String o = replace (st.getObjectUri());
+				if (o != null)
 				{
-					o = mato.replaceFirst(replacement);
 					st.setObjectUri(o);
 					result = true;
 				}
@@ -179,28 +230,30 @@ public abstract class InferenceFunctions
 		public int getCount() { return count; }
 	}
 	
+	/**
+	 * Filters out statements where the subject, predicate or object URI matches one of a list of regular expressions.
+	 * <p>
+	 * All patterns are checked in a single pass, see {@link UriPatternSet}. 
+	 * Use {@link #getPatterns()} to find out how often each pattern caused a statement to be removed.
+	 */
 	public static class WithoutUriPatterns implements Predicate<Statement>
 	{
-		List<Pattern> cpatterns = new ArrayList<Pattern>();
+		private final UriPatternSet cpatterns;
 		
 		public WithoutUriPatterns(List<String> patterns)
 		{
-			for (String pat : patterns)
-			{
-				cpatterns.add(Pattern.compile(pat));
-			}
+			cpatterns = new UriPatternSet(patterns);
 		}
 
+		/** @return the patterns, with hit counts */
+		public UriPatternSet getPatterns()
+		{
+			return cpatterns;
+		}
+		
 		private boolean anyMatch(String s)
 		{
-			for (Pattern cpat : cpatterns)
-			{
-				if (cpat.matcher(s).find())
-				{
-					return true;
-				}
-			}
-			return false;
+			return cpatterns.matches(s);
 		}
 		
 		@Override
@@ -0,0 +1,260 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Like {@link SelectStream}, but selects triples matching any of a (possibly large) number of patterns in a single pass.
+ * <p>
+ * Each pattern is a subject, predicate and object, where null means "any value".
+ * Patterns are indexed by their bound positions, so the cost of matching a triple does
+ * not depend on the number of patterns.
+ * <p>
+ * Each pattern can optionally be given its own output stream. Matching triples are written there in N-Triple format.
+ * This way, one pass over a large dump can replace many separate runs of SelectStream:
+ * <pre>
+ * MultiSelectStream mss = new MultiSelectStream(new NtStream(is), MultiSelectStream.Mode.FIRST_MATCH);
+ * mss.addPattern(null, NS.RDF + "type", null, typeOut);
+ * mss.addPattern(null, NS.RDFS + "label", null, labelOut);
+ * mss.run();
+ * </pre>
+ */
+public class MultiSelectStream extends AbstractTripleStream
+{
+	/** Determines what happens if a triple matches more than one pattern */
+	public enum Mode
+	{
+		/** only the pattern that was added first is counted as a match */
+		FIRST_MATCH,
+		/** all matching patterns are counted */
+		ALL_MATCHES
+	}
+
+	private static final int SUBJECT = 1;
+	private static final int PREDICATE = 2;
+	private static final int OBJECT = 4;
+
+	private final TripleStream parent;
+	private final Mode mode;
+
+	private final List<OutputStream> sinks = new ArrayList<OutputStream>();
+	private long[] matchCounts = new long[16];
+
+	/**
+	 * One index per combination of bound positions, using the bitmask of bound positions as array index.
+	 * Maps the bound values of a pattern to the ids of the patterns with those values, in ascending order.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private final Map<String, int[]>[] indexes = new Map[8];
+
+	/** bit masks of combinations that are in use, so we don't do lookups in empty indexes */
+	private int[] activeMasks = new int[0];
+
+	private int[] lastMatches = new int[16];
+	private int lastMatchCount = 0;
+
+	/**
+	 * @param parent stream to read triples from
+	 * @param mode determines whether a triple is routed to the first matching pattern, or to all matching patterns.
+	 */
+	public MultiSelectStream(TripleStream parent, Mode mode)
+	{
+		this.parent = parent;
+		this.mode = mode;
+	}
+
+	/**
+	 * Add a pattern. Triples that match this pattern will be returned by {@link #getNext()}
+	 * @param subjectUri the subject you want to select for, or null if you want to allow any subject
+	 * @param predicateUri the predicate you want to select for, or null if you want to allow any predicate
+	 * @param objectUri the object you want to select for, or null if you want to allow any object.
+	 * 	Literal objects only match a pattern with null object.
+	 * @return the id of this pattern, see {@link #getLastMatches()}. Ids are assigned in order, starting with 0.
+	 */
+	public int addPattern(String subjectUri, String predicateUri, String objectUri)
+	{
+		return addPattern(subjectUri, predicateUri, objectUri, null);
+	}
+
+	/**
+	 * Add a pattern, with an output stream for the matching triples.
+	 * @param sink matching triples are written here, in N-Triple format. May be null.
+	 * 	The same stream may be used for several patterns.
+	 * 	Note that this class does not flush or close the sink.
+	 * @see #addPattern(String, String, String)
+	 */
+	public int addPattern(String subjectUri, String predicateUri, String objectUri, OutputStream sink)
+	{
+		int id = sinks.size();
+		sinks.add (sink);
+		if (id >= matchCounts.length) matchCounts = Arrays.copyOf(matchCounts, id * 2);
+		if (id >= lastMatches.length) lastMatches = new int[id * 2];
+
+		int mask =
+				(subjectUri == null ? 0 : SUBJECT) |
+				(predicateUri == null ? 0 : PREDICATE) |
+				(objectUri == null ? 0 : OBJECT);
+
+		if (indexes[mask] == null)
+		{
+			indexes[mask] = new HashMap<String, int[]>();
+			activeMasks = Arrays.copyOf(activeMasks, activeMasks.length + 1);
+			activeMasks[activeMasks.length - 1] = mask;
+		}
+
+		String key = key (mask, subjectUri, predicateUri, objectUri);
+		int[] ids = indexes[mask].get(key);
+		if (ids == null)
+		{
+			ids = new int[] { id };
+		}
+		else
+		{
+			ids = Arrays.copyOf(ids, ids.length + 1);
+			ids[ids.length - 1] = id;
+		}
+		indexes[mask].put (key, ids);
+		return id;
+	}
+
+	/** @return number of patterns added so far */
+	public int getPatternCount()
+	{
+		return sinks.size();
+	}
+
+	/** concatenate the bound values. URI's can't contain whitespace, so a newline is a safe separator. */
+	private static String key (int mask, String s, String p, String o)
+	{
+		switch (mask)
+		{
+		case 0: return "";
+		case SUBJECT: return s;
+		case PREDICATE: return p;
+		case OBJECT: return o;
+		}
+		StringBuilder builder = new StringBuilder();
+		if ((mask & SUBJECT) > 0) builder.append(s).append('\n');
+		if ((mask & PREDICATE) > 0) builder.append(p).append('\n');
+		if ((mask & OBJECT) > 0) builder.append(o);
+		return builder.toString();
+	}
+
+	/** find matching patterns for a statement, and store them in lastMatches */
+	private void match (Statement st)
+	{
+		lastMatchCount = 0;
+		String o = st.isLiteral() ? null : st.getObjectUri();
+		int first = Integer.MAX_VALUE;
+
+		for (int mask : activeMasks)
+		{
+			// literals only match wildcard objects
+			if ((mask & OBJECT) > 0 && o == null) continue;
+
+			int[] ids = indexes[mask].get(key(mask, st.getSubjectUri(), st.getPredicateUri(), o));
+			if (ids == null) continue;
+
+			if (mode == Mode.FIRST_MATCH)
+			{
+				if (ids[0] < first) first = ids[0];
+			}
+			else
+			{
+				// each pattern occurs in exactly one index, so there are no duplicates.
+				System.arraycopy(ids, 0, lastMatches, lastMatchCount, ids.length);
+				lastMatchCount += ids.length;
+			}
+		}
+
+		if (mode == Mode.FIRST_MATCH)
+		{
+			if (first != Integer.MAX_VALUE) lastMatches[lastMatchCount++] = first;
+		}
+		else if (lastMatchCount > 1)
+		{
+			Arrays.sort (lastMatches, 0, lastMatchCount);
+		}
+	}
+
+	/**
+	 * @return the next triple that matches at least one pattern.
+	 * 	The triple is also written to the sinks of the matching patterns.
+	 */
+	@Override /** @InheritDoc */
+	public Statement getNext() throws IOException, ParseException
+	{
+		Statement result;
+		do
+		{
+			result = parent.getNext();
+			if (result == null)
+			{
+				lastMatchCount = 0;
+				break;
+			}
+			match (result);
+		} while (lastMatchCount == 0);
+
+		for (int i = 0; i < lastMatchCount; ++i)
+		{
+			int id = lastMatches[i];
+			matchCounts[id]++;
+			OutputStream sink = sinks.get(id);
+			if (sink != null && !sinkWrittenBefore(sink, i)) result.write(sink);
+		}
+
+		return result;
+	}
+
+	/** check if a sink was already used by one of the first n matches, so we don't write the same triple twice */
+	private boolean sinkWrittenBefore(OutputStream sink, int n)
+	{
+		for (int j = 0; j < n; ++j)
+		{
+			if (sinks.get(lastMatches[j]) == sink) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the ids of the patterns that matched the triple last returned by {@link #getNext()}, in ascending order.
+	 * 	In FIRST_MATCH mode, this is always a single id.
+	 */
+	public int[] getLastMatches()
+	{
+		return Arrays.copyOf(lastMatches, lastMatchCount);
+	}
+
+	/** @return number of triples that were matched by the given pattern so far */
+	public long getMatchCount(int patternId)
+	{
+		if (patternId < 0 || patternId >= sinks.size()) throw new IndexOutOfBoundsException("No pattern with id " + patternId);
+		return matchCounts[patternId];
+	}
+
+	/**
+	 * Read through the entire parent stream, writing all matching triples to the sinks.
+	 * @return number of triples that matched at least one pattern.
+	 */
+	public long run() throws IOException, ParseException
+	{
+		long count = 0;
+		while (getNext() != null)
+		{
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,219 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * A {@link Spliterator} over an uncompressed N-Triples file, that splits by byte range.
+ * <p>
+ * Each split is cut at a line boundary, and parsed by its own {@link NtStream} over a memory-mapped part of the file.
+ * This makes it possible to parse a large dump on all cores with a parallel stream:
+ * <pre>
+ * long count = NtFileSpliterator.stream(f, true).filter(...).count();
+ * </pre>
+ * Each split only reads its own part of the file, so line numbers in parse errors are relative to the start of the split.
+ * Blank node labels are kept as they are in the file.
+ */
+public class NtFileSpliterator implements Spliterator<Statement>
+{
+	/** don't split ranges smaller than this */
+	private static final long MIN_SPLIT_SIZE = 1 << 20;
+	/** map the file in windows of this size, so we can handle files and splits larger than 2GB */
+	private static final int MAP_WINDOW = 1 << 26;
+
+	private final FileChannel channel;
+	private long start;
+	private final long end;
+	private NtStream current = null;
+	private boolean done = false;
+
+	private NtFileSpliterator(FileChannel channel, long start, long end)
+	{
+		this.channel = channel;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Create a Spliterator over the entire file.
+	 * The file is kept open until the returned spliterator and all its splits are garbage, use {@link #stream(File, boolean)} to close it explicitly.
+	 */
+	public static NtFileSpliterator open(File f) throws IOException
+	{
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		return new NtFileSpliterator(channel, 0, channel.size());
+	}
+
+	/**
+	 * Create a java.util.stream.Stream of the triples in an uncompressed N-Triples file.
+	 * Close the stream to close the file.
+	 */
+	public static java.util.stream.Stream<Statement> stream(File f, boolean parallel) throws IOException
+	{
+		NtFileSpliterator spliterator = open(f);
+		return StreamSupport.stream(spliterator, parallel).onClose(() -> {
+			try
+			{
+				spliterator.channel.close();
+			}
+			catch (IOException ex)
+			{
+				throw new UncheckedIOException(ex);
+			}
+		});
+	}
+
+	/** Reads a range of the file, mapping it into memory one window at a time. */
+	private static class MappedRangeInputStream extends InputStream
+	{
+		private final FileChannel channel;
+		private long pos;
+		private final long end;
+		private MappedByteBuffer buffer = null;
+
+		MappedRangeInputStream (FileChannel channel, long start, long end)
+		{
+			this.channel = channel;
+			this.pos = start;
+			this.end = end;
+		}
+
+		/** @return false if there is nothing left to read */
+		private boolean ensureBuffer() throws IOException
+		{
+			if (buffer != null && buffer.hasRemaining()) return true;
+			if (pos >= end) return false;
+			long len = Math.min (MAP_WINDOW, end - pos);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+			pos += len;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (!ensureBuffer()) return -1;
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0) return 0;
+			if (!ensureBuffer()) return -1;
+			int n = Math.min (len, buffer.remaining());
+			buffer.get (b, off, n);
+			return n;
+		}
+	}
+
+	/** @return position just after the first newline at or after pos, or -1 if there is none before the end of this range */
+	private long findLineStart(long pos) throws IOException
+	{
+		MappedRangeInputStream in = new MappedRangeInputStream(channel, pos, end);
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf, 0, buf.length)) > 0)
+		{
+			for (int i = 0; i < n; ++i)
+			{
+				if (buf[i] == '\n') return pos + i + 1;
+			}
+			pos += n;
+		}
+		return -1;
+	}
+
+	@Override
+	public Spliterator<Statement> trySplit()
+	{
+		// once parsing has started, the range is fixed
+		if (current != null || done) return null;
+		if (end - start < 2 * MIN_SPLIT_SIZE) return null;
+		try
+		{
+			long mid = findLineStart (start + (end - start) / 2);
+			if (mid < 0 || mid >= end) return null;
+			NtFileSpliterator prefix = new NtFileSpliterator(channel, start, mid);
+			start = mid;
+			return prefix;
+		}
+		catch (IOException ex)
+		{
+			throw new UncheckedIOException (ex);
+		}
+	}
+
+	private Statement next()
+	{
+		if (done) return null;
+		try
+		{
+			if (current == null)
+			{
+				current = new NtStream(new MappedRangeInputStream(channel, start, end));
+			}
+			Statement st = current.getNext();
+			if (st == null)
+			{
+				done = true;
+				current = null;
+			}
+			return st;
+		}
+		catch (IOException ex)
+		{
+			throw new UncheckedIOException (ex);
+		}
+		catch (ParseException ex)
+		{
+			throw new RuntimeException (ex);
+		}
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Statement> action)
+	{
+		Statement st = next();
+		if (st == null) return false;
+		action.accept (st);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super Statement> action)
+	{
+		Statement st;
+		while ((st = next()) != null)
+		{
+			action.accept (st);
+		}
+	}
+
+	/** @return an estimate of the number of triples, assuming 100 bytes per line. */
+	@Override
+	public long estimateSize()
+	{
+		return done ? 0 : Math.max (1, (end - start) / 100);
+	}
+
+	@Override
+	public int characteristics()
+	{
+		return ORDERED | NONNULL | IMMUTABLE;
+	}
+}
@@ -4,6 +4,8 @@
 */
 package com.generalbioinformatics.rdf.stream;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -42,31 +44,119 @@ public class NtStream extends AbstractTripleStream
 		}
 	}
 
+	/**
+	 * A bookmark in an N-Triples file: the byte offset and line number
+	 * directly following the last fully parsed triple.
+	 * <p>
+	 * Can be passed to {@link NtStream#resume(File, Position)} to continue parsing from that point.
+	 */
+	public static class Position
+	{
+		private final long byteOffset;
+		private final long line;
+		
+		public Position (long byteOffset, long line)
+		{
+			this.byteOffset = byteOffset;
+			this.line = line;
+		}
+		
+		/** number of bytes from the start of the file */
+		public long getByteOffset() { return byteOffset; }
+		
+		/** number of lines from the start of the file */
+		public long getLine() { return line; }
+		
+		@Override
+		public String toString()
+		{
+			return "byte " + byteOffset + ", line " + line;
+		}
+	}
+	
 	private final PeekReader is;
 	
 	private int start;
 	private int end;
-	private int line = 0;
+	private long line = 0;
 	private int col = 0;
 	
+	// number of bytes consumed so far, assuming UTF-8 input as per N-Triples spec.
+	private long bytePos = 0;
+	private Position lastPosition;
+	
 	public NtStream (InputStream is) throws IOException
+	{
+		this (is, new Position(0, 0));
+	}
+
+	/**
+	 * @param is input stream, already positioned at the given offset
+	 * @param offset where the input stream starts relative to the beginning of the file.
+	 */
+	private NtStream (InputStream is, Position offset) throws IOException
 	{
 		// Wrapping the InputStream in a BufferedInputStream can give a speed boost.
 		// ParseBuffer is like BufferedInputStream, but gives another speed boost because of zero-copy mechanic.
 		this.is = new PeekReader(is);
+		this.bytePos = offset.getByteOffset();
+		this.line = offset.getLine();
+		this.lastPosition = offset;
 		next = this.is.peek();
 	}
 	
+	/**
+	 * Continue parsing a file from a bookmark obtained earlier with {@link #getPosition()}.
+	 * <p>
+	 * The file must be seekable, i.e. not compressed.
+	 */
+	public static NtStream resume (File f, Position pos) throws IOException
+	{
+		FileInputStream fis = new FileInputStream (f);
+		try
+		{
+			fis.getChannel().position(pos.getByteOffset());
+		}
+		catch (IOException ex)
+		{
+			fis.close();
+			throw (ex);
+		}
+		return new NtStream (fis, pos);
+	}
+	
+	/**
+	 * Bookmark directly after the last fully parsed triple.
+	 * Before the first triple is read, this is the start of the input.
+	 */
+	public Position getPosition()
+	{
+		return lastPosition;
+	}
+	
 	int next;
 	
 	/** consume one character from the stream */
 	private void eat() throws IOException
 	{
 		col++;
+		bytePos += utf8Length(next);
 		is.read();
 		next = is.peek();
 	}
 	
+	/** number of bytes a character occupies in UTF-8. A surrogate pair is counted as 4 bytes on the high surrogate. */
+	private static int utf8Length(int c)
+	{
+		if (c < 0) return 0;
+		if (c < 0x80) return 1;
+		if (c < 0x800) return 2;
+		if (Character.isHighSurrogate((char)c)) return 4;
+		if (Character.isLowSurrogate((char)c)) return 0;
+		if (c < 0x10000) return 3;
+		return 4;
+	}
+	
 	/** consume a URI between '<' and '>' */
 	private boolean eatResource() throws IOException
 	{	
@@ -366,6 +456,7 @@ public class NtStream extends AbstractTripleStream
 		eatWhiteSpace(0);
 		eatEol();
 		
+		lastPosition = new Position (bytePos, line);
 		return current;
 	}
 
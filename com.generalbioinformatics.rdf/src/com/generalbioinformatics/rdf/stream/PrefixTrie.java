@@ -0,0 +1,160 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A character trie mapping String prefixes to values, for finding the longest key that is a prefix of a given String.
+ * <p>
+ * A lookup takes time proportional to the length of the String, regardless of the number of keys.
+ * Use this instead of looping over a map of namespaces and calling startsWith on each of them.
+ * <p>
+ * Not thread-safe for modification, but concurrent lookups are fine once all keys have been added.
+ */
+public class PrefixTrie<V>
+{
+	private static final char[] NO_CHARS = new char[0];
+
+	/** A node in the trie. Nodes that correspond to a key double as the map entry for that key. */
+	private static class Node<V> implements Map.Entry<String, V>
+	{
+		/** labels of the child nodes, sorted. */
+		char[] labels = NO_CHARS;
+		Node<V>[] children;
+
+		/** the key ending at this node, or null if no key ends here */
+		String key = null;
+		V value = null;
+
+		Node<V> child (char c)
+		{
+			int idx = Arrays.binarySearch (labels, c);
+			return idx < 0 ? null : children[idx];
+		}
+
+		Node<V> addChild (char c)
+		{
+			int idx = Arrays.binarySearch (labels, c);
+			if (idx >= 0) return children[idx];
+
+			int pos = -idx - 1;
+			char[] newLabels = new char[labels.length + 1];
+			@SuppressWarnings({"rawtypes", "unchecked"})
+			Node<V>[] newChildren = new Node[labels.length + 1];
+			System.arraycopy (labels, 0, newLabels, 0, pos);
+			System.arraycopy (labels, pos, newLabels, pos + 1, labels.length - pos);
+			if (children != null)
+			{
+				System.arraycopy (children, 0, newChildren, 0, pos);
+				System.arraycopy (children, pos, newChildren, pos + 1, labels.length - pos);
+			}
+			Node<V> result = new Node<V>();
+			newLabels[pos] = c;
+			newChildren[pos] = result;
+			labels = newLabels;
+			children = newChildren;
+			return result;
+		}
+
+		@Override
+		public String getKey()
+		{
+			return key;
+		}
+
+		@Override
+		public V getValue()
+		{
+			return value;
+		}
+
+		@Override
+		public V setValue(V newValue)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString()
+		{
+			return key + "=" + value;
+		}
+	}
+
+	private Node<V> root = new Node<V>();
+	private int size = 0;
+
+	/**
+	 * Add a key, or replace the value of an existing key.
+	 * @return the previous value for this key, or null if it wasn't present
+	 */
+	public V put (String key, V value)
+	{
+		if (key == null) throw new NullPointerException();
+		Node<V> node = root;
+		for (int i = 0; i < key.length(); ++i)
+		{
+			node = node.addChild (key.charAt(i));
+		}
+		V prev = node.value;
+		if (node.key == null) size++;
+		node.key = key;
+		node.value = value;
+		return prev;
+	}
+
+	/** Add all entries of a map */
+	public void putAll (Map<String, ? extends V> map)
+	{
+		for (Map.Entry<String, ? extends V> e : map.entrySet())
+		{
+			put (e.getKey(), e.getValue());
+		}
+	}
+
+	/** @return the value for the exact key, or null if it is not present */
+	public V get (String key)
+	{
+		Node<V> node = root;
+		for (int i = 0; node != null && i < key.length(); ++i)
+		{
+			node = node.child (key.charAt(i));
+		}
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * Find the longest key that is a prefix of the given String.
+	 * @return the matching key and its value, or null if no key matches, or if s is null.
+	 */
+	public Map.Entry<String, V> findLongestPrefix (String s)
+	{
+		if (s == null) return null;
+		Node<V> node = root;
+		Node<V> result = node.key == null ? null : node;
+		for (int i = 0, len = s.length(); i < len; ++i)
+		{
+			node = node.child (s.charAt(i));
+			if (node == null) break;
+			if (node.key != null) result = node;
+		}
+		return result;
+	}
+
+	/** @return the number of keys */
+	public int size()
+	{
+		return size;
+	}
+
+	/** remove all keys */
+	public void clear()
+	{
+		root = new Node<V>();
+		size = 0;
+	}
+}
@@ -0,0 +1,465 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.generalbioinformatics.rdf.NS;
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Forward-chaining inference for a small set of RDFS and OWL rules, over streams of triples.
+ * <p>
+ * Supported rules:
+ * <ul>
+ * <li>rdfs:subClassOf is transitive, and rdf:type is propagated to all superclasses
+ * <li>rdfs:subPropertyOf is transitive, and each triple is repeated for all superproperties
+ * <li>resources linked by owl:sameAs are replaced by one canonical URI, the lexicographically smallest of the group
+ * </ul>
+ * Inference happens in two passes. First the schema triples are collected with {@link #addSchema(TripleStream)}.
+ * This keeps only the subClassOf, subPropertyOf and sameAs triples in memory, encoded as integer ID's.
+ * Then the closures are computed by semi-naive evaluation, on multiple threads if requested.
+ * Then the instance data is streamed through {@link #infer(TripleStream, NtWriter)}, which needs no memory beyond the schema.
+ * <p>
+ * Blank nodes and literals in the schema are ignored, so OWL restrictions are not supported.
+ * The output can contain duplicates, for example when a resource has two types with the same superclass,
+ * or when an inferred triple was already asserted. Use {@link SortedTripleStream#setDeduplicate(boolean)} to remove them.
+ * <p>
+ * Example:
+ * <pre>
+ * RuleInference inference = new RuleInference();
+ * inference.addSchema(new NtStream(schemaIs));
+ * inference.infer(new NtStream(dataIs), new NtWriter(os));
+ * </pre>
+ */
+public class RuleInference
+{
+	private static final String RDF_TYPE = NS.RDF + "type";
+	private static final String SUB_CLASS_OF = NS.RDFS + "subClassOf";
+	private static final String SUB_PROPERTY_OF = NS.RDFS + "subPropertyOf";
+	private static final String SAME_AS = NS.OWL + "sameAs";
+
+	private static final int[] NONE = new int[0];
+
+	/** maps schema URI's to consecutive integer ID's and back */
+	static class Dictionary
+	{
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+		private final List<String> terms = new ArrayList<String>();
+
+		/** @return the id of a term, adding it if it is new */
+		int encode(String term)
+		{
+			Integer id = ids.get(term);
+			if (id == null)
+			{
+				id = terms.size();
+				ids.put (term, id);
+				terms.add (term);
+			}
+			return id;
+		}
+
+		/** @return the id of a term, or -1 if it is not in the dictionary */
+		int lookup(String term)
+		{
+			Integer id = ids.get(term);
+			return id == null ? -1 : id;
+		}
+
+		String decode(int id)
+		{
+			return terms.get(id);
+		}
+
+		int size()
+		{
+			return terms.size();
+		}
+	}
+
+	private final Dictionary dictionary = new Dictionary();
+	private final List<int[]> subClassEdges = new ArrayList<int[]>();
+	private final List<int[]> subPropertyEdges = new ArrayList<int[]>();
+	private final List<int[]> sameAsEdges = new ArrayList<int[]>();
+	private int threads = 1;
+	private boolean includeAsserted = true;
+
+	// computed by prepare()
+	private boolean prepared = false;
+	private int[] canonical = null;
+	private int[][] superClasses = null;
+	private int[][] superProperties = null;
+	private long closureRounds = 0;
+	private int rdfTypeId = -1;
+
+	/** Number of threads used to compute the closures. Default is 1. */
+	public void setThreads(int value)
+	{
+		if (value < 1) throw new IllegalArgumentException("Need at least one thread");
+		threads = value;
+	}
+
+	/**
+	 * If true (the default), {@link #infer(TripleStream, NtWriter)} also writes the input triples, with sameAs canonicalisation applied,
+	 * so that the output is the complete materialised dataset. If false, only inferred triples are written.
+	 */
+	public void setIncludeAsserted(boolean value)
+	{
+		includeAsserted = value;
+	}
+
+	private void addEdge(List<int[]> edges, String from, String to)
+	{
+		if (prepared) throw new IllegalStateException("Schema can't be changed after inference has started");
+		edges.add (new int[] { dictionary.encode(from), dictionary.encode(to) });
+	}
+
+	/** add a single rdfs:subClassOf relation */
+	public void addSubClassOf(String subClass, String superClass)
+	{
+		addEdge (subClassEdges, subClass, superClass);
+	}
+
+	/** add a single rdfs:subPropertyOf relation */
+	public void addSubPropertyOf(String subProperty, String superProperty)
+	{
+		addEdge (subPropertyEdges, subProperty, superProperty);
+	}
+
+	/** add a single owl:sameAs relation */
+	public void addSameAs(String a, String b)
+	{
+		addEdge (sameAsEdges, a, b);
+	}
+
+	/**
+	 * Read the schema triples from a stream. All other triples are ignored, so this can be a complete dataset.
+	 * @return number of schema triples found
+	 */
+	public long addSchema(TripleStream ts) throws IOException, ParseException
+	{
+		long count = 0;
+		Statement st;
+		while ((st = ts.getNext()) != null)
+		{
+			if (st.isSubjectAnon() || st.isLiteral() || st.isObjectAnon()) continue;
+			String p = st.getPredicateUri();
+			if (SUB_CLASS_OF.equals(p)) addSubClassOf (st.getSubjectUri(), st.getObjectUri());
+			else if (SUB_PROPERTY_OF.equals(p)) addSubPropertyOf (st.getSubjectUri(), st.getObjectUri());
+			else if (SAME_AS.equals(p)) addSameAs (st.getSubjectUri(), st.getObjectUri());
+			else continue;
+			count++;
+		}
+		return count;
+	}
+
+	private static int find(int[] parent, int x)
+	{
+		while (parent[x] != x)
+		{
+			parent[x] = parent[parent[x]];
+			x = parent[x];
+		}
+		return x;
+	}
+
+	/** union-find over the sameAs edges, choosing the lexicographically smallest URI of each group */
+	private int[] computeCanonical()
+	{
+		int n = dictionary.size();
+		int[] parent = new int[n];
+		for (int i = 0; i < n; ++i) parent[i] = i;
+		for (int[] edge : sameAsEdges)
+		{
+			int a = find (parent, edge[0]);
+			int b = find (parent, edge[1]);
+			if (a == b) continue;
+			if (dictionary.decode(a).compareTo(dictionary.decode(b)) < 0) parent[b] = a; else parent[a] = b;
+		}
+		int[] result = new int[n];
+		for (int i = 0; i < n; ++i) result[i] = find (parent, i);
+		return result;
+	}
+
+	private static long pair(int from, int to)
+	{
+		return ((long)from << 32) | (to & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Transitive closure by semi-naive evaluation: in each round, only the pairs found in the previous round are extended by one edge.
+	 * The work of each round is divided over the threads.
+	 * @return for each id, the ids reachable from it, excluding itself.
+	 */
+	private int[][] closure(List<int[]> edges, ExecutorService executor) throws IOException
+	{
+		int n = dictionary.size();
+		final int[][] direct = new int[n][];
+		Set<Long> known = new HashSet<Long>();
+		List<Long> delta = new ArrayList<Long>();
+		int[] degree = new int[n];
+		for (int[] edge : edges)
+		{
+			int from = canonical[edge[0]];
+			int to = canonical[edge[1]];
+			if (from != to && known.add (pair(from, to)))
+			{
+				delta.add (pair(from, to));
+				degree[from]++;
+			}
+		}
+		for (int i = 0; i < n; ++i) direct[i] = degree[i] == 0 ? NONE : new int[degree[i]];
+		for (long p : delta)
+		{
+			int from = (int)(p >>> 32);
+			direct[from][--degree[from]] = (int)p;
+		}
+
+		final Set<Long> closure = known;
+		while (!delta.isEmpty())
+		{
+			closureRounds++;
+			List<Future<Set<Long>>> futures = new ArrayList<Future<Set<Long>>>();
+			int chunk = (delta.size() + threads - 1) / threads;
+			for (int start = 0; start < delta.size(); start += chunk)
+			{
+				final List<Long> part = delta.subList(start, Math.min (delta.size(), start + chunk));
+				futures.add (executor.submit(new Callable<Set<Long>>() {
+					@Override
+					public Set<Long> call()
+					{
+						// closure is only read during a round, so it can be shared between threads
+						Set<Long> found = new HashSet<Long>();
+						for (long p : part)
+						{
+							int from = (int)(p >>> 32);
+							for (int to : direct[(int)p])
+							{
+								if (to == from) continue;
+								long q = pair(from, to);
+								if (!closure.contains(q)) found.add (q);
+							}
+						}
+						return found;
+					}
+				}));
+			}
+
+			List<Long> next = new ArrayList<Long>();
+			for (Future<Set<Long>> future : futures)
+			{
+				for (long q : waitFor(future))
+				{
+					if (closure.add(q)) next.add (q);
+				}
+			}
+			delta = next;
+		}
+
+		int[] count = new int[n];
+		for (long p : closure) count[(int)(p >>> 32)]++;
+		int[][] result = new int[n][];
+		for (int i = 0; i < n; ++i) result[i] = count[i] == 0 ? NONE : new int[count[i]];
+		for (long p : closure)
+		{
+			int from = (int)(p >>> 32);
+			result[from][--count[from]] = (int)p;
+		}
+		for (int[] row : result) Arrays.sort(row);
+		return result;
+	}
+
+	private static <T> T waitFor(Future<T> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException ex)
+		{
+			throw new InterruptedIOException("Interrupted while computing closure");
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/** compute the sameAs groups and the closures. Called automatically on first use. */
+	private void prepare() throws IOException
+	{
+		if (prepared) return;
+		prepared = true;
+		canonical = computeCanonical();
+		rdfTypeId = dictionary.lookup(RDF_TYPE);
+		if (rdfTypeId >= 0) rdfTypeId = canonical[rdfTypeId];
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			superClasses = closure(subClassEdges, executor);
+			superProperties = closure(subPropertyEdges, executor);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/** @return the canonical URI for a resource, which is the resource itself unless it has owl:sameAs links */
+	public String getCanonical(String uri) throws IOException
+	{
+		prepare();
+		int id = dictionary.lookup(uri);
+		return id < 0 ? uri : dictionary.decode(canonical[id]);
+	}
+
+	private List<String> decodeAll(int[] ids)
+	{
+		List<String> result = new ArrayList<String>();
+		for (int id : ids) result.add (dictionary.decode(id));
+		return result;
+	}
+
+	/** @return all superclasses of a class, direct and indirect, in canonical form. */
+	public List<String> getSuperClasses(String classUri) throws IOException
+	{
+		prepare();
+		int id = dictionary.lookup(classUri);
+		return decodeAll (id < 0 ? NONE : superClasses[canonical[id]]);
+	}
+
+	/** @return all superproperties of a property, direct and indirect, in canonical form. */
+	public List<String> getSuperProperties(String propertyUri) throws IOException
+	{
+		prepare();
+		int id = dictionary.lookup(propertyUri);
+		return decodeAll (id < 0 ? NONE : superProperties[canonical[id]]);
+	}
+
+	/** @return number of semi-naive rounds needed to compute both closures, for diagnostics. */
+	public long getClosureRounds() throws IOException
+	{
+		prepare();
+		return closureRounds;
+	}
+
+	private String canonicalUri(String uri)
+	{
+		int id = dictionary.lookup(uri);
+		return id < 0 ? uri : dictionary.decode(canonical[id]);
+	}
+
+	private int[] supersOf(int[][] supers, String uri)
+	{
+		int id = dictionary.lookup(uri);
+		return id < 0 ? NONE : supers[canonical[id]];
+	}
+
+	/**
+	 * Stream the instance data, and write the inferred triples.
+	 * <p>
+	 * The statements of the input stream are modified while writing, so the input must not reuse statements that are still needed elsewhere.
+	 * owl:sameAs triples are written unchanged, so the links to the canonical URI's are kept.
+	 * The writer is flushed, but not closed.
+	 * @return number of inferred triples written, not counting the asserted triples.
+	 */
+	public long infer(TripleStream ts, NtWriter out) throws IOException, ParseException
+	{
+		prepare();
+		long count = 0;
+		Statement st;
+		while ((st = ts.getNext()) != null)
+		{
+			String p = st.getPredicateUri();
+			if (SAME_AS.equals(p))
+			{
+				if (includeAsserted) out.write(st);
+				continue;
+			}
+
+			if (!st.isSubjectAnon()) st.setSubjectUri(canonicalUri(st.getSubjectUri()));
+			p = canonicalUri(p);
+			st.setPredicateUri(p);
+			String o = null;
+			if (!(st.isLiteral() || st.isObjectAnon()))
+			{
+				o = canonicalUri(st.getObjectUri());
+				st.setObjectUri(o);
+			}
+			if (includeAsserted) out.write(st);
+
+			// types can be asserted directly, or through a subproperty of rdf:type
+			boolean isType = RDF_TYPE.equals(p);
+			for (int q : supersOf(superProperties, p))
+			{
+				st.setPredicateUri(dictionary.decode(q));
+				out.write(st);
+				count++;
+				if (q == rdfTypeId) isType = true;
+			}
+
+			if (isType && o != null)
+			{
+				st.setPredicateUri(RDF_TYPE);
+				for (int c : supersOf(superClasses, o))
+				{
+					st.setObjectUri(dictionary.decode(c));
+					out.write(st);
+					count++;
+				}
+			}
+		}
+		out.flush();
+		return count;
+	}
+
+	private long writeClosure(NtWriter out, int[][] supers, List<int[]> edges, String predicate) throws IOException
+	{
+		Set<Long> asserted = new HashSet<Long>();
+		for (int[] edge : edges) asserted.add (pair(canonical[edge[0]], canonical[edge[1]]));
+		long count = 0;
+		for (int from = 0; from < supers.length; ++from)
+		{
+			for (int to : supers[from])
+			{
+				if (asserted.contains(pair(from, to))) continue;
+				out.writeStatement(dictionary.decode(from), predicate, dictionary.decode(to));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Write the rdfs:subClassOf and rdfs:subPropertyOf triples that follow from transitivity, but were not asserted.
+	 * The writer is flushed, but not closed.
+	 * @return number of triples written
+	 */
+	public long writeSchemaClosure(NtWriter out) throws IOException
+	{
+		prepare();
+		long count = writeClosure (out, superClasses, subClassEdges, SUB_CLASS_OF);
+		count += writeClosure (out, superProperties, subPropertyEdges, SUB_PROPERTY_OF);
+		out.flush();
+		return count;
+	}
+}
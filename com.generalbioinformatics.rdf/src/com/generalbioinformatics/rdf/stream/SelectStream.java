@@ -16,7 +16,8 @@ public class SelectStream extends AbstractTripleStream
 	 * @param subjectUri the subject you want to select for, or null if you want to allow any subject
 	 * @param predicateUri the predicate you want to select for, or null if you want to allow any predicate
 	 * @param objectUri the object you want to select for, or null if you want to allow any object.
-	 * 	NB For the time being, only object uri's are supported, no literals.
+	 * 	NB For the time being, only object uri's are supported, no literals. Literal statements only match if objectUri is null.
+	 * @see MultiSelectStream for selecting on many patterns at once
 	 */
 	public SelectStream(TripleStream parent, String subjectUri, String predicateUri, String objectUri)
 	{
@@ -41,9 +42,9 @@ public class SelectStream extends AbstractTripleStream
 			if (result == null) break;
 			
 			if (
-					(subjectUri == null || result.getSubjectUri().equals(subjectUri)) &&
-					(objectUri == null || result.getObjectUri().equals(objectUri)) &&
-					(predicateUri == null || result.getPredicateUri().equals(predicateUri))
+					(subjectUri == null || subjectUri.equals(result.getSubjectUri())) &&
+					(objectUri == null || (!result.isLiteral() && objectUri.equals(result.getObjectUri()))) &&
+					(predicateUri == null || predicateUri.equals(result.getPredicateUri()))
 				)
 			{
 				break;
@@ -0,0 +1,550 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Sorts the triples of another TripleStream, in bounded memory.
+ * <p>
+ * Triples are collected in memory up to a maximum number, sorted, and written to a temporary file in a compact binary format.
+ * When the parent stream is exhausted, the sorted runs are merged. If everything fits in memory, no temporary files are used.
+ * Optionally, duplicate triples are removed during the merge.
+ * <p>
+ * The sort order is by plain String comparison of URI's and literal values, independent of locale.
+ * Within each position, URI's come first, then blank nodes, then literals.
+ * Literals with the same value are ordered by datatype, then language.
+ * <p>
+ * Literal values are returned as Strings, whether or not the triples fit in memory:
+ * other literal types are converted with toString(), in the statements read from the parent stream.
+ * Datatype and language are kept. A missing literal value stays null.
+ * <p>
+ * Sorting happens on the first call to {@link #getNext()}. Call {@link #close()} to remove temporary files
+ * if you don't read the stream to the end.
+ */
+public class SortedTripleStream extends AbstractTripleStream implements Closeable
+{
+	/** The order of the positions to sort by */
+	public enum Order
+	{
+		SPO, POS, OSP;
+
+		private final Comparator<Statement> comparator = new StatementComparator(this);
+
+		/** @return a comparator that sorts in this order */
+		public Comparator<Statement> comparator()
+		{
+			return comparator;
+		}
+	}
+
+	/** default maximum number of triples to keep in memory */
+	public static final int DEFAULT_MAX_IN_MEMORY = 500000;
+
+	/** maximum number of runs to merge at once, to limit the number of open files */
+	private static final int MAX_FAN_IN = 64;
+
+	private final TripleStream parent;
+	private final Order order;
+	private final Comparator<Statement> comparator;
+	private int maxInMemory = DEFAULT_MAX_IN_MEMORY;
+	private File tempDir = null;
+	private boolean deduplicate = false;
+
+	private boolean sorted = false;
+	private final List<File> runs = new ArrayList<File>();
+	private int runCount = 0;
+
+	// source of sorted triples, either in memory or a merge of runs
+	private Statement[] memory = null;
+	private int memoryPos = 0;
+	private int memorySize = 0;
+	private PriorityQueue<RunReader> queue = null;
+	private Statement last = null;
+
+	/** Sort a TripleStream in the given order */
+	public SortedTripleStream(TripleStream parent, Order order)
+	{
+		this.parent = parent;
+		this.order = order;
+		this.comparator = order.comparator();
+	}
+
+	/** @return the order of the output */
+	public Order getOrder()
+	{
+		return order;
+	}
+
+	/** Maximum number of triples held in memory at once. Must be set before reading. Default {@link #DEFAULT_MAX_IN_MEMORY} */
+	public void setMaxInMemory(int value)
+	{
+		checkNotStarted();
+		if (value < 1) throw new IllegalArgumentException("Must keep at least one triple in memory");
+		maxInMemory = value;
+	}
+
+	/** Directory for temporary files, or null for the system default. Must be set before reading. */
+	public void setTempDir(File value)
+	{
+		checkNotStarted();
+		tempDir = value;
+	}
+
+	/** If true, duplicate triples are only returned once. Must be set before reading. Default false. */
+	public void setDeduplicate(boolean value)
+	{
+		checkNotStarted();
+		deduplicate = value;
+	}
+
+	private void checkNotStarted()
+	{
+		if (sorted) throw new IllegalStateException("Sorting has already started");
+	}
+
+	/** @return number of sorted runs written to temporary files, zero if everything fit in memory. Only known after the first call to getNext(). */
+	public int getRunCount()
+	{
+		return runCount;
+	}
+
+	/** read the whole parent, writing sorted runs to disk where necessary */
+	private void sort() throws IOException, ParseException
+	{
+		sorted = true;
+		Statement[] buffer = new Statement[Math.min (maxInMemory, 1 << 16)];
+		int size = 0;
+		Statement st;
+		while ((st = parent.getNext()) != null)
+		{
+			if (size == buffer.length)
+			{
+				if (size == maxInMemory)
+				{
+					runs.add (writeRun(buffer, size));
+					Arrays.fill (buffer, null);
+					size = 0;
+				}
+				else
+				{
+					buffer = Arrays.copyOf(buffer, Math.min (maxInMemory, size * 2));
+				}
+			}
+			buffer[size++] = toStringLiteral(st);
+		}
+
+		Arrays.sort (buffer, 0, size, comparator);
+		if (runs.isEmpty())
+		{
+			memory = buffer;
+			memorySize = size;
+			return;
+		}
+
+		if (size > 0) runs.add (writeRun(buffer, size));
+		buffer = null;
+
+		// reduce the number of runs until we can merge them all at once.
+		while (runs.size() > MAX_FAN_IN)
+		{
+			List<File> group = new ArrayList<File>(runs.subList(0, MAX_FAN_IN));
+			runs.subList(0, MAX_FAN_IN).clear();
+			runs.add (mergeRuns(group));
+		}
+
+		queue = openRuns(runs);
+	}
+
+	/** literals are returned as Strings, as the run format can't store other types */
+	private static Statement toStringLiteral(Statement st)
+	{
+		if (st.isLiteral() && st.getLiteral() != null && !(st.getLiteral() instanceof String))
+		{
+			st.setLiteral(st.getLiteral().toString());
+		}
+		return st;
+	}
+
+	private File writeRun(Statement[] buffer, int size) throws IOException
+	{
+		Arrays.sort (buffer, 0, size, comparator);
+		runCount++;
+		File f = File.createTempFile("sorted-triples-", ".run", tempDir);
+		RunWriter writer = new RunWriter(new FileOutputStream(f));
+		try
+		{
+			for (int i = 0; i < size; ++i)
+			{
+				writer.write (buffer[i]);
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+		return f;
+	}
+
+	private PriorityQueue<RunReader> openRuns(List<File> files) throws IOException
+	{
+		PriorityQueue<RunReader> result = new PriorityQueue<RunReader>(Math.max (1, files.size()), new Comparator<RunReader>() {
+			@Override
+			public int compare(RunReader a, RunReader b)
+			{
+				int result = comparator.compare(a.head, b.head);
+				// keep the merge stable, so that earlier runs come first
+				return result != 0 ? result : Integer.compare(a.index, b.index);
+			}
+		});
+		int index = 0;
+		for (File f : files)
+		{
+			RunReader reader = new RunReader(new FileInputStream(f), index++);
+			if (reader.advance()) result.add (reader); else reader.close();
+		}
+		return result;
+	}
+
+	private static Statement poll(PriorityQueue<RunReader> queue) throws IOException
+	{
+		RunReader reader = queue.poll();
+		if (reader == null) return null;
+		Statement result = reader.head;
+		if (reader.advance()) queue.add (reader); else reader.close();
+		return result;
+	}
+
+	/** merge a number of runs into a single new run. The input files are deleted. */
+	private File mergeRuns(List<File> group) throws IOException
+	{
+		PriorityQueue<RunReader> q = openRuns(group);
+		File f = File.createTempFile("sorted-triples-", ".run", tempDir);
+		RunWriter writer = new RunWriter(new FileOutputStream(f));
+		try
+		{
+			Statement prev = null;
+			Statement st;
+			while ((st = poll(q)) != null)
+			{
+				if (deduplicate && prev != null && comparator.compare(prev, st) == 0) continue;
+				writer.write (st);
+				prev = st;
+			}
+		}
+		finally
+		{
+			writer.close();
+			for (RunReader reader : q) reader.close();
+			for (File g : group) g.delete();
+		}
+		return f;
+	}
+
+	private Statement nextSorted() throws IOException
+	{
+		if (memory != null)
+		{
+			if (memoryPos == memorySize) return null;
+			Statement result = memory[memoryPos];
+			memory[memoryPos++] = null;
+			return result;
+		}
+		Statement result = poll(queue);
+		if (result == null) close();
+		return result;
+	}
+
+	@Override /** @InheritDoc */
+	public Statement getNext() throws IOException, ParseException
+	{
+		if (!sorted) sort();
+		Statement result;
+		do
+		{
+			result = nextSorted();
+		}
+		while (deduplicate && result != null && last != null && comparator.compare(last, result) == 0);
+		last = result;
+		return result;
+	}
+
+	/** closes open temporary files, and removes them. */
+	@Override
+	public void close()
+	{
+		if (queue != null)
+		{
+			for (RunReader reader : queue)
+			{
+				try { reader.close(); } catch (IOException ex) { /* ignore, deleting anyway */ }
+			}
+			queue.clear();
+		}
+		for (File f : runs)
+		{
+			f.delete();
+		}
+		runs.clear();
+	}
+
+	/** Compares the nodes of two statements in a given order */
+	private static class StatementComparator implements Comparator<Statement>
+	{
+		private final Order order;
+
+		StatementComparator(Order order)
+		{
+			this.order = order;
+		}
+
+		@Override
+		public int compare(Statement a, Statement b)
+		{
+			int result;
+			switch (order)
+			{
+			case SPO:
+				if ((result = compareSubject(a, b)) != 0) return result;
+				if ((result = comparePredicate(a, b)) != 0) return result;
+				return compareObject(a, b);
+			case POS:
+				if ((result = comparePredicate(a, b)) != 0) return result;
+				if ((result = compareObject(a, b)) != 0) return result;
+				return compareSubject(a, b);
+			default: // OSP
+				if ((result = compareObject(a, b)) != 0) return result;
+				if ((result = compareSubject(a, b)) != 0) return result;
+				return comparePredicate(a, b);
+			}
+		}
+
+		private static int compareSubject(Statement a, Statement b)
+		{
+			int result = Boolean.compare(a.isSubjectAnon(), b.isSubjectAnon());
+			if (result != 0) return result;
+			return compareStrings(a.getSubjectUri(), b.getSubjectUri());
+		}
+
+		private static int comparePredicate(Statement a, Statement b)
+		{
+			return compareStrings(a.getPredicateUri(), b.getPredicateUri());
+		}
+
+		private static int compareObject(Statement a, Statement b)
+		{
+			int result = Integer.compare(objectKind(a), objectKind(b));
+			if (result != 0) return result;
+			if (!a.isLiteral())
+			{
+				return compareStrings(a.getObjectUri(), b.getObjectUri());
+			}
+			result = compareStrings(a.getLiteral() == null ? null : a.getLiteral().toString(), b.getLiteral() == null ? null : b.getLiteral().toString());
+			if (result != 0) return result;
+			result = compareStrings(a.getLiteralType(), b.getLiteralType());
+			if (result != 0) return result;
+			return compareStrings(a.getLiteralLanguage(), b.getLiteralLanguage());
+		}
+
+		/** URI's first, then blank nodes, then literals */
+		private static int objectKind(Statement st)
+		{
+			return st.isLiteral() ? 2 : st.isObjectAnon() ? 1 : 0;
+		}
+
+		/** null first */
+		private static int compareStrings(String a, String b)
+		{
+			if (a == null) return b == null ? 0 : -1;
+			if (b == null) return 1;
+			return a.compareTo(b);
+		}
+	}
+
+	// flags for the binary run format
+	private static final int SUBJECT_ANON = 1;
+	private static final int OBJECT_ANON = 2;
+	private static final int LITERAL = 4;
+	private static final int HAS_TYPE = 8;
+	private static final int HAS_LANG = 16;
+	private static final int SUBJECT_NULL = 32;
+	private static final int OBJECT_NULL = 64;
+
+	/**
+	 * Writes statements in a compact binary format.
+	 * Subject, predicate and object are stored as the length of the prefix shared with the previous statement,
+	 * followed by the remaining characters. In a sorted run, that typically removes most of the subject and predicate.
+	 */
+	static class RunWriter implements Closeable
+	{
+		private final OutputStream out;
+		private String prevS = "";
+		private String prevP = "";
+		private String prevO = "";
+
+		RunWriter (OutputStream os)
+		{
+			this.out = new BufferedOutputStream(os, 1 << 16);
+		}
+
+		void write (Statement st) throws IOException
+		{
+			String s = st.getSubjectUri();
+			String p = st.getPredicateUri();
+			String o = st.isLiteral() ? (st.getLiteral() == null ? null : st.getLiteral().toString()) : st.getObjectUri();
+			int flags =
+					(st.isSubjectAnon() ? SUBJECT_ANON : 0) |
+					(st.isObjectAnon() ? OBJECT_ANON : 0) |
+					(st.isLiteral() ? LITERAL : 0) |
+					(st.getLiteralType() != null ? HAS_TYPE : 0) |
+					(st.getLiteralLanguage() != null ? HAS_LANG : 0) |
+					(s == null ? SUBJECT_NULL : 0) |
+					(o == null ? OBJECT_NULL : 0);
+			out.write (flags);
+			prevS = writeShared (prevS, s == null ? "" : s);
+			prevP = writeShared (prevP, p == null ? "" : p);
+			prevO = writeShared (prevO, o == null ? "" : o);
+			if (st.getLiteralType() != null) writeString (out, st.getLiteralType());
+			if (st.getLiteralLanguage() != null) writeString (out, st.getLiteralLanguage());
+		}
+
+		private String writeShared (String prev, String value) throws IOException
+		{
+			int max = Math.min (prev.length(), value.length());
+			int shared = 0;
+			while (shared < max && prev.charAt(shared) == value.charAt(shared)) shared++;
+			// don't split a surrogate pair
+			if (shared > 0 && Character.isHighSurrogate(value.charAt(shared - 1))) shared--;
+			writeVarInt (out, shared);
+			writeString (out, value.substring(shared));
+			return value;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			out.close();
+		}
+	}
+
+	/** Reads statements written by {@link RunWriter}, one at a time */
+	static class RunReader implements Closeable
+	{
+		private final InputStream in;
+		private final int index;
+		private String prevS = "";
+		private String prevP = "";
+		private String prevO = "";
+		/** the statement read by the last call to advance */
+		Statement head = null;
+
+		RunReader (InputStream is, int index)
+		{
+			this.in = new BufferedInputStream(is, 1 << 16);
+			this.index = index;
+		}
+
+		/** read the next statement into head. @return false at the end of the run */
+		boolean advance() throws IOException
+		{
+			int flags = in.read();
+			if (flags < 0)
+			{
+				head = null;
+				return false;
+			}
+			prevS = readShared (prevS);
+			prevP = readShared (prevP);
+			prevO = readShared (prevO);
+
+			Statement st = new Statement();
+			if ((flags & SUBJECT_NULL) > 0) st.setSubjectUri(null);
+			else if ((flags & SUBJECT_ANON) > 0) st.setSubjectAnon(prevS);
+			else st.setSubjectUri(prevS);
+			st.setPredicateUri(prevP);
+			String o = (flags & OBJECT_NULL) > 0 ? null : prevO;
+			if ((flags & LITERAL) > 0) st.setLiteral(o);
+			else if ((flags & OBJECT_ANON) > 0) st.setObjectAnon(o);
+			else st.setObjectUri(o);
+			if ((flags & HAS_TYPE) > 0) st.setLiteralType(readString(in));
+			if ((flags & HAS_LANG) > 0) st.setLiteralLanguage(readString(in));
+			head = st;
+			return true;
+		}
+
+		private String readShared (String prev) throws IOException
+		{
+			int shared = readVarInt (in);
+			return prev.substring(0, shared) + readString (in);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	static void writeVarInt (OutputStream out, int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.write ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write (value);
+	}
+
+	static int readVarInt (InputStream in) throws IOException
+	{
+		int result = 0;
+		int shift = 0;
+		while (true)
+		{
+			int b = in.read();
+			if (b < 0) throw new EOFException("Unexpected end of run file");
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return result;
+			shift += 7;
+		}
+	}
+
+	static void writeString (OutputStream out, String value) throws IOException
+	{
+		byte[] data = value.getBytes(CompactUriSet.UTF8);
+		writeVarInt (out, data.length);
+		out.write (data);
+	}
+
+	static String readString (InputStream in) throws IOException
+	{
+		int len = readVarInt (in);
+		byte[] data = new byte[len];
+		int pos = 0;
+		while (pos < len)
+		{
+			int n = in.read(data, pos, len - pos);
+			if (n < 0) throw new EOFException("Unexpected end of run file");
+			pos += n;
+		}
+		return new String(data, CompactUriSet.UTF8);
+	}
+}
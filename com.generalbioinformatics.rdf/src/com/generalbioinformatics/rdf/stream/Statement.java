@@ -321,4 +321,12 @@ public final class Statement
 	{
 		return litLang;
 	}	
+
+	/**
+	 * @return the datatype URI of a literal, or null if it has none.
+	 */
+	public String getLiteralType() 
+	{
+		return litType;
+	}	
 }
@@ -0,0 +1,183 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import nl.helixsoft.recordstream.AbstractStream;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Groups the triples of another TripleStream by subject, returning all triples about one subject at a time.
+ * <p>
+ * By default, the parent stream is assumed to be clustered by subject, i.e. all triples of a subject are next to each other,
+ * as is the case for most dumps and for the output of {@link SortedTripleStream}. Only the triples of the current subject are kept in memory.
+ * If the parent is not clustered, a subject can be returned more than once.
+ * <p>
+ * For arbitrary input, use {@link #createSorted(TripleStream)}, which sorts the input first with {@link SortedTripleStream}.
+ * <p>
+ * Example:
+ * <pre>
+ * SubjectGroupStream groups = new SubjectGroupStream(new NtStream(is));
+ * List&lt;Statement&gt; group;
+ * while ((group = groups.getNext()) != null)
+ * {
+ *    // all triples with subject groups.getSubject()
+ * }
+ * </pre>
+ */
+public class SubjectGroupStream extends AbstractStream<List<Statement>>
+{
+	private final TripleStream parent;
+	private final List<Statement> group = new ArrayList<Statement>();
+	private final List<Statement> unmodifiableGroup = Collections.unmodifiableList(group);
+	private Statement lookahead = null;
+	private boolean started = false;
+	private String subject = null;
+	private boolean subjectAnon = false;
+
+	/**
+	 * Group a stream that is already clustered by subject.
+	 */
+	public SubjectGroupStream(TripleStream parent)
+	{
+		this.parent = parent;
+	}
+
+	/**
+	 * Group a stream in arbitrary order, by sorting it first. Temporary files are removed when the stream is read to the end, or closed.
+	 */
+	public static SubjectGroupStream createSorted(TripleStream parent)
+	{
+		return createSorted(parent, SortedTripleStream.DEFAULT_MAX_IN_MEMORY, null);
+	}
+
+	/**
+	 * Group a stream in arbitrary order, by sorting it first.
+	 * @param maxInMemory maximum number of triples kept in memory while sorting, see {@link SortedTripleStream#setMaxInMemory(int)}
+	 * @param tempDir directory for temporary files, or null for the system default.
+	 */
+	public static SubjectGroupStream createSorted(TripleStream parent, int maxInMemory, File tempDir)
+	{
+		SortedTripleStream sorted = new SortedTripleStream(parent, SortedTripleStream.Order.SPO);
+		sorted.setMaxInMemory(maxInMemory);
+		sorted.setTempDir(tempDir);
+		return new SubjectGroupStream(sorted);
+	}
+
+	private static boolean sameSubject(Statement a, Statement b)
+	{
+		return a.isSubjectAnon() == b.isSubjectAnon() && a.getSubjectUri().equals(b.getSubjectUri());
+	}
+
+	/**
+	 * Read all triples of the next subject.
+	 * <p>
+	 * The returned list is reused: it is only valid until the next call to getNext(). Copy it if you need to keep it.
+	 * The Statements in it are not reused.
+	 * @return the triples of the next subject, or null if the end of the stream has been reached.
+	 */
+	public List<Statement> getNext() throws IOException, ParseException
+	{
+		if (!started)
+		{
+			lookahead = parent.getNext();
+			started = true;
+		}
+		group.clear();
+		if (lookahead == null)
+		{
+			subject = null;
+			return null;
+		}
+
+		Statement first = lookahead;
+		subject = first.getSubjectUri();
+		subjectAnon = first.isSubjectAnon();
+		group.add (first);
+		while ((lookahead = parent.getNext()) != null && sameSubject(first, lookahead))
+		{
+			group.add (lookahead);
+		}
+		return unmodifiableGroup;
+	}
+
+	/** @return the subject of the group last returned by {@link #getNext()}, or null if there is none */
+	public String getSubject()
+	{
+		return subject;
+	}
+
+	/** @return true if the subject of the group last returned by {@link #getNext()} is a blank node */
+	public boolean isSubjectAnon()
+	{
+		return subjectAnon;
+	}
+
+	/** Closes the parent stream, removing temporary files if the input was sorted. */
+	@Override
+	public void close()
+	{
+		parent.close();
+	}
+
+	/**
+	 * Iterate over the groups. Unlike {@link #getNext()}, each group is a new list, so it can be kept.
+	 * IOExceptions and ParseExceptions are wrapped in a RuntimeException.
+	 */
+	@Override
+	public Iterator<List<Statement>> iterator()
+	{
+		return new Iterator<List<Statement>>()
+		{
+			private List<Statement> next = advance();
+
+			private List<Statement> advance()
+			{
+				try
+				{
+					List<Statement> result = getNext();
+					return result == null ? null : new ArrayList<Statement>(result);
+				}
+				catch (IOException e)
+				{
+					throw new RuntimeException(e);
+				}
+				catch (ParseException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			public boolean hasNext()
+			{
+				return next != null;
+			}
+
+			@Override
+			public List<Statement> next()
+			{
+				if (next == null) throw new NoSuchElementException();
+				List<Statement> result = next;
+				next = advance();
+				return result;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
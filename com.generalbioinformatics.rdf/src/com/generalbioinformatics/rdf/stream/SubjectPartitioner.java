@@ -0,0 +1,313 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Splits a stream of triples into a number of partitions by subject, so that all triples about one subject end up in the same partition.
+ * <p>
+ * The partitions can then be processed independently, for example with one worker per partition,
+ * to build a document or network node per subject.
+ * <p>
+ * Each partition collects triples in its own buffer, and only writes to its output when the buffer is full.
+ * Optionally, the writes are done by background threads (see {@link #setWriterThreads(int)}),
+ * similar to {@link AsyncNtWriter}. Each partition is always written by the same thread, so the order
+ * of triples within a partition is preserved.
+ */
+public class SubjectPartitioner implements Closeable
+{
+	/** buffer size per partition */
+	private static final int CHUNK_SIZE = 1 << 18;
+
+	private static class Partition
+	{
+		final int index;
+		final OutputStream out;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_SIZE + 1024);
+		long count = 0;
+
+		Partition (int index, OutputStream out)
+		{
+			this.index = index;
+			this.out = out;
+		}
+	}
+
+	/** a full buffer, to be written to a partition by a writer thread */
+	private static class Chunk
+	{
+		final Partition partition;
+		final ByteArrayOutputStream data;
+
+		Chunk (Partition partition, ByteArrayOutputStream data)
+		{
+			this.partition = partition;
+			this.data = data;
+		}
+	}
+
+	private static final Chunk EOF = new Chunk(null, null);
+
+	private class WriterThread extends Thread
+	{
+		final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(4);
+		/** first error, read by the producer thread */
+		volatile Throwable exception = null;
+
+		WriterThread()
+		{
+			super ("SubjectPartitioner writer");
+		}
+
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				Chunk chunk;
+				try
+				{
+					chunk = queue.take();
+				}
+				catch (InterruptedException ex)
+				{
+					if (exception == null) exception = ex;
+					return;
+				}
+				if (chunk == EOF) break;
+				// after an error, keep draining the queue until EOF so the producer doesn't block
+				if (exception != null) continue;
+				try
+				{
+					chunk.data.writeTo(chunk.partition.out);
+				}
+				catch (Throwable t)
+				{
+					exception = t;
+				}
+			}
+		}
+	}
+
+	private final Partition[] partitions;
+	private final List<File> files;
+	private WriterThread[] writers = null;
+	private boolean closed = false;
+
+	/**
+	 * Partition into the given output streams, one per partition. The streams are closed by {@link #close()}.
+	 */
+	public SubjectPartitioner(List<? extends OutputStream> outputs)
+	{
+		this (outputs, null);
+	}
+
+	private SubjectPartitioner(List<? extends OutputStream> outputs, List<File> files)
+	{
+		if (outputs.isEmpty()) throw new IllegalArgumentException("Need at least one partition");
+		partitions = new Partition[outputs.size()];
+		for (int i = 0; i < partitions.length; ++i)
+		{
+			partitions[i] = new Partition(i, outputs.get(i));
+		}
+		this.files = files;
+	}
+
+	/**
+	 * Partition into files named prefix-0.nt, prefix-1.nt, etc. in the given directory.
+	 * @param gzip if true, the files are compressed and named prefix-0.nt.gz, etc.
+	 */
+	public static SubjectPartitioner create(File dir, String prefix, int numPartitions, boolean gzip) throws IOException
+	{
+		List<OutputStream> outputs = new ArrayList<OutputStream>();
+		List<File> files = new ArrayList<File>();
+		try
+		{
+			for (int i = 0; i < numPartitions; ++i)
+			{
+				File f = new File (dir, prefix + "-" + i + (gzip ? ".nt.gz" : ".nt"));
+				OutputStream os = new FileOutputStream(f);
+				outputs.add (gzip ? new GZIPOutputStream(os, 1 << 16) : new BufferedOutputStream(os, 1 << 16));
+				files.add (f);
+			}
+		}
+		catch (IOException ex)
+		{
+			for (OutputStream os : outputs) os.close();
+			throw ex;
+		}
+		return new SubjectPartitioner(outputs, files);
+	}
+
+	/** @return the files written to, if this was created with {@link #create(File, String, int, boolean)}, otherwise null. */
+	public List<File> getFiles()
+	{
+		return files == null ? null : Collections.unmodifiableList(files);
+	}
+
+	/**
+	 * Write on background threads. Must be called before the first triple is added.
+	 * @param threads number of writer threads, at most one per partition is useful. 0 means write on the calling thread.
+	 */
+	public void setWriterThreads(int threads)
+	{
+		if (writers != null) throw new IllegalStateException("Writer threads already started");
+		if (threads <= 0) return;
+		writers = new WriterThread[Math.min (threads, partitions.length)];
+		for (int i = 0; i < writers.length; ++i)
+		{
+			writers[i] = new WriterThread();
+			writers[i].start();
+		}
+	}
+
+	/** @return number of partitions */
+	public int getPartitionCount()
+	{
+		return partitions.length;
+	}
+
+	/**
+	 * @return the partition that triples with the given subject are written to.
+	 * 	Depends only on the subject, so it can also be used to find the partition of a subject later on.
+	 */
+	public static int partitionOf(String subject, int numPartitions)
+	{
+		long h = UriBloomFilter.hash64(subject == null ? "" : subject);
+		return (int)((h & Long.MAX_VALUE) % numPartitions);
+	}
+
+	/** @return number of triples written to the given partition so far */
+	public long getCount(int partition)
+	{
+		return partitions[partition].count;
+	}
+
+	/** Write a triple to the partition of its subject */
+	public void add(Statement st) throws IOException
+	{
+		if (closed) throw new IllegalStateException("Partitioner is closed");
+		Partition p = partitions[partitionOf(st.getSubjectUri(), partitions.length)];
+		st.write (p.buffer);
+		p.count++;
+		if (p.buffer.size() >= CHUNK_SIZE) flush (p);
+	}
+
+	/**
+	 * Write all triples of a stream.
+	 * @return number of triples read
+	 */
+	public long addAll(TripleStream ts) throws IOException, ParseException
+	{
+		long count = 0;
+		Statement st;
+		while ((st = ts.getNext()) != null)
+		{
+			add (st);
+			count++;
+		}
+		return count;
+	}
+
+	private void flush(Partition p) throws IOException
+	{
+		if (p.buffer.size() == 0) return;
+		if (writers == null)
+		{
+			p.buffer.writeTo(p.out);
+			p.buffer.reset();
+		}
+		else
+		{
+			WriterThread writer = writers[p.index % writers.length];
+			checkWriter (writer);
+			try
+			{
+				writer.queue.put (new Chunk(p, p.buffer));
+			}
+			catch (InterruptedException ex)
+			{
+				throw new InterruptedIOException("Interrupted while writing partition");
+			}
+			p.buffer = new ByteArrayOutputStream(CHUNK_SIZE + 1024);
+		}
+	}
+
+	private static void checkWriter(WriterThread writer) throws IOException
+	{
+		Throwable t = writer.exception;
+		if (t == null) return;
+		if (t instanceof IOException) throw (IOException)t;
+		if (t instanceof RuntimeException) throw (RuntimeException)t;
+		throw new IOException(t);
+	}
+
+	/** Write remaining buffers, wait for writer threads to finish, and close all outputs. */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) return;
+		closed = true;
+		try
+		{
+			try
+			{
+				for (Partition p : partitions) flush (p);
+			}
+			finally
+			{
+				// stop the writer threads, also if a writer failed
+				if (writers != null)
+				{
+					try
+					{
+						for (WriterThread writer : writers) writer.queue.put(EOF);
+						for (WriterThread writer : writers) writer.join();
+					}
+					catch (InterruptedException ex)
+					{
+						throw new InterruptedIOException("Interrupted while writing partition");
+					}
+				}
+			}
+			if (writers != null)
+			{
+				for (WriterThread writer : writers) checkWriter (writer);
+			}
+		}
+		finally
+		{
+			IOException first = null;
+			for (Partition p : partitions)
+			{
+				try
+				{
+					p.out.close();
+				}
+				catch (IOException ex)
+				{
+					if (first == null) first = ex;
+				}
+			}
+			if (first != null) throw first;
+		}
+	}
+}
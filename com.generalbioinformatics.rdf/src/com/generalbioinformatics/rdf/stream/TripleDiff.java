@@ -0,0 +1,239 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Compares two versions of a dataset, and reports which triples were added and which were removed.
+ * <p>
+ * Both datasets are sorted with {@link SortedTripleStream}, in bounded memory, and then compared in a single merge pass.
+ * The two datasets are sorted at the same time on separate threads. Duplicate triples within a dataset are ignored.
+ * <p>
+ * Blank nodes are compared by their label, so if blank node labels are not stable between versions,
+ * all triples with blank nodes will be reported as changed.
+ */
+public class TripleDiff
+{
+	/** Number of triples found in each category, see {@link TripleDiff#run(NtWriter, NtWriter)} */
+	public static class Result
+	{
+		private long added = 0;
+		private long removed = 0;
+		private long unchanged = 0;
+
+		public long getAdded() { return added; }
+		public long getRemoved() { return removed; }
+		public long getUnchanged() { return unchanged; }
+
+		@Override
+		public String toString()
+		{
+			return "added: " + added + ", removed: " + removed + ", unchanged: " + unchanged;
+		}
+	}
+
+	private final TripleStream oldData;
+	private final TripleStream newData;
+	private int maxInMemory = SortedTripleStream.DEFAULT_MAX_IN_MEMORY;
+	private File tempDir = null;
+
+	/**
+	 * @param oldData the old version of the dataset
+	 * @param newData the new version of the dataset
+	 */
+	public TripleDiff(TripleStream oldData, TripleStream newData)
+	{
+		this.oldData = oldData;
+		this.newData = newData;
+	}
+
+	/** maximum number of triples in memory, per dataset. */
+	public void setMaxInMemory(int value)
+	{
+		maxInMemory = value;
+	}
+
+	/** Directory for temporary files, or null for the system default. */
+	public void setTempDir(File value)
+	{
+		tempDir = value;
+	}
+
+	private SortedTripleStream sorted(TripleStream parent)
+	{
+		SortedTripleStream result = new SortedTripleStream(parent, SortedTripleStream.Order.SPO);
+		result.setMaxInMemory(maxInMemory);
+		result.setTempDir(tempDir);
+		result.setDeduplicate(true);
+		return result;
+	}
+
+	/** read the first triple of a sorted stream, which does all the sorting work */
+	private static Future<Statement> startSorting(ExecutorService executor, final SortedTripleStream ts)
+	{
+		return executor.submit(new Callable<Statement>() {
+			@Override
+			public Statement call() throws Exception
+			{
+				return ts.getNext();
+			}
+		});
+	}
+
+	private static Statement waitFor(Future<Statement> future) throws IOException, ParseException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException ex)
+		{
+			throw new InterruptedIOException("Interrupted while sorting");
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof ParseException) throw (ParseException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Compare the two datasets.
+	 * @param added triples that are in the new dataset but not in the old one are written here. May be null.
+	 * @param removed triples that are in the old dataset but not in the new one are written here. May be null.
+	 * 	The writers are flushed, but not closed.
+	 */
+	public Result run(NtWriter added, NtWriter removed) throws IOException, ParseException
+	{
+		SortedTripleStream oldSorted = sorted(oldData);
+		SortedTripleStream newSorted = sorted(newData);
+		Result result = new Result();
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			Future<Statement> oldFirst = startSorting(executor, oldSorted);
+			Future<Statement> newFirst = startSorting(executor, newSorted);
+			Statement o = waitFor(oldFirst);
+			Statement n = waitFor(newFirst);
+
+			Comparator<Statement> comparator = SortedTripleStream.Order.SPO.comparator();
+			while (o != null || n != null)
+			{
+				int cmp = o == null ? 1 : n == null ? -1 : comparator.compare(o, n);
+				if (cmp < 0)
+				{
+					result.removed++;
+					if (removed != null) removed.write(o);
+					o = oldSorted.getNext();
+				}
+				else if (cmp > 0)
+				{
+					result.added++;
+					if (added != null) added.write(n);
+					n = newSorted.getNext();
+				}
+				else
+				{
+					result.unchanged++;
+					o = oldSorted.getNext();
+					n = newSorted.getNext();
+				}
+			}
+			if (added != null) added.flush();
+			if (removed != null) removed.flush();
+		}
+		finally
+		{
+			executor.shutdownNow();
+			// a sort may still be running if the other one failed. It must finish before its runs are deleted.
+			awaitTermination(executor);
+			oldSorted.close();
+			newSorted.close();
+		}
+		return result;
+	}
+
+	/** wait for running sorts to finish, even if interrupted, because their temporary files can't be removed before that */
+	private static void awaitTermination(ExecutorService executor)
+	{
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				if (executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+			}
+			catch (InterruptedException ex)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** open a file for reading, decompressing it if the name ends with .gz */
+	private static InputStream openInput(File f) throws IOException
+	{
+		InputStream is = new BufferedInputStream(new FileInputStream(f), 1 << 16);
+		return f.getName().endsWith(".gz") ? new GZIPInputStream(is, 1 << 16) : is;
+	}
+
+	/** open a file for writing, compressing it if the name ends with .gz */
+	private static OutputStream openOutput(File f) throws IOException
+	{
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(f), 1 << 16);
+		return f.getName().endsWith(".gz") ? new GZIPOutputStream(os, 1 << 16) : os;
+	}
+
+	/**
+	 * Compare two N-Triples files. Files with names ending in .gz are compressed / decompressed automatically.
+	 */
+	public static Result diff(File oldFile, File newFile, File addedFile, File removedFile) throws IOException, ParseException
+	{
+		InputStream oldIn = openInput(oldFile);
+		InputStream newIn = null;
+		OutputStream addedOut = null;
+		OutputStream removedOut = null;
+		try
+		{
+			newIn = openInput(newFile);
+			addedOut = openOutput(addedFile);
+			removedOut = openOutput(removedFile);
+			return new TripleDiff(new NtStream(oldIn), new NtStream(newIn)).run(new NtWriter(addedOut), new NtWriter(removedOut));
+		}
+		finally
+		{
+			oldIn.close();
+			if (newIn != null) newIn.close();
+			if (addedOut != null) addedOut.close();
+			if (removedOut != null) removedOut.close();
+		}
+	}
+}
@@ -0,0 +1,452 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nl.helixsoft.recordstream.Function;
+import nl.helixsoft.recordstream.Predicate;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Chains a number of processing steps on a stream of triples, and runs them in a single pass.
+ * <p>
+ * This replaces hand-wiring a series of TripleStream wrappers. For example:
+ * <pre>
+ * long written = TriplePipeline.from(new NtStream(in))
+ * 	.filter(new WithoutUriPatterns(patterns))
+ * 	.map(new ReplacePrefixes(prefixes))
+ * 	.count("converted")
+ * 	.tee(out)
+ * 	.run();
+ * </pre>
+ * Triples are read from the source in batches (4096 by default), and each stage processes a whole batch
+ * before passing it on, re-using the same arrays. This keeps the inner loop of each stage small and
+ * avoids a virtual call per triple per stage.
+ * <p>
+ * With {@link #parallel(int)}, batches are processed on several threads, with bounded queues in between.
+ * In that case the output order is not preserved, and all functions and predicates must be thread-safe.
+ * Note that some functions in {@link InferenceFunctions} keep counts or re-use a Matcher and are not.
+ */
+public class TriplePipeline
+{
+	/** default number of triples per batch */
+	public static final int DEFAULT_BATCH_SIZE = 4096;
+
+	/** A group of triples that is handed from one stage to the next */
+	private static class Batch
+	{
+		Statement[] items;
+		int size = 0;
+		/** second array, for stages that produce a different number of items */
+		Statement[] spare;
+
+		Batch (int capacity)
+		{
+			items = new Statement[capacity];
+			spare = new Statement[capacity];
+		}
+
+		void clear()
+		{
+			Arrays.fill (items, 0, size, null);
+			size = 0;
+		}
+	}
+
+	/** A single processing step, applied to a whole batch at once */
+	private static abstract class Stage
+	{
+		abstract void process (Batch batch) throws IOException;
+	}
+
+	private static class FilterStage extends Stage
+	{
+		private final Predicate<Statement> predicate;
+
+		FilterStage (Predicate<Statement> predicate)
+		{
+			this.predicate = predicate;
+		}
+
+		@Override
+		void process (Batch batch)
+		{
+			Statement[] items = batch.items;
+			int n = batch.size;
+			int out = 0;
+			for (int i = 0; i < n; ++i)
+			{
+				Statement st = items[i];
+				if (predicate.accept(st)) items[out++] = st;
+			}
+			Arrays.fill (items, out, n, null);
+			batch.size = out;
+		}
+	}
+
+	private static class MapStage extends Stage
+	{
+		private final Function<Statement, Statement> function;
+
+		MapStage (Function<Statement, Statement> function)
+		{
+			this.function = function;
+		}
+
+		@Override
+		void process (Batch batch)
+		{
+			Statement[] items = batch.items;
+			int n = batch.size;
+			int out = 0;
+			for (int i = 0; i < n; ++i)
+			{
+				Statement st = function.apply(items[i]);
+				if (st != null) items[out++] = st;
+			}
+			Arrays.fill (items, out, n, null);
+			batch.size = out;
+		}
+	}
+
+	private static class FlatMapStage extends Stage
+	{
+		private final Function<Statement, ? extends Iterable<Statement>> function;
+
+		FlatMapStage (Function<Statement, ? extends Iterable<Statement>> function)
+		{
+			this.function = function;
+		}
+
+		@Override
+		void process (Batch batch)
+		{
+			Statement[] items = batch.items;
+			Statement[] result = batch.spare;
+			int n = batch.size;
+			int out = 0;
+			for (int i = 0; i < n; ++i)
+			{
+				Iterable<Statement> sts = function.apply(items[i]);
+				items[i] = null;
+				if (sts == null) continue;
+				for (Statement st : sts)
+				{
+					if (out == result.length) result = Arrays.copyOf(result, result.length * 2);
+					result[out++] = st;
+				}
+			}
+			// swap arrays, so the spare can be re-used by the next flatMap stage
+			batch.spare = items.length == result.length ? items : new Statement[result.length];
+			batch.items = result;
+			batch.size = out;
+		}
+	}
+
+	private static class TeeStage extends Stage
+	{
+		private final OutputStream[] sinks;
+
+		TeeStage (OutputStream[] sinks)
+		{
+			this.sinks = sinks;
+		}
+
+		@Override
+		void process (Batch batch) throws IOException
+		{
+			// format outside of the lock, so that parallel workers only contend for the actual write.
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(batch.size * 128);
+			for (int i = 0; i < batch.size; ++i)
+			{
+				batch.items[i].write(buffer);
+			}
+			for (OutputStream sink : sinks)
+			{
+				synchronized (sink)
+				{
+					buffer.writeTo(sink);
+				}
+			}
+		}
+	}
+
+	private static class CountStage extends Stage
+	{
+		private final AtomicLong counter;
+
+		CountStage (AtomicLong counter)
+		{
+			this.counter = counter;
+		}
+
+		@Override
+		void process (Batch batch)
+		{
+			counter.addAndGet(batch.size);
+		}
+	}
+
+	private final TripleStream source;
+	private final List<Stage> stages = new ArrayList<Stage>();
+	private final Map<String, AtomicLong> counters = new LinkedHashMap<String, AtomicLong>();
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int threads = 1;
+
+	private TriplePipeline (TripleStream source)
+	{
+		this.source = source;
+	}
+
+	/** Start a new pipeline, reading from the given source */
+	public static TriplePipeline from (TripleStream source)
+	{
+		return new TriplePipeline(source);
+	}
+
+	/** only keep triples that are accepted by the predicate, for example one of the predicates in {@link InferenceFunctions} */
+	public TriplePipeline filter (Predicate<Statement> predicate)
+	{
+		stages.add (new FilterStage(predicate));
+		return this;
+	}
+
+	/** transform each triple, for example with one of the functions in {@link InferenceFunctions}. If the function returns null, the triple is dropped. */
+	public TriplePipeline map (Function<Statement, Statement> function)
+	{
+		stages.add (new MapStage(function));
+		return this;
+	}
+
+	/** replace each triple with zero or more triples. The function may return null instead of an empty collection. */
+	public TriplePipeline flatMap (Function<Statement, ? extends Iterable<Statement>> function)
+	{
+		stages.add (new FlatMapStage(function));
+		return this;
+	}
+
+	/**
+	 * Write all triples that reach this stage to one or more output streams, in N-Triple format.
+	 * Triples continue to the next stage, so several tees can be used to write intermediate results.
+	 * The output streams are not closed.
+	 */
+	public TriplePipeline tee (OutputStream... sinks)
+	{
+		stages.add (new TeeStage(sinks.clone()));
+		return this;
+	}
+
+	/** count the number of triples that reach this stage. Retrieve the count with {@link #getCount(String)} */
+	public TriplePipeline count (String label)
+	{
+		if (counters.containsKey(label)) throw new IllegalArgumentException("Duplicate counter " + label);
+		AtomicLong counter = new AtomicLong();
+		counters.put (label, counter);
+		stages.add (new CountStage(counter));
+		return this;
+	}
+
+	/** @return the number of triples counted so far by the count stage with the given label. */
+	public long getCount (String label)
+	{
+		AtomicLong counter = counters.get(label);
+		if (counter == null) throw new IllegalArgumentException("No counter " + label);
+		return counter.get();
+	}
+
+	/** @return the counts of all count stages, in the order they were added. */
+	public Map<String, Long> getCounts()
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> e : counters.entrySet())
+		{
+			result.put (e.getKey(), e.getValue().get());
+		}
+		return result;
+	}
+
+	/** set the number of triples that are processed together. */
+	public TriplePipeline batchSize (int value)
+	{
+		if (value <= 0) throw new IllegalArgumentException("Batch size must be positive");
+		batchSize = value;
+		return this;
+	}
+
+	/**
+	 * Process batches on the given number of worker threads. The source is still read on a single thread.
+	 * Output order is not preserved.
+	 */
+	public TriplePipeline parallel (int threads)
+	{
+		if (threads <= 0) throw new IllegalArgumentException("Number of threads must be positive");
+		this.threads = threads;
+		return this;
+	}
+
+	/** read the next batch from the source. @return false if the source is exhausted. */
+	private boolean fill (Batch batch) throws IOException, ParseException
+	{
+		Statement[] items = batch.items;
+		int n = 0;
+		while (n < batchSize)
+		{
+			Statement st = source.getNext();
+			if (st == null) break;
+			items[n++] = st;
+		}
+		batch.size = n;
+		return n > 0;
+	}
+
+	private long runStages (Batch batch) throws IOException
+	{
+		for (Stage stage : stages)
+		{
+			if (batch.size == 0) break;
+			stage.process (batch);
+		}
+		long result = batch.size;
+		batch.clear();
+		return result;
+	}
+
+	/**
+	 * Read the source until the end, running all stages.
+	 * @return the number of triples that made it through all stages
+	 */
+	public long run() throws IOException, ParseException
+	{
+		if (threads == 1)
+		{
+			long total = 0;
+			Batch batch = new Batch(batchSize);
+			while (fill (batch))
+			{
+				total += runStages (batch);
+			}
+			return total;
+		}
+		else
+		{
+			return runParallel();
+		}
+	}
+
+	private static final Batch END = new Batch(0);
+
+	/** a worker takes filled batches, processes them, and returns them to the pool of empty batches. */
+	private class Worker extends Thread
+	{
+		private final BlockingQueue<Batch> full;
+		private final BlockingQueue<Batch> empty;
+		private final AtomicReference<Throwable> error;
+		private long total = 0;
+
+		Worker (BlockingQueue<Batch> full, BlockingQueue<Batch> empty, AtomicReference<Throwable> error)
+		{
+			super ("TriplePipeline worker");
+			this.full = full;
+			this.empty = empty;
+			this.error = error;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (true)
+				{
+					Batch batch = full.take();
+					if (batch == END) break;
+					try
+					{
+						if (error.get() == null) total += runStages(batch);
+					}
+					finally
+					{
+						batch.clear();
+						empty.put (batch);
+					}
+				}
+			}
+			catch (Throwable t)
+			{
+				error.compareAndSet(null, t);
+			}
+		}
+	}
+
+	private long runParallel() throws IOException, ParseException
+	{
+		// two batches per worker: one being processed, one waiting. Plus one being filled.
+		int numBatches = threads * 2 + 1;
+		BlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>(numBatches + threads);
+		BlockingQueue<Batch> empty = new ArrayBlockingQueue<Batch>(numBatches);
+		for (int i = 0; i < numBatches; ++i) empty.add (new Batch(batchSize));
+
+		AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < threads; ++i)
+		{
+			Worker worker = new Worker(full, empty, error);
+			workers.add (worker);
+			worker.start();
+		}
+
+		long total = 0;
+		try
+		{
+			try
+			{
+				while (error.get() == null)
+				{
+					Batch batch = empty.take();
+					if (!fill (batch))
+					{
+						empty.put (batch);
+						break;
+					}
+					full.put (batch);
+				}
+			}
+			finally
+			{
+				for (int i = 0; i < threads; ++i) full.put (END);
+				for (Worker worker : workers)
+				{
+					worker.join();
+					total += worker.total;
+				}
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			throw new InterruptedIOException("Interrupted while running pipeline");
+		}
+
+		Throwable t = error.get();
+		if (t instanceof IOException) throw (IOException)t;
+		if (t instanceof RuntimeException) throw (RuntimeException)t;
+		if (t instanceof Error) throw (Error)t;
+		if (t != null) throw new IOException(t);
+		return total;
+	}
+}
@@ -0,0 +1,153 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Adapts a {@link TripleStream} to a {@link Spliterator}, so it can be used with java.util.stream.
+ * <p>
+ * A TripleStream can only be read sequentially, so this splits off batches of triples into arrays,
+ * growing in size with each split, similar to {@link Spliterators#spliteratorUnknownSize(java.util.Iterator, int)}.
+ * Split-off batches are SIZED. For a parallel stream where the source itself can be split, see {@link NtFileSpliterator}.
+ * <p>
+ * Like {@link AbstractTripleStream#iterator()}, exceptions thrown by the TripleStream are wrapped,
+ * IOException as UncheckedIOException and ParseException as RuntimeException.
+ */
+public class TripleSpliterator implements Spliterator<Statement>
+{
+	/** size of the first batch split off by {@link #trySplit()}. */
+	public static final int INITIAL_BATCH_SIZE = 1 << 10;
+	/** batches don't grow larger than this */
+	public static final int MAX_BATCH_SIZE = 1 << 22;
+
+	private final TripleStream parent;
+	private long size;
+	private int batchSize;
+	private boolean done = false;
+
+	/** @param parent the TripleStream to read from. Size is unknown. */
+	public TripleSpliterator(TripleStream parent)
+	{
+		this (parent, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param parent the TripleStream to read from.
+	 * @param size the exact number of triples in the stream, or Long.MAX_VALUE if unknown.
+	 * 	If known, this spliterator reports {@link Spliterator#SIZED}.
+	 */
+	public TripleSpliterator(TripleStream parent, long size)
+	{
+		this (parent, size, INITIAL_BATCH_SIZE);
+	}
+
+	/**
+	 * @param initialBatchSize number of triples in the first batch split off by {@link #trySplit()}. Later batches get larger.
+	 */
+	public TripleSpliterator(TripleStream parent, long size, int initialBatchSize)
+	{
+		if (initialBatchSize <= 0) throw new IllegalArgumentException("Batch size must be positive");
+		this.parent = parent;
+		this.size = size;
+		this.batchSize = initialBatchSize;
+	}
+
+	/** read one triple from the parent, wrapping checked exceptions. @return null at the end of the stream */
+	private Statement next()
+	{
+		if (done) return null;
+		Statement st;
+		try
+		{
+			st = parent.getNext();
+		}
+		catch (IOException ex)
+		{
+			throw new UncheckedIOException (ex);
+		}
+		catch (ParseException ex)
+		{
+			throw new RuntimeException (ex);
+		}
+		if (st == null)
+		{
+			done = true;
+		}
+		else if (size != Long.MAX_VALUE && size > 0)
+		{
+			size--;
+		}
+		return st;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Statement> action)
+	{
+		Statement st = next();
+		if (st == null) return false;
+		action.accept (st);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super Statement> action)
+	{
+		Statement st;
+		while ((st = next()) != null)
+		{
+			action.accept (st);
+		}
+	}
+
+	@Override
+	public Spliterator<Statement> trySplit()
+	{
+		if (done) return null;
+		int n = (int)Math.min (batchSize, size);
+		if (n <= 1) return null;
+
+		Statement[] batch = new Statement[n];
+		int count = 0;
+		Statement st;
+		while (count < n && (st = next()) != null)
+		{
+			batch[count++] = st;
+		}
+		if (count == 0) return null;
+		batchSize = Math.min (batchSize * 2, MAX_BATCH_SIZE);
+		return Spliterators.spliterator(batch, 0, count, ORDERED | NONNULL | IMMUTABLE);
+	}
+
+	@Override
+	public long estimateSize()
+	{
+		return done ? 0 : size;
+	}
+
+	@Override
+	public int characteristics()
+	{
+		int result = ORDERED | NONNULL;
+		if (size != Long.MAX_VALUE) result |= SIZED;
+		return result;
+	}
+
+	/**
+	 * Create a java.util.stream.Stream of the triples in a TripleStream.
+	 * Closing the returned stream closes the TripleStream.
+	 */
+	public static java.util.stream.Stream<Statement> stream(TripleStream parent, boolean parallel)
+	{
+		return StreamSupport.stream(new TripleSpliterator(parent), parallel).onClose(parent::close);
+	}
+}
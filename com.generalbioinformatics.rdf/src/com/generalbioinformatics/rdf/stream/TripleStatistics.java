@@ -0,0 +1,205 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.generalbioinformatics.rdf.NS;
+import com.generalbioinformatics.rdf.Namespace;
+import com.generalbioinformatics.rdf.NamespaceMap;
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+/**
+ * Collects statistics about a dataset in a single pass, and describes them in VoID.
+ * <p>
+ * Distinct subjects and objects are estimated with {@link HyperLogLog}, so memory use doesn't grow with the size of the dataset.
+ * Predicates, classes, datatypes, languages and namespaces are counted exactly, as there are normally only a few of them.
+ * <p>
+ * Example:
+ * <pre>
+ * TripleStatistics stats = new TripleStatistics(new NS());
+ * stats.addAll(new NtStream(is));
+ * stats.writeVoid(new NtWriter(os), "http://example.com/dataset");
+ * </pre>
+ */
+public class TripleStatistics
+{
+	private static final String RDF_TYPE = NS.RDF + "type";
+
+	private final NamespaceMap namespaces;
+
+	private long triples = 0;
+	private final HyperLogLog subjects = new HyperLogLog();
+	private final HyperLogLog objects = new HyperLogLog();
+	private final Map<String, long[]> predicates = new HashMap<String, long[]>();
+	private final Map<String, long[]> classes = new HashMap<String, long[]>();
+	private final Map<String, long[]> datatypes = new HashMap<String, long[]>();
+	private final Map<String, long[]> languages = new HashMap<String, long[]>();
+	private final Map<String, long[]> namespaceUsage = new HashMap<String, long[]>();
+	private long literals = 0;
+
+	/**
+	 * @param namespaces used to count namespace usage, may be null.
+	 */
+	public TripleStatistics(NamespaceMap namespaces)
+	{
+		this.namespaces = namespaces;
+	}
+
+	private static void increment(Map<String, long[]> map, String key)
+	{
+		long[] count = map.get(key);
+		if (count == null)
+		{
+			count = new long[1];
+			map.put (key, count);
+		}
+		count[0]++;
+	}
+
+	private void countNamespace(String uri)
+	{
+		if (namespaces == null || uri == null) return;
+		Namespace ns = namespaces.findPrefix(uri);
+		if (ns != null) increment (namespaceUsage, ns.toString());
+	}
+
+	/** add a single triple to the statistics */
+	public void add(Statement st)
+	{
+		triples++;
+
+		String s = st.getSubjectUri();
+		subjects.add (st.isSubjectAnon() ? "_:" + s : s);
+		if (!st.isSubjectAnon()) countNamespace (s);
+
+		String p = st.getPredicateUri();
+		increment (predicates, p);
+		countNamespace (p);
+
+		if (st.isLiteral())
+		{
+			literals++;
+			String type = st.getLiteralType();
+			String lang = st.getLiteralLanguage();
+			if (type != null) increment (datatypes, type);
+			if (lang != null) increment (languages, lang.toLowerCase());
+			// make sure literals don't collide with URI's, or with literals of another type or language
+			objects.add ("\"" + st.getLiteral() + "\"" + (type == null ? "" : "^^" + type) + (lang == null ? "" : "@" + lang));
+		}
+		else if (st.isObjectAnon())
+		{
+			objects.add ("_:" + st.getObjectUri());
+		}
+		else
+		{
+			String o = st.getObjectUri();
+			objects.add (o);
+			countNamespace (o);
+			if (RDF_TYPE.equals(p)) increment (classes, o);
+		}
+	}
+
+	/**
+	 * Add all triples of a stream to the statistics.
+	 * @return number of triples read from the stream
+	 */
+	public long addAll(TripleStream ts) throws IOException, ParseException
+	{
+		long count = 0;
+		Statement st;
+		while ((st = ts.getNext()) != null)
+		{
+			add (st);
+			count++;
+		}
+		return count;
+	}
+
+	/** @return total number of triples, including duplicates */
+	public long getTriples() { return triples; }
+
+	/** @return total number of triples with a literal object, including duplicates */
+	public long getLiterals() { return literals; }
+
+	/** @return estimated number of distinct subjects */
+	public long getDistinctSubjects() { return subjects.cardinality(); }
+
+	/** @return estimated number of distinct objects, URI's, blank nodes and literals */
+	public long getDistinctObjects() { return objects.cardinality(); }
+
+	/** @return number of triples for each predicate */
+	public Map<String, Long> getPredicateCounts() { return toSortedMap(predicates); }
+
+	/** @return number of rdf:type triples for each class */
+	public Map<String, Long> getClassCounts() { return toSortedMap(classes); }
+
+	/** @return number of literals for each datatype. Literals without datatype are not included */
+	public Map<String, Long> getDatatypeCounts() { return toSortedMap(datatypes); }
+
+	/** @return number of literals for each language tag, in lower case. Literals without language are not included */
+	public Map<String, Long> getLanguageCounts() { return toSortedMap(languages); }
+
+	/**
+	 * @return for each namespace, the number of URI's in subject, predicate or object position that use it.
+	 * 	Only namespaces that are known to the NamespaceMap are counted.
+	 */
+	public Map<String, Long> getNamespaceCounts() { return toSortedMap(namespaceUsage); }
+
+	private static Map<String, Long> toSortedMap(Map<String, long[]> map)
+	{
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, long[]> e : map.entrySet())
+		{
+			result.put (e.getKey(), e.getValue()[0]);
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * Write the statistics as a VoID description.
+	 * <p>
+	 * Property and class partitions are identified by URI's minted from the dataset URI,
+	 * e.g. datasetUri/propertyPartition/1.
+	 * Datatype and language counts have no VoID equivalent and are not written.
+	 * @param datasetUri the URI of the void:Dataset to describe
+	 */
+	public void writeVoid(NtWriter out, String datasetUri) throws IOException
+	{
+		out.writeStatement (datasetUri, RDF_TYPE, NS.VOID + "Dataset");
+		out.writeLiteral (datasetUri, NS.VOID + "triples", triples);
+		out.writeLiteral (datasetUri, NS.VOID + "distinctSubjects", getDistinctSubjects());
+		out.writeLiteral (datasetUri, NS.VOID + "distinctObjects", getDistinctObjects());
+		out.writeLiteral (datasetUri, NS.VOID + "properties", (long)predicates.size());
+		out.writeLiteral (datasetUri, NS.VOID + "classes", (long)classes.size());
+
+		for (String ns : getNamespaceCounts().keySet())
+		{
+			out.writeStatement (datasetUri, NS.VOID + "vocabulary", ns);
+		}
+
+		int i = 0;
+		for (Map.Entry<String, Long> e : getPredicateCounts().entrySet())
+		{
+			String partition = datasetUri + "/propertyPartition/" + (++i);
+			out.writeStatement (datasetUri, NS.VOID + "propertyPartition", partition);
+			out.writeStatement (partition, NS.VOID + "property", e.getKey());
+			out.writeLiteral (partition, NS.VOID + "triples", e.getValue());
+		}
+
+		i = 0;
+		for (Map.Entry<String, Long> e : getClassCounts().entrySet())
+		{
+			String partition = datasetUri + "/classPartition/" + (++i);
+			out.writeStatement (datasetUri, NS.VOID + "classPartition", partition);
+			out.writeStatement (partition, NS.VOID + "class", e.getKey());
+			out.writeLiteral (partition, NS.VOID + "entities", e.getValue());
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A Bloom filter for URI's.
+ * <p>
+ * A Bloom filter can tell for certain that a URI is <i>not</i> in a set,
+ * but may report false positives at a configurable rate. It takes only about 10 bits per URI for a 1% false positive rate.
+ * <p>
+ * As a {@link UriSet}, {@link #contains(String)} may return true for URI's that were never added.
+ * Combine with an exact set in {@link FilterSetStream#createSubjectFilter(TripleStream, UriBloomFilter, UriSet)} to remove false positives.
+ * <p>
+ * The hash function only depends on the characters of the URI, so a filter can be saved with {@link #write(OutputStream)}
+ * and re-used in a later run.
+ */
+public class UriBloomFilter implements UriSet
+{
+	private static final int MAGIC = 0x55424631; // "UBF1"
+
+	private final long[] bits;
+	private final long numBits;
+	private final int numHashes;
+	private long count = 0;
+
+	/**
+	 * Create an empty Bloom filter, sized for the given number of URI's and false positive rate.
+	 * @param expectedSize number of URI's that will be added
+	 * @param falsePositiveRate for example 0.01 for 1%.
+	 */
+	public UriBloomFilter (long expectedSize, double falsePositiveRate)
+	{
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+		long n = Math.max (1, expectedSize);
+		long m = (long)Math.ceil (-n * Math.log (falsePositiveRate) / (Math.log (2) * Math.log (2)));
+		m = Math.max (64, m);
+		this.numHashes = Math.max (1, (int)Math.round ((double)m / n * Math.log (2)));
+		this.bits = new long[(int)((m + 63) / 64)];
+		this.numBits = bits.length * 64L;
+	}
+
+	private UriBloomFilter (long[] bits, int numHashes, long count)
+	{
+		this.bits = bits;
+		this.numBits = bits.length * 64L;
+		this.numHashes = numHashes;
+		this.count = count;
+	}
+
+	/** 64-bit hash over the characters of a String (FNV-1a followed by a murmur3 finalizer) */
+	static long hash64 (String s)
+	{
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0, len = s.length(); i < len; ++i)
+		{
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/** add a URI to this filter. null is ignored. */
+	public void add (String uri)
+	{
+		if (uri == null) return;
+		long h = hash64 (uri);
+		int h1 = (int)h;
+		int h2 = (int)(h >>> 32);
+		for (int i = 0; i < numHashes; ++i)
+		{
+			long bit = ((h1 + (long)i * h2) & Long.MAX_VALUE) % numBits;
+			bits[(int)(bit >>> 6)] |= 1L << bit;
+		}
+		count++;
+	}
+
+	/** @return false if the URI definitely wasn't added, true if it probably was. */
+	@Override
+	public boolean contains (String uri)
+	{
+		if (uri == null) return false;
+		long h = hash64 (uri);
+		int h1 = (int)h;
+		int h2 = (int)(h >>> 32);
+		for (int i = 0; i < numHashes; ++i)
+		{
+			long bit = ((h1 + (long)i * h2) & Long.MAX_VALUE) % numBits;
+			if ((bits[(int)(bit >>> 6)] & (1L << bit)) == 0) return false;
+		}
+		return true;
+	}
+
+	/** @return number of times {@link #add(String)} was called, including any duplicates */
+	@Override
+	public long size()
+	{
+		return count;
+	}
+
+	/** @return the number of bits in this filter */
+	public long getNumBits()
+	{
+		return numBits;
+	}
+
+	/** @return the number of hash functions used for each URI */
+	public int getNumHashes()
+	{
+		return numHashes;
+	}
+
+	/** Create a Bloom filter for all URI's in an existing set */
+	public static UriBloomFilter create (DiskUriSet set, double falsePositiveRate)
+	{
+		UriBloomFilter result = new UriBloomFilter(set.size(), falsePositiveRate);
+		for (String uri : set)
+		{
+			result.add (uri);
+		}
+		return result;
+	}
+
+	/** Save this filter so it can be re-used with {@link #read(InputStream)} */
+	public void write (OutputStream os) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+		out.writeInt (MAGIC);
+		out.writeInt (numHashes);
+		out.writeLong (count);
+		out.writeInt (bits.length);
+		for (long word : bits)
+		{
+			out.writeLong (word);
+		}
+		out.flush();
+	}
+
+	/** Save this filter to a file */
+	public void write (File f) throws IOException
+	{
+		OutputStream os = new FileOutputStream (f);
+		try
+		{
+			write (os);
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	/** Read a filter that was saved with {@link #write(OutputStream)} */
+	public static UriBloomFilter read (InputStream is) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+		if (in.readInt() != MAGIC) throw new IOException ("Not a valid bloom filter");
+		int numHashes = in.readInt();
+		long count = in.readLong();
+		long[] bits = new long[in.readInt()];
+		for (int i = 0; i < bits.length; ++i)
+		{
+			bits[i] = in.readLong();
+		}
+		return new UriBloomFilter(bits, numHashes, count);
+	}
+
+	/** Read a filter from a file */
+	public static UriBloomFilter read (File f) throws IOException
+	{
+		InputStream is = new FileInputStream (f);
+		try
+		{
+			return read (is);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+}
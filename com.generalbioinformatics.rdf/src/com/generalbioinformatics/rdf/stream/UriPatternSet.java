@@ -0,0 +1,508 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A set of regular expressions that are matched against a URI together.
+ * <p>
+ * Running a long list of patterns one by one against every URI is slow.
+ * Instead, for each pattern we determine a piece of literal text that any match must contain.
+ * All these pieces are combined in a single Aho-Corasick automaton, so that one scan over the URI
+ * finds the few patterns that could possibly match. Only those are run as a regular expression.
+ * Patterns that are just literal text don't need to be run at all.
+ * <p>
+ * Matching follows the semantics of {@link Matcher#find()}, i.e. a pattern may match anywhere in the URI.
+ * <p>
+ * Keeps count of how many times each pattern matched. Instances are not thread-safe.
+ */
+public class UriPatternSet
+{
+	private static final int[] NO_IDS = new int[0];
+
+	private final Pattern[] patterns;
+	private final Matcher[] matchers;
+	/** the literal text a match must contain, or null if we couldn't determine it */
+	private final String[] literals;
+	/** true if the pattern consists of nothing but its literal */
+	private final boolean[] pureLiteral;
+	private final long[] hitCounts;
+
+	/** ids of patterns without a literal, that have to be tried on every URI */
+	private final int[] alwaysCheck;
+
+	// Aho-Corasick automaton. State 0 is the root.
+	private char[][] labels;
+	private int[][] transitions;
+	private int[] fail;
+	/** ids of patterns whose literal ends in this state, including those reachable through fail links */
+	private int[][] output;
+
+	// per-call bookkeeping, to avoid allocations
+	private final int[] seen;
+	private int generation = 0;
+	private int[] candidates;
+	private int lastMatch = -1;
+
+	/** @param patterns regular expressions, in the syntax of {@link Pattern} */
+	public UriPatternSet(List<String> patterns)
+	{
+		int n = patterns.size();
+		this.patterns = new Pattern[n];
+		this.matchers = new Matcher[n];
+		this.literals = new String[n];
+		this.pureLiteral = new boolean[n];
+		this.hitCounts = new long[n];
+		this.seen = new int[n];
+		this.candidates = new int[n];
+
+		List<Integer> always = new ArrayList<Integer>();
+		for (int i = 0; i < n; ++i)
+		{
+			String regex = patterns.get(i);
+			this.patterns[i] = Pattern.compile (regex);
+			this.matchers[i] = this.patterns[i].matcher("");
+			RequiredLiteral lit = RequiredLiteral.of (regex);
+			if (lit == null)
+			{
+				always.add (i);
+			}
+			else
+			{
+				literals[i] = lit.text;
+				pureLiteral[i] = lit.pure;
+			}
+		}
+
+		alwaysCheck = new int[always.size()];
+		for (int i = 0; i < alwaysCheck.length; ++i) alwaysCheck[i] = always.get(i);
+
+		buildAutomaton();
+	}
+
+	/** @return number of patterns in this set */
+	public int size()
+	{
+		return patterns.length;
+	}
+
+	/** @return the regular expression with the given id, ids being positions in the list passed to the constructor */
+	public String getPattern(int id)
+	{
+		return patterns[id].pattern();
+	}
+
+	/** @return the number of URI's that were matched by the given pattern so far. Only the first matching pattern is counted. */
+	public long getHitCount(int id)
+	{
+		return hitCounts[id];
+	}
+
+	/** @return a map of pattern to hit count, for reporting */
+	public Map<String, Long> getHitCounts()
+	{
+		Map<String, Long> result = new HashMap<String, Long>();
+		for (int i = 0; i < patterns.length; ++i)
+		{
+			result.put (patterns[i].pattern(), hitCounts[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Find the first pattern (in the order they were passed to the constructor) that matches the URI.
+	 * @return the id of the matching pattern, or -1 if there is no match, or the URI is null
+	 */
+	public int indexOf(String uri)
+	{
+		lastMatch = -1;
+		if (uri == null) return -1;
+		int count = findCandidates (uri);
+		for (int i = 0; i < count; ++i)
+		{
+			int id = candidates[i];
+			if (pureLiteral[id] || matchers[id].reset(uri).find())
+			{
+				hitCounts[id]++;
+				lastMatch = id;
+				return id;
+			}
+		}
+		lastMatch = -1;
+		return -1;
+	}
+
+	/** @return true if any of the patterns matches the URI */
+	public boolean matches(String uri)
+	{
+		return indexOf (uri) >= 0;
+	}
+
+	/**
+	 * Like {@link #indexOf(String)}, but returns a Matcher of the first matching pattern, positioned on the first match.
+	 * The matcher is re-used on the next call, so don't hold on to it.
+	 * @return a matcher, or null if there is no match
+	 */
+	public Matcher matcher(String uri)
+	{
+		lastMatch = -1;
+		if (uri == null) return null;
+		int count = findCandidates (uri);
+		for (int i = 0; i < count; ++i)
+		{
+			int id = candidates[i];
+			Matcher m = matchers[id].reset(uri);
+			if (m.find())
+			{
+				hitCounts[id]++;
+				lastMatch = id;
+				return m;
+			}
+		}
+		lastMatch = -1;
+		return null;
+	}
+
+	/** @return the id of the pattern matched by the last call to {@link #matcher(String)} or {@link #indexOf(String)}, or -1 if there was no match. */
+	public int getLastMatch()
+	{
+		return lastMatch;
+	}
+
+	/** Scan the URI once, and collect the ids of all patterns that could match, in ascending order. */
+	private int findCandidates(String uri)
+	{
+		if (++generation == 0)
+		{
+			// wrapped around, old marks could be mistaken for new ones.
+			Arrays.fill (seen, 0);
+			generation = 1;
+		}
+		int count = 0;
+		int state = 0;
+		for (int i = 0, len = uri.length(); i < len; ++i)
+		{
+			char c = uri.charAt(i);
+			int next;
+			while ((next = transition (state, c)) < 0 && state != 0)
+			{
+				state = fail[state];
+			}
+			state = next < 0 ? 0 : next;
+			for (int id : output[state])
+			{
+				if (seen[id] != generation)
+				{
+					seen[id] = generation;
+					candidates[count++] = id;
+				}
+			}
+		}
+		for (int id : alwaysCheck)
+		{
+			candidates[count++] = id;
+		}
+		if (count > 1) Arrays.sort (candidates, 0, count);
+		return count;
+	}
+
+	private int transition(int state, char c)
+	{
+		int idx = Arrays.binarySearch (labels[state], c);
+		return idx < 0 ? -1 : transitions[state][idx];
+	}
+
+	/** Build a trie of all literals, then add fail links breadth-first */
+	private void buildAutomaton()
+	{
+		List<Map<Character, Integer>> gotoList = new ArrayList<Map<Character, Integer>>();
+		List<List<Integer>> outList = new ArrayList<List<Integer>>();
+		gotoList.add (new HashMap<Character, Integer>());
+		outList.add (new ArrayList<Integer>());
+
+		for (int id = 0; id < literals.length; ++id)
+		{
+			String lit = literals[id];
+			if (lit == null) continue;
+			int state = 0;
+			for (int i = 0; i < lit.length(); ++i)
+			{
+				Integer next = gotoList.get(state).get(lit.charAt(i));
+				if (next == null)
+				{
+					next = gotoList.size();
+					gotoList.get(state).put (lit.charAt(i), next);
+					gotoList.add (new HashMap<Character, Integer>());
+					outList.add (new ArrayList<Integer>());
+				}
+				state = next;
+			}
+			outList.get(state).add (id);
+		}
+
+		int numStates = gotoList.size();
+		labels = new char[numStates][];
+		transitions = new int[numStates][];
+		for (int state = 0; state < numStates; ++state)
+		{
+			Map<Character, Integer> map = gotoList.get(state);
+			char[] keys = new char[map.size()];
+			int i = 0;
+			for (char c : map.keySet()) keys[i++] = c;
+			Arrays.sort (keys);
+			labels[state] = keys;
+			transitions[state] = new int[keys.length];
+			for (i = 0; i < keys.length; ++i) transitions[state][i] = map.get(keys[i]);
+		}
+
+		fail = new int[numStates];
+		int[] queue = new int[numStates];
+		int head = 0, tail = 0;
+		queue[tail++] = 0;
+		while (head < tail)
+		{
+			int state = queue[head++];
+			for (int i = 0; i < labels[state].length; ++i)
+			{
+				char c = labels[state][i];
+				int child = transitions[state][i];
+				if (state != 0)
+				{
+					int f = fail[state];
+					int next;
+					while ((next = transition (f, c)) < 0 && f != 0) f = fail[f];
+					fail[child] = next < 0 ? 0 : next;
+					// fail state was handled earlier in breadth-first order, so its output is already complete
+					outList.get(child).addAll (outList.get(fail[child]));
+				}
+				queue[tail++] = child;
+			}
+		}
+
+		output = new int[numStates][];
+		for (int state = 0; state < numStates; ++state)
+		{
+			List<Integer> ids = outList.get(state);
+			if (ids.isEmpty())
+			{
+				output[state] = NO_IDS;
+			}
+			else
+			{
+				output[state] = new int[ids.size()];
+				for (int i = 0; i < ids.size(); ++i) output[state][i] = ids.get(i);
+			}
+		}
+	}
+
+	/**
+	 * Finds the longest piece of literal text that every match of a regular expression must contain.
+	 * <p>
+	 * This is deliberately conservative: only the top level of the expression is analyzed,
+	 * and anything unusual results in no literal at all.
+	 */
+	static class RequiredLiteral
+	{
+		final String text;
+		/** true if the expression is only literal text, so that a match of the literal is a match of the expression */
+		final boolean pure;
+
+		private RequiredLiteral (String text, boolean pure)
+		{
+			this.text = text;
+			this.pure = pure;
+		}
+
+		/** @return the required literal, or null if there is none */
+		static RequiredLiteral of(String regex)
+		{
+			String best = "";
+			StringBuilder run = new StringBuilder();
+			boolean pure = true;
+			int i = 0;
+			int len = regex.length();
+			while (i < len)
+			{
+				char c = regex.charAt(i);
+				if (c == '\\')
+				{
+					if (i + 1 >= len) return null;
+					char e = regex.charAt(i + 1);
+					if (Character.isLetterOrDigit(e))
+					{
+						// character classes like \d and boundaries like \b are fine, anything else (\Q, \p, \x, back references) we don't try to handle
+						if ("dDsSwWbBAGzZ".indexOf(e) < 0) return null;
+						best = longest (best, run);
+						pure = false;
+						i += 2;
+						i = skipQuantifier (regex, i);
+						continue;
+					}
+					i += 2;
+					if (isOptionalQuantifier (regex, i))
+					{
+						best = longest (best, run);
+						pure = false;
+						i = skipQuantifier (regex, i);
+					}
+					else
+					{
+						run.append (e);
+						if (i < len && regex.charAt(i) == '+')
+						{
+							best = longest (best, run);
+							pure = false;
+							i = skipQuantifier (regex, i);
+						}
+					}
+					continue;
+				}
+
+				switch (c)
+				{
+				case '|':
+					// alternation at the top level, no single required literal.
+					return null;
+				case '(':
+				{
+					if (i + 1 < len && regex.charAt(i + 1) == '?' && i + 2 < len && regex.charAt(i + 2) != ':')
+					{
+						// flags, look-around or named groups
+						return null;
+					}
+					int end = skipGroup (regex, i);
+					if (end < 0) return null;
+					best = longest (best, run);
+					pure = false;
+					i = skipQuantifier (regex, end);
+					continue;
+				}
+				case '[':
+				{
+					int end = skipClass (regex, i);
+					if (end < 0) return null;
+					best = longest (best, run);
+					pure = false;
+					i = skipQuantifier (regex, end);
+					continue;
+				}
+				case '.': case '^': case '$':
+					best = longest (best, run);
+					pure = false;
+					i = skipQuantifier (regex, i + 1);
+					continue;
+				case '*': case '+': case '?': case '{': case ')': case ']': case '}':
+					// quantifier in an unexpected place
+					return null;
+				}
+
+				i++;
+				if (isOptionalQuantifier (regex, i))
+				{
+					// the last character may be absent, so it's not part of the literal
+					best = longest (best, run);
+					pure = false;
+					i = skipQuantifier (regex, i);
+				}
+				else
+				{
+					run.append (c);
+					if (i < len && regex.charAt(i) == '+')
+					{
+						best = longest (best, run);
+						pure = false;
+						i = skipQuantifier (regex, i);
+					}
+				}
+			}
+			best = longest (best, run);
+			if (best.length() == 0) return null;
+			return new RequiredLiteral (best, pure);
+		}
+
+		/** @return the longest of best and the current run. The run is reset. */
+		private static String longest(String best, StringBuilder run)
+		{
+			String result = run.length() > best.length() ? run.toString() : best;
+			run.setLength(0);
+			return result;
+		}
+
+		/** @return true if the character at pos is a quantifier that allows zero repetitions */
+		private static boolean isOptionalQuantifier(String regex, int pos)
+		{
+			if (pos >= regex.length()) return false;
+			char c = regex.charAt(pos);
+			return c == '*' || c == '?' || c == '{';
+		}
+
+		/** @return position after the quantifier starting at pos (including lazy / possessive modifiers), or pos if there is none */
+		private static int skipQuantifier(String regex, int pos)
+		{
+			int len = regex.length();
+			if (pos >= len) return pos;
+			char c = regex.charAt(pos);
+			if (c == '*' || c == '+' || c == '?')
+			{
+				pos++;
+			}
+			else if (c == '{')
+			{
+				int end = regex.indexOf('}', pos);
+				pos = end < 0 ? len : end + 1;
+			}
+			else
+			{
+				return pos;
+			}
+			if (pos < len && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) pos++;
+			return pos;
+		}
+
+		/** @return position after the group starting at pos, or -1 if it's not terminated */
+		private static int skipGroup(String regex, int pos)
+		{
+			int depth = 0;
+			for (int i = pos; i < regex.length(); ++i)
+			{
+				char c = regex.charAt(i);
+				if (c == '\\') { i++; continue; }
+				if (c == '[')
+				{
+					i = skipClass (regex, i) - 1;
+					if (i < 0) return -1;
+					continue;
+				}
+				if (c == '(') depth++;
+				if (c == ')' && --depth == 0) return i + 1;
+			}
+			return -1;
+		}
+
+		/** @return position after the character class starting at pos, or -1 if it's not terminated */
+		private static int skipClass(String regex, int pos)
+		{
+			int i = pos + 1;
+			if (i < regex.length() && regex.charAt(i) == '^') i++;
+			if (i < regex.length() && regex.charAt(i) == ']') i++; // literal ] at start of class
+			int depth = 1;
+			for (; i < regex.length(); ++i)
+			{
+				char c = regex.charAt(i);
+				if (c == '\\') { i++; continue; }
+				if (c == '[') depth++;
+				if (c == ']' && --depth == 0) return i + 1;
+			}
+			return -1;
+		}
+	}
+}
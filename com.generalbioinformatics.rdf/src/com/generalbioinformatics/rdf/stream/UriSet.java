@@ -0,0 +1,20 @@
+/**
+* Copyright (c) 2015 General Bioinformatics Limited
+* Distributed under the GNU GPL v2. For full terms see the file LICENSE.
+*/
+package com.generalbioinformatics.rdf.stream;
+
+/**
+ * A read-only set of URI strings, used by {@link FilterSetStream} to check membership.
+ * <p>
+ * Implementations include a simple wrapper around a {@link java.util.Set} ({@link HashUriSet})
+ * and a memory-efficient implementation for very large sets ({@link CompactUriSet}).
+ */
+public interface UriSet
+{
+	/** @return true if the given uri is a member of this set. Always false for null. */
+	public boolean contains (String uri);
+	
+	/** @return the number of distinct URI's in this set */
+	public long size();
+}
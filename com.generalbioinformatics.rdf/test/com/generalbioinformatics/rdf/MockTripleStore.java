@@ -0,0 +1,104 @@
+package com.generalbioinformatics.rdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.helixsoft.recordstream.AbstractRecordStream;
+import nl.helixsoft.recordstream.DefaultRecord;
+import nl.helixsoft.recordstream.DefaultRecordMetaData;
+import nl.helixsoft.recordstream.Record;
+import nl.helixsoft.recordstream.RecordMetaData;
+import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.Stream;
+import nl.helixsoft.recordstream.StreamException;
+
+import com.generalbioinformatics.rdf.stream.Statement;
+
+/** Returns a fixed number of rows for every query, and counts how often it is queried */
+class MockTripleStore extends AbstractTripleStore
+{
+	final AtomicInteger queries = new AtomicInteger();
+	int rows = 10;
+	long delay = 0;
+	boolean fail = false;
+
+	@Override
+	public RecordStream _sparqlSelectDirect(String query) throws StreamException
+	{
+		queries.incrementAndGet();
+		if (fail) throw new StreamException("Backend down");
+		try
+		{
+			Thread.sleep(delay);
+		}
+		catch (InterruptedException e)
+		{
+			throw new StreamException(e);
+		}
+		final RecordMetaData rmd = new DefaultRecordMetaData("s", "n");
+		return new AbstractRecordStream()
+		{
+			int row = 0;
+
+			@Override
+			public Record getNext()
+			{
+				if (row >= rows) return null;
+				Record r = new DefaultRecord(rmd, new Object[] { "http://example.com/s" + row, "" + row });
+				row++;
+				return r;
+			}
+
+			@Override
+			public RecordMetaData getMetaData()
+			{
+				return rmd;
+			}
+		};
+	}
+
+	@Override
+	public void _sparqlConstructDirect(String query, OutputStream os) throws StreamException
+	{
+		queries.incrementAndGet();
+		try
+		{
+			for (int row = 0; row < rows; ++row)
+			{
+				os.write (("<http://example.com/s" + row + "> <http://example.com/p> \"" + row + "\" .\n").getBytes("UTF-8"));
+			}
+		}
+		catch (IOException e)
+		{
+			throw new StreamException(e);
+		}
+	}
+
+	@Override
+	public Stream<Statement> _sparqlConstructDirect(String query) throws StreamException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MockTripleStore";
+	}
+
+	/** read all records, as "s n" strings, and close the stream */
+	static List<String> read(RecordStream rs) throws StreamException
+	{
+		List<String> result = new ArrayList<String>();
+		Record r;
+		while ((r = rs.getNext()) != null)
+		{
+			result.add (r.get(0) + " " + r.get(1));
+		}
+		rs.close();
+		return result;
+	}
+}
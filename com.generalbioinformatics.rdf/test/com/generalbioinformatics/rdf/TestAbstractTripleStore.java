@@ -0,0 +1,368 @@
+package com.generalbioinformatics.rdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.Stream;
+import nl.helixsoft.recordstream.StreamException;
+
+import com.generalbioinformatics.rdf.stream.Statement;
+
+import junit.framework.TestCase;
+
+public class TestAbstractTripleStore extends TestCase
+{
+	private static final String QUERY = "SELECT ?s ?n WHERE { ?s ?p ?n }";
+
+	private File dir;
+	private MockTripleStore store;
+
+	@Override
+	public void setUp() throws IOException
+	{
+		dir = File.createTempFile("cache-", "");
+		dir.delete();
+		store = new MockTripleStore();
+		store.setCacheDir(dir);
+	}
+
+	@Override
+	public void tearDown() throws IOException
+	{
+		org.apache.commons.io.FileUtils.deleteDirectory(dir);
+	}
+
+	private static List<Statement> triples(Stream<Statement> st)
+	{
+		List<Statement> result = new ArrayList<Statement>();
+		for (Statement s : st) result.add (s);
+		st.close();
+		return result;
+	}
+
+	private File entry(String query)
+	{
+		QueryCache cache = store.getQueryCache();
+		return cache.getFile(QueryCache.key(store.getCacheIdentity(), QueryCache.normalise(query)));
+	}
+
+	public void testCache() throws StreamException
+	{
+		List<String> first = MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (10, first.size());
+		assertTrue (entry(QUERY).exists());
+
+		// same query, with different line endings, is answered from the cache
+		assertEquals (first, MockTripleStore.read(store.sparqlSelect(QUERY + "\r\n")));
+		assertEquals (1, store.queries.get());
+		assertEquals (1, store.getQueryCache().getHits());
+		assertEquals (1, store.getQueryCache().getMisses());
+	}
+
+	public void testFormat() throws StreamException
+	{
+		store.getQueryCache().setFormat(QueryCache.Format.TSV);
+		List<String> first = MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertTrue (entry(QUERY).getName().endsWith(".txt.gz"));
+		assertTrue (entry(QUERY).exists());
+
+		// entries in the old format are still used
+		store.getQueryCache().setFormat(QueryCache.Format.BINARY);
+		assertFalse (entry(QUERY).exists());
+		assertEquals (first, MockTripleStore.read(store.sparqlSelect(QUERY)));
+		assertEquals (1, store.queries.get());
+	}
+
+	public void testNeverCache() throws StreamException
+	{
+		store.getQueryCache().setPolicy(QUERY, CachePolicy.NEVER);
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (2, store.queries.get());
+		assertFalse (entry(QUERY).exists());
+
+		// a hint in the query works the same
+		String hinted = QUERY + "\n" + CachePolicy.NEVER.toHint();
+		MockTripleStore.read(store.sparqlSelect(hinted));
+		assertEquals (3, store.queries.get());
+		assertFalse (entry(hinted).exists());
+	}
+
+	public void testTtl() throws StreamException, InterruptedException
+	{
+		store.getQueryCache().setMemoryLimit(100000, 10000);
+		store.getQueryCache().setDefaultPolicy(CachePolicy.createTtl(200));
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (1, store.queries.get());
+
+		// expired, both in memory and on disk
+		Thread.sleep(300);
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (2, store.queries.get());
+	}
+
+	public void testStaleWhileRevalidate() throws StreamException, InterruptedException
+	{
+		store.getQueryCache().setPolicy(QUERY, CachePolicy.createStaleWhileRevalidate(1000, 60000));
+		List<String> first = MockTripleStore.read(store.sparqlSelect(QUERY));
+		Thread.sleep(1100);
+
+		// the stale result is returned right away, and refreshed in the background
+		store.delay = 100;
+		assertEquals (first, MockTripleStore.read(store.sparqlSelect(QUERY)));
+		assertEquals (1, store.getQueryCache().getStaleHits());
+		for (int i = 0; i < 50 && store.queries.get() < 2; ++i) Thread.sleep(50);
+		assertEquals (2, store.queries.get());
+
+		// wait until the refreshed entry is in place
+		Thread.sleep(300);
+		assertEquals (first, MockTripleStore.read(store.sparqlSelect(QUERY)));
+		assertEquals (2, store.queries.get());
+		assertEquals (1, store.getQueryCache().getStaleHits());
+	}
+
+	public void testHintsShareEntry() throws StreamException
+	{
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		MockTripleStore.read(store.sparqlSelect(QUERY + "\n" + CachePolicy.createTtl(60000).toHint()));
+		MockTripleStore.read(store.sparqlSelect(CachePolicy.createStaleWhileRevalidate(60000, 60000).toHint() + "\n" + QUERY));
+		assertEquals (1, store.queries.get());
+		assertEquals (1, entry(QUERY).getParentFile().list().length);
+	}
+
+	public void testInvalidateGraph() throws StreamException, IOException, InterruptedException
+	{
+		store.getQueryCache().setMemoryLimit(100000, 10000);
+		String g1 = "SELECT ?s ?n FROM <http://example.com/g1> WHERE { ?s ?p ?n }";
+		String g2 = "SELECT ?s ?n FROM <http://example.com/g2> WHERE { ?s ?p ?n }";
+		MockTripleStore.read(store.sparqlSelect(g1));
+		MockTripleStore.read(store.sparqlSelect(g2));
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (3, store.queries.get());
+
+		store.graphsModified("http://example.com/g1");
+		// entries created in the same millisecond as the modification are not trusted
+		Thread.sleep(5);
+
+		// only queries on the modified graph, or on all graphs, are run again. Also entries in memory are not used.
+		MockTripleStore.read(store.sparqlSelect(g2));
+		assertEquals (3, store.queries.get());
+		MockTripleStore.read(store.sparqlSelect(g1));
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (5, store.queries.get());
+
+		// the new entries are valid
+		MockTripleStore.read(store.sparqlSelect(g1));
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (5, store.queries.get());
+
+		// invalidation is shared with other instances using the same directory
+		MockTripleStore other = new MockTripleStore();
+		other.setCacheDir(dir);
+		other.graphsModified("http://example.com/g2");
+		MockTripleStore.read(store.sparqlSelect(g2));
+		assertEquals (6, store.queries.get());
+	}
+
+	public void testConstruct() throws StreamException, IOException, InterruptedException
+	{
+		String construct = "CONSTRUCT { ?s ?p ?n } FROM <http://example.com/g1> WHERE { ?s ?p ?n }";
+		List<Statement> first = triples(store.sparqlConstruct(construct));
+		assertEquals (10, first.size());
+		assertEquals ("http://example.com/s3", first.get(3).getSubjectUri());
+		QueryCache cache = store.getQueryCache();
+		assertTrue (cache.getConstructFile(QueryCache.key(store.getCacheIdentity(), QueryCache.normalise(construct))).exists());
+
+		// replayed from the cache, as triples or as N-Triples without the header
+		assertEquals (first, triples(store.sparqlConstruct(construct)));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		store.sparqlConstruct(construct, baos);
+		assertTrue (baos.toString("UTF-8").startsWith("<http://example.com/s0> <http://example.com/p> \"0\" .\n"));
+		assertEquals (1, store.queries.get());
+		assertEquals (2, cache.getHits());
+
+		// invalidated like select queries
+		store.graphsModified("http://example.com/g1");
+		Thread.sleep(5);
+		assertEquals (first, triples(store.sparqlConstruct(construct)));
+		assertEquals (2, store.queries.get());
+
+		cache.setPolicy(construct, CachePolicy.NEVER);
+		baos.reset();
+		store.sparqlConstruct(construct, baos);
+		assertEquals (3, store.queries.get());
+		assertEquals (10, baos.toString("UTF-8").split("\n").length);
+	}
+
+	public void testQueryEvents() throws StreamException, IOException
+	{
+		final List<QueryEvent> events = new ArrayList<QueryEvent>();
+		QueryEventListener l = new QueryEventListener()
+		{
+			@Override
+			public void queryCompleted(QueryEvent event)
+			{
+				events.add (event);
+			}
+		};
+		store.addQueryEventListener(l);
+		QueryLatencyListener latency = QueryLatencyListener.create(1);
+		store.addQueryEventListener(latency);
+
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (2, events.size());
+		assertEquals (QueryEvent.CacheStatus.MISS, events.get(0).getCacheStatus());
+		assertEquals (QueryEvent.CacheStatus.HIT, events.get(1).getCacheStatus());
+		QueryEvent hit = events.get(1);
+		assertEquals (QueryEvent.Type.SELECT, hit.getType());
+		assertEquals (10, hit.getRows());
+		assertEquals (entry(QUERY).length(), hit.getBytes());
+		assertTrue (hit.isComplete());
+		assertTrue (hit.getTimeToFirstRow() >= 0 && hit.getTimeToFirstRow() <= hit.getTotalTime());
+		assertEquals ("MockTripleStore", hit.getStoreIdentity().substring(hit.getStoreIdentity().length() - 15));
+
+		// closed early
+		RecordStream rs = store.sparqlSelect(QUERY);
+		rs.getNext();
+		rs.close();
+		assertEquals (3, events.size());
+		assertEquals (1, events.get(2).getRows());
+		assertFalse (events.get(2).isComplete());
+
+		// construct queries, written to an output stream
+		store.getQueryCache().setPolicy(QUERY, CachePolicy.NEVER);
+		store.sparqlConstruct(QUERY, new ByteArrayOutputStream());
+		assertEquals (QueryEvent.Type.CONSTRUCT, events.get(3).getType());
+		assertEquals (QueryEvent.CacheStatus.NOT_CACHED, events.get(3).getCacheStatus());
+		assertEquals (10, events.get(3).getRows());
+		assertTrue (events.get(3).getBytes() > 0);
+
+		// errors
+		store.fail = true;
+		try
+		{
+			store.sparqlSelect(QUERY);
+			fail ("Expected exception");
+		}
+		catch (StreamException ex)
+		{
+			assertSame (ex, events.get(4).getError());
+		}
+		assertFalse (events.get(4).isComplete());
+
+		assertEquals (1, latency.getErrors());
+		assertEquals (4, latency.getTotalTime().getCount());
+		assertEquals (2, latency.getTotalTime(QueryEvent.CacheStatus.HIT).getCount());
+		assertEquals (1, latency.getSlowest().size());
+
+		// listeners can be removed while an event is dispatched
+		store.fail = false;
+		store.addQueryEventListener(new QueryEventListener()
+		{
+			@Override
+			public void queryCompleted(QueryEvent event)
+			{
+				store.removeQueryEventListener(this);
+			}
+		});
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (7, events.size());
+
+		// without listeners, results are not wrapped
+		store.removeQueryEventListener(l);
+		store.removeQueryEventListener(latency);
+		MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (7, events.size());
+	}
+
+	public void testWriteThrough() throws StreamException
+	{
+		store.getQueryCache().setWriteThrough(true);
+		store.rows = 5000;
+
+		// closing early discards the entry
+		RecordStream rs = store.sparqlSelect(QUERY);
+		assertNotNull (rs.getNext());
+		rs.close();
+		assertFalse (entry(QUERY).exists());
+
+		List<String> first = MockTripleStore.read(store.sparqlSelect(QUERY));
+		assertEquals (5000, first.size());
+		assertTrue (entry(QUERY).exists());
+		assertEquals (2, store.queries.get());
+
+		assertEquals (first, MockTripleStore.read(store.sparqlSelect(QUERY)));
+		assertEquals (2, store.queries.get());
+		// no temporary files left behind
+		assertEquals (1, entry(QUERY).getParentFile().list().length);
+	}
+
+	public void testWriteThroughInterrupted() throws StreamException
+	{
+		store.getQueryCache().setWriteThrough(true);
+		store.rows = 5000;
+
+		RecordStream rs = store.sparqlSelect(QUERY);
+		for (int i = 0; i < 100; ++i) rs.getNext();
+		// records passed on after the interrupt can't be handed to the writer
+		Thread.currentThread().interrupt();
+		int count = 100;
+		while (rs.getNext() != null) count++;
+		assertTrue (Thread.interrupted());
+		assertEquals (5000, count);
+		// the incomplete entry is not installed
+		assertFalse (entry(QUERY).exists());
+
+		assertEquals (5000, MockTripleStore.read(store.sparqlSelect(QUERY)).size());
+		assertEquals (2, store.queries.get());
+		assertEquals (5000, MockTripleStore.read(store.sparqlSelect(QUERY)).size());
+		assertEquals (2, store.queries.get());
+	}
+
+	public void testWriteThroughDropped() throws StreamException, InterruptedException
+	{
+		store.getQueryCache().setWriteThrough(true);
+		store.getQueryCache().setWriteThroughWait(60000);
+
+		// the same thread runs the query again without reading the first results, it must not wait for itself
+		store.sparqlSelect(QUERY);
+		long start = System.currentTimeMillis();
+		assertEquals (10, MockTripleStore.read(store.sparqlSelect(QUERY)).size());
+		assertTrue (System.currentTimeMillis() - start < 30000);
+		assertTrue (entry(QUERY).exists());
+
+		// another thread gives up on dropped results after a while
+		final String query = "SELECT ?s ?n WHERE { ?s ?n ?p }";
+		store.getQueryCache().setWriteThroughWait(200);
+		store.sparqlSelect(query);
+		final List<String> result = new ArrayList<String>();
+		Thread t = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					result.addAll (MockTripleStore.read(store.sparqlSelect(query)));
+				}
+				catch (StreamException e)
+				{
+					// result stays empty
+				}
+			}
+		};
+		t.start();
+		t.join(10000);
+		assertFalse (t.isAlive());
+		assertEquals (10, result.size());
+		assertTrue (entry(query).exists());
+		assertEquals (4, store.queries.get());
+	}
+}
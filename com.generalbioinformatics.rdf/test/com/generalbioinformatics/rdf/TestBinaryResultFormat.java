@@ -0,0 +1,189 @@
+package com.generalbioinformatics.rdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import nl.helixsoft.recordstream.DefaultRecord;
+import nl.helixsoft.recordstream.DefaultRecordMetaData;
+import nl.helixsoft.recordstream.Record;
+import nl.helixsoft.recordstream.RecordMetaData;
+
+import com.generalbioinformatics.rdf.stream.RdfNode;
+
+import junit.framework.TestCase;
+
+public class TestBinaryResultFormat extends TestCase
+{
+	private static void checkLz4(byte[] data) throws IOException
+	{
+		byte[] compressed = new byte[Lz4Block.maxCompressedLength(data.length)];
+		int len = Lz4Block.compress(data, data.length, compressed);
+		byte[] result = new byte[data.length];
+		assertEquals (data.length, Lz4Block.decompress(compressed, len, result));
+		assertTrue (Arrays.equals(data, result));
+	}
+
+	public void testLz4() throws IOException
+	{
+		checkLz4 (new byte[0]);
+		checkLz4 ("a".getBytes("UTF-8"));
+		checkLz4 (new byte[100000]);
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; ++i) text.append ("http://example.com/resource/").append (i % 300).append ('\t');
+		byte[] data = text.toString().getBytes("UTF-8");
+		byte[] compressed = new byte[Lz4Block.maxCompressedLength(data.length)];
+		assertTrue (Lz4Block.compress(data, data.length, compressed) < data.length / 4);
+		checkLz4 (data);
+
+		Random random = new Random(42);
+		for (int i = 0; i < 50; ++i)
+		{
+			// random data with some repetition
+			byte[] b = new byte[random.nextInt(5000)];
+			for (int j = 0; j < b.length; ++j) b[j] = (byte)random.nextInt(4);
+			checkLz4 (b);
+		}
+	}
+
+	private static byte[] write(RecordMetaData rmd, Object[][] rows) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BinaryResultFormat.Writer writer = new BinaryResultFormat.Writer(baos, "store", "SELECT *", 1000, rmd);
+		for (Object[] row : rows) writer.add (new DefaultRecord(rmd, row));
+		writer.finish(123);
+		return baos.toByteArray();
+	}
+
+	public void testRoundTrip() throws IOException
+	{
+		RecordMetaData rmd = new DefaultRecordMetaData("a", "b", "c");
+		java.sql.Timestamp ts = new java.sql.Timestamp(1000000);
+		ts.setNanos(123456789);
+		Object[][] rows = new Object[][] {
+			{ RdfNode.createUri("http://example.com/a"), RdfNode.createAnon("b1"), RdfNode.createLiteral("lit") },
+			{ RdfNode.createUri("http://example.com/a"), null, "text é" },
+			{ 42L, 7, -3.5 },
+			{ true, new BigInteger("123456789012345678901234567890"), new BigDecimal("1.50") },
+			{ ts, new java.sql.Date(86400000L), new Date(12345) },
+			{ (short)-2, (byte)5, 1.25f },
+			{ new java.sql.Time(3723000), null, null },
+			{ new StringBuilder("other"), Long.MIN_VALUE, Double.NaN },
+		};
+		byte[] data = write(rmd, rows);
+
+		BinaryResultFormat.Reader reader = BinaryResultFormat.Reader.open(new ByteArrayInputStream(data), data.length, "store", "SELECT *");
+		assertNotNull (reader);
+		assertEquals (3, reader.getMetaData().getNumCols());
+		assertEquals ("b", reader.getMetaData().getColumnName(1));
+		for (Object[] row : rows)
+		{
+			Record r = reader.getNext();
+			for (int col = 0; col < row.length; ++col)
+			{
+				Object expected = row[col] instanceof StringBuilder ? row[col].toString() : row[col];
+				assertEquals (expected, r.get(col));
+				if (expected != null) assertEquals (expected.getClass(), r.get(col).getClass());
+			}
+		}
+		assertNull (reader.getNext());
+		assertEquals (123, reader.getQueryTime());
+		assertEquals (1000, reader.getCreated());
+
+		RdfNode anon = (RdfNode)BinaryResultFormat.Reader.open(new ByteArrayInputStream(data), data.length, "store", "SELECT *").getNext().get(1);
+		assertTrue (anon.isAnon());
+
+		// an entry for another store or query is rejected
+		assertNull (BinaryResultFormat.Reader.open(new ByteArrayInputStream(data), data.length, "other store", "SELECT *"));
+		assertNull (BinaryResultFormat.Reader.open(new ByteArrayInputStream(data), data.length, "store", "SELECT ?x"));
+		assertNull (BinaryResultFormat.Reader.open(new ByteArrayInputStream("s\n".getBytes("UTF-8")), 2, "store", "SELECT *"));
+	}
+
+	/** value of a class that isn't known to the format, like Jena's XSDDateTime */
+	private static final class LexicalValue
+	{
+		private final String lexical;
+
+		LexicalValue(String lexical)
+		{
+			this.lexical = lexical;
+		}
+
+		@Override
+		public String toString()
+		{
+			return lexical;
+		}
+	}
+
+	public void testKnownGaps() throws IOException
+	{
+		RecordMetaData rmd = new DefaultRecordMetaData("a", "b");
+		Object[][] rows = new Object[][] {
+			{ new LexicalValue("2015-06-01T12:00:00Z"), new LexicalValue("P1Y2M") },
+			// a subclass of a known class comes back as the known class
+			{ new Date(12345) { }, null },
+		};
+		byte[] data = write(rmd, rows);
+
+		BinaryResultFormat.Reader reader = BinaryResultFormat.Reader.open(new ByteArrayInputStream(data), data.length, "store", "SELECT *");
+		Record r = reader.getNext();
+		assertEquals ("2015-06-01T12:00:00Z", r.get(0));
+		assertEquals ("P1Y2M", r.get(1));
+		r = reader.getNext();
+		assertEquals (Date.class, r.get(0).getClass());
+		assertEquals (12345, ((Date)r.get(0)).getTime());
+		assertNull (reader.getNext());
+	}
+
+	public void testCorruptHeader() throws IOException
+	{
+		byte[] data = write(new DefaultRecordMetaData("a"), new Object[][] { { "x" } });
+		// replace the length of the store identity with a huge number
+		byte[] corrupt = new byte[data.length + 4];
+		System.arraycopy (data, 0, corrupt, 0, 5);
+		corrupt[5] = (byte)0xFF;
+		corrupt[6] = (byte)0xFF;
+		corrupt[7] = (byte)0xFF;
+		corrupt[8] = (byte)0xFF;
+		corrupt[9] = (byte)0x0F;
+		System.arraycopy (data, 6, corrupt, 10, data.length - 6);
+		try
+		{
+			BinaryResultFormat.Reader.open(new ByteArrayInputStream(corrupt), corrupt.length, "store", "SELECT *");
+			fail ("Expected IOException");
+		}
+		catch (IOException ex)
+		{
+			// expected
+		}
+	}
+
+	public void testBlocks() throws IOException
+	{
+		// more rows than fit in a block, with URI's repeated across blocks
+		RecordMetaData rmd = new DefaultRecordMetaData("s", "n");
+		Object[][] rows = new Object[10000][];
+		for (int i = 0; i < rows.length; ++i)
+		{
+			rows[i] = new Object[] { RdfNode.createUri("http://example.com/s" + (i % 100)), i };
+		}
+		byte[] data = write(rmd, rows);
+		assertTrue (data.length < rows.length * 4);
+
+		BinaryResultFormat.Reader reader = BinaryResultFormat.Reader.open(new ByteArrayInputStream(data), data.length, "store", "SELECT *");
+		for (Object[] row : rows)
+		{
+			Record r = reader.getNext();
+			assertEquals (row[0], r.get(0));
+			assertEquals (row[1], r.get(1));
+		}
+		assertNull (reader.getNext());
+	}
+}
@@ -0,0 +1,46 @@
+package com.generalbioinformatics.rdf;
+
+import junit.framework.TestCase;
+
+public class TestCachePolicy extends TestCase
+{
+	public void testParse()
+	{
+		assertEquals (CachePolicy.NEVER, CachePolicy.parse("never"));
+		assertEquals (CachePolicy.FOREVER, CachePolicy.parse("# cache: forever"));
+		assertEquals (CachePolicy.createTtl(3600000), CachePolicy.parse("ttl=3600"));
+		assertEquals (CachePolicy.createStaleWhileRevalidate(60000, 86400000), CachePolicy.parse("# cache: ttl=60 stale=86400"));
+
+		for (CachePolicy p : new CachePolicy[] { CachePolicy.NEVER, CachePolicy.FOREVER, CachePolicy.createStaleWhileRevalidate(60000, 1000) })
+		{
+			assertEquals (p, CachePolicy.parse(p.toHint()));
+		}
+
+		try
+		{
+			CachePolicy.parse("ttl=soon");
+			fail ("Expected IllegalArgumentException");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// expected
+		}
+	}
+
+	public void testFromQuery()
+	{
+		assertNull (CachePolicy.fromQuery("SELECT * WHERE { ?s ?p ?o }"));
+		assertEquals (CachePolicy.NEVER, CachePolicy.fromQuery("SELECT * WHERE { ?s ?p ?o }\n  # cache: never"));
+		// invalid hints are ignored
+		assertNull (CachePolicy.fromQuery("# cache: ttl=\nSELECT * WHERE { ?s ?p ?o }"));
+	}
+
+	public void testCheck()
+	{
+		CachePolicy p = CachePolicy.createStaleWhileRevalidate(100, 50);
+		assertEquals (CachePolicy.Freshness.FRESH, p.check(1000, 1100));
+		assertEquals (CachePolicy.Freshness.STALE, p.check(1000, 1150));
+		assertEquals (CachePolicy.Freshness.EXPIRED, p.check(1000, 1151));
+		assertEquals (CachePolicy.Freshness.FRESH, CachePolicy.FOREVER.check(0, Long.MAX_VALUE));
+	}
+}
@@ -0,0 +1,64 @@
+package com.generalbioinformatics.rdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestGraphInvalidation extends TestCase
+{
+	private static Set<String> set(String... values)
+	{
+		return new HashSet<String>(Arrays.asList(values));
+	}
+
+	public void testGetGraphs()
+	{
+		// default graph is all graphs
+		assertNull (GraphInvalidation.getGraphs("SELECT * WHERE { ?s ?p ?o }"));
+		assertNull (GraphInvalidation.getGraphs("SELECT * WHERE { GRAPH <http://example.com/g1> { ?s ?p ?o } }"));
+
+		assertEquals (set("http://example.com/g1"), GraphInvalidation.getGraphs("SELECT *\nfrom <http://example.com/g1>\nWHERE { ?s ?p ?o }"));
+		assertEquals (set("http://example.com/g1", "http://example.com/g2"),
+				GraphInvalidation.getGraphs("SELECT * FROM <http://example.com/g1> WHERE { GRAPH <http://example.com/g2> { ?s ?p ?o } }"));
+		assertEquals (set("http://example.com/g1", "http://example.com/g2"),
+				GraphInvalidation.getGraphs("define input:default-graph-uri <http://example.com/g1> SELECT * FROM NAMED <http://example.com/g2> WHERE { GRAPH ?g { ?s ?p ?o } }"));
+
+		// a variable graph without FROM NAMED, or a prefixed name, may be any graph
+		assertNull (GraphInvalidation.getGraphs("SELECT * FROM <http://example.com/g1> WHERE { GRAPH ?g { ?s ?p ?o } }"));
+		assertNull (GraphInvalidation.getGraphs("PREFIX ex: <http://example.com/> SELECT * FROM ex:g1 WHERE { ?s ?p ?o }"));
+
+		// clauses in comments, literals or after a less-than operator are not used
+		assertNull (GraphInvalidation.getGraphs("SELECT * # FROM <http://example.com/g1>\nWHERE { ?s ?p \"FROM <http://example.com/g1>\" }"));
+		assertNull (GraphInvalidation.getGraphs("SELECT * FROM <http://example.com/g1> WHERE { ?s ?p ?o FILTER (?o < 3) GRAPH ?g { ?s ?p ?x } FILTER (?x > 2) }"));
+
+		// explicit declaration
+		assertEquals (set("http://example.com/g1#a"), GraphInvalidation.getGraphs("# graphs: <http://example.com/g1#a>\nSELECT * WHERE { ?s ?p ?o }"));
+	}
+
+	public void testInvalidate() throws IOException
+	{
+		File dir = File.createTempFile("cache-", "");
+		dir.delete();
+		try
+		{
+			GraphInvalidation a = new GraphInvalidation(dir);
+			GraphInvalidation b = new GraphInvalidation(dir);
+			assertEquals (0, a.getLastModified(null));
+			long before = System.currentTimeMillis();
+			a.invalidate(Collections.singleton("http://example.com/g1"));
+			assertTrue (a.getLastModified(Collections.singleton("http://example.com/g1")) >= before);
+			assertEquals (0, a.getLastModified(Collections.singleton("http://example.com/g2")));
+			// seen by another instance on the same directory
+			assertTrue (b.getLastModified(null) >= before);
+		}
+		finally
+		{
+			org.apache.commons.io.FileUtils.deleteDirectory(dir);
+		}
+	}
+}
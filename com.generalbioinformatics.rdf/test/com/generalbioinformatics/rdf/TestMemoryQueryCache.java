@@ -0,0 +1,131 @@
+package com.generalbioinformatics.rdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.helixsoft.recordstream.AbstractRecordStream;
+import nl.helixsoft.recordstream.DefaultRecord;
+import nl.helixsoft.recordstream.DefaultRecordMetaData;
+import nl.helixsoft.recordstream.Record;
+import nl.helixsoft.recordstream.RecordMetaData;
+import nl.helixsoft.recordstream.RecordStream;
+import nl.helixsoft.recordstream.StreamException;
+
+import com.generalbioinformatics.rdf.stream.RdfNode;
+
+import junit.framework.TestCase;
+
+public class TestMemoryQueryCache extends TestCase
+{
+	/** a stream of rows with a repeated type column */
+	private static RecordStream createStream(final int rows)
+	{
+		final RecordMetaData rmd = new DefaultRecordMetaData("s", "type", "count");
+		return new AbstractRecordStream()
+		{
+			int row = 0;
+
+			@Override
+			public Record getNext()
+			{
+				if (row >= rows) return null;
+				Object[] data = new Object[] {
+						RdfNode.createUri("http://example.com/s" + row),
+						RdfNode.createUri("http://example.com/Type" + (row % 2)),
+						row
+				};
+				row++;
+				return new DefaultRecord(rmd, data);
+			}
+
+			@Override
+			public RecordMetaData getMetaData()
+			{
+				return rmd;
+			}
+		};
+	}
+
+	private static List<String> read(RecordStream rs) throws StreamException
+	{
+		List<String> result = new ArrayList<String>();
+		Record r;
+		while ((r = rs.getNext()) != null)
+		{
+			result.add (r.get(0) + " " + r.get("type") + " " + r.get(2));
+		}
+		return result;
+	}
+
+	public void testCapture() throws StreamException
+	{
+		MemoryQueryCache cache = new MemoryQueryCache(100000, 10000);
+		List<String> expected = read(createStream(20));
+
+		assertNull (cache.get("a"));
+		assertEquals (expected, read(cache.capture("a", createStream(20))));
+		assertEquals (1, cache.getEntryCount());
+		assertTrue (cache.getSize() > 0);
+
+		// each get returns a fresh stream
+		assertEquals (expected, read(cache.get("a")));
+		assertEquals (expected, read(cache.get("a")));
+		assertEquals ("count", cache.get("a").getMetaData().getColumnName(2));
+	}
+
+	public void testTooLarge() throws StreamException
+	{
+		MemoryQueryCache cache = new MemoryQueryCache(100000, 2000);
+		List<String> expected = read(createStream(200));
+		// rows read before the limit was reached are not lost
+		assertEquals (expected, read(cache.capture("a", createStream(200))));
+		assertNull (cache.get("a"));
+		assertEquals (0, cache.getSize());
+	}
+
+	public void testLru() throws StreamException
+	{
+		MemoryQueryCache cache = new MemoryQueryCache(5000, 5000);
+		read (cache.capture("a", createStream(20)));
+		long entrySize = cache.getSize();
+		cache = new MemoryQueryCache(entrySize * 2 + entrySize / 2, entrySize * 2);
+
+		read (cache.capture("a", createStream(20)));
+		read (cache.capture("b", createStream(20)));
+		read (cache.get("a"));
+		read (cache.capture("c", createStream(20)));
+
+		// b was least recently used
+		assertNotNull (cache.get("a"));
+		assertNull (cache.get("b"));
+		assertNotNull (cache.get("c"));
+		assertEquals (2 * entrySize, cache.getSize());
+	}
+
+	/** results are kept in memory in front of the disk cache of a triple store */
+	public void testMemoryTier() throws StreamException, IOException
+	{
+		File dir = File.createTempFile("cache-", "");
+		dir.delete();
+		try
+		{
+			MockTripleStore store = new MockTripleStore();
+			store.setCacheDir(dir);
+			store.getQueryCache().setMemoryLimit(100000, 10000);
+			String query = "SELECT ?s ?n WHERE { ?s ?p ?n }";
+			List<String> first = MockTripleStore.read(store.sparqlSelect(query));
+			assertEquals (first, MockTripleStore.read(store.sparqlSelect(query)));
+			assertEquals (first, MockTripleStore.read(store.sparqlSelect(query)));
+			assertEquals (1, store.queries.get());
+			// the first result was already kept in memory when it was read back from disk
+			assertEquals (2, store.getQueryCache().getMemoryHits());
+			assertEquals (1, store.getQueryCache().getMemoryEntryCount());
+		}
+		finally
+		{
+			org.apache.commons.io.FileUtils.deleteDirectory(dir);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.generalbioinformatics.rdf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import nl.helixsoft.recordstream.StreamException;
+
+import junit.framework.TestCase;
+
+public class TestQueryCache extends TestCase
+{
+	private static final String QUERY = "SELECT ?s WHERE {\r\n  ?s ?p \"a  b\" .   \r\n}\n\n";
+
+	public void testNormalise()
+	{
+		assertEquals ("SELECT ?s WHERE {\n  ?s ?p \"a  b\" .\n}", QueryCache.normalise(QUERY));
+		assertEquals (QueryCache.normalise(QUERY), QueryCache.normalise("\n" + QueryCache.normalise(QUERY) + "  \n"));
+
+		// hints don't change the entry
+		String key = QueryCache.key("store", QueryCache.normalise(QUERY));
+		assertEquals (key, QueryCache.key("store", QueryCache.normalise(QUERY + "\n" + CachePolicy.createTtl(60000).toHint())));
+		assertEquals (key, QueryCache.key("store", QueryCache.normalise(CachePolicy.NEVER.toHint() + "\n" + QUERY)));
+		assertEquals (key, QueryCache.key("store", QueryCache.normalise(GraphInvalidation.HINT_PREFIX + " <http://example.com/g>\n" + QUERY)));
+	}
+
+	public void testKey()
+	{
+		String key = QueryCache.key("store", QueryCache.normalise(QUERY));
+		assertEquals (64, key.length());
+		assertEquals (key, QueryCache.key("store", QueryCache.normalise(QUERY)));
+		assertFalse (key.equals(QueryCache.key("other store", QueryCache.normalise(QUERY))));
+		assertFalse (key.equals(QueryCache.key("store", "SELECT ?s WHERE { ?s ?p ?o }")));
+
+		QueryCache cache = new QueryCache(new File("cache"));
+		File f = cache.getFile(key);
+		assertEquals (key + ".bin", f.getName());
+		assertEquals (key + ".txt.gz", cache.getFile(key, QueryCache.Format.TSV).getName());
+		assertEquals (key.substring(2, 4), f.getParentFile().getName());
+		assertEquals (key.substring(0, 2), f.getParentFile().getParentFile().getName());
+	}
+
+	public void testVerify() throws IOException
+	{
+		File dir = File.createTempFile("cache-", "");
+		dir.delete();
+		QueryCache cache = new QueryCache(dir);
+		cache.setFormat(QueryCache.Format.TSV);
+		String query = QueryCache.normalise(QUERY);
+		String key = QueryCache.key("store", query);
+		File f = cache.getFile(key);
+		f.getParentFile().mkdirs();
+		try
+		{
+			assertNull (cache.open(key, "store", query));
+
+			OutputStream os = new GZIPOutputStream(new FileOutputStream(f));
+			QueryCache.writeHeader(os, "store", query);
+			os.write ("s\nhttp://example.com/a\n".getBytes("UTF-8"));
+			os.close();
+
+			InputStream is = cache.open(key, "store", query);
+			assertNotNull (is);
+			byte[] buf = new byte[100];
+			int len = is.read(buf);
+			is.close();
+			assertEquals ("s\nhttp://example.com/a\n", new String(buf, 0, len, "UTF-8"));
+
+			// an entry for a different query or store with the same key is rejected
+			assertNull (cache.open(key, "store", query + " LIMIT 1"));
+			assertNull (cache.open(key, "other store", query));
+		}
+		finally
+		{
+			f.delete();
+			f.getParentFile().delete();
+			f.getParentFile().getParentFile().delete();
+			dir.delete();
+		}
+	}
+
+	private static File createEntry(QueryCache cache, String query, int size, long lastModified) throws IOException
+	{
+		File f = cache.getFile(QueryCache.key("store", query));
+		f.getParentFile().mkdirs();
+		OutputStream os = new FileOutputStream(f);
+		os.write (new byte[size]);
+		os.close();
+		f.setLastModified(lastModified);
+		return f;
+	}
+
+	public void testEvict() throws IOException
+	{
+		File dir = File.createTempFile("cache-", "");
+		dir.delete();
+		QueryCache cache = new QueryCache(dir);
+		final List<String> events = new ArrayList<String>();
+		cache.addListener(new QueryCacheListener() {
+			@Override public void cacheHit(String query) { events.add ("hit"); }
+			@Override public void cacheMiss(String query) { events.add ("miss"); }
+			@Override public void cacheEvicted(int entries, long bytes) { events.add ("evicted " + entries + " " + bytes); }
+		});
+
+		try
+		{
+			long now = System.currentTimeMillis();
+			long hour = 3600 * 1000L;
+			File expired = createEntry (cache, "q1", 100, now - 48 * hour);
+			File oldest = createEntry (cache, "q2", 100, now - 5 * hour);
+			File older = createEntry (cache, "q3", 100, now - 4 * hour);
+			File recent = createEntry (cache, "q4", 100, now - hour);
+
+			// no limits, nothing happens
+			assertEquals (0, cache.evict());
+
+			cache.setMaxAge(24 * hour);
+			cache.setMaxSize(210);
+			assertEquals (3, cache.evict());
+			assertFalse (expired.exists());
+			assertFalse (oldest.exists());
+			// 200 bytes is within the limit, but one more is removed to get below the low water mark
+			assertFalse (older.exists());
+			assertTrue (recent.exists());
+
+			assertEquals (3, cache.getEvictedEntries());
+			assertEquals (300, cache.getEvictedBytes());
+			assertEquals ("[evicted 3 300]", events.toString());
+
+			// within limits, nothing happens
+			assertEquals (0, cache.evict());
+		}
+		finally
+		{
+			org.apache.commons.io.FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	public void testSingleFlight() throws Exception
+	{
+		final QueryCache cache = new QueryCache(new File("cache"));
+		assertNull (cache.takeOff("a"));
+
+		// other threads asking for the same key wait for the leader
+		final AtomicInteger done = new AtomicInteger();
+		Thread[] followers = new Thread[3];
+		for (int i = 0; i < followers.length; ++i)
+		{
+			followers[i] = new Thread() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						cache.takeOff("a").await(cache.getWriteThroughWait());
+						done.incrementAndGet();
+					}
+					catch (StreamException ex)
+					{
+						// counted as not done
+					}
+				}
+			};
+			followers[i].start();
+		}
+
+		// a different key is independent
+		assertNull (cache.takeOff("b"));
+		cache.land("b", null);
+
+		while (cache.getCoalesced() < followers.length) Thread.sleep(1);
+		assertEquals (0, done.get());
+		cache.land("a", null);
+		for (Thread t : followers) t.join();
+		assertEquals (followers.length, done.get());
+
+		// after landing, the next caller leads again, and failures are passed on to followers
+		assertNull (cache.takeOff("a"));
+		QueryCache.Flight flight = cache.takeOff("a");
+		cache.land("a", new IllegalStateException("failed"));
+		try
+		{
+			flight.await(cache.getWriteThroughWait());
+			fail ("Expected exception");
+		}
+		catch (StreamException ex)
+		{
+			assertEquals ("failed", ex.getCause().getMessage());
+		}
+	}
+
+	/** concurrent callers of a triple store share a single query */
+	public void testStoreSingleFlight() throws InterruptedException, IOException
+	{
+		File dir = File.createTempFile("cache-", "");
+		dir.delete();
+		try
+		{
+			final MockTripleStore store = new MockTripleStore();
+			store.setCacheDir(dir);
+			store.delay = 200;
+			final AtomicInteger ok = new AtomicInteger();
+			Thread[] threads = new Thread[5];
+			for (int i = 0; i < threads.length; ++i)
+			{
+				threads[i] = new Thread()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							if (MockTripleStore.read(store.sparqlSelect("SELECT ?s ?n WHERE { ?s ?p ?n }")).size() == 10) ok.incrementAndGet();
+						}
+						catch (StreamException e)
+						{
+							// counted as not ok
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread t : threads) t.join();
+			assertEquals (threads.length, ok.get());
+			assertEquals (1, store.queries.get());
+		}
+		finally
+		{
+			org.apache.commons.io.FileUtils.deleteDirectory(dir);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.generalbioinformatics.rdf;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestQueryLatencyListener extends TestCase
+{
+	public void testBuckets()
+	{
+		assertEquals (0, LatencyHistogram.bucket(-5));
+		assertEquals (0, LatencyHistogram.bucket(0));
+		assertEquals (1, LatencyHistogram.bucket(1));
+		assertEquals (2, LatencyHistogram.bucket(3));
+		assertEquals (3, LatencyHistogram.bucket(4));
+		assertEquals (63, LatencyHistogram.bucket(Long.MAX_VALUE));
+		assertEquals (7, LatencyHistogram.upperBound(3));
+	}
+
+	public void testHistogram()
+	{
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals (0, h.getPercentile(0.5));
+		for (int i = 0; i < 98; ++i) h.record(5);
+		h.record(100);
+		h.record(1000);
+		assertEquals (100, h.getCount());
+		assertEquals (1000, h.getMax());
+		assertEquals (7, h.getPercentile(0.5));
+		assertEquals (127, h.getPercentile(0.99));
+		assertEquals (1000, h.getPercentile(1.0));
+		assertEquals (15.9, h.getMean(), 0.001);
+	}
+
+	private static QueryEvent event(String query, QueryEvent.CacheStatus status, long totalTime, Throwable error)
+	{
+		return new QueryEvent(QueryEvent.Type.SELECT, query, "store", status, 0, 0, totalTime, 1, -1, error == null, error);
+	}
+
+	public void testListener()
+	{
+		QueryLatencyListener l = QueryLatencyListener.create(2);
+		l.queryCompleted(event("a", QueryEvent.CacheStatus.HIT, 1, null));
+		l.queryCompleted(event("b", QueryEvent.CacheStatus.MISS, 500, null));
+		l.queryCompleted(event("c", QueryEvent.CacheStatus.MISS, 20, null));
+		l.queryCompleted(event("d", QueryEvent.CacheStatus.MISS, 300, null));
+		l.queryCompleted(event("e", QueryEvent.CacheStatus.MISS, 1000, new RuntimeException()));
+
+		assertEquals (4, l.getTotalTime().getCount());
+		assertEquals (1, l.getTotalTime(QueryEvent.CacheStatus.HIT).getCount());
+		assertEquals (3, l.getTimeToFirstRow(QueryEvent.CacheStatus.MISS).getCount());
+		assertEquals (1, l.getErrors());
+
+		List<QueryEvent> slowest = l.getSlowest();
+		assertEquals (2, slowest.size());
+		assertEquals ("b", slowest.get(0).getQuery());
+		assertEquals ("d", slowest.get(1).getQuery());
+	}
+}
@@ -0,0 +1,231 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestCompactUriSet extends TestCase
+{
+	public void testSmall()
+	{
+		CompactUriSet set = new CompactUriSet.Builder()
+			.add("http://identifiers.org/ncbigene/100")
+			.add("http://identifiers.org/ncbigene/1")
+			.add("http://identifiers.org/ncbigene/10")
+			.add("http://identifiers.org/ncbigene/10") // duplicate
+			.add("http://identifiers.org/uniprot/P12345")
+			.add("http://example.com/été")
+			.add(null)
+			.build();
+
+		assertEquals (5, set.size());
+		assertTrue (set.contains("http://identifiers.org/ncbigene/1"));
+		assertTrue (set.contains("http://identifiers.org/ncbigene/10"));
+		assertTrue (set.contains("http://identifiers.org/ncbigene/100"));
+		assertTrue (set.contains("http://identifiers.org/uniprot/P12345"));
+		assertTrue (set.contains("http://example.com/été"));
+
+		assertFalse (set.contains("http://identifiers.org/ncbigene/"));
+		assertFalse (set.contains("http://identifiers.org/ncbigene/1000"));
+		assertFalse (set.contains("http://identifiers.org/ncbigene/2"));
+		assertFalse (set.contains("http://a"));
+		assertFalse (set.contains("http://z"));
+		assertFalse (set.contains(""));
+		assertFalse (set.contains(null));
+	}
+
+	public void testEmpty()
+	{
+		CompactUriSet set = new CompactUriSet.Builder().build();
+		assertEquals (0, set.size());
+		assertFalse (set.contains("http://example.com"));
+	}
+
+	/** compare against a regular HashSet, for a set that spans multiple blocks */
+	public void testRandom()
+	{
+		Random random = new Random(1234);
+		Set<String> expected = new HashSet<String>();
+		CompactUriSet.Builder builder = new CompactUriSet.Builder();
+		for (int i = 0; i < 5000; ++i)
+		{
+			String uri = "http://identifiers.org/" + (random.nextBoolean() ? "ncbigene/" : "uniprot/") + random.nextInt(20000);
+			expected.add (uri);
+			builder.add (uri);
+		}
+		CompactUriSet set = builder.build();
+
+		assertEquals (expected.size(), set.size());
+		for (int i = 0; i < 20000; ++i)
+		{
+			String uri = "http://identifiers.org/ncbigene/" + i;
+			assertEquals (uri, expected.contains(uri), set.contains(uri));
+			uri = "http://identifiers.org/uniprot/" + i;
+			assertEquals (uri, expected.contains(uri), set.contains(uri));
+		}
+	}
+
+	public void testFilterSetStream() throws IOException, ParseException
+	{
+		String filterDoc =
+				"<ra> <pa> <rb> .\n" +
+				"<rc> <pa> <rb> .\n";
+		String doc =
+				"<ra> <pb> \"x\" .\n" +
+				"<rb> <pb> \"y\" .\n" +
+				"<rc> <pb> \"z\" .\n";
+
+		CompactUriSet set = FilterSetReader.createSubjectSet(new NtStream(new ByteArrayInputStream(filterDoc.getBytes()))).getUriSet();
+		TripleStream ts = FilterSetStream.createSubjectFilter(new NtStream(new ByteArrayInputStream(doc.getBytes())), set);
+
+		assertEquals ("ra", ts.getNext().getSubjectUri());
+		assertEquals ("rc", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+	}
+
+	public void testDiskUriSet() throws IOException
+	{
+		Random random = new Random(1234);
+		Set<String> expected = new HashSet<String>();
+		CompactUriSet.Builder builder = new CompactUriSet.Builder();
+		for (int i = 0; i < 5000; ++i)
+		{
+			String uri = "http://identifiers.org/ncbigene/" + random.nextInt(20000);
+			expected.add (uri);
+			builder.add (uri);
+		}
+		
+		File f = File.createTempFile("uriset-", ".bin");
+		try
+		{
+			builder.buildOnDisk(f).close();
+			DiskUriSet set = DiskUriSet.open(f);
+			assertEquals (expected.size(), set.size());
+			for (int i = 0; i < 20000; ++i)
+			{
+				String uri = "http://identifiers.org/ncbigene/" + i;
+				assertEquals (uri, expected.contains(uri), set.contains(uri));
+			}
+			
+			String prev = null;
+			int count = 0;
+			for (String uri : set)
+			{
+				assertTrue (expected.contains(uri));
+				assertTrue (prev == null || prev.compareTo(uri) < 0);
+				prev = uri;
+				count++;
+			}
+			assertEquals (expected.size(), count);
+			set.close();
+		}
+		finally
+		{
+			f.delete();
+		}
+	}
+	
+	public void testSpill() throws IOException
+	{
+		File dir = File.createTempFile("uriset-", "");
+		dir.delete();
+		dir.mkdir();
+		try
+		{
+			Random random = new Random(42);
+			Set<String> expected = new HashSet<String>();
+			CompactUriSet.Builder builder = new CompactUriSet.Builder().setSpill(dir, 20000);
+			CompactUriSet.Builder memoryBuilder = new CompactUriSet.Builder().setSpill(dir, 20000);
+			for (int i = 0; i < 20000; ++i)
+			{
+				String uri = "http://identifiers.org/ncbigene/" + random.nextInt(15000);
+				expected.add (uri);
+				builder.add (uri);
+				memoryBuilder.add (uri);
+			}
+			assertTrue (builder.getSpillCount() > 1);
+
+			File f = new File (dir, "set.bin");
+			DiskUriSet set = builder.buildOnDisk(f);
+			assertEquals (expected.size(), set.size());
+			String prev = null;
+			for (String uri : set)
+			{
+				assertTrue (expected.contains(uri));
+				assertTrue (prev == null || prev.compareTo(uri) < 0);
+				prev = uri;
+			}
+			set.close();
+
+			CompactUriSet inMemory = memoryBuilder.build();
+			assertEquals (expected.size(), inMemory.size());
+			for (String uri : expected) assertTrue (inMemory.contains(uri));
+
+			// temporary files are removed
+			assertEquals (Arrays.asList("set.bin"), Arrays.asList(dir.list()));
+		}
+		finally
+		{
+			for (File f : dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	public void testBloomFilter() throws IOException
+	{
+		UriBloomFilter bloom = new UriBloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; ++i)
+		{
+			bloom.add ("http://identifiers.org/ncbigene/" + i);
+		}
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		bloom.write(baos);
+		UriBloomFilter copy = UriBloomFilter.read(new ByteArrayInputStream(baos.toByteArray()));
+
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; ++i)
+		{
+			assertTrue (copy.contains("http://identifiers.org/ncbigene/" + i)); // no false negatives
+			if (copy.contains("http://identifiers.org/uniprot/" + i)) falsePositives++;
+		}
+		assertTrue ("Too many false positives: " + falsePositives, falsePositives < 200);
+	}
+
+	public void testBloomFilterStream() throws IOException, ParseException
+	{
+		String filterDoc =
+				"<ra> <pa> <rb> .\n" +
+				"<rc> <pa> <rb> .\n";
+		String doc =
+				"<ra> <pb> \"x\" .\n" +
+				"<rb> <pb> \"y\" .\n" +
+				"<rc> <pb> \"z\" .\n";
+
+		File f = File.createTempFile("uriset-", ".bin");
+		try
+		{
+			UriBloomFilter bloom = FilterSetReader.createSubjectSet(new NtStream(new ByteArrayInputStream(filterDoc.getBytes()))).getBloomFilter(0.01, f);
+			DiskUriSet exact = DiskUriSet.open(f);
+			TripleStream ts = FilterSetStream.createSubjectFilter(new NtStream(new ByteArrayInputStream(doc.getBytes())), bloom, exact);
+
+			assertEquals ("ra", ts.getNext().getSubjectUri());
+			assertEquals ("rc", ts.getNext().getSubjectUri());
+			assertNull (ts.getNext());
+			exact.close();
+		}
+		finally
+		{
+			f.delete();
+		}
+	}
+}
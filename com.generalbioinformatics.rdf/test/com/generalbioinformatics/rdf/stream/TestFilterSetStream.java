@@ -0,0 +1,105 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestFilterSetStream extends TestCase
+{
+	private static final String DOC =
+			"<ra> <pa> <rb> .\n" +
+			"<rb> <pb> <rc> .\n" +
+			"<rc> <pa> \"ra\" .\n" +
+			"<rd> <pc> <rd> .\n";
+
+	private static final Set<String> AB = new HashSet<String>(Arrays.asList("ra", "rb"));
+	private static final Set<String> PA = new HashSet<String>(Arrays.asList("pa"));
+
+	private static TripleStream parse() throws IOException
+	{
+		return new NtStream(new ByteArrayInputStream(DOC.getBytes()));
+	}
+
+	public void testFilterFields() throws IOException, ParseException
+	{
+		UriSet ab = new HashUriSet(AB);
+		UriSet pa = new HashUriSet(PA);
+
+		TripleStream ts = FilterSetStream.createObjectFilter(parse(), ab);
+		assertEquals ("ra", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext()); // literal "ra" does not match
+
+		ts = FilterSetStream.createPredicateFilter(parse(), pa);
+		assertEquals ("ra", ts.getNext().getSubjectUri());
+		assertEquals ("rc", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+
+		ts = FilterSetStream.createAnyFilter(parse(), ab);
+		assertEquals ("ra", ts.getNext().getSubjectUri());
+		assertEquals ("rb", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+
+		ts = FilterSetStream.createExcludeFilter(parse(), FilterSetStream.Field.OBJECT, ab);
+		assertEquals ("rb", ts.getNext().getSubjectUri());
+		assertEquals ("rc", ts.getNext().getSubjectUri()); // literal is never in the set
+		assertEquals ("rd", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+	}
+
+	public void testBuilder() throws IOException, ParseException
+	{
+		TripleStream ts = FilterSetStream.builder(parse())
+				.in(FilterSetStream.Field.PREDICATE, new HashUriSet(PA))
+				.notIn(FilterSetStream.Field.SUBJECT, new HashUriSet(AB))
+				.build();
+		assertEquals ("rc", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+
+		// no conditions passes everything
+		ts = FilterSetStream.builder(parse()).build();
+		int count = 0;
+		while (ts.getNext() != null) count++;
+		assertEquals (4, count);
+	}
+
+	/** a plain Set can be passed for every field, like for createSubjectFilter */
+	public void testStringSets() throws IOException, ParseException
+	{
+		TripleStream ts = FilterSetStream.createSubjectFilter(parse(), AB);
+		assertEquals ("ra", ts.getNext().getSubjectUri());
+		assertEquals ("rb", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+
+		ts = FilterSetStream.createPredicateFilter(parse(), PA);
+		assertEquals ("ra", ts.getNext().getSubjectUri());
+		assertEquals ("rc", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+
+		ts = FilterSetStream.createObjectFilter(parse(), AB);
+		assertEquals ("ra", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+
+		ts = FilterSetStream.createAnyFilter(parse(), AB);
+		assertEquals ("ra", ts.getNext().getSubjectUri());
+		assertEquals ("rb", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+
+		ts = FilterSetStream.createExcludeFilter(parse(), FilterSetStream.Field.SUBJECT, AB);
+		assertEquals ("rc", ts.getNext().getSubjectUri());
+		assertEquals ("rd", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+
+		ts = FilterSetStream.builder(parse())
+				.in(FilterSetStream.Field.PREDICATE, PA)
+				.notIn(FilterSetStream.Field.SUBJECT, AB)
+				.build();
+		assertEquals ("rc", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+	}
+}
@@ -1,7 +1,11 @@
 package com.generalbioinformatics.rdf.stream;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import com.generalbioinformatics.rdf.stream.InferenceFunctions.ReplacePrefixes;
 import com.generalbioinformatics.rdf.stream.InferenceFunctions.UriReplace;
 import com.generalbioinformatics.rdf.stream.InferenceFunctions.WithoutUriPatterns;
 
@@ -37,4 +41,100 @@ public class TestInferenceFunctions extends TestCase
 		WithoutUriPatterns pat = new WithoutUriPatterns(Arrays.asList(new String[] {"http://purl.uniprot.org/(position|range)"}));
 		assertFalse (pat.accept(st));
 	}
+	
+	public void testReplacePrefixes()
+	{
+		Map<String, String> prefixes = new HashMap<String, String>();
+		prefixes.put ("http://purl.uniprot.org/", "http://example.com/");
+		prefixes.put ("http://purl.uniprot.org/uniprot/", "http://identifiers.org/uniprot/");
+		ReplacePrefixes repl = new ReplacePrefixes(prefixes);
+		
+		Statement st = new Statement ();
+		st.setSubjectUri("http://purl.uniprot.org/uniprot/Q704S8");	
+		st.setPredicateUri("http://purl.uniprot.org/core/organism");
+		st.setObjectUri("http://identifiers.org/taxonomy/10116");
+		repl.apply(st);
+
+		assertEquals("http://identifiers.org/uniprot/Q704S8", st.getSubjectUri()); // longest prefix wins
+		assertEquals("http://example.com/core/organism", st.getPredicateUri());
+		assertEquals("http://identifiers.org/taxonomy/10116", st.getObjectUri());
+		// counted once for each prefix that was replaced
+		assertEquals(2, repl.getCount());
+
+		st = new Statement ();
+		st.setSubjectUri("http://purl.uniprot.org/uniprot/Q704S8");
+		st.setPredicateUri("http://example.com/p");
+		st.setObjectUri("http://purl.uniprot.org/uniprot/P12345");
+		repl.apply(st);
+		assertEquals("http://identifiers.org/uniprot/P12345", st.getObjectUri());
+		assertEquals(3, repl.getCount());
+	}
+	
+	public void testPrefixTrie()
+	{
+		PrefixTrie<Integer> trie = new PrefixTrie<Integer>();
+		trie.put ("ab", 2);
+		trie.put ("abcd", 4);
+		trie.put ("b", 1);
+		assertEquals (3, trie.size());
+		assertNull (trie.findLongestPrefix("a"));
+		assertEquals ("ab", trie.findLongestPrefix("abc").getKey());
+		assertEquals (Integer.valueOf(4), trie.findLongestPrefix("abcde").getValue());
+		assertEquals (Integer.valueOf(1), trie.get("b"));
+		assertNull (trie.get("abc"));
+	}
+	
+	public void testUriPatternSet()
+	{
+		UriPatternSet set = new UriPatternSet(Arrays.asList(new String[] {
+				"http://purl.uniprot.org/(position|range)",
+				"identifiers.org/taxonomy/",
+				"[0-9]+$",
+				"^https?://example\\.(com|org)/",
+				"a|b",
+		}));
+		
+		assertEquals (0, set.indexOf("http://purl.uniprot.org/position/123tt1"));
+		assertEquals (1, set.indexOf("http://identifiers.org/taxonomy/10116"));
+		assertEquals (2, set.indexOf("http://purl.uniprot.org/uniprot/10116"));
+		assertEquals (3, set.indexOf("https://example.org/x"));
+		assertEquals (4, set.indexOf("http://example.net/x"));
+		assertEquals (-1, set.indexOf("http://xyz.net/"));
+		assertEquals (-1, set.indexOf(null));
+		assertEquals (1, set.getHitCount(2));
+		
+		// literal text must be found anywhere, not just at the start
+		assertEquals (1, set.indexOf("urn:x:identifiers.org/taxonomy/x"));
+	}
+	
+	public void testRequiredLiteral()
+	{
+		assertEquals ("http://purl", UriPatternSet.RequiredLiteral.of("http://purl.uniprot.org/(position|range)").text);
+		assertEquals ("http://purl.uniprot.org/", UriPatternSet.RequiredLiteral.of("http://purl\\.uniprot\\.org/(position|range)").text);
+		assertTrue (UriPatternSet.RequiredLiteral.of("http://purl\\.uniprot\\.org/").pure);
+		assertEquals ("http://example", UriPatternSet.RequiredLiteral.of("http://examples?").text);
+		assertNull (UriPatternSet.RequiredLiteral.of("a|b"));
+		assertNull (UriPatternSet.RequiredLiteral.of("(?i)abc"));
+		assertEquals ("abc", UriPatternSet.RequiredLiteral.of("[a-z]*abc\\d+").text);
+	}
+	
+	public void testMultiUriReplace()
+	{
+		Map<String, String> replacements = new LinkedHashMap<String, String>();
+		replacements.put ("http://purl.uniprot.org/(uniprot/[A-Z0-9])", "http://identifiers.org/$1");
+		replacements.put ("http://purl.uniprot.org/taxonomy/", "http://identifiers.org/taxonomy/");
+		UriReplace repl = new UriReplace(replacements);
+
+		Statement st = new Statement ();
+		st.setSubjectUri("http://purl.uniprot.org/uniprot/Q704S8");	
+		st.setPredicateUri("http://purl.uniprot.org/uniprot/organism");
+		st.setObjectUri("http://purl.uniprot.org/taxonomy/10116");
+		repl.apply(st);
+		
+		assertEquals("http://identifiers.org/uniprot/Q704S8", st.getSubjectUri());
+		assertEquals("http://purl.uniprot.org/uniprot/organism", st.getPredicateUri());
+		assertEquals("http://identifiers.org/taxonomy/10116", st.getObjectUri());
+		assertEquals(1, repl.getPatterns().getHitCount(0));
+		assertEquals(1, repl.getPatterns().getHitCount(1));
+	}
 }
@@ -0,0 +1,74 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestMultiSelectStream extends TestCase
+{
+	private static final String DOC =
+			"<ra> <type> <Gene> .\n" +
+			"<ra> <label> \"gene a\" .\n" +
+			"<rb> <type> <Protein> .\n" +
+			"<rb> <label> \"protein b\" .\n" +
+			"<rb> <encodedBy> <ra> .\n";
+
+	private static TripleStream open() throws IOException
+	{
+		return new NtStream(new ByteArrayInputStream(DOC.getBytes()));
+	}
+
+	public void testSelectStreamLiteral() throws IOException, ParseException
+	{
+		// literal objects used to cause a NullPointerException
+		TripleStream ts = new SelectStream(open(), null, null, "ra");
+		assertEquals ("rb", ts.getNext().getSubjectUri());
+		assertNull (ts.getNext());
+	}
+
+	public void testFirstMatch() throws IOException, ParseException
+	{
+		ByteArrayOutputStream types = new ByteArrayOutputStream();
+		ByteArrayOutputStream rest = new ByteArrayOutputStream();
+
+		MultiSelectStream mss = new MultiSelectStream(open(), MultiSelectStream.Mode.FIRST_MATCH);
+		assertEquals (0, mss.addPattern(null, "type", null, types));
+		assertEquals (1, mss.addPattern("rb", null, null, rest));
+		assertEquals (2, mss.addPattern(null, "encodedBy", "ra"));
+
+		assertEquals (4, mss.run());
+		assertEquals (2, mss.getMatchCount(0));
+		assertEquals (2, mss.getMatchCount(1));
+		assertEquals (0, mss.getMatchCount(2)); // shadowed by pattern 1
+
+		assertEquals ("<ra> <type> <Gene> .\n<rb> <type> <Protein> .\n", types.toString());
+		assertEquals ("<rb> <label> \"protein b\" .\n<rb> <encodedBy> <ra> .\n", rest.toString());
+	}
+
+	public void testAllMatches() throws IOException, ParseException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		MultiSelectStream mss = new MultiSelectStream(open(), MultiSelectStream.Mode.ALL_MATCHES);
+		mss.addPattern("rb", null, null, out);
+		mss.addPattern(null, "encodedBy", "ra", out);
+		mss.addPattern("ra", "label", null);
+
+		assertEquals ("ra", mss.getNext().getSubjectUri());
+		assertTrue (Arrays.equals(new int[] { 2 }, mss.getLastMatches()));
+		assertEquals ("rb", mss.getNext().getSubjectUri());
+		assertEquals ("rb", mss.getNext().getSubjectUri());
+		assertEquals ("encodedBy", mss.getNext().getPredicateUri());
+		assertTrue (Arrays.equals(new int[] { 0, 1 }, mss.getLastMatches()));
+		assertNull (mss.getNext());
+		assertEquals (0, mss.getLastMatches().length);
+
+		// shared sink gets each triple only once
+		assertEquals (3, out.toString().split("\n").length);
+	}
+}
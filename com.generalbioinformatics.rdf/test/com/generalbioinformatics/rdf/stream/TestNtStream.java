@@ -1,8 +1,11 @@
 package com.generalbioinformatics.rdf.stream;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import com.generalbioinformatics.rdf.stream.NtStream;
 import com.generalbioinformatics.rdf.stream.Statement;
@@ -189,4 +192,59 @@ public class TestNtStream extends TestCase
 		
 	}
 
+	public void testPosition() throws IOException, ParseException
+	{
+		String doc = 
+				"#Comment line\n" +
+				"<ra> <pa> \"\u00DF\" .\n" + // two-byte character in UTF-8
+				"<rb> <pb> <rc> .\n" +
+				"";
+		NtStream sns = new NtStream(new ByteArrayInputStream(doc.getBytes("UTF-8")));
+		assertEquals (0, sns.getPosition().getByteOffset());
+		
+		sns.getNext();
+		assertEquals (14 + 17, sns.getPosition().getByteOffset());
+		assertEquals (2, sns.getPosition().getLine());
+
+		sns.getNext();
+		assertEquals (doc.getBytes("UTF-8").length, sns.getPosition().getByteOffset());
+		assertEquals (3, sns.getPosition().getLine());
+	}
+
+	public void testResume() throws IOException, ParseException
+	{
+		File f = File.createTempFile("resume-", ".nt");
+		File checkpoint = new File (f.getPath() + ".checkpoint");
+		try
+		{
+			OutputStream os = new FileOutputStream(f);
+			for (int i = 0; i < 10; ++i)
+			{
+				os.write (("<r" + i + "> <p\u00E9> \"\u00FC" + i + "\" .\n").getBytes("UTF-8"));
+			}
+			os.close();
+
+			// read the first five triples, with a checkpoint after every two triples.
+			CheckpointStream cs = new CheckpointStream(NtStream.resume(f, new NtStream.Position(0, 0)), checkpoint, 2);
+			for (int i = 0; i < 5; ++i) 
+			{
+				cs.getNext();
+			}
+			NtStream.Position pos = CheckpointStream.readCheckpoint(checkpoint);
+			assertEquals (4, pos.getLine());
+			
+			NtStream sns = NtStream.resume(f, pos);
+			Statement st = sns.getNext();
+			assertEquals ("r4", st.getSubjectUri());
+			assertEquals ("p\u00E9", st.getPredicateUri());
+			assertEquals ("\u00FC4", st.getLiteral());
+			assertEquals (5, sns.getPosition().getLine());
+		}
+		finally
+		{
+			f.delete();
+			checkpoint.delete();
+		}
+	}
+
 }
@@ -0,0 +1,96 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestRuleInference extends TestCase
+{
+	private static final String SCHEMA =
+			"<http://example.com/Protein> <http://www.w3.org/2000/01/rdf-schema#subClassOf> <http://example.com/Molecule> .\n" +
+			"<http://example.com/Molecule> <http://www.w3.org/2000/01/rdf-schema#subClassOf> <http://example.com/Entity> .\n" +
+			"<http://example.com/Entity> <http://www.w3.org/2000/01/rdf-schema#subClassOf> <http://example.com/Molecule> .\n" + // cycle
+			"<http://example.com/encodedBy> <http://www.w3.org/2000/01/rdf-schema#subPropertyOf> <http://example.com/relatedTo> .\n" +
+			"<http://example.com/P1> <http://www.w3.org/2002/07/owl#sameAs> <http://example.com/A1> .\n" +
+			"<http://example.com/A1> <http://www.w3.org/2002/07/owl#sameAs> <http://example.com/B1> .\n" +
+			"<http://example.com/x> <http://example.com/label> \"ignored\" .\n";
+
+	private static final String DATA =
+			"<http://example.com/P1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://example.com/Protein> .\n" +
+			"<http://example.com/P1> <http://example.com/encodedBy> <http://example.com/G1> .\n" +
+			"<http://example.com/B1> <http://example.com/label> \"p1\"@en .\n";
+
+	private static TripleStream open(String data) throws IOException
+	{
+		return new NtStream(new ByteArrayInputStream(data.getBytes()));
+	}
+
+	private static List<String> lines(ByteArrayOutputStream baos)
+	{
+		List<String> result = Arrays.asList(baos.toString().split("\n"));
+		Collections.sort(result);
+		return result;
+	}
+
+	public void testClosure() throws IOException, ParseException
+	{
+		RuleInference inference = new RuleInference();
+		inference.setThreads(3);
+		assertEquals (6, inference.addSchema(open(SCHEMA)));
+
+		List<String> supers = inference.getSuperClasses("http://example.com/Protein");
+		Collections.sort(supers);
+		assertEquals ("[http://example.com/Entity, http://example.com/Molecule]", supers.toString());
+		// no class is its own superclass, even in a cycle
+		assertEquals ("[http://example.com/Entity]", inference.getSuperClasses("http://example.com/Molecule").toString());
+		assertEquals ("[http://example.com/relatedTo]", inference.getSuperProperties("http://example.com/encodedBy").toString());
+		assertEquals (0, inference.getSuperClasses("http://example.com/Unknown").size());
+
+		assertEquals ("http://example.com/A1", inference.getCanonical("http://example.com/P1"));
+		assertEquals ("http://example.com/A1", inference.getCanonical("http://example.com/B1"));
+		assertEquals ("http://example.com/G1", inference.getCanonical("http://example.com/G1"));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		assertEquals (1, inference.writeSchemaClosure(new NtWriter(baos)));
+		assertEquals ("<http://example.com/Protein> <http://www.w3.org/2000/01/rdf-schema#subClassOf> <http://example.com/Entity> .\n", baos.toString());
+	}
+
+	public void testInfer() throws IOException, ParseException
+	{
+		RuleInference inference = new RuleInference();
+		inference.addSchema(open(SCHEMA));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		assertEquals (3, inference.infer(open(DATA), new NtWriter(baos)));
+		assertEquals (Arrays.asList(
+				"<http://example.com/A1> <http://example.com/encodedBy> <http://example.com/G1> .",
+				"<http://example.com/A1> <http://example.com/label> \"p1\"@en .",
+				"<http://example.com/A1> <http://example.com/relatedTo> <http://example.com/G1> .",
+				"<http://example.com/A1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://example.com/Entity> .",
+				"<http://example.com/A1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://example.com/Molecule> .",
+				"<http://example.com/A1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://example.com/Protein> ."
+				), lines(baos));
+	}
+
+	public void testTypeSubProperty() throws IOException, ParseException
+	{
+		RuleInference inference = new RuleInference();
+		inference.addSubPropertyOf("http://example.com/myType", "http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+		inference.addSubClassOf("http://example.com/A", "http://example.com/B");
+		inference.setIncludeAsserted(false);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		inference.infer(open("<http://example.com/x> <http://example.com/myType> <http://example.com/A> .\n"), new NtWriter(baos));
+		assertEquals (Arrays.asList(
+				"<http://example.com/x> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://example.com/A> .",
+				"<http://example.com/x> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://example.com/B> ."
+				), lines(baos));
+	}
+}
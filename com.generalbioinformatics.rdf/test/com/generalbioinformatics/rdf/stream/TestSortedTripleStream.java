@@ -0,0 +1,146 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestSortedTripleStream extends TestCase
+{
+	private static TripleStream parse(String doc) throws IOException
+	{
+		return new NtStream(new ByteArrayInputStream(doc.getBytes("UTF-8")));
+	}
+
+	private static List<String> readAll(TripleStream ts) throws IOException, ParseException
+	{
+		List<String> result = new ArrayList<String>();
+		Statement st;
+		while ((st = ts.getNext()) != null)
+		{
+			result.add (st.toString());
+		}
+		return result;
+	}
+
+	public void testOrders() throws IOException, ParseException
+	{
+		String doc =
+				"<http://example.com/b> <http://example.com/p> \"x\" .\n" +
+				"<http://example.com/a> <http://example.com/q> <http://example.com/c> .\n" +
+				"_:b1 <http://example.com/p> <http://example.com/a> .\n" +
+				"<http://example.com/a> <http://example.com/p> \"y\"@en .\n";
+
+		List<String> spo = readAll(new SortedTripleStream(parse(doc), SortedTripleStream.Order.SPO));
+		assertEquals ("<http://example.com/a> <http://example.com/p> \"y\"@en .\n", spo.get(0));
+		assertEquals ("<http://example.com/a> <http://example.com/q> <http://example.com/c> .\n", spo.get(1));
+		assertEquals ("<http://example.com/b> <http://example.com/p> \"x\" .\n", spo.get(2));
+		assertEquals ("_:b1 <http://example.com/p> <http://example.com/a> .\n", spo.get(3));
+
+		List<String> pos = readAll(new SortedTripleStream(parse(doc), SortedTripleStream.Order.POS));
+		assertEquals ("_:b1 <http://example.com/p> <http://example.com/a> .\n", pos.get(0));
+		assertEquals ("<http://example.com/b> <http://example.com/p> \"x\" .\n", pos.get(1));
+
+		List<String> osp = readAll(new SortedTripleStream(parse(doc), SortedTripleStream.Order.OSP));
+		assertEquals ("_:b1 <http://example.com/p> <http://example.com/a> .\n", osp.get(0));
+		assertEquals ("<http://example.com/a> <http://example.com/p> \"y\"@en .\n", osp.get(3));
+	}
+
+	/** force spilling to disk, with more runs than can be merged at once */
+	public void testExternal() throws IOException, ParseException
+	{
+		Random random = new Random(42);
+		StringBuilder doc = new StringBuilder();
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 5000; ++i)
+		{
+			int s = random.nextInt(2000);
+			String line;
+			switch (i % 3)
+			{
+			case 0:
+				line = "<http://example.com/s" + s + "> <http://example.com/p> \"value \\\"" + s + "\\\" été\"^^<http://www.w3.org/2001/XMLSchema#string> .\n";
+				break;
+			case 1:
+				line = "_:b" + s + " <http://example.com/q> _:c" + s + " .\n";
+				break;
+			default:
+				line = "<http://example.com/s" + s + "> <http://example.com/r> <http://example.com/o" + (s % 7) + "> .\n";
+			}
+			doc.append (line);
+		}
+		String text = doc.toString();
+		for (String line : readAll(parse(text)))
+		{
+			if (!expected.contains(line)) expected.add (line);
+		}
+
+		SortedTripleStream sorted = new SortedTripleStream(parse(text), SortedTripleStream.Order.SPO);
+		sorted.setMaxInMemory(50);
+		sorted.setDeduplicate(true);
+		List<String> result = readAll(sorted);
+		assertEquals (100, sorted.getRunCount());
+
+		assertEquals (expected.size(), result.size());
+		List<String> copy = new ArrayList<String>(result);
+		Collections.sort (copy);
+		Collections.sort (expected);
+		assertEquals (expected, copy);
+
+		// result must be in order
+		SortedTripleStream check = new SortedTripleStream(parse(text), SortedTripleStream.Order.SPO);
+		check.setDeduplicate(true);
+		assertEquals (readAll(check), result);
+	}
+
+	/** statements with literal values that are not Strings */
+	private static TripleStream literals()
+	{
+		final List<Statement> statements = new ArrayList<Statement>();
+		Statement st = new Statement();
+		st.setSubjectUri("http://example.com/a");
+		st.setPredicateUri("http://example.com/p");
+		st.setLiteral(42);
+		st.setLiteralType("http://www.w3.org/2001/XMLSchema#int");
+		statements.add (st);
+		st = new Statement();
+		st.setSubjectUri("http://example.com/b");
+		st.setPredicateUri("http://example.com/p");
+		st.setLiteral(null);
+		statements.add (st);
+		return new AbstractTripleStream()
+		{
+			int pos = 0;
+
+			@Override
+			public Statement getNext()
+			{
+				return pos < statements.size() ? statements.get(pos++) : null;
+			}
+		};
+	}
+
+	/** literals come back the same, whether or not they were written to disk */
+	public void testLiteralTypes() throws IOException, ParseException
+	{
+		for (int maxInMemory : new int[] { 100, 1 })
+		{
+			SortedTripleStream sorted = new SortedTripleStream(literals(), SortedTripleStream.Order.SPO);
+			sorted.setMaxInMemory(maxInMemory);
+			Statement st = sorted.getNext();
+			assertEquals ("42", st.getLiteral());
+			assertEquals ("http://www.w3.org/2001/XMLSchema#int", st.getLiteralType());
+			st = sorted.getNext();
+			assertTrue (st.isLiteral());
+			assertNull (st.getLiteral());
+			assertNull (sorted.getNext());
+			assertEquals (maxInMemory == 1 ? 2 : 0, sorted.getRunCount());
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestSubjectGroupStream extends TestCase
+{
+	private static final String CLUSTERED =
+			"<http://example.com/a> <http://example.com/p> \"1\" .\n" +
+			"<http://example.com/a> <http://example.com/q> \"2\" .\n" +
+			"_:a <http://example.com/p> \"3\" .\n" +
+			"<http://example.com/b> <http://example.com/p> <http://example.com/a> .\n";
+
+	private static final String UNORDERED =
+			"<http://example.com/b> <http://example.com/p> \"1\" .\n" +
+			"<http://example.com/a> <http://example.com/p> \"2\" .\n" +
+			"<http://example.com/b> <http://example.com/q> \"3\" .\n" +
+			"<http://example.com/c> <http://example.com/p> \"4\" .\n" +
+			"<http://example.com/a> <http://example.com/q> \"5\" .\n";
+
+	private static TripleStream open(String data) throws IOException
+	{
+		return new NtStream(new ByteArrayInputStream(data.getBytes()));
+	}
+
+	public void testClustered() throws IOException, ParseException
+	{
+		SubjectGroupStream groups = new SubjectGroupStream(open(CLUSTERED));
+
+		List<Statement> group = groups.getNext();
+		assertEquals (2, group.size());
+		assertEquals ("http://example.com/a", groups.getSubject());
+		assertFalse (groups.isSubjectAnon());
+
+		// blank node labels keep their _: prefix
+		group = groups.getNext();
+		assertEquals (1, group.size());
+		assertEquals ("_:a", groups.getSubject());
+		assertTrue (groups.isSubjectAnon());
+
+		group = groups.getNext();
+		assertEquals (1, group.size());
+		assertEquals ("http://example.com/b", groups.getSubject());
+
+		assertNull (groups.getNext());
+		assertNull (groups.getSubject());
+	}
+
+	public void testSorted() throws IOException, ParseException
+	{
+		SubjectGroupStream groups = SubjectGroupStream.createSorted(open(UNORDERED), 2, null);
+		List<String> subjects = new ArrayList<String>();
+		List<Integer> sizes = new ArrayList<Integer>();
+		List<Statement> group;
+		while ((group = groups.getNext()) != null)
+		{
+			subjects.add (groups.getSubject());
+			sizes.add (group.size());
+			for (Statement st : group) assertEquals (groups.getSubject(), st.getSubjectUri());
+		}
+		groups.close();
+
+		assertEquals ("[http://example.com/a, http://example.com/b, http://example.com/c]", subjects.toString());
+		assertEquals ("[2, 2, 1]", sizes.toString());
+	}
+
+	public void testIterator() throws IOException
+	{
+		List<List<Statement>> groups = new ArrayList<List<Statement>>();
+		for (List<Statement> group : new SubjectGroupStream(open(CLUSTERED)))
+		{
+			groups.add (group);
+		}
+		assertEquals (3, groups.size());
+		// groups returned by the iterator are not reused
+		assertEquals (2, groups.get(0).size());
+		assertEquals ("http://example.com/a", groups.get(0).get(1).getSubjectUri());
+	}
+}
@@ -0,0 +1,158 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestSubjectPartitioner extends TestCase
+{
+	private static String createData(int subjects, int triplesPerSubject)
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int j = 0; j < triplesPerSubject; ++j)
+		{
+			for (int i = 0; i < subjects; ++i)
+			{
+				builder.append ("<http://example.com/s" + i + "> <http://example.com/p" + j + "> \"" + i + "-" + j + "\" .\n");
+			}
+		}
+		return builder.toString();
+	}
+
+	/** check that each subject occurs in only one partition, and return the number of triples found */
+	private static int checkPartitions(List<String> partitions, int numPartitions) throws IOException, ParseException
+	{
+		Map<String, Integer> partitionOfSubject = new HashMap<String, Integer>();
+		int total = 0;
+		for (int i = 0; i < partitions.size(); ++i)
+		{
+			NtStream ts = new NtStream(new ByteArrayInputStream(partitions.get(i).getBytes()));
+			Statement st;
+			while ((st = ts.getNext()) != null)
+			{
+				Integer prev = partitionOfSubject.put(st.getSubjectUri(), i);
+				assertTrue (prev == null || prev == i);
+				assertEquals (i, SubjectPartitioner.partitionOf(st.getSubjectUri(), numPartitions));
+				total++;
+			}
+		}
+		return total;
+	}
+
+	public void testPartition() throws IOException, ParseException
+	{
+		List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>();
+		for (int i = 0; i < 4; ++i) outputs.add (new ByteArrayOutputStream());
+
+		SubjectPartitioner partitioner = new SubjectPartitioner(outputs);
+		long count = partitioner.addAll(new NtStream(new ByteArrayInputStream(createData(100, 3).getBytes())));
+		partitioner.close();
+		assertEquals (300, count);
+
+		List<String> partitions = new ArrayList<String>();
+		long sum = 0;
+		for (int i = 0; i < 4; ++i)
+		{
+			partitions.add (outputs.get(i).toString());
+			sum += partitioner.getCount(i);
+			assertTrue (partitioner.getCount(i) > 0);
+		}
+		assertEquals (300, sum);
+		assertEquals (300, checkPartitions(partitions, 4));
+	}
+
+	public void testWriterThreads() throws IOException, ParseException
+	{
+		File dir = File.createTempFile("partition-", "");
+		dir.delete();
+		dir.mkdir();
+		try
+		{
+			SubjectPartitioner partitioner = SubjectPartitioner.create(dir, "part", 3, true);
+			partitioner.setWriterThreads(2);
+			// enough data to fill the buffers a few times
+			partitioner.addAll(new NtStream(new ByteArrayInputStream(createData(2000, 10).getBytes())));
+			partitioner.close();
+
+			List<String> partitions = new ArrayList<String>();
+			for (File f : partitioner.getFiles())
+			{
+				assertTrue (f.getName().endsWith(".nt.gz"));
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				GZIPInputStream is = new GZIPInputStream(new FileInputStream(f));
+				byte[] buf = new byte[8192];
+				int len;
+				while ((len = is.read(buf)) > 0) baos.write(buf, 0, len);
+				is.close();
+				partitions.add (baos.toString());
+			}
+			assertEquals (20000, checkPartitions(partitions, 3));
+		}
+		finally
+		{
+			for (File f : dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	public void testWriteError() throws InterruptedException
+	{
+		final List<OutputStream> outputs = new ArrayList<OutputStream>();
+		for (int i = 0; i < 2; ++i)
+		{
+			outputs.add (new OutputStream()
+			{
+				@Override
+				public void write(int b) throws IOException
+				{
+					throw new IOException("Disk full");
+				}
+			});
+		}
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		// run on another thread, so that the test fails instead of hanging if the writer stops draining
+		Thread t = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				SubjectPartitioner partitioner = new SubjectPartitioner(outputs);
+				partitioner.setWriterThreads(1);
+				try
+				{
+					partitioner.addAll(new NtStream(new ByteArrayInputStream(createData(2000, 20).getBytes())));
+				}
+				catch (Exception ex)
+				{
+					// the error may already be seen while adding
+				}
+				try
+				{
+					partitioner.close();
+				}
+				catch (Throwable ex)
+				{
+					errors.add (ex);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		t.join(10000);
+		assertFalse (t.isAlive());
+		assertEquals (1, errors.size());
+		assertTrue (errors.get(0) instanceof IOException);
+	}
+}
@@ -0,0 +1,124 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestTripleDiff extends TestCase
+{
+	private static final String OLD =
+			"<http://example.com/a> <http://example.com/p> \"1\" .\n" +
+			"<http://example.com/b> <http://example.com/p> \"2\" .\n" +
+			"<http://example.com/a> <http://example.com/p> \"1\" .\n" + // duplicate
+			"<http://example.com/c> <http://example.com/p> <http://example.com/a> .\n";
+
+	private static final String NEW =
+			"<http://example.com/c> <http://example.com/p> <http://example.com/a> .\n" +
+			"<http://example.com/a> <http://example.com/p> \"1\"@en .\n" +
+			"<http://example.com/b> <http://example.com/p> \"2\" .\n" +
+			"<http://example.com/d> <http://example.com/p> \"4\" .\n";
+
+	public void testDiff() throws IOException, ParseException
+	{
+		ByteArrayOutputStream added = new ByteArrayOutputStream();
+		ByteArrayOutputStream removed = new ByteArrayOutputStream();
+
+		TripleDiff diff = new TripleDiff(
+				new NtStream(new ByteArrayInputStream(OLD.getBytes())),
+				new NtStream(new ByteArrayInputStream(NEW.getBytes())));
+		diff.setMaxInMemory(2); // force use of temporary files
+		TripleDiff.Result result = diff.run(new NtWriter(added), new NtWriter(removed));
+
+		assertEquals (2, result.getAdded());
+		assertEquals (1, result.getRemoved());
+		assertEquals (2, result.getUnchanged());
+		assertEquals (
+				"<http://example.com/a> <http://example.com/p> \"1\"@en .\n" +
+				"<http://example.com/d> <http://example.com/p> \"4\" .\n", added.toString());
+		assertEquals ("<http://example.com/a> <http://example.com/p> \"1\" .\n", removed.toString());
+	}
+
+	public void testFailedSort() throws IOException, ParseException
+	{
+		File dir = File.createTempFile("diff-", "");
+		dir.delete();
+		dir.mkdir();
+		try
+		{
+			StringBuilder data = new StringBuilder();
+			for (int i = 0; i < 20000; ++i) data.append ("<http://example.com/s" + i + "> <http://example.com/p> \"" + i + "\" .\n");
+			TripleStream failing = new AbstractTripleStream()
+			{
+				@Override
+				public Statement getNext() throws IOException
+				{
+					throw new IOException("Broken input");
+				}
+			};
+			TripleDiff diff = new TripleDiff(failing, new NtStream(new ByteArrayInputStream(data.toString().getBytes())));
+			diff.setMaxInMemory(100);
+			diff.setTempDir(dir);
+			try
+			{
+				diff.run(null, null);
+				fail ("Expected IOException");
+			}
+			catch (IOException ex)
+			{
+				assertEquals ("Broken input", ex.getMessage());
+			}
+			// the other sort was finished before its runs were removed
+			assertEquals (0, dir.list().length);
+		}
+		finally
+		{
+			for (File f : dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	public void testDiffFiles() throws IOException, ParseException
+	{
+		File dir = File.createTempFile("diff-", "");
+		dir.delete();
+		dir.mkdir();
+		try
+		{
+			File oldFile = new File(dir, "old.nt.gz");
+			File newFile = new File(dir, "new.nt");
+			OutputStream os = new GZIPOutputStream(new FileOutputStream(oldFile));
+			os.write (OLD.getBytes());
+			os.close();
+			os = new FileOutputStream(newFile);
+			os.write (NEW.getBytes());
+			os.close();
+
+			File added = new File(dir, "added.nt.gz");
+			File removed = new File(dir, "removed.nt");
+			TripleDiff.Result result = TripleDiff.diff(oldFile, newFile, added, removed);
+			assertEquals (2, result.getAdded());
+
+			TripleStream ts = new NtStream(new GZIPInputStream(new FileInputStream(added)));
+			assertEquals ("http://example.com/a", ts.getNext().getSubjectUri());
+			assertEquals ("http://example.com/d", ts.getNext().getSubjectUri());
+			assertNull (ts.getNext());
+			assertEquals (1, new NtStream(new FileInputStream(removed)).into(new ArrayList<Statement>()).size());
+		}
+		finally
+		{
+			for (File f : dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+}
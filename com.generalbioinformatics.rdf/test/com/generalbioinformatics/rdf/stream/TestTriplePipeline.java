@@ -0,0 +1,132 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nl.helixsoft.recordstream.Function;
+import nl.helixsoft.recordstream.Predicate;
+
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestTriplePipeline extends TestCase
+{
+	private static TripleStream createSource(int n) throws IOException
+	{
+		StringBuilder doc = new StringBuilder();
+		for (int i = 0; i < n; ++i)
+		{
+			doc.append ("<http://example.com/s" + i + "> <http://example.com/p> \"" + i + "\" .\n");
+		}
+		return new NtStream(new ByteArrayInputStream(doc.toString().getBytes()));
+	}
+
+	private static final Predicate<Statement> EVEN = new Predicate<Statement>()
+	{
+		@Override
+		public boolean accept(Statement st)
+		{
+			return Integer.parseInt(st.getLiteral().toString()) % 2 == 0;
+		}
+	};
+
+	/** duplicates each triple, with a different predicate */
+	private static final Function<Statement, List<Statement>> DOUBLE = new Function<Statement, List<Statement>>()
+	{
+		@Override
+		public List<Statement> apply(Statement st)
+		{
+			Statement copy = new Statement();
+			copy.setSubjectUri(st.getSubjectUri());
+			copy.setPredicateUri("http://example.com/q");
+			copy.setLiteral(st.getLiteral());
+			return Arrays.asList(st, copy);
+		}
+	};
+
+	public void testSequential() throws IOException, ParseException
+	{
+		ByteArrayOutputStream filtered = new ByteArrayOutputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		TriplePipeline pipeline = TriplePipeline.from(createSource(10000))
+				.batchSize(100)
+				.count("input")
+				.filter(EVEN)
+				.tee(filtered)
+				.flatMap(DOUBLE)
+				.map(new InferenceFunctions.ReplacePrefixes("http://example.com/", "http://example.org/"))
+				.count("output")
+				.tee(out);
+
+		assertEquals (10000, pipeline.run());
+		assertEquals (10000, pipeline.getCount("input"));
+		assertEquals (10000, pipeline.getCount("output"));
+
+		String[] lines = out.toString().split("\n");
+		assertEquals (10000, lines.length);
+		assertEquals ("<http://example.org/s0> <http://example.org/p> \"0\" .", lines[0]);
+		assertEquals ("<http://example.org/s0> <http://example.org/q> \"0\" .", lines[1]);
+		assertEquals ("<http://example.org/s2> <http://example.org/p> \"2\" .", lines[2]);
+		assertEquals (5000, filtered.toString().split("\n").length);
+	}
+
+	public void testParallel() throws IOException, ParseException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		TriplePipeline pipeline = TriplePipeline.from(createSource(20000))
+				.batchSize(64)
+				.parallel(4)
+				.filter(EVEN)
+				.flatMap(DOUBLE)
+				.count("output")
+				.tee(out);
+
+		assertEquals (20000, pipeline.run());
+		assertEquals (20000, pipeline.getCount("output"));
+
+		String[] lines = out.toString().split("\n");
+		assertEquals (20000, lines.length);
+		Arrays.sort (lines);
+		assertEquals ("<http://example.com/s0> <http://example.com/p> \"0\" .", lines[0]);
+	}
+
+	public void testError() throws IOException, ParseException
+	{
+		TriplePipeline pipeline = TriplePipeline.from(createSource(1000))
+				.parallel(2)
+				.batchSize(10)
+				.map(new Function<Statement, Statement>()
+				{
+					@Override
+					public Statement apply(Statement st)
+					{
+						if (st.getLiteral().equals("500")) throw new IllegalStateException("Failed on purpose");
+						return st;
+					}
+				})
+				.flatMap(new Function<Statement, List<Statement>>()
+				{
+					@Override
+					public List<Statement> apply(Statement st)
+					{
+						return Collections.emptyList();
+					}
+				});
+		try
+		{
+			pipeline.run();
+			fail ("Expected exception");
+		}
+		catch (IllegalStateException ex)
+		{
+			// expected
+		}
+	}
+}
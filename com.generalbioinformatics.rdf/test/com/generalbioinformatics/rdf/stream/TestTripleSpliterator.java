@@ -0,0 +1,85 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+public class TestTripleSpliterator extends TestCase
+{
+	private static String createDoc(int n)
+	{
+		StringBuilder doc = new StringBuilder();
+		for (int i = 0; i < n; ++i)
+		{
+			doc.append ("<http://example.com/s" + i + "> <http://example.com/p> \"value " + i + "\" .\n");
+		}
+		return doc.toString();
+	}
+
+	public void testStream() throws IOException
+	{
+		NtStream nt = new NtStream(new ByteArrayInputStream(createDoc(10000).getBytes()));
+		List<Statement> result = nt.stream().filter(st -> st.getSubjectUri().endsWith("0")).collect(Collectors.toList());
+		assertEquals (1000, result.size());
+		assertEquals ("http://example.com/s0", result.get(0).getSubjectUri());
+		assertEquals ("http://example.com/s10", result.get(1).getSubjectUri());
+	}
+
+	public void testParallelStream() throws IOException
+	{
+		NtStream nt = new NtStream(new ByteArrayInputStream(createDoc(10000).getBytes()));
+		Set<String> subjects = nt.parallelStream().map(Statement::getSubjectUri).collect(Collectors.toSet());
+		assertEquals (10000, subjects.size());
+	}
+
+	public void testSized() throws IOException
+	{
+		NtStream nt = new NtStream(new ByteArrayInputStream(createDoc(10).getBytes()));
+		Spliterator<Statement> split = new TripleSpliterator(nt, 10);
+		assertTrue (split.hasCharacteristics(Spliterator.SIZED));
+		assertEquals (10, split.estimateSize());
+		Spliterator<Statement> prefix = split.trySplit();
+		assertTrue (prefix.hasCharacteristics(Spliterator.SIZED));
+		assertEquals (10, prefix.estimateSize());
+		assertEquals (0, split.estimateSize());
+
+		assertFalse (new TripleSpliterator(nt).hasCharacteristics(Spliterator.SIZED));
+	}
+
+	public void testFileSpliterator() throws IOException
+	{
+		File f = File.createTempFile("spliterator-", ".nt");
+		try
+		{
+			OutputStream os = new FileOutputStream(f);
+			os.write (createDoc(50000).getBytes());
+			os.close();
+
+			Spliterator<Statement> split = NtFileSpliterator.open(f);
+			assertNotNull (split.trySplit()); // large enough to split
+
+			try (Stream<Statement> stream = NtFileSpliterator.stream(f, true))
+			{
+				Set<String> subjects = stream.map(Statement::getSubjectUri).collect(Collectors.toSet());
+				assertEquals (50000, subjects.size());
+			}
+			try (Stream<Statement> stream = NtFileSpliterator.stream(f, false))
+			{
+				assertEquals ("http://example.com/s49999", stream.reduce((a, b) -> b).get().getSubjectUri());
+			}
+		}
+		finally
+		{
+			f.delete();
+		}
+	}
+}
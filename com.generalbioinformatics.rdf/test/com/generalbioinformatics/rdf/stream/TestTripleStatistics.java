@@ -0,0 +1,67 @@
+package com.generalbioinformatics.rdf.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.generalbioinformatics.rdf.NS;
+import com.generalbioinformatics.rdf.stream.NtStream.ParseException;
+
+import junit.framework.TestCase;
+
+public class TestTripleStatistics extends TestCase
+{
+	public void testHyperLogLog()
+	{
+		HyperLogLog small = new HyperLogLog();
+		for (int i = 0; i < 100; ++i) small.add ("http://example.com/" + (i % 50));
+		assertEquals (50, small.cardinality());
+
+		HyperLogLog large = new HyperLogLog();
+		HyperLogLog other = new HyperLogLog();
+		for (int i = 0; i < 100000; ++i)
+		{
+			large.add ("http://identifiers.org/ncbigene/" + i);
+			other.add ("http://identifiers.org/ncbigene/" + (i + 50000));
+		}
+		assertEquals (100000, large.cardinality(), 3000);
+		large.merge (other);
+		assertEquals (150000, large.cardinality(), 4500);
+	}
+
+	public void testStatistics() throws IOException, ParseException
+	{
+		String doc =
+				"<http://identifiers.org/ncbigene/1> <" + NS.RDF + "type> <http://example.com/Gene> .\n" +
+				"<http://identifiers.org/ncbigene/1> <" + NS.RDFS + "label> \"gene one\"@en .\n" +
+				"<http://identifiers.org/ncbigene/2> <" + NS.RDF + "type> <http://example.com/Gene> .\n" +
+				"<http://identifiers.org/ncbigene/2> <" + NS.RDFS + "label> \"gene two\"@EN .\n" +
+				"<http://identifiers.org/ncbigene/2> <http://example.com/length> \"200\"^^<" + NS.XSD + "int> .\n" +
+				"_:b1 <" + NS.RDF + "type> <http://example.com/Protein> .\n";
+
+		TripleStatistics stats = new TripleStatistics(new NS());
+		assertEquals (6, stats.addAll(new NtStream(new ByteArrayInputStream(doc.getBytes()))));
+
+		assertEquals (6, stats.getTriples());
+		assertEquals (3, stats.getLiterals());
+		assertEquals (3, stats.getDistinctSubjects());
+		assertEquals (5, stats.getDistinctObjects());
+		assertEquals (Long.valueOf(3), stats.getPredicateCounts().get(NS.RDF + "type"));
+		assertEquals (Long.valueOf(2), stats.getClassCounts().get("http://example.com/Gene"));
+		assertEquals (Long.valueOf(2), stats.getLanguageCounts().get("en"));
+		assertEquals (Long.valueOf(1), stats.getDatatypeCounts().get(NS.XSD + "int"));
+		assertEquals (Long.valueOf(5), stats.getNamespaceCounts().get(NS.idNcbigene));
+		assertEquals (Long.valueOf(3), stats.getNamespaceCounts().get(NS.RDF));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		stats.writeVoid(new NtWriter(baos), "http://example.com/dataset");
+		String result = baos.toString();
+		assertTrue (result, result.contains("<http://example.com/dataset> <" + NS.VOID + "triples> \"6\"^^<" + NS.XSD + "long> ."));
+		assertTrue (result, result.contains("<http://example.com/dataset/classPartition/1> <" + NS.VOID + "class> <http://example.com/Gene> ."));
+		assertTrue (result, result.contains("<http://example.com/dataset> <" + NS.VOID + "vocabulary> <" + NS.idNcbigene + "> ."));
+
+		// output must be valid N-Triples
+		TripleStream ts = new NtStream(new ByteArrayInputStream(baos.toByteArray()));
+		while (ts.getNext() != null);
+	}
+}